@@ -3,6 +3,8 @@ package com.collarmc.api.location;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Objects;
 
 public final class Location {
@@ -19,7 +21,27 @@ public final class Location {
     @JsonProperty("dimension")
     public final Dimension dimension;
 
+    /**
+     * Read a location serialized in either the original version 1 format or the compact {@link LocationCodec} format
+     * @param bytes to read
+     * @throws IOException if the bytes could not be read
+     */
     public Location(byte[] bytes) throws IOException {
+        if (bytes.length > 0 && bytes[0] == LocationCodec.VERSION) {
+            LocationCodec codec = new LocationCodec();
+            try {
+                codec.decode(ByteBuffer.wrap(bytes));
+            } catch (RuntimeException e) {
+                throw new IOException("could not read Location", e);
+            }
+            Location location = codec.location();
+            x = location.x;
+            y = location.y;
+            z = location.z;
+            dimension = location.dimension;
+            return;
+        }
+        // Version 1 starts with an int version, so its first byte is always 0
         try (ByteArrayInputStream inputStream = new ByteArrayInputStream(bytes)) {
             try (DataInputStream dataStream = new DataInputStream(inputStream)) {
                 int serializedVersion = dataStream.readInt();
@@ -74,6 +96,10 @@ public final class Location {
         return "[" + x + "," + y + "," + z + "," + dimension + "]";
     }
 
+    /**
+     * Serialize in the version 1 format, which every client can read and which keeps exact coordinates
+     * @return bytes
+     */
     public byte[] serialize() {
         try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
             try (DataOutputStream dataStream = new DataOutputStream(outputStream)) {
@@ -88,5 +114,16 @@ public final class Location {
             throw new IllegalStateException("Could not serialize Location " + this, e);
         }
     }
-}
 
+    /**
+     * Serialize in the compact {@link LocationCodec} format, rounding each coordinate to 1/32 of a block.
+     * Only send this to peers known to read version 2, such as sessions that negotiated compact locations with the
+     * server, older clients can only read {@link #serialize()}.
+     * @return bytes
+     */
+    public byte[] serializeCompact() {
+        byte[] bytes = new byte[LocationCodec.MAX_BYTES];
+        int length = new LocationCodec().encode(this, ByteBuffer.wrap(bytes));
+        return Arrays.copyOf(bytes, length);
+    }
+}
@@ -0,0 +1,192 @@
+package com.collarmc.api.location;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes and decodes the compact version 2 {@link Location} format into caller supplied buffers without allocating.
+ * <p>
+ * Each location is a version byte, a header byte holding the {@link Dimension} ordinal and flags, then the x, y and z
+ * coordinates in {@link #UNITS_PER_BLOCK}ths of a block as zig-zag varints. A codec remembers the last location it
+ * encoded or decoded, so a stream of locations can be sent as deltas against the previous one. Deltas are only safe
+ * when the decoder sees every location the encoder wrote, in order.
+ * <p>
+ * A codec is not thread safe, use one per stream.
+ */
+public final class LocationCodec {
+
+    /** Version written by {@link Location#serializeCompact()} **/
+    public static final byte VERSION = 2;
+    /** Coordinates are rounded to the nearest 1/32 of a block **/
+    public static final int UNITS_PER_BLOCK = 32;
+    /** Largest encoded location, version + header + 3 five byte varints **/
+    public static final int MAX_BYTES = 2 + 3 * 5;
+
+    private static final int DIMENSION_MASK = 0x3F;
+    private static final int DELTA = 0x80;
+    private static final int UNKNOWN = 0x40;
+    private static final Dimension[] DIMENSIONS = Dimension.values();
+
+    private int x;
+    private int y;
+    private int z;
+    private Dimension dimension;
+    private boolean unknown;
+
+    /**
+     * Encode the location in full
+     * @param location to encode
+     * @param buffer to write to
+     * @return bytes written
+     * @throws BufferOverflowException if the buffer has fewer than {@link #MAX_BYTES} remaining
+     */
+    public int encode(Location location, ByteBuffer buffer) {
+        return encode(location, false, buffer);
+    }
+
+    /**
+     * Encode the location as a delta against the last location this codec encoded or decoded, if it has one in the
+     * same dimension, otherwise in full
+     * @param location to encode
+     * @param buffer to write to
+     * @return bytes written
+     * @throws BufferOverflowException if the buffer has fewer than {@link #MAX_BYTES} remaining
+     */
+    public int encodeDelta(Location location, ByteBuffer buffer) {
+        return encode(location, true, buffer);
+    }
+
+    private int encode(Location location, boolean delta, ByteBuffer buffer) {
+        int start = buffer.position();
+        buffer.put(VERSION);
+        if (Location.UNKNOWN.equals(location)) {
+            buffer.put((byte) (UNKNOWN | location.dimension.ordinal()));
+            unknown = true;
+            dimension = null;
+            return buffer.position() - start;
+        }
+        int newX = quantize(location.x);
+        int newY = quantize(location.y);
+        int newZ = quantize(location.z);
+        if (delta && dimension == location.dimension) {
+            buffer.put((byte) (DELTA | location.dimension.ordinal()));
+            writeVarInt(buffer, newX - x);
+            writeVarInt(buffer, newY - y);
+            writeVarInt(buffer, newZ - z);
+        } else {
+            buffer.put((byte) location.dimension.ordinal());
+            writeVarInt(buffer, newX);
+            writeVarInt(buffer, newY);
+            writeVarInt(buffer, newZ);
+        }
+        x = newX;
+        y = newY;
+        z = newZ;
+        dimension = location.dimension;
+        unknown = false;
+        return buffer.position() - start;
+    }
+
+    /**
+     * Decode the next location from the buffer, read it back with {@link #x()}, {@link #y()}, {@link #z()},
+     * {@link #dimension()} or {@link #location()}
+     * @param buffer to read from
+     * @throws IllegalStateException if the buffer does not hold a version 2 location, or holds a delta and this codec
+     * has no previous location in the same dimension
+     */
+    public void decode(ByteBuffer buffer) {
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalStateException("unsupported Location version " + version);
+        }
+        int header = buffer.get() & 0xFF;
+        int ordinal = header & DIMENSION_MASK;
+        Dimension decoded = ordinal < DIMENSIONS.length ? DIMENSIONS[ordinal] : Dimension.UNKNOWN;
+        if ((header & UNKNOWN) != 0) {
+            unknown = true;
+            dimension = null;
+            return;
+        }
+        if ((header & DELTA) != 0) {
+            if (dimension != decoded) {
+                throw new IllegalStateException("delta location in " + decoded + " has no previous location to apply to");
+            }
+            x += readVarInt(buffer);
+            y += readVarInt(buffer);
+            z += readVarInt(buffer);
+        } else {
+            x = readVarInt(buffer);
+            y = readVarInt(buffer);
+            z = readVarInt(buffer);
+        }
+        dimension = decoded;
+        unknown = false;
+    }
+
+    public double x() {
+        return (double) x / UNITS_PER_BLOCK;
+    }
+
+    public double y() {
+        return (double) y / UNITS_PER_BLOCK;
+    }
+
+    public double z() {
+        return (double) z / UNITS_PER_BLOCK;
+    }
+
+    public Dimension dimension() {
+        return unknown ? Location.UNKNOWN.dimension : dimension;
+    }
+
+    /**
+     * @return the last location encoded or decoded
+     * @throws IllegalStateException if there is none
+     */
+    public Location location() {
+        if (unknown) {
+            return Location.UNKNOWN;
+        }
+        if (dimension == null) {
+            throw new IllegalStateException("no location has been encoded or decoded");
+        }
+        return new Location(x(), y(), z(), dimension);
+    }
+
+    /**
+     * Forget the last location, so the next delta is encoded in full
+     */
+    public void reset() {
+        dimension = null;
+        unknown = false;
+    }
+
+    private static int quantize(double coordinate) {
+        double units = Math.rint(coordinate * UNITS_PER_BLOCK);
+        if (!(units >= Integer.MIN_VALUE && units <= Integer.MAX_VALUE)) {
+            throw new IllegalArgumentException("coordinate " + coordinate + " is out of range");
+        }
+        return (int) units;
+    }
+
+    private static void writeVarInt(ByteBuffer buffer, int value) {
+        int zigZag = (value << 1) ^ (value >> 31);
+        while ((zigZag & ~0x7F) != 0) {
+            buffer.put((byte) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        buffer.put((byte) zigZag);
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int zigZag = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = buffer.get();
+            zigZag |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigZag >>> 1) ^ -(zigZag & 1);
+            }
+        }
+        throw new IllegalStateException("malformed varint");
+    }
+}
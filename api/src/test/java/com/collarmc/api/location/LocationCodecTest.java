@@ -0,0 +1,167 @@
+package com.collarmc.api.location;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class LocationCodecTest {
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(LocationCodec.MAX_BYTES * 4);
+
+    @Test
+    public void fullRoundTrip() throws Exception {
+        Location location = new Location(-1234.5, 64.0, 9876.25, Dimension.NETHER);
+        byte[] bytes = location.serializeCompact();
+        Assert.assertEquals(LocationCodec.VERSION, bytes[0]);
+        Assert.assertEquals(location, new Location(bytes));
+
+        LocationCodec decoder = new LocationCodec();
+        decoder.decode(ByteBuffer.wrap(bytes));
+        Assert.assertEquals(-1234.5, decoder.x(), 0);
+        Assert.assertEquals(64.0, decoder.y(), 0);
+        Assert.assertEquals(9876.25, decoder.z(), 0);
+        Assert.assertEquals(Dimension.NETHER, decoder.dimension());
+    }
+
+    @Test
+    public void deltaRoundTrip() {
+        Location first = new Location(-1234.5, 64.0, 9876.25, Dimension.OVERWORLD);
+        Location second = new Location(-1234.25, 64.0, 9876.5, Dimension.OVERWORLD);
+        LocationCodec encoder = new LocationCodec();
+        int full = encoder.encodeDelta(first, buffer);
+        int delta = encoder.encodeDelta(second, buffer);
+        Assert.assertTrue(delta < full);
+        buffer.flip();
+
+        LocationCodec decoder = new LocationCodec();
+        decoder.decode(buffer);
+        Assert.assertEquals(first, decoder.location());
+        decoder.decode(buffer);
+        Assert.assertEquals(second, decoder.location());
+        Assert.assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void unknownRoundTrips() throws Exception {
+        byte[] bytes = Location.UNKNOWN.serializeCompact();
+        Assert.assertEquals(2, bytes.length);
+        Assert.assertEquals(Location.UNKNOWN, new Location(bytes));
+
+        LocationCodec decoder = new LocationCodec();
+        decoder.decode(ByteBuffer.wrap(bytes));
+        Assert.assertEquals(Dimension.UNKNOWN, decoder.dimension());
+        Assert.assertSame(Location.UNKNOWN, decoder.location());
+    }
+
+    @Test
+    public void readsVersionOne() throws Exception {
+        Location location = new Location(-1234.123, 64.0, 9876.987, Dimension.END);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (DataOutputStream dataStream = new DataOutputStream(outputStream)) {
+            dataStream.writeInt(1);
+            dataStream.writeDouble(location.x);
+            dataStream.writeDouble(location.y);
+            dataStream.writeDouble(location.z);
+            dataStream.writeUTF(location.dimension.name());
+        }
+        byte[] bytes = outputStream.toByteArray();
+        Assert.assertEquals(location, new Location(bytes));
+        Assert.assertArrayEquals(bytes, location.serialize());
+    }
+
+    @Test
+    public void deltaWithoutPreviousLocationIsEncodedInFull() {
+        Location location = new Location(10.0, 64.0, 10.0, Dimension.OVERWORLD);
+        new LocationCodec().encodeDelta(location, buffer);
+        buffer.flip();
+        LocationCodec decoder = new LocationCodec();
+        decoder.decode(buffer);
+        Assert.assertEquals(location, decoder.location());
+    }
+
+    @Test
+    public void deltaInAnotherDimensionIsEncodedInFull() {
+        LocationCodec encoder = new LocationCodec();
+        encoder.encodeDelta(new Location(10.0, 64.0, 10.0, Dimension.OVERWORLD), buffer);
+        int start = buffer.position();
+        Location nether = new Location(1.25, 64.0, 1.25, Dimension.NETHER);
+        encoder.encodeDelta(nether, buffer);
+        buffer.flip().position(start);
+        // A fresh decoder can read it, so it was not written as a delta
+        LocationCodec decoder = new LocationCodec();
+        decoder.decode(buffer);
+        Assert.assertEquals(nether, decoder.location());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void decodingDeltaWithoutPreviousLocationFails() {
+        LocationCodec encoder = new LocationCodec();
+        encoder.encodeDelta(new Location(10.0, 64.0, 10.0, Dimension.OVERWORLD), buffer);
+        int start = buffer.position();
+        encoder.encodeDelta(new Location(11.0, 64.0, 10.0, Dimension.OVERWORLD), buffer);
+        buffer.flip().position(start);
+        new LocationCodec().decode(buffer);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void decodingDeltaInAnotherDimensionFails() {
+        LocationCodec encoder = new LocationCodec();
+        encoder.encodeDelta(new Location(10.0, 64.0, 10.0, Dimension.OVERWORLD), buffer);
+        int start = buffer.position();
+        encoder.encodeDelta(new Location(11.0, 64.0, 10.0, Dimension.OVERWORLD), buffer);
+        buffer.flip().position(start);
+        LocationCodec decoder = new LocationCodec();
+        decoder.decode(ByteBuffer.wrap(new Location(10.0, 64.0, 10.0, Dimension.NETHER).serializeCompact()));
+        decoder.decode(buffer);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void locationBeforeDecodingFails() {
+        new LocationCodec().location();
+    }
+
+    @Test
+    public void coordinatesAreRoundedToNearestUnit() throws Exception {
+        double unit = 1d / LocationCodec.UNITS_PER_BLOCK;
+        Assert.assertEquals(-5.0, roundTrip(-5.0 - unit / 4).x, 0);
+        Assert.assertEquals(-5.0 - unit, roundTrip(-5.0 - unit * 3 / 4).x, 0);
+        Assert.assertEquals(-30_000_000.0, roundTrip(-30_000_000.0).x, 0);
+        // Halfway between two units rounds to the even one, in either direction
+        Assert.assertEquals(0.0, roundTrip(unit / 2).x, 0);
+        Assert.assertEquals(2 * unit, roundTrip(unit * 3 / 2).x, 0);
+        Assert.assertEquals(0.0, roundTrip(-unit / 2).x, 0);
+        Assert.assertEquals(-2 * unit, roundTrip(-unit * 3 / 2).x, 0);
+    }
+
+    @Test
+    public void largestCoordinatesRoundTrip() throws Exception {
+        double max = (double) Integer.MAX_VALUE / LocationCodec.UNITS_PER_BLOCK;
+        double min = (double) Integer.MIN_VALUE / LocationCodec.UNITS_PER_BLOCK;
+        Assert.assertEquals(max, roundTrip(max).x, 0);
+        Assert.assertEquals(min, roundTrip(min).x, 0);
+        Assert.assertEquals(LocationCodec.MAX_BYTES, new Location(min, min, min, Dimension.OVERWORLD).serializeCompact().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void outOfRangeCoordinatesFail() {
+        new Location(0d, 64d, (double) Integer.MAX_VALUE / LocationCodec.UNITS_PER_BLOCK + 1, Dimension.OVERWORLD).serializeCompact();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nanCoordinatesFail() {
+        new Location(Double.NaN, 64d, 0d, Dimension.OVERWORLD).serializeCompact();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void infiniteCoordinatesFail() {
+        new Location(Double.NEGATIVE_INFINITY, 64d, 0d, Dimension.OVERWORLD).serializeCompact();
+    }
+
+    private static Location roundTrip(double x) throws IOException {
+        return new Location(new Location(x, 64d, 0d, Dimension.OVERWORLD).serializeCompact());
+    }
+}
@@ -0,0 +1,84 @@
+package com.collarmc.api.location;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes and deserializes the location every client sends to its groups several times a second.
+ * Run with {@code java -jar benchmarks/target/benchmarks.jar LocationBenchmark}, see {@link com.collarmc.benchmarks.Benchmarks}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocationBenchmark {
+
+    Location location;
+    Location moved;
+    byte[] bytes;
+    byte[] compactBytes;
+    final ByteBuffer buffer = ByteBuffer.allocate(LocationCodec.MAX_BYTES);
+    final LocationCodec encoder = new LocationCodec();
+    final LocationCodec decoder = new LocationCodec();
+
+    @Setup
+    public void setup() {
+        location = new Location(-1234.5, 64.0, 9876.25, Dimension.OVERWORLD);
+        moved = new Location(-1234.25, 64.0, 9876.5, Dimension.OVERWORLD);
+        bytes = location.serialize();
+        compactBytes = location.serializeCompact();
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return location.serialize();
+    }
+
+    @Benchmark
+    public byte[] serializeCompact() {
+        return location.serializeCompact();
+    }
+
+    @Benchmark
+    public Location deserialize() throws Exception {
+        return new Location(bytes);
+    }
+
+    @Benchmark
+    public Location deserializeCompact() throws Exception {
+        return new Location(compactBytes);
+    }
+
+    @Benchmark
+    public double encodeDecode() {
+        buffer.clear();
+        encoder.encode(location, buffer);
+        buffer.flip();
+        decoder.decode(buffer);
+        return decoder.x();
+    }
+
+    @Benchmark
+    public double encodeDecodeDelta() {
+        buffer.clear();
+        encoder.encodeDelta(location, buffer);
+        encoder.encodeDelta(moved, buffer);
+        buffer.flip();
+        decoder.decode(buffer);
+        decoder.decode(buffer);
+        return decoder.x();
+    }
+}
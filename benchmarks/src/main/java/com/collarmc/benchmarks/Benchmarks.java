@@ -0,0 +1,35 @@
+package com.collarmc.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the allocation profiler and writes JSON results that can be diffed between releases.
+ * Takes the usual JMH arguments, so a regex selects which benchmarks to run and {@code -rff} changes where results go.
+ * <pre>
+ * mvn -o -pl benchmarks -am verify -Pbenchmarks
+ * java -jar benchmarks/target/benchmarks.jar GroupSessionBenchmark -p members=500
+ * </pre>
+ */
+public final class Benchmarks {
+
+    private static final String RESULTS_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class);
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            options.result(RESULTS_FILE);
+        }
+        new Runner(options.build()).run();
+    }
+
+    private Benchmarks() {}
+}
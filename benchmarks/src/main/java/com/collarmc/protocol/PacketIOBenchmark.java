@@ -0,0 +1,98 @@
+package com.collarmc.protocol;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.api.identity.ServerIdentity;
+import com.collarmc.api.minecraft.MinecraftPlayer;
+import com.collarmc.api.security.TokenGenerator;
+import com.collarmc.api.session.Player;
+import com.collarmc.protocol.location.LocationUpdatedResponse;
+import com.collarmc.security.CollarIdentity;
+import com.collarmc.security.KeyPair;
+import com.collarmc.security.sodium.SessionCipher;
+import com.collarmc.security.sodium.SharedKeyCache;
+import com.collarmc.security.sodium.Sodium;
+import com.collarmc.security.sodium.SodiumCipher;
+import com.collarmc.utils.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes a location update sent from the server to a client, in plain, sealed and session packets.
+ * Run with {@code java -jar benchmarks/target/benchmarks.jar PacketIOBenchmark}, see {@link com.collarmc.benchmarks.Benchmarks}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PacketIOBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    int size;
+
+    @Param({"plain", "sealed", "session"})
+    String mode;
+
+    PacketIO serverPackets;
+    PacketIO clientPackets;
+    ServerIdentity serverIdentity;
+    ClientIdentity clientIdentity;
+    SessionCipher serverSession;
+    SessionCipher clientSession;
+    LocationUpdatedResponse response;
+    byte[] packet;
+
+    @Setup
+    public void setup() throws Exception {
+        Sodium sodium = Sodium.create();
+        CollarIdentity server = CollarIdentity.createServerIdentity(sodium);
+        serverIdentity = new ServerIdentity(server.id, server.publicKey());
+        CollarIdentity client = CollarIdentity.createClientIdentity(UUID.randomUUID(), serverIdentity, sodium);
+        clientIdentity = new ClientIdentity(client.id, client.publicKey());
+        serverPackets = new PacketIO(Utils.messagePackMapper(), new SodiumCipher(sodium, server.keyPair));
+        clientPackets = new PacketIO(Utils.messagePackMapper(), new SodiumCipher(sodium, client.keyPair));
+
+        KeyPair serverEphemeral = sodium.generateSessionKeyPair();
+        KeyPair clientEphemeral = sodium.generateSessionKeyPair();
+        serverSession = SessionCipher.server(sodium, new SharedKeyCache(sodium, server.keyPair, 1).sharedKey(client.publicKey()), serverEphemeral, clientEphemeral.getPublicKey().getAsBytes());
+        clientSession = SessionCipher.client(sodium, new SharedKeyCache(sodium, client.keyPair, 1).sharedKey(server.publicKey()), clientEphemeral, serverEphemeral.getPublicKey().getAsBytes());
+
+        Player player = new Player(clientIdentity, new MinecraftPlayer(UUID.randomUUID(), "mc.example.com", 42));
+        response = new LocationUpdatedResponse(UUID.randomUUID(), player, TokenGenerator.byteToken(size));
+        packet = encode();
+    }
+
+    @Benchmark
+    public byte[] encode() throws Exception {
+        switch (mode) {
+            case "plain":
+                return serverPackets.encodePlain(response);
+            case "sealed":
+                return serverPackets.encodeEncrypted(clientIdentity, response);
+            case "session":
+                return serverPackets.encodeSession(serverSession, response);
+            default:
+                throw new IllegalStateException("unknown mode " + mode);
+        }
+    }
+
+    @Benchmark
+    public Object decode() throws Exception {
+        SessionCipher session = "session".equals(mode) ? clientSession : null;
+        return clientPackets.decode(serverIdentity, session, ByteBuffer.wrap(packet), ProtocolResponse.class).orElseThrow();
+    }
+}
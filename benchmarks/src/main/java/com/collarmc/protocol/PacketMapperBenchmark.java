@@ -0,0 +1,96 @@
+package com.collarmc.protocol;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.api.minecraft.MinecraftPlayer;
+import com.collarmc.api.security.PublicKey;
+import com.collarmc.api.session.Player;
+import com.collarmc.io.ByteBufferOutputStream;
+import com.collarmc.protocol.keepalive.KeepAliveRequest;
+import com.collarmc.protocol.location.LocationUpdatedResponse;
+import com.collarmc.protocol.location.UpdateLocationRequest;
+import com.collarmc.utils.Utils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding and decoding common packets with the shared {@link ObjectMapper} and with {@link PacketMapper}.
+ * Run with {@code java -jar benchmarks/target/benchmarks.jar PacketMapperBenchmark}, see {@link com.collarmc.benchmarks.Benchmarks}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PacketMapperBenchmark {
+
+    @Param({"keepAlive", "updateLocation", "locationUpdated"})
+    String packet;
+
+    ObjectMapper objectMapper;
+    PacketMapper packetMapper;
+    Object message;
+    Class<?> type;
+    byte[] bytes;
+    ByteBufferOutputStream buffer;
+
+    @Setup
+    public void setup() throws Exception {
+        objectMapper = Utils.messagePackMapper();
+        packetMapper = new PacketMapper(objectMapper);
+        switch (packet) {
+            case "keepAlive":
+                message = new KeepAliveRequest();
+                break;
+            case "updateLocation":
+                message = new UpdateLocationRequest(UUID.randomUUID(), new byte[64]);
+                break;
+            case "locationUpdated":
+                Player player = new Player(new ClientIdentity(UUID.randomUUID(), new PublicKey(new byte[32])), new MinecraftPlayer(UUID.randomUUID(), "mc.example.com", 42));
+                message = new LocationUpdatedResponse(UUID.randomUUID(), player, new byte[64]);
+                break;
+            default:
+                throw new IllegalStateException("unknown packet " + packet);
+        }
+        type = message instanceof ProtocolRequest ? ProtocolRequest.class : ProtocolResponse.class;
+        bytes = objectMapper.writeValueAsBytes(message);
+        buffer = new ByteBufferOutputStream(1024);
+    }
+
+    @Benchmark
+    public int encodeObjectMapper() throws Exception {
+        buffer.reset();
+        objectMapper.writeValue(buffer, message);
+        return buffer.size();
+    }
+
+    @Benchmark
+    public int encodePacketMapper() throws Exception {
+        buffer.reset();
+        packetMapper.write(buffer, message);
+        return buffer.size();
+    }
+
+    @Benchmark
+    public Object decodeObjectMapper() throws Exception {
+        return objectMapper.readValue(bytes, type);
+    }
+
+    @Benchmark
+    public Object decodePacketMapper() throws Exception {
+        return packetMapper.read(bytes, 0, bytes.length, type);
+    }
+}
@@ -0,0 +1,125 @@
+package com.collarmc.security.messages;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.api.identity.Identity;
+import com.collarmc.api.security.TokenGenerator;
+import com.collarmc.security.CollarIdentity;
+import com.collarmc.security.KeyPair;
+import com.collarmc.security.sodium.SessionCipher;
+import com.collarmc.security.sodium.Sodium;
+import com.collarmc.security.sodium.SodiumCipher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encrypts a message for every member of a group and builds, parses and opens the {@link GroupMessageEnvelope}.
+ * Run with {@code java -jar benchmarks/target/benchmarks.jar GroupSessionBenchmark}, see {@link com.collarmc.benchmarks.Benchmarks}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupSessionBenchmark {
+
+    @Param({"2", "10", "50", "100", "500"})
+    int members;
+
+    @Param({"64", "1024"})
+    int size;
+
+    GroupSession senderSession;
+    GroupSession recipientSession;
+    ClientIdentity sender;
+    ClientIdentity recipient;
+    GroupMessageEnvelope envelope;
+    byte[] message;
+    byte[] envelopeBytes;
+
+    @Setup
+    public void setup() throws Exception {
+        Sodium sodium = Sodium.create();
+        CollarIdentity server = CollarIdentity.createServerIdentity(sodium);
+        UUID group = UUID.randomUUID();
+        Set<ClientIdentity> recipients = new HashSet<>();
+        CollarIdentity senderIdentity = null;
+        CollarIdentity recipientIdentity = null;
+        for (int i = 0; i < members; i++) {
+            CollarIdentity member = CollarIdentity.createClientIdentity(UUID.randomUUID(), server.serverIdentity, sodium);
+            recipients.add(new ClientIdentity(member.id, member.publicKey()));
+            if (i == 0) {
+                senderIdentity = member;
+            } else if (i == 1) {
+                recipientIdentity = member;
+            }
+        }
+        sender = new ClientIdentity(senderIdentity.id, senderIdentity.publicKey());
+        recipient = new ClientIdentity(recipientIdentity.id, recipientIdentity.publicKey());
+        senderSession = new GroupSession(group, new Store(sodium, senderIdentity), senderIdentity, recipients);
+        recipientSession = new GroupSession(group, new Store(sodium, recipientIdentity), recipientIdentity, recipients);
+        message = TokenGenerator.byteToken(size);
+        envelopeBytes = senderSession.encrypt(message);
+        envelope = new GroupMessageEnvelope(envelopeBytes);
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws Exception {
+        return senderSession.encrypt(message);
+    }
+
+    @Benchmark
+    public byte[] serializeEnvelope() {
+        return envelope.serialize();
+    }
+
+    @Benchmark
+    public GroupMessageEnvelope parseEnvelope() {
+        return new GroupMessageEnvelope(envelopeBytes);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Exception {
+        GroupMessage groupMessage = new GroupMessageEnvelope(envelopeBytes).messages.get(recipient.id());
+        return recipientSession.decrypt(groupMessage.contents, sender);
+    }
+
+    private static final class Store implements IdentityStore<ClientIdentity> {
+        private final Sodium sodium;
+        private final CollarIdentity identity;
+
+        Store(Sodium sodium, CollarIdentity identity) {
+            this.sodium = sodium;
+            this.identity = identity;
+        }
+
+        @Override
+        public ClientIdentity identity() {
+            return new ClientIdentity(identity.id, identity.publicKey());
+        }
+
+        @Override
+        public Cipher cipher() {
+            return new SodiumCipher(sodium, identity.keyPair);
+        }
+
+        @Override
+        public SessionCipher sessionCipher(Identity peer, KeyPair ephemeral, byte[] peerEphemeralKey) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.collarmc.security.sodium;
+
+import com.collarmc.api.security.TokenGenerator;
+import com.collarmc.security.CollarIdentity;
+import com.collarmc.security.KeyPair;
+import com.collarmc.security.messages.Cipher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the sealed and signed {@link SodiumCipher}, the shared key {@link BoxCipher} and the symmetric
+ * {@link SessionCipher} encrypting a message for a peer.
+ * Run with {@code java -jar benchmarks/target/benchmarks.jar CipherBenchmark}, see {@link com.collarmc.benchmarks.Benchmarks}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CipherBenchmark {
+
+    private static final byte[] ADDITIONAL_DATA = new byte[12];
+
+    @Param({"64", "1024", "16384"})
+    int size;
+
+    CollarIdentity bob;
+    CollarIdentity alice;
+    Cipher bobSodium;
+    Cipher aliceSodium;
+    Cipher bobBox;
+    Cipher aliceBox;
+    SessionCipher bobSession;
+    SessionCipher aliceSession;
+    byte[] message;
+    byte[] sodiumCipherText;
+    byte[] boxCipherText;
+    byte[] sessionCipherText;
+
+    @Setup
+    public void setup() throws Exception {
+        Sodium sodium = Sodium.create();
+        CollarIdentity server = CollarIdentity.createServerIdentity(sodium);
+        bob = CollarIdentity.createClientIdentity(UUID.randomUUID(), server.serverIdentity, sodium);
+        alice = CollarIdentity.createClientIdentity(UUID.randomUUID(), server.serverIdentity, sodium);
+        bobSodium = new SodiumCipher(sodium, bob.keyPair);
+        aliceSodium = new SodiumCipher(sodium, alice.keyPair);
+        bobBox = new BoxCipher(sodium, bob.keyPair, new SharedKeyCache(sodium, bob.keyPair, 1));
+        aliceBox = new BoxCipher(sodium, alice.keyPair, new SharedKeyCache(sodium, alice.keyPair, 1));
+        KeyPair bobEphemeral = sodium.generateSessionKeyPair();
+        KeyPair aliceEphemeral = sodium.generateSessionKeyPair();
+        bobSession = SessionCipher.client(sodium, new SharedKeyCache(sodium, bob.keyPair, 1).sharedKey(alice.publicKey()), bobEphemeral, aliceEphemeral.getPublicKey().getAsBytes());
+        aliceSession = SessionCipher.server(sodium, new SharedKeyCache(sodium, alice.keyPair, 1).sharedKey(bob.publicKey()), aliceEphemeral, bobEphemeral.getPublicKey().getAsBytes());
+
+        message = TokenGenerator.byteToken(size);
+        sodiumCipherText = bobSodium.encrypt(message, alice.publicKey());
+        boxCipherText = bobBox.encrypt(message, alice.publicKey());
+        sessionCipherText = bobSession.encrypt(message, ADDITIONAL_DATA);
+    }
+
+    @Benchmark
+    public byte[] sodiumEncrypt() throws Exception {
+        return bobSodium.encrypt(message, alice.publicKey());
+    }
+
+    @Benchmark
+    public byte[] sodiumDecrypt() throws Exception {
+        return aliceSodium.decrypt(sodiumCipherText, bob.publicKey());
+    }
+
+    @Benchmark
+    public byte[] boxEncrypt() throws Exception {
+        return bobBox.encrypt(message, alice.publicKey());
+    }
+
+    @Benchmark
+    public byte[] boxDecrypt() throws Exception {
+        return aliceBox.decrypt(boxCipherText, bob.publicKey());
+    }
+
+    @Benchmark
+    public byte[] sessionEncrypt() throws Exception {
+        return bobSession.encrypt(message, ADDITIONAL_DATA);
+    }
+
+    @Benchmark
+    public byte[] sessionDecrypt() throws Exception {
+        return aliceSession.decrypt(sessionCipherText, ADDITIONAL_DATA);
+    }
+}
@@ -0,0 +1,98 @@
+package com.collarmc.security.sodium;
+
+import com.collarmc.api.security.TokenGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares interface mapped, direct mapped and direct buffer calls to libsodium.
+ * Run with {@code java -jar benchmarks/target/benchmarks.jar SodiumBenchmark}, see {@link com.collarmc.benchmarks.Benchmarks}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SodiumBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    int size;
+
+    Sodium interfaceMapped;
+    Sodium directMapped;
+    byte[] message;
+    byte[] cipher;
+    byte[] additionalData;
+    byte[] nonce;
+    byte[] key;
+    byte[] signed;
+    byte[] secretKey;
+    ByteBuffer messageBuffer;
+    ByteBuffer cipherBuffer;
+    ByteBuffer additionalDataBuffer;
+    ByteBuffer nonceBuffer;
+    ByteBuffer keyBuffer;
+
+    @Setup
+    public void setup() throws Exception {
+        directMapped = Sodium.create();
+        interfaceMapped = new Sodium(Sodium.interfaceMapped());
+        message = TokenGenerator.byteToken(size);
+        cipher = new byte[size + Sodium.Aead.XCHACHA20POLY1305_IETF_ABYTES];
+        additionalData = TokenGenerator.byteToken(12);
+        nonce = directMapped.randomBytesBuf(Sodium.Aead.XCHACHA20POLY1305_IETF_NPUBBYTES);
+        key = directMapped.randomBytesBuf(Sodium.Aead.XCHACHA20POLY1305_IETF_KEYBYTES);
+        signed = new byte[size + Sodium.Sign.BYTES];
+        secretKey = new byte[Sodium.Sign.SECRETKEYBYTES];
+        System.arraycopy(directMapped.randomBytesBuf(Sodium.Sign.SECRETKEYBYTES), 0, secretKey, 0, secretKey.length);
+        messageBuffer = direct(message);
+        cipherBuffer = ByteBuffer.allocateDirect(cipher.length);
+        additionalDataBuffer = direct(additionalData);
+        nonceBuffer = direct(nonce);
+        keyBuffer = direct(key);
+    }
+
+    @Benchmark
+    public boolean encryptInterfaceMapped() {
+        return interfaceMapped.cryptoAeadXChaCha20Poly1305Encrypt(cipher, message, message.length, additionalData, nonce, key);
+    }
+
+    @Benchmark
+    public boolean encryptDirectMapped() {
+        return directMapped.cryptoAeadXChaCha20Poly1305Encrypt(cipher, message, message.length, additionalData, nonce, key);
+    }
+
+    @Benchmark
+    public boolean encryptDirectBuffers() {
+        messageBuffer.rewind();
+        cipherBuffer.clear();
+        return directMapped.cryptoAeadXChaCha20Poly1305Encrypt(cipherBuffer, messageBuffer, additionalDataBuffer, nonceBuffer, keyBuffer);
+    }
+
+    @Benchmark
+    public boolean signInterfaceMapped() {
+        return interfaceMapped.cryptoSign(signed, message, message.length, secretKey);
+    }
+
+    @Benchmark
+    public boolean signDirectMapped() {
+        return directMapped.cryptoSign(signed, message, message.length, secretKey);
+    }
+
+    private static ByteBuffer direct(byte[] bytes) {
+        return ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+    }
+}
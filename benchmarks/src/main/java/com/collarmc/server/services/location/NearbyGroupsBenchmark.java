@@ -0,0 +1,71 @@
+package com.collarmc.server.services.location;
+
+import com.collarmc.api.groups.MemberSource;
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.api.minecraft.MinecraftPlayer;
+import com.collarmc.api.session.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updates the nearby entities of one player on a server where every player can see each other.
+ * Run with {@code java -jar benchmarks/target/benchmarks.jar NearbyGroupsBenchmark}, see {@link com.collarmc.benchmarks.Benchmarks}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NearbyGroupsBenchmark {
+
+    @Param({"2", "10", "100", "500"})
+    int players;
+
+    NearbyGroups groups;
+    MemberSource source;
+    Set<String> hashes;
+    Set<String> movedHashes;
+    boolean moved;
+
+    @Setup
+    public void setup() {
+        groups = new NearbyGroups();
+        hashes = new HashSet<>();
+        for (int i = 0; i < players; i++) {
+            hashes.add("player-" + i);
+        }
+        // Walking away from everyone else breaks up every group the player is in
+        movedHashes = Set.of("somewhere-else");
+        for (int i = 0; i < players; i++) {
+            Player player = new Player(new ClientIdentity(UUID.randomUUID(), null), new MinecraftPlayer(UUID.randomUUID(), "mc.example.com", 1));
+            source = new MemberSource(player, null);
+            groups.updateNearbyGroups(source, hashes);
+        }
+    }
+
+    @Benchmark
+    public NearbyGroups.Result unchanged() {
+        return groups.updateNearbyGroups(source, hashes);
+    }
+
+    @Benchmark
+    public NearbyGroups.Result changed() {
+        moved = !moved;
+        return groups.updateNearbyGroups(source, moved ? movedHashes : hashes);
+    }
+}
@@ -0,0 +1,92 @@
+package com.collarmc.server.session;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.api.minecraft.MinecraftPlayer;
+import com.collarmc.api.security.PublicKey;
+import com.collarmc.api.session.Player;
+import com.collarmc.server.junit.TestSessions;
+import com.collarmc.utils.Utils;
+import org.eclipse.jetty.websocket.api.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up sessions the way the per packet paths do, on a server with a growing number of connected sessions.
+ * Run with {@code java -jar benchmarks/target/benchmarks.jar SessionManagerBenchmark}, see {@link com.collarmc.benchmarks.Benchmarks}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionManagerBenchmark {
+
+    @Param({"100", "1000", "10000", "50000"})
+    int sessions;
+
+    SessionManager manager;
+    Session[] connected;
+    ClientIdentity[] identities;
+    UUID[] players;
+    int next;
+
+    @Setup
+    public void setup() {
+        manager = new SessionManager(Utils.messagePackMapper(), null, new OutboundQueues(10, 1024, OutboundPolicy.defaults()));
+        connected = new Session[sessions];
+        identities = new ClientIdentity[sessions];
+        players = new UUID[sessions];
+        for (int i = 0; i < sessions; i++) {
+            connected[i] = TestSessions.closed();
+            identities[i] = new ClientIdentity(UUID.randomUUID(), new PublicKey(new byte[] {(byte) i}));
+            players[i] = UUID.randomUUID();
+            // Spread players across servers as a real deployment would
+            MinecraftPlayer minecraftPlayer = new MinecraftPlayer(players[i], "server-" + (i % 100) + ".example.com", 1);
+            manager.identify(connected[i], identities[i], minecraftPlayer, (identity, player) -> {});
+        }
+    }
+
+    @Benchmark
+    public Optional<Session> sessionByIdentity() {
+        return manager.getSession(identities[next()]);
+    }
+
+    @Benchmark
+    public Optional<ClientIdentity> identityBySession() {
+        return manager.getIdentity(connected[next()]);
+    }
+
+    @Benchmark
+    public Optional<SessionManager.SessionState> sessionByProfile() {
+        return manager.getSessionStateByOwner(identities[next()].id());
+    }
+
+    @Benchmark
+    public Optional<SessionManager.SessionState> sessionByMinecraftPlayer() {
+        return manager.getSessionStateByPlayer(players[next()]);
+    }
+
+    @Benchmark
+    public Optional<Player> playerByIdentity() {
+        return manager.findPlayer(identities[next()]);
+    }
+
+    private int next() {
+        next = next + 1 == sessions ? 0 : next + 1;
+        return next;
+    }
+}
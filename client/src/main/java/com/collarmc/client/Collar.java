@@ -6,6 +6,7 @@ import com.collarmc.api.http.DiscoverResponse;
 import com.collarmc.api.http.HttpException;
 import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.api.identity.ServerIdentity;
+import com.collarmc.api.location.LocationCodec;
 import com.collarmc.api.session.Player;
 import com.collarmc.client.CollarException.ConnectionException;
 import com.collarmc.client.api.AbstractApi;
@@ -27,12 +28,16 @@ import com.collarmc.http.Request;
 import com.collarmc.http.Response;
 import com.collarmc.http.WebSocket;
 import com.collarmc.http.WebSocketListener;
+import com.collarmc.protocol.PacketAssembler;
+import com.collarmc.protocol.PacketCodecs;
 import com.collarmc.protocol.PacketIO;
+import com.collarmc.protocol.PacketMapper;
 import com.collarmc.protocol.ProtocolRequest;
 import com.collarmc.protocol.ProtocolResponse;
 import com.collarmc.protocol.SessionStopReason;
 import com.collarmc.protocol.devices.ClientRegisteredResponse;
 import com.collarmc.protocol.devices.RegisterClientResponse;
+import com.collarmc.protocol.identity.IdentifyRequest;
 import com.collarmc.protocol.identity.IdentifyResponse;
 import com.collarmc.protocol.keepalive.KeepAliveResponse;
 import com.collarmc.protocol.session.SessionFailedResponse;
@@ -41,23 +46,21 @@ import com.collarmc.protocol.session.SessionFailedResponse.PrivateIdentityMismat
 import com.collarmc.protocol.session.SessionFailedResponse.SessionErrorResponse;
 import com.collarmc.protocol.session.StartSessionRequest;
 import com.collarmc.protocol.session.StartSessionResponse;
+import com.collarmc.security.KeyPair;
 import com.collarmc.security.messages.CipherException;
 import com.collarmc.security.messages.CipherException.InvalidCipherSessionException;
+import com.collarmc.security.sodium.SessionCipher;
 import com.collarmc.security.sodium.Sodium;
 import com.collarmc.security.mojang.MinecraftSession;
 import com.collarmc.security.mojang.Mojang;
 import com.collarmc.utils.Utils;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.mikael.urlbuilder.UrlBuilder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
-import java.util.StringJoiner;
+import java.util.*;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
@@ -84,6 +87,9 @@ public final class Collar {
     private final Supplier<ClientIdentityStore> identityStoreSupplier;
     private final Ticks ticks;
     private final ContentCiphers recordCiphers;
+    private volatile List<CollarFeature> serverFeatures = List.of();
+    /** Whether the server relays compact locations to this client, so it can send them too **/
+    private volatile boolean compactLocations;
 
     private Collar(CollarConfiguration configuration) throws IOException, CipherException {
         this.configuration = configuration;
@@ -104,7 +110,9 @@ public final class Collar {
                 groupsApi,
                 sdhtApi,
                 configuration.playerLocation,
-                configuration.entitiesSupplier);
+                configuration.locationPublishing,
+                configuration.entitiesSupplier,
+                () -> compactLocations);
         this.texturesApi = new TexturesApi(this, identityStoreSupplier, sender);
         this.identityApi = new IdentityApi(this, identityStoreSupplier, sender);
         this.messagingApi = new MessagingApi(this, identityStoreSupplier, sender);
@@ -137,7 +145,7 @@ public final class Collar {
     public void connect() {
         try {
             LOGGER.info("Before checkServerCompatibility");
-            checkServerCompatibility(configuration);
+            serverFeatures = checkServerCompatibility(configuration);
             LOGGER.info("After checkServerCompatibility");
             LOGGER.info("Before UrlBuilding" + configuration.collarServerURL);
             String url = UrlBuilder.fromUrl(configuration.collarServerURL).withPath("/api/1/listen").toString();
@@ -275,7 +283,7 @@ public final class Collar {
      * Test that the client version is supported by the server and that the client is configured correctly for its features
      * @param configuration of the client
      */
-    private static void checkServerCompatibility(CollarConfiguration configuration) {
+    private static List<CollarFeature> checkServerCompatibility(CollarConfiguration configuration) {
         LOGGER.info("Before api discover: " + configuration.collarServerURL);
         DiscoverResponse response;
         try {
@@ -308,6 +316,35 @@ public final class Collar {
         findFeature(response, "groups:locations").orElseThrow(() -> new IllegalStateException("Server does not support groups:locations"));
         findFeature(response, "groups:waypoints").orElseThrow(() -> new IllegalStateException("Server does not support groups:waypoints"));
         findFeature(response, "profile:friends").orElseThrow(() -> new IllegalStateException("Server does not support profile:friends"));
+        return response.features;
+    }
+
+    /**
+     * @return optional protocol features supported by both the client and the server
+     */
+    private Set<String> negotiableFeatures() {
+        Set<String> features = new HashSet<>();
+        serverFeatures.stream()
+                .filter(feature -> (PacketIO.FEATURE_BATCHED_RESPONSES.equals(feature.name)
+                                || PacketIO.FEATURE_SESSION_KEYS.equals(feature.name)
+                                || PacketIO.FEATURE_CHUNKED_PACKETS.equals(feature.name))
+                        && Boolean.TRUE.equals(feature.value))
+                .forEach(feature -> features.add(feature.name));
+        // Codecs are only used when the server has exactly the same layouts
+        serverFeatures.stream()
+                .filter(feature -> PacketIO.FEATURE_BINARY_CODECS.equals(feature.name)
+                        && feature.value instanceof Number
+                        && ((Number) feature.value).intValue() == PacketCodecs.VERSION)
+                .forEach(feature -> features.add(feature.name));
+        serverFeatures.stream()
+                .filter(feature -> PacketIO.FEATURE_COMPRESSION.equals(feature.name) && PacketIO.COMPRESSION.equals(feature.value))
+                .forEach(feature -> features.add(feature.name));
+        serverFeatures.stream()
+                .filter(feature -> PacketIO.FEATURE_COMPACT_LOCATIONS.equals(feature.name)
+                        && feature.value instanceof Number
+                        && ((Number) feature.value).intValue() == LocationCodec.VERSION)
+                .forEach(feature -> features.add(feature.name));
+        return features;
     }
 
     private static Optional<CollarFeature> findFeature(DiscoverResponse response, String feature) {
@@ -317,10 +354,17 @@ public final class Collar {
     }
 
     class CollarWebSocket implements WebSocketListener {
-        private final ObjectMapper mapper = Utils.messagePackMapper();
+        private final PacketMapper mapper = new PacketMapper(Utils.messagePackMapper());
         private final Collar collar;
         private KeepAlive keepAlive;
         private volatile ServerIdentity serverIdentity;
+        private KeyPair sessionKeyPair;
+        private volatile SessionCipher sessionCipher;
+        private volatile boolean binaryCodecs;
+        private volatile boolean compression;
+        private volatile boolean chunking;
+        /** Only used by the thread receiving messages **/
+        private final PacketAssembler assembler = new PacketAssembler(PacketIO.MAX_CHUNKED_PACKET_SIZE);
 
         public CollarWebSocket(Collar collar) {
             this.collar = collar;
@@ -343,7 +387,7 @@ public final class Collar {
                 throw new IllegalStateException("could not load identity store");
             }
             // Start protocol
-            sendRequest(webSocket, identityStore.createIdentifyRequest());
+            sendRequest(webSocket, negotiate(identityStore.createIdentifyRequest()));
             // Start the keep alive
             this.keepAlive = new KeepAlive(this, webSocket);
             this.keepAlive.start();
@@ -373,89 +417,107 @@ public final class Collar {
 
         @Override
         public void onMessage(WebSocket webSocket, ByteBuffer messageBuffer) {
-            readResponse(messageBuffer).ifPresent(resp -> {
-                if (resp instanceof IdentifyResponse) {
-                    ServerIdentity storedServerIdentity = identityStore.serverIdentity();
-                    IdentifyResponse response = (IdentifyResponse) resp;
-                    if (response.apiToken != null) {
-                        identityStore.setApiToken(response.apiToken);
-                    }
-                    if (!response.identity.equals(storedServerIdentity)) {
-                        configuration.eventBus.dispatch(new ClientUntrustedEvent(collar, identityStore));
-                        changeState(State.DISCONNECTED);
-                        return;
-                    }
-                    if (!identityStore.verifyIdentityResponse(response)) {
-                        configuration.eventBus.dispatch(new ClientUntrustedEvent(collar, identityStore));
+            Optional<ByteBuffer> packet;
+            try {
+                packet = assembler.accept(messageBuffer);
+            } catch (IOException e) {
+                throw new IllegalStateException("Read error ", e);
+            }
+            // Batched packets carry several responses which are processed in the order they were sent
+            packet.ifPresent(buffer -> readResponses(buffer).forEach(resp -> processResponse(webSocket, resp)));
+        }
+
+        private void processResponse(WebSocket webSocket, ProtocolResponse resp) {
+            if (resp instanceof IdentifyResponse) {
+                ServerIdentity storedServerIdentity = identityStore.serverIdentity();
+                IdentifyResponse response = (IdentifyResponse) resp;
+                if (response.apiToken != null) {
+                    identityStore.setApiToken(response.apiToken);
+                }
+                if (!response.identity.equals(storedServerIdentity)) {
+                    configuration.eventBus.dispatch(new ClientUntrustedEvent(collar, identityStore));
+                    changeState(State.DISCONNECTED);
+                    return;
+                }
+                if (!identityStore.verifyIdentityResponse(response)) {
+                    configuration.eventBus.dispatch(new ClientUntrustedEvent(collar, identityStore));
+                    changeState(State.DISCONNECTED);
+                    return;
+                }
+                if (response.sessionKey != null && sessionKeyPair != null) {
+                    try {
+                        sessionCipher = identityStore.sessionCipher(response.identity, sessionKeyPair, response.sessionKey);
+                    } catch (CipherException e) {
+                        configuration.eventBus.dispatch(new CollarErrorEvent(collar, "Could not derive session keys", e));
                         changeState(State.DISCONNECTED);
                         return;
                     }
-                    MinecraftSession session = configuration.sessionSupplier.get();
-                    String serverId;
-                    if (session.mode == MinecraftSession.Mode.MOJANG) {
-                        Mojang authentication = new Mojang(Http.client());
-                        Optional<Mojang.JoinServerResponse> joinServerResponse = authentication.joinServer(session, response.minecraftServerId, response.minecraftSharedSecret);
-                        if (joinServerResponse.isPresent()) {
-                            serverId = joinServerResponse.get().serverId;
-                        } else {
-                            throw new ConnectionException("Couldn't verify your client session with Mojang");
-                        }
+                }
+                MinecraftSession session = configuration.sessionSupplier.get();
+                String serverId;
+                if (session.mode == MinecraftSession.Mode.MOJANG) {
+                    Mojang authentication = new Mojang(Http.client());
+                    Optional<Mojang.JoinServerResponse> joinServerResponse = authentication.joinServer(session, response.minecraftServerId, response.minecraftSharedSecret);
+                    if (joinServerResponse.isPresent()) {
+                        serverId = joinServerResponse.get().serverId;
                     } else {
-                        serverId = null;
+                        throw new ConnectionException("Couldn't verify your client session with Mojang");
                     }
-                    this.serverIdentity = response.identity;
-                    sendRequest(webSocket, new StartSessionRequest(session, serverId));
-                    keepAlive.stop();
-                    keepAlive.start();
-                } else if (resp instanceof KeepAliveResponse) {
-                    LOGGER.trace("KeepAliveResponse received");
-                } else if (resp instanceof RegisterClientResponse) {
-                    RegisterClientResponse registerClientResponse = (RegisterClientResponse) resp;
-                    LOGGER.info("RegisterDeviceResponse received with registration url " + ((RegisterClientResponse) resp).approvalUrl);
-                    configuration.eventBus.dispatch(new ConfirmClientRegistrationEvent(collar, registerClientResponse.approvalToken, registerClientResponse.approvalUrl));
-                } else if (resp instanceof ClientRegisteredResponse) {
-                    ClientRegisteredResponse response = (ClientRegisteredResponse) resp;
-                    try {
-                        sendRequest(webSocket, identityStore.processClientRegisteredResponse(response));
-                    } catch (CipherException e) {
-                        configuration.eventBus.dispatch(new CollarErrorEvent(collar, "Could not register client", e));
-                        collar.changeState(State.DISCONNECTED);
-                    }
-                } else if (resp instanceof StartSessionResponse) {
-                    LOGGER.info("Session has started");
-                    collar.changeState(State.CONNECTED);
-                } else if (resp instanceof SessionFailedResponse) {
-                    LOGGER.info("SessionFailedResponse received");
-                    if (resp instanceof MojangVerificationFailedResponse) {
-                        MojangVerificationFailedResponse response = (MojangVerificationFailedResponse) resp;
-                        LOGGER.info("SessionFailedResponse with mojang session verification failure");
-                        configuration.eventBus.dispatch(new MinecraftAccountVerificationFailedEvent(collar, response.minecraftSession));
-                    } else if (resp instanceof PrivateIdentityMismatchResponse) {
-                        PrivateIdentityMismatchResponse response = (PrivateIdentityMismatchResponse) resp;
-                        LOGGER.info("SessionFailedResponse with private identity mismatch");
-                        configuration.eventBus.dispatch(new PrivateIdentityMismatchEvent(collar, response.url));
-                    } else if (resp instanceof SessionErrorResponse) {
-                        SessionErrorResponse response = (SessionErrorResponse) resp;
-                        String message = response.reason.message(response.message);
-                        LOGGER.info("SessionFailedResponse Reason: " + message);
-                        if (response.reason != SessionStopReason.NORMAL_CLOSE) {
-                            collar.configuration.eventBus.dispatch(new CollarErrorEvent(collar, response.reason.message(response.message), null));
-                        }
-                    }
-                    collar.changeState(State.DISCONNECTED);
                 } else {
-                    for (AbstractApi api : collar.apis) {
-                        if (api.handleResponse(resp)) {
-                            break;
-                        }
+                    serverId = null;
+                }
+                this.serverIdentity = response.identity;
+                sendRequest(webSocket, new StartSessionRequest(session, serverId));
+                keepAlive.stop();
+                keepAlive.start();
+            } else if (resp instanceof KeepAliveResponse) {
+                LOGGER.trace("KeepAliveResponse received");
+            } else if (resp instanceof RegisterClientResponse) {
+                RegisterClientResponse registerClientResponse = (RegisterClientResponse) resp;
+                LOGGER.info("RegisterDeviceResponse received with registration url " + ((RegisterClientResponse) resp).approvalUrl);
+                configuration.eventBus.dispatch(new ConfirmClientRegistrationEvent(collar, registerClientResponse.approvalToken, registerClientResponse.approvalUrl));
+            } else if (resp instanceof ClientRegisteredResponse) {
+                ClientRegisteredResponse response = (ClientRegisteredResponse) resp;
+                try {
+                    sendRequest(webSocket, negotiate(identityStore.processClientRegisteredResponse(response)));
+                } catch (CipherException e) {
+                    configuration.eventBus.dispatch(new CollarErrorEvent(collar, "Could not register client", e));
+                    collar.changeState(State.DISCONNECTED);
+                }
+            } else if (resp instanceof StartSessionResponse) {
+                LOGGER.info("Session has started");
+                collar.changeState(State.CONNECTED);
+            } else if (resp instanceof SessionFailedResponse) {
+                LOGGER.info("SessionFailedResponse received");
+                if (resp instanceof MojangVerificationFailedResponse) {
+                    MojangVerificationFailedResponse response = (MojangVerificationFailedResponse) resp;
+                    LOGGER.info("SessionFailedResponse with mojang session verification failure");
+                    configuration.eventBus.dispatch(new MinecraftAccountVerificationFailedEvent(collar, response.minecraftSession));
+                } else if (resp instanceof PrivateIdentityMismatchResponse) {
+                    PrivateIdentityMismatchResponse response = (PrivateIdentityMismatchResponse) resp;
+                    LOGGER.info("SessionFailedResponse with private identity mismatch");
+                    configuration.eventBus.dispatch(new PrivateIdentityMismatchEvent(collar, response.url));
+                } else if (resp instanceof SessionErrorResponse) {
+                    SessionErrorResponse response = (SessionErrorResponse) resp;
+                    String message = response.reason.message(response.message);
+                    LOGGER.info("SessionFailedResponse Reason: " + message);
+                    if (response.reason != SessionStopReason.NORMAL_CLOSE) {
+                        collar.configuration.eventBus.dispatch(new CollarErrorEvent(collar, response.reason.message(response.message), null));
+                    }
+                }
+                collar.changeState(State.DISCONNECTED);
+            } else {
+                for (AbstractApi api : collar.apis) {
+                    if (api.handleResponse(resp)) {
+                        break;
                     }
                 }
-            });
+            }
         }
 
-        private Optional<ProtocolResponse> readResponse(ByteBuffer buffer) {
+        private List<ProtocolResponse> readResponses(ByteBuffer buffer) {
             try {
-                return packets().decode(serverIdentity, buffer, ProtocolResponse.class);
+                return packets().decodeAll(serverIdentity, sessionCipher, buffer, ProtocolResponse.class);
             } catch (CipherException e) {
                 throw new IllegalStateException("Could not recover from cipher error", e);
             } catch (IOException e) {
@@ -471,7 +533,8 @@ public final class Collar {
                     if (identityStore == null) {
                         throw new IllegalStateException("identity store should be available by the time the client is " + State.CONNECTED);
                     }
-                    bytes = packets().encodeEncrypted(serverIdentity, req);
+                    SessionCipher sessionCipher = this.sessionCipher;
+                    bytes = sessionCipher != null ? packetIO.encodeSession(sessionCipher, req) : packetIO.encodeEncrypted(serverIdentity, req);
                 } catch (InvalidCipherSessionException e) {
                     collar.configuration.eventBus.dispatch(new ClientUntrustedEvent(collar, identityStore));
                     return;
@@ -485,11 +548,47 @@ public final class Collar {
                     throw new IllegalStateException(e);
                 }
             }
-            webSocket.send(ByteBuffer.wrap(bytes));
+            List<ByteBuffer> frames = PacketIO.frames(bytes);
+            // Chunks of one packet must not be interleaved with the chunks of another
+            synchronized (this) {
+                frames.forEach(webSocket::send);
+            }
+        }
+
+        /**
+         * Request the features the server supports and, if it supports session keys, offer an ephemeral key
+         * @param request to send
+         * @return request to send
+         */
+        private IdentifyRequest negotiate(IdentifyRequest request) {
+            Set<String> features = negotiableFeatures();
+            binaryCodecs = features.contains(PacketIO.FEATURE_BINARY_CODECS);
+            compression = features.contains(PacketIO.FEATURE_COMPRESSION);
+            chunking = features.contains(PacketIO.FEATURE_CHUNKED_PACKETS);
+            collar.compactLocations = features.contains(PacketIO.FEATURE_COMPACT_LOCATIONS);
+            if (request.identity == null || !features.contains(PacketIO.FEATURE_SESSION_KEYS)) {
+                features.remove(PacketIO.FEATURE_SESSION_KEYS);
+                return request.withFeatures(features);
+            }
+            try {
+                sessionKeyPair = collar.sodium.generateSessionKeyPair();
+            } catch (CipherException e) {
+                LOGGER.error("Could not generate session keys", e);
+                features.remove(PacketIO.FEATURE_SESSION_KEYS);
+                return request.withFeatures(features);
+            }
+            return request.withFeatures(features).withSessionKey(sessionKeyPair.getPublicKey().getAsBytes());
         }
 
         private PacketIO packets() {
-            return identityStore.isValid() ? new PacketIO(mapper, identityStore.cipher()) : new PacketIO(mapper, null);
+            PacketIO packets = identityStore.isValid() ? new PacketIO(mapper, identityStore.cipher()) : new PacketIO(mapper, null);
+            if (binaryCodecs) {
+                packets = packets.withBinaryCodecs();
+            }
+            if (compression) {
+                packets = packets.withCompression();
+            }
+            return chunking ? packets.withChunking() : packets;
         }
     }
 
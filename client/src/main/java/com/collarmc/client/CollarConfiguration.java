@@ -2,6 +2,7 @@ package com.collarmc.client;
 
 import com.collarmc.api.entities.Entity;
 import com.collarmc.api.location.Location;
+import com.collarmc.client.api.location.LocationPublishing;
 import com.collarmc.client.debug.DebugConfiguration;
 import com.collarmc.client.minecraft.Ticks;
 import com.collarmc.pounce.EventBus;
@@ -24,6 +25,7 @@ public final class CollarConfiguration {
     private static final Logger LOGGER = LogManager.getLogger(CollarConfiguration.class.getName());
 
     public final Supplier<Location> playerLocation;
+    public final LocationPublishing locationPublishing;
     public final Supplier<MinecraftSession> sessionSupplier;
     public final Supplier<Set<Entity>> entitiesSupplier;
     public final HomeDirectory homeDirectory;
@@ -34,6 +36,7 @@ public final class CollarConfiguration {
     public final boolean debugMode;
 
     private CollarConfiguration(Supplier<Location> playerLocation,
+                                LocationPublishing locationPublishing,
                                 Supplier<MinecraftSession> sessionSupplier,
                                 Supplier<Set<Entity>> entitiesSupplier,
                                 HomeDirectory homeDirectory,
@@ -42,6 +45,7 @@ public final class CollarConfiguration {
                                 URL collarServerURL,
                                 Ticks ticks) {
         this.playerLocation = playerLocation;
+        this.locationPublishing = locationPublishing;
         this.sessionSupplier = sessionSupplier;
         this.entitiesSupplier = entitiesSupplier;
         this.homeDirectory = homeDirectory;
@@ -54,6 +58,7 @@ public final class CollarConfiguration {
 
     public final static class Builder {
         private Supplier<Location> playerLocation;
+        private LocationPublishing locationPublishing = LocationPublishing.defaults();
         private Supplier<MinecraftSession> sessionSupplier;
         private Supplier<Set<Entity>> entitiesSupplier;
         private File homeDirectory;
@@ -125,6 +130,17 @@ public final class CollarConfiguration {
             return this;
         }
 
+        /**
+         * Control how often the players location is published to groups they share it with.
+         * Defaults to {@link LocationPublishing#defaults()}
+         * @param locationPublishing thresholds
+         * @return builder
+         */
+        public Builder withLocationPublishing(LocationPublishing locationPublishing) {
+            this.locationPublishing = locationPublishing;
+            return this;
+        }
+
         /**
          * Supply the nearby entity list of the player
          * @param entitiesSupplier supplier
@@ -179,6 +195,7 @@ public final class CollarConfiguration {
             Objects.requireNonNull(entitiesSupplier, "Entities supplier not set");
             Objects.requireNonNull(ticks, "Ticks not set");
             Objects.requireNonNull(eventBus, "EventBus not set");
+            Objects.requireNonNull(locationPublishing, "Location publishing not set");
             DebugConfiguration debugging = DebugConfiguration.load(homeDirectory);
             if (debugging.serverUrl.isPresent()) {
                 LOGGER.info("Debug file has specified an alternate collar server url " + collarServerURL + " that will be used instead of " + this.collarServerURL);
@@ -200,6 +217,7 @@ public final class CollarConfiguration {
             LOGGER.log(Level.INFO, "Collar home at " + homeDirectory);
             return new CollarConfiguration(
                     playerPosition,
+                    locationPublishing,
                     sessionSupplier,
                     entitiesSupplier,
                     homeDirectory,
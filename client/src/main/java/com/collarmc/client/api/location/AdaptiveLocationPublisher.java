@@ -0,0 +1,62 @@
+package com.collarmc.client.api.location;
+
+import com.collarmc.api.location.Location;
+
+/**
+ * Decides on each tick whether the players location has changed enough to be worth publishing
+ * @see LocationPublishing
+ */
+public final class AdaptiveLocationPublisher {
+
+    private final LocationPublishing publishing;
+    private final double minDistanceSquared;
+    private Location lastPublished;
+    private long lastPublishedTick;
+
+    public AdaptiveLocationPublisher(LocationPublishing publishing) {
+        this.publishing = publishing;
+        this.minDistanceSquared = publishing.minDistance * publishing.minDistance;
+    }
+
+    /**
+     * @param location of the player this tick
+     * @param tick number
+     * @return whether the location should be published
+     */
+    public synchronized boolean shouldPublish(Location location, long tick) {
+        if (lastPublished == null) {
+            return true;
+        }
+        long ticks = tick - lastPublishedTick;
+        if (ticks < publishing.minIntervalTicks) {
+            return false;
+        }
+        return ticks >= publishing.heartbeatTicks
+                || location.dimension != lastPublished.dimension
+                || distanceSquared(location, lastPublished) >= minDistanceSquared;
+    }
+
+    /**
+     * Record that the location was published
+     * @param location published
+     * @param tick number
+     */
+    public synchronized void published(Location location, long tick) {
+        lastPublished = location;
+        lastPublishedTick = tick;
+    }
+
+    /**
+     * Publish on the next tick, such as when sharing with a new group who have not seen the player yet
+     */
+    public synchronized void reset() {
+        lastPublished = null;
+    }
+
+    private static double distanceSquared(Location a, Location b) {
+        double x = a.x - b.x;
+        double y = a.y - b.y;
+        double z = a.z - b.z;
+        return x * x + y * y + z * z;
+    }
+}
@@ -38,6 +38,7 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -45,15 +46,17 @@ import java.util.stream.Collectors;
 public class LocationApi extends AbstractApi {
 
     private static final Logger LOGGER = LogManager.getLogger(LocationApi.class);
+    /** Private waypoints are requested a page at a time so a long list never has to fit in one packet **/
+    private static final int WAYPOINT_PAGE_SIZE = 100;
 
     private final HashSet<UUID> groupsSharingWith = new HashSet<>();
     private final ConcurrentHashMap<Player, Location> playerLocations = new ConcurrentHashMap<>();
     private final ConcurrentMap<UUID, Waypoint> privateWaypoints = new ConcurrentHashMap<>();
     private final ConcurrentMap<UUID, Map<UUID, Waypoint>> groupWaypoints = new ConcurrentHashMap<>();
-    private final Supplier<Location> locationSupplier;
     private final LocationUpdater updater;
     private final NearbyUpdater nearbyUpdater;
     private final SDHTApi sdhtApi;
+    private final BooleanSupplier compactLocations;
 
     public LocationApi(Collar collar,
                        Supplier<ClientIdentityStore> identityStoreSupplier,
@@ -62,12 +65,14 @@ public class LocationApi extends AbstractApi {
                        GroupsApi groupsApi,
                        SDHTApi sdhtApi,
                        Supplier<Location> locationSupplier,
-                       Supplier<Set<Entity>> entityListSupplier) {
+                       LocationPublishing publishing,
+                       Supplier<Set<Entity>> entityListSupplier,
+                       BooleanSupplier compactLocations) {
         super(collar, identityStoreSupplier, sender);
-        this.locationSupplier = locationSupplier;
-        this.updater = new LocationUpdater(this, ticks);
+        this.updater = new LocationUpdater(this, ticks, locationSupplier, publishing);
         this.nearbyUpdater = new NearbyUpdater(entityListSupplier, this, ticks);
         this.sdhtApi = sdhtApi;
+        this.compactLocations = compactLocations;
     }
 
     /**
@@ -106,7 +111,10 @@ public class LocationApi extends AbstractApi {
         synchronized (this) {
             groupsSharingWith.add(group.id);
             sender.accept(new StartSharingLocationRequest(group.id));
-            if (!updater.isRunning()) {
+            if (updater.isRunning()) {
+                // The new group has not seen the player yet
+                updater.publishNext();
+            } else {
                 updater.start();
             }
         }
@@ -223,22 +231,25 @@ public class LocationApi extends AbstractApi {
         }
     }
 
-    void publishLocation() {
+    void publishLocation(Location location) {
         if (!groupsSharingWith.isEmpty()) {
-            Location location = locationSupplier.get();
             byte[] bytes = location.serialize();
+            // Members on older clients can only read the full location, the server relays whichever each can read
+            byte[] compactBytes = compactLocations.getAsBoolean() ? location.serializeCompact() : null;
             groupsSharingWith.forEach(groupId -> {
                 collar.groups().findGroupById(groupId)
                         .flatMap(group -> identityStore().groupSessions().session(group))
                         .ifPresent(groupSession -> {
                             byte[] encryptedBytes;
+                            byte[] encryptedCompactBytes;
                             try {
                                 encryptedBytes = groupSession.encrypt(bytes);
+                                encryptedCompactBytes = compactBytes == null ? null : groupSession.encrypt(compactBytes);
                             } catch (CipherException e) {
                                 LOGGER.error("Could not share location with group " + groupId, e);
                                 return;
                             }
-                            sender.accept(new UpdateLocationRequest(groupId, encryptedBytes));
+                            sender.accept(new UpdateLocationRequest(groupId, encryptedBytes, encryptedCompactBytes));
                         });
             });
         }
@@ -287,6 +298,9 @@ public class LocationApi extends AbstractApi {
             return true;
         } else if (resp instanceof GetWaypointsResponse) {
             GetWaypointsResponse response = (GetWaypointsResponse) resp;
+            if (response.next != null) {
+                sender.accept(new GetWaypointsRequest(response.next, WAYPOINT_PAGE_SIZE));
+            }
             if (!response.waypoints.isEmpty()) {
                 Map<UUID, Waypoint> waypoints = response.waypoints.stream()
                         .map(encryptedWaypoint -> {
@@ -352,7 +366,7 @@ public class LocationApi extends AbstractApi {
     public void onStateChanged(Collar.State state) {
         if (state == Collar.State.CONNECTED) {
             nearbyUpdater.start();
-            sender.accept(new GetWaypointsRequest());
+            sender.accept(new GetWaypointsRequest(null, WAYPOINT_PAGE_SIZE));
         } else if (state == Collar.State.DISCONNECTED) {
             synchronized (this) {
                 updater.stop();
@@ -0,0 +1,49 @@
+package com.collarmc.client.api.location;
+
+/**
+ * Controls how often the players location is published to the groups they are sharing with.
+ * Every publish is encrypted once for each member of each group, so it is only published when the player has moved
+ * far enough, changed dimension or has been still for long enough that other players need to hear from them.
+ */
+public final class LocationPublishing {
+
+    /** Blocks the player must move before their location is published again **/
+    public final double minDistance;
+    /** Fewest ticks between publishes, however fast the player moves **/
+    public final int minIntervalTicks;
+    /** Most ticks between publishes, even if the player has not moved **/
+    public final int heartbeatTicks;
+
+    /**
+     * @param minDistance blocks the player must move before their location is published again
+     * @param minIntervalTicks fewest ticks between publishes
+     * @param heartbeatTicks most ticks between publishes
+     */
+    public LocationPublishing(double minDistance, int minIntervalTicks, int heartbeatTicks) {
+        if (minDistance < 0) {
+            throw new IllegalArgumentException("minDistance must not be negative");
+        }
+        if (minIntervalTicks < 1 || heartbeatTicks < minIntervalTicks) {
+            throw new IllegalArgumentException("minIntervalTicks must be at least 1 and no more than heartbeatTicks");
+        }
+        this.minDistance = minDistance;
+        this.minIntervalTicks = minIntervalTicks;
+        this.heartbeatTicks = heartbeatTicks;
+    }
+
+    /**
+     * Publishes up to 4 times a second while moving and every 5 seconds while still
+     * @return default publishing
+     */
+    public static LocationPublishing defaults() {
+        return new LocationPublishing(0.5, 5, 100);
+    }
+
+    /**
+     * Publishes every 10 ticks whether or not the player has moved
+     * @return fixed rate publishing
+     */
+    public static LocationPublishing fixedRate() {
+        return new LocationPublishing(0, 10, 10);
+    }
+}
@@ -1,10 +1,12 @@
 package com.collarmc.client.api.location;
 
+import com.collarmc.api.location.Location;
 import com.collarmc.client.minecraft.Ticks;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 class LocationUpdater implements Ticks.TickListener {
 
@@ -12,11 +14,15 @@ class LocationUpdater implements Ticks.TickListener {
 
     private final LocationApi locationApi;
     private final Ticks ticks;
-    private final AtomicInteger tickCounter = new AtomicInteger();
+    private final Supplier<Location> locationSupplier;
+    private final AdaptiveLocationPublisher publisher;
+    private final AtomicLong tickCounter = new AtomicLong();
 
-    public LocationUpdater(LocationApi locationApi, Ticks ticks) {
+    public LocationUpdater(LocationApi locationApi, Ticks ticks, Supplier<Location> locationSupplier, LocationPublishing publishing) {
         this.locationApi = locationApi;
         this.ticks = ticks;
+        this.locationSupplier = locationSupplier;
+        this.publisher = new AdaptiveLocationPublisher(publishing);
     }
 
     public boolean isRunning() {
@@ -24,6 +30,7 @@ class LocationUpdater implements Ticks.TickListener {
     }
 
     public void start() {
+        publisher.reset();
         ticks.subscribe(this);
         if (locationApi.isSharing()) {
             LOGGER.info("Started sending player location");
@@ -37,11 +44,21 @@ class LocationUpdater implements Ticks.TickListener {
         }
     }
 
+    /**
+     * Publish on the next tick, whether or not the player has moved
+     */
+    public void publishNext() {
+        publisher.reset();
+    }
+
     @Override
     public void onTick() {
-        if (tickCounter.incrementAndGet() % 10 == 0) {
+        long tick = tickCounter.incrementAndGet();
+        Location location = locationSupplier.get();
+        if (publisher.shouldPublish(location, tick)) {
             LOGGER.debug("Location published");
-            locationApi.publishLocation();
+            locationApi.publishLocation(location);
+            publisher.published(location, tick);
         }
     }
 }
@@ -3,6 +3,7 @@ package com.collarmc.client.security;
 import com.collarmc.api.groups.Group;
 import com.collarmc.api.groups.MembershipState;
 import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.api.identity.Identity;
 import com.collarmc.api.identity.ServerIdentity;
 import com.collarmc.client.HomeDirectory;
 import com.collarmc.io.AtomicFile;
@@ -12,8 +13,10 @@ import com.collarmc.protocol.groups.*;
 import com.collarmc.protocol.identity.IdentifyRequest;
 import com.collarmc.protocol.identity.IdentifyResponse;
 import com.collarmc.security.CollarIdentity;
+import com.collarmc.security.KeyPair;
 import com.collarmc.api.security.TokenGenerator;
 import com.collarmc.security.messages.*;
+import com.collarmc.security.sodium.SessionCipher;
 import com.collarmc.security.sodium.Sodium;
 import com.collarmc.security.sodium.SodiumCipher;
 import org.apache.logging.log4j.Level;
@@ -101,6 +104,20 @@ public class ClientIdentityStoreImpl implements ClientIdentityStore {
         return new SodiumCipher(this.sodium, collarIdentity.keyPair);
     }
 
+    @Override
+    public SessionCipher sessionCipher(Identity server, KeyPair ephemeral, byte[] serverEphemeralKey) throws CipherException {
+        // The client only ever talks to one server, so the shared key is not worth caching
+        byte[] serverKey = server.publicKey().key;
+        if (serverKey == null || serverKey.length != Sodium.Box.PUBLICKEYBYTES) {
+            throw new CipherException("Public key must be " + Sodium.Box.PUBLICKEYBYTES + " bytes.");
+        }
+        byte[] identityKey = new byte[Sodium.Box.BEFORENMBYTES];
+        if (!sodium.cryptoBoxBeforeNm(identityKey, serverKey, collarIdentity.keyPair.getSecretKey().getAsBytes())) {
+            throw new CipherException("Could not compute shared key.");
+        }
+        return SessionCipher.client(sodium, identityKey, ephemeral, serverEphemeralKey);
+    }
+
     @Override
     public IdentifyRequest processClientRegisteredResponse(ClientRegisteredResponse response) throws CipherException {
         collarIdentity = CollarIdentity.createClientIdentity(response.profile.id, response.serverIdentity, this.sodium);
@@ -0,0 +1,32 @@
+package com.collarmc.client.api.location;
+
+import com.collarmc.api.location.Dimension;
+import com.collarmc.api.location.Location;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveLocationPublisherTest {
+
+    private final AdaptiveLocationPublisher publisher = new AdaptiveLocationPublisher(LocationPublishing.defaults());
+
+    @Test
+    public void publishesOnlyWhenMovedFarEnough() {
+        Location start = new Location(0d, 64d, 0d, Dimension.OVERWORLD);
+        Assert.assertTrue(publisher.shouldPublish(start, 0));
+        publisher.published(start, 0);
+        Assert.assertFalse(publisher.shouldPublish(new Location(0.1d, 64d, 0d, Dimension.OVERWORLD), 10));
+        Assert.assertTrue(publisher.shouldPublish(new Location(1d, 64d, 0d, Dimension.OVERWORLD), 10));
+        Assert.assertTrue(publisher.shouldPublish(new Location(0d, 64d, 0d, Dimension.NETHER), 10));
+    }
+
+    @Test
+    public void rateIsCappedAndStillPlayersHeartbeat() {
+        Location start = new Location(0d, 64d, 0d, Dimension.OVERWORLD);
+        publisher.published(start, 0);
+        Assert.assertFalse(publisher.shouldPublish(new Location(100d, 64d, 0d, Dimension.OVERWORLD), 4));
+        Assert.assertFalse(publisher.shouldPublish(start, 99));
+        Assert.assertTrue(publisher.shouldPublish(start, 100));
+        publisher.reset();
+        Assert.assertTrue(publisher.shouldPublish(start, 101));
+    }
+}
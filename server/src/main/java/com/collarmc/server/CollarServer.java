@@ -8,6 +8,7 @@ import com.collarmc.api.profiles.Profile;
 import com.collarmc.api.profiles.ProfileService;
 import com.collarmc.api.profiles.ProfileService.UpdateProfileRequest;
 import com.collarmc.api.session.Player;
+import com.collarmc.protocol.PacketAssembler;
 import com.collarmc.protocol.PacketIO;
 import com.collarmc.protocol.ProtocolRequest;
 import com.collarmc.protocol.ProtocolResponse;
@@ -21,13 +22,16 @@ import com.collarmc.protocol.session.SessionFailedResponse.MojangVerificationFai
 import com.collarmc.protocol.session.SessionFailedResponse.PrivateIdentityMismatchResponse;
 import com.collarmc.protocol.session.StartSessionRequest;
 import com.collarmc.protocol.session.StartSessionResponse;
+import com.collarmc.security.KeyPair;
 import com.collarmc.security.messages.CipherException;
+import com.collarmc.security.sodium.SessionCipher;
 import com.collarmc.api.minecraft.MinecraftPlayer;
 import com.collarmc.security.mojang.Mojang;
+import com.collarmc.server.metrics.Histogram;
 import com.collarmc.server.protocol.*;
-import io.github.bucket4j.Bandwidth;
-import io.github.bucket4j.Bucket;
-import io.github.bucket4j.Bucket4j;
+import com.collarmc.server.session.FanOutEncoder;
+import com.collarmc.server.session.SessionExecutor;
+import com.collarmc.server.session.SessionRateLimiter;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -36,28 +40,53 @@ import org.eclipse.jetty.websocket.api.annotations.*;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.time.Duration;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
 
-@WebSocket
+@WebSocket(maxBinaryMessageSize = PacketIO.MAX_PACKET_SIZE)
 public class CollarServer {
     private static final Logger LOGGER = LogManager.getLogger(CollarServer.class.getName());
+    private static final int NEGOTIATED_BINARY_CODECS = 1;
+    private static final int NEGOTIATED_COMPRESSION = 2;
+    private static final int NEGOTIATED_CHUNKED_PACKETS = 4;
+    /** How long a websocket thread waits for room in a full session worker, holding back further reads meanwhile **/
+    private static final Duration STRIPE_FULL_WAIT = Duration.ofMillis(250);
 
     private final List<ProtocolHandler> protocolHandlers;
+    private final ProtocolRegistry registry;
     private final BiConsumer<ClientIdentity, Player> sessionStarted;
     private final BiConsumer<ClientIdentity, Player> sessionStopped;
-    private final ConcurrentMap<Session, Bucket> buckets = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Session, SessionRateLimiter> rateLimiters = new ConcurrentHashMap<>();
+    /** Only used by the session's worker **/
+    private final ConcurrentMap<Session, PacketAssembler> assemblers = new ConcurrentHashMap<>();
     private final Services services;
+    /** Indexed by {@link #negotiated(Session)}, so sessions share the packet io for the features they negotiated **/
+    private final PacketIO[] negotiatedPackets = new PacketIO[8];
+    private final LongAdder bytesReceived;
+    private final LongAdder bytesSent;
+    private final Histogram decodeTime;
+    private final Histogram encodeTime;
 
     public CollarServer(Services services) {
         this.services = services;
+        for (int negotiated = 0; negotiated < negotiatedPackets.length; negotiated++) {
+            PacketIO packets = services.packets;
+            if ((negotiated & NEGOTIATED_BINARY_CODECS) != 0) {
+                packets = packets.withBinaryCodecs();
+            }
+            if ((negotiated & NEGOTIATED_COMPRESSION) != 0) {
+                packets = packets.withCompression();
+            }
+            if ((negotiated & NEGOTIATED_CHUNKED_PACKETS) != 0) {
+                packets = packets.withChunking();
+            }
+            negotiatedPackets[negotiated] = packets;
+        }
         this.protocolHandlers = new ArrayList<>();
         this.sessionStarted = (identity, player) -> protocolHandlers.forEach(protocolHandler -> protocolHandler.onSessionStarted(identity, player, this::send));
         this.sessionStopped = (identity, player) -> protocolHandlers.forEach(protocolHandler -> protocolHandler.onSessionStopping(identity, player, this::send));
@@ -69,23 +98,40 @@ public class CollarServer {
         protocolHandlers.add(new MessagingProtocolHandler(services));
         protocolHandlers.add(new SDHTProtocolHandler(services));
         protocolHandlers.add(new FriendsProtocolHandler(services));
+
+        ProtocolRegistry.Builder registry = ProtocolRegistry.builder();
+        protocolHandlers.forEach(protocolHandler -> protocolHandler.register(registry));
+        this.registry = registry.build();
+
+        this.bytesReceived = services.metrics.counter("collar_received_bytes_total", "Bytes received from clients");
+        this.bytesSent = services.metrics.counter("collar_sent_bytes_total", "Bytes queued to send to clients");
+        this.decodeTime = services.metrics.histogram("collar_packet_decode_duration_seconds", "Time taken to decrypt and deserialize packets");
+        this.encodeTime = services.metrics.histogram("collar_packet_encode_duration_seconds", "Time taken to serialize and encrypt packets");
+        services.metrics.register(this.registry::collect);
+        services.playerLocations.flushTo(response -> send(null, response));
     }
 
     @OnWebSocketConnect
     public void connected(Session session) {
         LOGGER.info("New socket connected");
-        buckets.computeIfAbsent(session, theSession -> Bucket4j.builder()
-                .addLimit(Bandwidth.simple(18000, Duration.ofSeconds(3600)))
-                .addLimit(Bandwidth.simple(50, Duration.ofSeconds(1)))
-                .build());
+        rateLimiters.computeIfAbsent(session, theSession -> new SessionRateLimiter(services.rateLimits));
+        assemblers.computeIfAbsent(session, theSession -> new PacketAssembler(PacketIO.MAX_CHUNKED_PACKET_SIZE));
     }
 
     @OnWebSocketClose
     public void closed(Session session, int statusCode, String reason) {
         LOGGER.info("Session closed " + statusCode + " " + reason);
-        services.sessions.stopSession(session, SessionStopReason.NORMAL_CLOSE, null, null, sessionStopped);
-        services.deviceRegistration.onSessionClosed(session);
-        buckets.remove(session);
+        rateLimiters.remove(session);
+        assemblers.remove(session);
+        services.outbound.remove(session);
+        // Stop the session behind any requests it still has queued
+        Runnable stop = () -> {
+            services.sessions.stopSession(session, SessionStopReason.NORMAL_CLOSE, null, null, sessionStopped);
+            services.deviceRegistration.onSessionClosed(session);
+        };
+        if (!services.workers.execute(session, stop)) {
+            stop.run();
+        }
     }
 
     @OnWebSocketError
@@ -94,72 +140,128 @@ public class CollarServer {
         services.sessions.stopSession(session, SessionStopReason.SERVER_ERROR, null, e, sessionStopped);
     }
 
+    /**
+     * Jetty hands over a complete message in an array it has allocated for us. Fragmented messages are aggregated by
+     * Jetty before this is called, up to {@link PacketIO#MAX_PACKET_SIZE}. Larger packets arrive as chunks, which are
+     * put back together before they are read.
+     */
     @OnWebSocketMessage
-    public void message(Session session, InputStream is) {
-        Bucket bucket = buckets.get(session);
-        if (bucket.tryConsume(1)) {
-            processMessage(session, is);
-        } else {
+    public void message(Session session, byte[] payload, int offset, int length) {
+        SessionRateLimiter rateLimiter = rateLimiters.get(session);
+        PacketAssembler assembler = assemblers.get(session);
+        if (rateLimiter == null || assembler == null) {
+            return;
+        }
+        bytesReceived.add(length);
+        if (!rateLimiter.frame()) {
             services.sessions.stopSession(session, SessionStopReason.TOO_MANY_REQUESTS, null, null, sessionStopped);
+            return;
+        }
+        ByteBuffer message = ByteBuffer.wrap(payload, offset, length);
+        // Decoding happens on the worker so that it sees the identity established by the requests queued before it
+        SessionExecutor.Submission submission = services.workers.submit(session, () -> {
+            try {
+                assemble(assembler, message).flatMap(packet -> read(session, packet)).ifPresent(req -> {
+                    // Requests are weighted by how expensive they are to process
+                    SessionRateLimiter.Decision decision = rateLimiter.request(req);
+                    if (decision == SessionRateLimiter.Decision.STOP) {
+                        services.sessions.stopSession(session, SessionStopReason.TOO_MANY_REQUESTS, null, null, sessionStopped);
+                    } else if (decision == SessionRateLimiter.Decision.SHED) {
+                        LOGGER.debug("Shed " + req.getClass().getSimpleName() + " as session sent too many");
+                    } else if (services.admission.admit(req)) {
+                        processRequest(session, req);
+                    } else {
+                        LOGGER.debug("Shed " + req.getClass().getSimpleName() + " as server is overloaded");
+                    }
+                });
+            } catch (Throwable e) {
+                onError(session, e);
+            }
+        }, STRIPE_FULL_WAIT);
+        // The frame was not read, so it cannot be told apart from requests that must not be lost. Location updates are
+        // shed on the worker once decoded, frames are never dropped unread.
+        if (submission == SessionExecutor.Submission.SESSION_FULL) {
+            LOGGER.warn("Session has too many pending requests");
+            assemblers.remove(session);
+            services.sessions.stopSession(session, SessionStopReason.TOO_MANY_REQUESTS, "Too many pending requests", null, sessionStopped);
+        } else if (submission == SessionExecutor.Submission.STRIPE_FULL) {
+            LOGGER.warn("Session worker stayed full for " + STRIPE_FULL_WAIT.toMillis() + "ms");
+            assemblers.remove(session);
+            services.sessions.stopSession(session, SessionStopReason.SERVER_ERROR, "Server is too busy", null, sessionStopped);
         }
     }
 
-    private void processMessage(Session session, InputStream is) {
-        read(session, is).ifPresent(req -> {
-            ServerIdentity serverIdentity = services.identityStore.identity();
-            if (req instanceof KeepAliveRequest) {
-                sendPlain(session, new KeepAliveResponse());
-            } else if (req instanceof IdentifyRequest) {
-                IdentifyRequest request = (IdentifyRequest)req;
-                if (request.identity == null) {
-                    LOGGER.debug("Signaling client to register");
-                    String token = services.deviceRegistration.createClientRegistrationToken(session);
-                    String url = services.urlProvider.deviceVerificationUrl(token);
-                    sendPlain(session, new RegisterClientResponse(url, token));
-                } else {
-                    try {
-                        Profile profile = services.profiles.getProfile(RequestContext.SERVER, ProfileService.GetProfileRequest.byId(request.identity.id())).profile;
-                        LOGGER.debug("Profile found for " + request.identity.id());
-                        byte[] token = processIdentityRequestToken(profile, request);
-                        if (token != null) {
-                            services.sessions.identify(session, request.identity, null, sessionStarted);
-                            byte[] cipherToken = services.identityStore.cipher().encrypt(token, request.identity);
+    private void processRequest(Session session, ProtocolRequest req) {
+        ServerIdentity serverIdentity = services.identityStore.identity();
+        if (req instanceof KeepAliveRequest) {
+            sendPlain(session, new KeepAliveResponse());
+        } else if (req instanceof IdentifyRequest) {
+            IdentifyRequest request = (IdentifyRequest)req;
+            if (request.identity == null) {
+                LOGGER.debug("Signaling client to register");
+                String token = services.deviceRegistration.createClientRegistrationToken(session);
+                String url = services.urlProvider.deviceVerificationUrl(token);
+                sendPlain(session, new RegisterClientResponse(url, token));
+            } else {
+                try {
+                    Profile profile = services.profiles.getProfile(RequestContext.SERVER, ProfileService.GetProfileRequest.byId(request.identity.id())).profile;
+                    LOGGER.debug("Profile found for " + request.identity.id());
+                    byte[] token = processIdentityRequestToken(profile, request);
+                    if (token != null) {
+                        Set<String> features = supportedFeatures(request);
+                        SessionCipher sessionCipher = null;
+                        byte[] sessionKey = null;
+                        if (features.contains(PacketIO.FEATURE_SESSION_KEYS)) {
+                            KeyPair ephemeral = services.sodium.generateSessionKeyPair();
+                            sessionCipher = services.identityStore.sessionCipher(request.identity, ephemeral, request.sessionKey);
+                            sessionKey = ephemeral.getPublicKey().getAsBytes();
+                        }
+                        services.sessions.identify(session, request.identity, null, features, sessionStarted);
+                        byte[] cipherToken = services.identityStore.cipher().encrypt(token, request.identity);
 
-                            String apiToken = services.auth.createToken(profile);
-                            sendPlain(session, new IdentifyResponse(serverIdentity, profile.toPublic(), Mojang.serverPublicKey(), Mojang.generateSharedSecret(), apiToken, cipherToken));
-                        } else {
-                            sendPlain(session, new PrivateIdentityMismatchResponse(services.urlProvider.resetPrivateIdentity()));
+                        String apiToken = services.auth.createToken(profile);
+                        sendPlain(session, new IdentifyResponse(serverIdentity, profile.toPublic(), Mojang.serverPublicKey(), Mojang.generateSharedSecret(), apiToken, cipherToken, sessionKey));
+                        // Switch after the response is queued, as the client needs it to derive the same cipher
+                        if (sessionCipher != null) {
+                            services.sessions.useSessionCipher(session, sessionCipher);
                         }
-                    } catch (CipherException e) {
-                        LOGGER.error("Problem preparing token for identity response", e);
-                        services.sessions.stopSession(session, SessionStopReason.SERVER_ERROR, "Problem preparing Identity response", null, null);
-                    } catch (NotFoundException e) {
-                        LOGGER.error("Profile " + request.identity.id() + " does not exist but the client thinks it should.");
-                        services.sessions.stopSession(session, SessionStopReason.UNAUTHORISED, "Identity " + request.identity.id() + " was not found", null, null);
+                    } else {
+                        sendPlain(session, new PrivateIdentityMismatchResponse(services.urlProvider.resetPrivateIdentity()));
                     }
+                } catch (CipherException e) {
+                    LOGGER.error("Problem preparing token for identity response", e);
+                    services.sessions.stopSession(session, SessionStopReason.SERVER_ERROR, "Problem preparing Identity response", null, null);
+                } catch (NotFoundException e) {
+                    LOGGER.error("Profile " + request.identity.id() + " does not exist but the client thinks it should.");
+                    services.sessions.stopSession(session, SessionStopReason.UNAUTHORISED, "Identity " + request.identity.id() + " was not found", null, null);
                 }
-            } else if (req instanceof StartSessionRequest) {
-                ClientIdentity identity = services.sessions.getIdentity(session).orElseThrow(() -> new IllegalStateException("session must have an identity"));
-                LOGGER.info("Starting session with " + identity);
-                StartSessionRequest request = (StartSessionRequest)req;
-                if (services.minecraftSessionVerifier.verify(request)) {
-                    MinecraftPlayer minecraftPlayer = request.session.toPlayer();
-                    services.sessions.identify(session, identity, minecraftPlayer, sessionStarted);
-                    services.profiles.updateProfile(RequestContext.SERVER, UpdateProfileRequest.addMinecraftAccount(identity.id(), request.session.id));
-                    sendPlain(session, new StartSessionResponse());
-                } else {
-                    sendPlain(session, new MojangVerificationFailedResponse(request.session));
-                    services.sessions.stopSession(session, SessionStopReason.UNAUTHORISED, "Minecraft session invalid", null, sessionStopped);
-                }
+            }
+        } else if (req instanceof StartSessionRequest) {
+            ClientIdentity identity = services.sessions.getIdentity(session).orElseThrow(() -> new IllegalStateException("session must have an identity"));
+            LOGGER.info("Starting session with " + identity);
+            StartSessionRequest request = (StartSessionRequest)req;
+            if (services.minecraftSessionVerifier.verify(request)) {
+                MinecraftPlayer minecraftPlayer = request.session.toPlayer();
+                services.sessions.identify(session, identity, minecraftPlayer, sessionStarted);
+                services.profiles.updateProfile(RequestContext.SERVER, UpdateProfileRequest.addMinecraftAccount(identity.id(), request.session.id));
+                sendPlain(session, new StartSessionResponse());
             } else {
-                ClientIdentity identity = services.sessions.getIdentity(session).orElseThrow(() -> new IllegalStateException("session must have an identity"));
-                for (ProtocolHandler handler : protocolHandlers) {
-                    if (handler.handleRequest(this, identity, req, createSender())) {
-                        break;
-                    }
-                }
+                sendPlain(session, new MojangVerificationFailedResponse(request.session));
+                services.sessions.stopSession(session, SessionStopReason.UNAUTHORISED, "Minecraft session invalid", null, sessionStopped);
             }
-        });
+        } else {
+            ClientIdentity identity = services.sessions.getIdentity(session).orElseThrow(() -> new IllegalStateException("session must have an identity"));
+            if (!registry.dispatch(identity, req, createSender())) {
+                LOGGER.warn("No handler registered for " + req.getClass().getName());
+            }
+        }
+    }
+
+    /**
+     * @return handlers for requests made once a session is identified
+     */
+    public ProtocolRegistry registry() {
+        return registry;
     }
 
     private byte[] processIdentityRequestToken(Profile profile, IdentifyRequest req) {
@@ -194,14 +296,25 @@ public class CollarServer {
         };
     }
 
+    private static Optional<ByteBuffer> assemble(PacketAssembler assembler, ByteBuffer message) {
+        try {
+            return assembler.accept(message);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     @Nonnull
-    public Optional<ProtocolRequest> read(@Nonnull Session session, @Nonnull InputStream message) {
-        PacketIO packetIO = new PacketIO(services.packetMapper, services.identityStore.cipher());
+    public Optional<ProtocolRequest> read(@Nonnull Session session, @Nonnull ByteBuffer message) {
         ClientIdentity identity = services.sessions.getIdentity(session).orElse(null);
+        long start = System.nanoTime();
         try {
-            return packetIO.decode(identity, message, ProtocolRequest.class);
+            SessionCipher sessionCipher = services.sessions.getSessionCipher(session).orElse(null);
+            return services.packets.decode(identity, sessionCipher, message, ProtocolRequest.class);
         } catch (IOException | CipherException e) {
             throw new IllegalStateException(e);
+        } finally {
+            decodeTime.record(System.nanoTime() - start);
         }
     }
 
@@ -210,52 +323,179 @@ public class CollarServer {
             return;
         }
         if (resp instanceof BatchProtocolResponse) {
-            BatchProtocolResponse batchResponse = (BatchProtocolResponse)resp;
-            batchResponse.responses.forEach((response, identity) -> {
+            Map<ClientIdentity, List<ProtocolResponse>> responsesByRecipient = new LinkedHashMap<>();
+            groupByRecipient((BatchProtocolResponse) resp, responsesByRecipient);
+            // Large broadcasts are encrypted on the fan out pool, small ones aren't worth the hand off
+            boolean parallel = services.fanOut.parallel(responsesByRecipient.size());
+            responsesByRecipient.forEach((identity, responses) -> {
                 services.sessions.getSession(identity).ifPresent(anotherSession -> {
-                    send(anotherSession, response);
+                    if (responses.size() > 1 && services.sessions.supports(anotherSession, PacketIO.FEATURE_BATCHED_RESPONSES)) {
+                        sendBatch(anotherSession, identity, responses, parallel);
+                    } else {
+                        responses.forEach(response -> send(anotherSession, response, parallel));
+                    }
                 });
             });
         } else {
-            LOGGER.info("Sending " + resp.getClass().getSimpleName());
-            if (session == null) {
-                throw new IllegalStateException("Session cannot be null");
-            }
-            PacketIO packetIO = new PacketIO(services.packetMapper, services.identityStore.cipher());
-            byte[] bytes;
-            if (services.sessions.isIdentified(session)) {
-                try {
-                    ClientIdentity identity = services.sessions.getIdentity(session).orElseThrow(() -> new IllegalStateException("Could not find identity"));
-                    bytes = packetIO.encodeEncrypted(identity, resp);
-                } catch (IOException | CipherException e) {
-                    throw new IllegalStateException(e);
+            send(session, resp, false);
+        }
+    }
+
+    private void send(Session session, ProtocolResponse resp, boolean parallel) {
+        LOGGER.debug("Sending " + resp.getClass().getSimpleName());
+        if (session == null) {
+            throw new IllegalStateException("Session cannot be null");
+        }
+        if (!session.isOpen()) {
+            return;
+        }
+        FanOutEncoder.Encoder encoder;
+        if (services.sessions.isIdentified(session)) {
+            ClientIdentity identity = services.sessions.getIdentity(session).orElseThrow(() -> new IllegalStateException("Could not find identity"));
+            Optional<SessionCipher> sessionCipher = services.sessions.getSessionCipher(session);
+            PacketIO packets = packets(session);
+            encoder = sessionCipher.isPresent()
+                    ? () -> packets.encodeSession(sessionCipher.get(), resp)
+                    : () -> packets.encodeEncrypted(identity, resp);
+        } else {
+            encoder = () -> services.packets.encodePlain(resp);
+        }
+        sendEncoded(session, resp, encoder, parallel);
+    }
+
+    private void sendBatch(@Nonnull Session session, @Nonnull ClientIdentity identity, @Nonnull List<ProtocolResponse> responses, boolean parallel) {
+        if (!session.isOpen()) {
+            return;
+        }
+        LOGGER.debug("Sending batch of " + responses.size() + " responses");
+        Optional<SessionCipher> sessionCipher = services.sessions.getSessionCipher(session);
+        PacketIO packets = packets(session);
+        FanOutEncoder.Encoder encoder = sessionCipher.isPresent()
+                ? () -> packets.encodeSessionBatch(sessionCipher.get(), responses)
+                : () -> packets.encodeEncryptedBatch(identity, responses);
+        sendEncoded(session, null, encoder, parallel);
+    }
+
+    /**
+     * @param session to write to
+     * @return packet io that writes in the formats the session negotiated
+     */
+    private PacketIO packets(Session session) {
+        return negotiatedPackets[negotiated(session)];
+    }
+
+    private int negotiated(Session session) {
+        int negotiated = 0;
+        if (services.sessions.supports(session, PacketIO.FEATURE_BINARY_CODECS)) {
+            negotiated |= NEGOTIATED_BINARY_CODECS;
+        }
+        if (services.sessions.supports(session, PacketIO.FEATURE_COMPRESSION)) {
+            negotiated |= NEGOTIATED_COMPRESSION;
+        }
+        if (services.sessions.supports(session, PacketIO.FEATURE_CHUNKED_PACKETS)) {
+            negotiated |= NEGOTIATED_CHUNKED_PACKETS;
+        }
+        return negotiated;
+    }
+
+    private void sendEncoded(@Nonnull Session session, ProtocolResponse resp, @Nonnull FanOutEncoder.Encoder encoder, boolean parallel) {
+        if (parallel) {
+            services.fanOut.send(session, resp, timed(encoder)).whenComplete((queued, e) -> {
+                if (e != null) {
+                    // Stop the recipient rather than let it silently miss the packet, as the serial path does by throwing
+                    stopOnWorker(session, SessionStopReason.SERVER_ERROR, e.getCause());
+                } else if (!queued) {
+                    stopOnWorker(session, SessionStopReason.SLOW_CONSUMER, null);
                 }
+            });
+            return;
+        }
+        byte[] bytes;
+        try {
+            bytes = timed(encoder).encode();
+        } catch (IOException | CipherException e) {
+            throw new IllegalStateException(e);
+        }
+        sendBytes(session, resp, bytes);
+    }
+
+    private FanOutEncoder.Encoder timed(FanOutEncoder.Encoder encoder) {
+        return () -> {
+            long start = System.nanoTime();
+            try {
+                byte[] bytes = encoder.encode();
+                bytesSent.add(bytes.length);
+                return bytes;
+            } finally {
+                encodeTime.record(System.nanoTime() - start);
+            }
+        };
+    }
+
+    private static void groupByRecipient(BatchProtocolResponse batch, Map<ClientIdentity, List<ProtocolResponse>> responsesByRecipient) {
+        batch.responses.forEach((response, identity) -> {
+            if (response instanceof BatchProtocolResponse) {
+                groupByRecipient((BatchProtocolResponse) response, responsesByRecipient);
             } else {
-                try {
-                    bytes = packetIO.encodePlain(resp);
-                } catch (IOException e) {
-                    throw new IllegalStateException(e);
-                }
+                responsesByRecipient.computeIfAbsent(identity, theIdentity -> new ArrayList<>()).add(response);
             }
-            sendBytes(session, bytes);
+        });
+    }
+
+    /**
+     * @param request from the client
+     * @return the requested features this server supports
+     */
+    private static Set<String> supportedFeatures(IdentifyRequest request) {
+        Set<String> supported = new HashSet<>();
+        if (request.features.contains(PacketIO.FEATURE_BATCHED_RESPONSES)) {
+            supported.add(PacketIO.FEATURE_BATCHED_RESPONSES);
+        }
+        if (request.features.contains(PacketIO.FEATURE_SESSION_KEYS) && request.sessionKey != null) {
+            supported.add(PacketIO.FEATURE_SESSION_KEYS);
         }
+        if (request.features.contains(PacketIO.FEATURE_BINARY_CODECS)) {
+            supported.add(PacketIO.FEATURE_BINARY_CODECS);
+        }
+        if (request.features.contains(PacketIO.FEATURE_COMPRESSION)) {
+            supported.add(PacketIO.FEATURE_COMPRESSION);
+        }
+        if (request.features.contains(PacketIO.FEATURE_CHUNKED_PACKETS)) {
+            supported.add(PacketIO.FEATURE_CHUNKED_PACKETS);
+        }
+        if (request.features.contains(PacketIO.FEATURE_COMPACT_LOCATIONS)) {
+            supported.add(PacketIO.FEATURE_COMPACT_LOCATIONS);
+        }
+        return supported;
     }
 
     public void sendPlain(@Nonnull Session session, @Nonnull ProtocolResponse resp) {
         if (!session.isOpen()) {
             return;
         }
-        PacketIO packetIO = new PacketIO(services.packetMapper, null);
         byte[] bytes;
         try {
-            bytes = packetIO.encodePlain(resp);
-        } catch (IOException e) {
+            bytes = timed(() -> services.packets.encodePlain(resp)).encode();
+        } catch (IOException | CipherException e) {
             throw new IllegalStateException(e);
         }
-        sendBytes(session, bytes);
+        sendBytes(session, resp, bytes);
     }
 
-    private void sendBytes(@Nonnull Session session, @Nonnull byte[] bytes) {
-        session.getRemote().sendBytesByFuture(ByteBuffer.wrap(bytes));
+    private void sendBytes(@Nonnull Session session, ProtocolResponse resp, @Nonnull byte[] bytes) {
+        if (!services.outbound.send(session, resp, PacketIO.frames(bytes))) {
+            stopOnWorker(session, SessionStopReason.SLOW_CONSUMER, null);
+        }
+    }
+
+    private void stopOnWorker(@Nonnull Session session, SessionStopReason reason, Throwable e) {
+        // Stop the session on its own worker, as we may be sending on behalf of another session
+        Runnable stop = () -> {
+            services.sessions.stopSession(session, reason, null, e, sessionStopped);
+            session.close(reason.code, reason.message(null));
+        };
+        if (!services.workers.execute(session, stop)) {
+            stop.run();
+        }
     }
 }
@@ -2,9 +2,13 @@ package com.collarmc.server;
 
 import com.collarmc.api.profiles.ProfileService;
 import com.collarmc.molib.Mojang;
+import com.collarmc.protocol.PacketIO;
 import com.collarmc.security.sodium.Sodium;
 import com.collarmc.server.configuration.Configuration;
+import com.collarmc.server.configuration.RateLimits;
 import com.collarmc.server.http.AppUrlProvider;
+import com.collarmc.server.metrics.Metrics;
+import com.collarmc.server.mongo.Mongo;
 import com.collarmc.server.security.ServerIdentityStore;
 import com.collarmc.server.security.ServerIdentityStoreImpl;
 import com.collarmc.server.security.hashing.PasswordHashing;
@@ -20,7 +24,12 @@ import com.collarmc.server.services.profiles.ProfileCache;
 import com.collarmc.server.services.profiles.ProfileServiceServer;
 import com.collarmc.server.services.profiles.storage.ProfileStorage;
 import com.collarmc.server.services.textures.TextureService;
+import com.collarmc.server.session.AdmissionController;
 import com.collarmc.server.session.ClientRegistrationService;
+import com.collarmc.server.session.FanOutEncoder;
+import com.collarmc.server.session.OutboundPolicy;
+import com.collarmc.server.session.OutboundQueues;
+import com.collarmc.server.session.SessionExecutor;
 import com.collarmc.server.session.SessionManager;
 import com.collarmc.utils.Utils;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -28,6 +37,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 public final class Services {
     public final ObjectMapper jsonMapper;
     public final ObjectMapper packetMapper;
+    public final PacketIO packets;
     public final AppUrlProvider urlProvider;
     public final ServerIdentityStore identityStore;
     public final SessionManager sessions;
@@ -47,6 +57,12 @@ public final class Services {
     public final ProfileCache profileCache;
     public final Sodium sodium;
     public final Mojang mojang = new Mojang();
+    public final SessionExecutor workers;
+    public final OutboundQueues outbound;
+    public final RateLimits rateLimits;
+    public final AdmissionController admission;
+    public final FanOutEncoder fanOut;
+    public final Metrics metrics;
 
     public Services(Configuration configuration) throws Exception {
         this.jsonMapper = Utils.jsonMapper();
@@ -54,7 +70,9 @@ public final class Services {
         this.urlProvider = configuration.appUrlProvider;
         this.sodium = Sodium.create();
         this.identityStore = new ServerIdentityStoreImpl(configuration.database, sodium);
-        this.sessions = new SessionManager(packetMapper, identityStore);
+        this.packets = new PacketIO(packetMapper, identityStore.cipher());
+        this.outbound = new OutboundQueues(configuration.outboundQueueMessages, configuration.outboundQueueBytes, OutboundPolicy.defaults());
+        this.sessions = new SessionManager(packetMapper, identityStore, outbound);
         this.deviceRegistration = new ClientRegistrationService(sessions, identityStore);
         this.passwordHashing = configuration.passwordHashing;
         this.profiles = new ProfileServiceServer(configuration.database, passwordHashing);
@@ -65,9 +83,48 @@ public final class Services {
         this.minecraftSessionVerifier = configuration.minecraftSessionVerifier;
         this.groupStore = new GroupStore(profileCache, sessions, configuration.database);
         this.groups = new GroupService(groupStore, profiles, profileCache, sessions, mojang, identityStore.cipher());
-        this.playerLocations = new PlayerLocationService(this);
+        this.playerLocations = new PlayerLocationService(this, configuration.locationFlushMillis);
         this.textures = new TextureService(configuration.database);
         this.friends = new FriendsService(configuration.database, profileCache, sessions);
         this.waypoints = new WaypointService(profileStorage);
+        this.workers = new SessionExecutor(configuration.workerThreads, configuration.workerQueueSize, configuration.sessionQueueSize);
+        this.rateLimits = configuration.rateLimits;
+        this.admission = new AdmissionController(workers, rateLimits);
+        this.fanOut = new FanOutEncoder(outbound, configuration.fanOutThreads, configuration.fanOutMinRecipients);
+        this.metrics = new Metrics();
+        registerMetrics();
+    }
+
+    /**
+     * Stop background work started by the services
+     */
+    public void stop() {
+        playerLocations.stop();
+    }
+
+    private void registerMetrics() {
+        metrics.gauge("collar_sessions", "Open sessions", sessions::count);
+        metrics.gauge("collar_worker_queue_depth", "Tasks waiting for a session worker", workers::queueDepth);
+        metrics.gauge("collar_worker_max_queue_depth", "Tasks waiting for the busiest session worker", workers::maxQueueDepth);
+        metrics.counter("collar_worker_tasks_total", "Tasks run by session workers", workers::executed);
+        metrics.counter("collar_worker_rejected_total", "Tasks refused because a session worker was full", workers::rejected);
+        metrics.counter("collar_worker_session_rejected_total", "Requests refused because their session had too many pending", workers::sessionRejected);
+        metrics.gauge("collar_worker_recent_wait_seconds", "Moving average of how long tasks waited for a session worker", () -> workers.recentWait().toNanos() / 1e9);
+        metrics.gauge("collar_outbound_pending_messages", "Packets waiting to be written to sessions", outbound::pendingMessages);
+        metrics.gauge("collar_outbound_pending_bytes", "Bytes waiting to be written to sessions", outbound::pendingBytes);
+        metrics.counter("collar_outbound_conflated_total", "Packets replaced by a newer packet before they were written", outbound::conflated);
+        metrics.counter("collar_outbound_overflows_total", "Packets that overflowed a session's queue", outbound::overflows);
+        metrics.counter("collar_location_superseded_total", "Location updates replaced by a newer update before they were sent", playerLocations::superseded);
+        metrics.counter("collar_admission_shed_total", "Requests shed while the server was overloaded", admission::shed);
+        metrics.counter("collar_fanout_encodes_total", "Packets encoded on the fan out pool", fanOut::parallelEncodes);
+        metrics.counter("collar_fanout_failures_total", "Packets that failed to encode on the fan out pool", fanOut::failures);
+        metrics.gauge("collar_live_groups", "Groups with online members held in memory", groupStore::liveGroups);
+        metrics.gauge("collar_shared_keys", "Shared keys cached for client identities", () -> identityStore.sharedKeys().size());
+        metrics.counter("collar_shared_key_hits_total", "Session keys derived from a cached identity key", () -> identityStore.sharedKeys().hits());
+        metrics.counter("collar_shared_key_misses_total", "Identity keys computed when deriving session keys", () -> identityStore.sharedKeys().misses());
+        metrics.counter("collar_profile_cache_hits_total", "Profile lookups served from the cache", () -> profileCache.stats().hitCount());
+        metrics.counter("collar_profile_cache_misses_total", "Profile lookups that loaded from the database", () -> profileCache.stats().missCount());
+        metrics.counter("collar_profile_cache_evictions_total", "Profiles evicted from the cache", () -> profileCache.stats().evictionCount());
+        metrics.register(Mongo.metrics()::collect);
     }
 }
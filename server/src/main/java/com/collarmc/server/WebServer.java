@@ -9,18 +9,22 @@ import com.collarmc.api.http.*;
 import com.collarmc.api.http.HttpException.BadRequestException;
 import com.collarmc.api.http.HttpException.NotFoundException;
 import com.collarmc.api.http.HttpException.UnauthorisedException;
+import com.collarmc.api.location.LocationCodec;
 import com.collarmc.api.profiles.ProfileService;
 import com.collarmc.api.profiles.ProfileService.GetProfileRequest;
 import com.collarmc.api.profiles.ProfileService.UpdateProfileRequest;
 import com.collarmc.api.profiles.PublicProfile;
 import com.collarmc.api.profiles.Role;
 import com.collarmc.api.textures.TextureType;
+import com.collarmc.protocol.PacketCodecs;
+import com.collarmc.protocol.PacketIO;
 import com.collarmc.protocol.groups.CreateGroupRequest;
 import com.collarmc.server.common.ServerStatus;
 import com.collarmc.server.common.ServerVersion;
 import com.collarmc.server.configuration.Configuration;
 import com.collarmc.server.http.ApiToken;
 import com.collarmc.server.http.HandlebarsTemplateEngine;
+import com.collarmc.server.metrics.PrometheusWriter;
 import com.collarmc.server.services.authentication.TokenCrypter;
 import com.collarmc.server.services.textures.TextureService;
 import com.collarmc.server.session.ClientRegistrationService;
@@ -31,6 +35,7 @@ import com.google.common.collect.ImmutableList;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import spark.Request;
+import spark.Spark;
 
 import javax.servlet.ServletOutputStream;
 import java.io.IOException;
@@ -49,6 +54,7 @@ public class WebServer {
     private static final Logger LOGGER = LogManager.getLogger(WebServer.class.getName());
 
     private final Configuration configuration;
+    private volatile Services services;
 
     public WebServer(Configuration configuration) {
         this.configuration = configuration;
@@ -60,6 +66,7 @@ public class WebServer {
         port(configuration.httpPort);
         // Services
         Services services = new Services(configuration);
+        this.services = services;
 
         // Setup WebSockets
         webSocketIdleTimeoutMillis((int) TimeUnit.SECONDS.toMillis(60));
@@ -279,6 +286,15 @@ public class WebServer {
         // This contract is forever, please change with care!
         get("/api/version", (request, response) -> ServerVersion.version(), services.jsonMapper::writeValueAsString);
         get("/api/status", (request, response) -> new ServerStatus(services.profiles.playerCount(RequestContext.SERVER, new ProfileService.PlayerCountRequest()).total, services.sessions.count()), services.jsonMapper::writeValueAsString);
+        // Prometheus scrape target, only for administrators
+        before("/api/metrics", (request, response) -> {
+            setupRequest(services.tokenCrypter, request);
+            from(request).assertHasRole(Role.ADMINISTRATOR);
+        });
+        get("/api/metrics", (request, response) -> {
+            response.type(PrometheusWriter.CONTENT_TYPE);
+            return services.metrics.scrape();
+        });
         // Query this route to discover what version of the APIs are supported and how the server is configured
         get("/api/discover", (request, response) -> {
             List<CollarVersion> versions = new ArrayList<>();
@@ -288,6 +304,12 @@ public class WebServer {
             features.add(new CollarFeature("groups:locations", true));
             features.add(new CollarFeature("groups:waypoints", true));
             features.add(new CollarFeature("profile:friends", true));
+            features.add(new CollarFeature(PacketIO.FEATURE_BATCHED_RESPONSES, true));
+            features.add(new CollarFeature(PacketIO.FEATURE_SESSION_KEYS, true));
+            features.add(new CollarFeature(PacketIO.FEATURE_BINARY_CODECS, PacketCodecs.VERSION));
+            features.add(new CollarFeature(PacketIO.FEATURE_COMPRESSION, PacketIO.COMPRESSION));
+            features.add(new CollarFeature(PacketIO.FEATURE_CHUNKED_PACKETS, true));
+            features.add(new CollarFeature(PacketIO.FEATURE_COMPACT_LOCATIONS, LocationCodec.VERSION));
             return new DiscoverResponse(versions, features);
         }, services.jsonMapper::writeValueAsString);
 
@@ -296,6 +318,18 @@ public class WebServer {
         LOGGER.info(services.urlProvider.homeUrl());
     }
 
+    /**
+     * Stop the server and wait for it to stop
+     */
+    public void stop() {
+        Spark.stop();
+        Spark.awaitStop();
+        Services services = this.services;
+        if (services != null) {
+            services.stop();
+        }
+    }
+
     public static RequestContext from(Request req) {
         return req.attribute("requestContext");
     }
@@ -19,6 +19,12 @@ import org.apache.logging.log4j.Logger;
 
 public class Configuration {
     private static final Logger LOGGER = LogManager.getLogger(Configuration.class.getName());
+    private static final int DEFAULT_WORKER_QUEUE_SIZE = 256;
+    private static final int DEFAULT_SESSION_QUEUE_SIZE = 32;
+    private static final int DEFAULT_OUTBOUND_QUEUE_MESSAGES = 1024;
+    private static final int DEFAULT_OUTBOUND_QUEUE_BYTES = 4 * 1024 * 1024;
+    private static final int DEFAULT_FANOUT_MIN_RECIPIENTS = 8;
+    private static final int DEFAULT_LOCATION_FLUSH_MILLIS = 250;
 
     public final MongoDatabase database;
     public final AppUrlProvider appUrlProvider;
@@ -30,6 +36,19 @@ public class Configuration {
     public final int httpPort;
     public final Email email;
     public final HttpClient http;
+    public final int workerThreads;
+    public final int workerQueueSize;
+    /** Requests each session can have waiting for its worker, less than {@link #workerQueueSize} as sessions share workers **/
+    public final int sessionQueueSize;
+    public final int outboundQueueMessages;
+    public final long outboundQueueBytes;
+    public final RateLimits rateLimits;
+    /** Threads encrypting broadcasts in parallel, or 0 to encrypt them on the sending thread **/
+    public final int fanOutThreads;
+    /** Smallest broadcast that is encrypted in parallel **/
+    public final int fanOutMinRecipients;
+    /** How long location updates are buffered so only the latest is sent, or 0 to send every update immediately **/
+    public final int locationFlushMillis;
 
     public Configuration(MongoDatabase database,
                          AppUrlProvider appUrlProvider,
@@ -40,7 +59,16 @@ public class Configuration {
                          boolean enableWeb,
                          int httpPort,
                          Email email,
-                         HttpClient http
+                         HttpClient http,
+                         int workerThreads,
+                         int workerQueueSize,
+                         int sessionQueueSize,
+                         int outboundQueueMessages,
+                         long outboundQueueBytes,
+                         RateLimits rateLimits,
+                         int fanOutThreads,
+                         int fanOutMinRecipients,
+                         int locationFlushMillis
     ) {
         this.database = database;
         this.appUrlProvider = appUrlProvider;
@@ -52,6 +80,15 @@ public class Configuration {
         this.httpPort = httpPort;
         this.email = email;
         this.http = http;
+        this.workerThreads = workerThreads;
+        this.workerQueueSize = workerQueueSize;
+        this.sessionQueueSize = sessionQueueSize;
+        this.outboundQueueMessages = outboundQueueMessages;
+        this.outboundQueueBytes = outboundQueueBytes;
+        this.rateLimits = rateLimits;
+        this.fanOutThreads = fanOutThreads;
+        this.fanOutMinRecipients = fanOutMinRecipients;
+        this.locationFlushMillis = locationFlushMillis;
         LOGGER.info("Using Email type " + email.getClass().getSimpleName());
     }
 
@@ -84,6 +121,7 @@ public class Configuration {
         }
         AppUrlProvider appUrlProvider = new CollarWebAppUrlProvider(baseUrl);
         HttpClient http = new HttpClient(null);
+        int workerQueueSize = intFromEnvironment("COLLAR_WORKER_QUEUE_SIZE", DEFAULT_WORKER_QUEUE_SIZE);
         return new Configuration(
                 Mongo.database(),
                 appUrlProvider,
@@ -94,7 +132,16 @@ public class Configuration {
                 enableWeb,
                 httpPort(),
                 new MailGunEmail(http, appUrlProvider, mailgunDomain, mailgunApiKey),
-                http
+                http,
+                intFromEnvironment("COLLAR_WORKER_THREADS", defaultWorkerThreads()),
+                workerQueueSize,
+                intFromEnvironment("COLLAR_SESSION_QUEUE_SIZE", DEFAULT_SESSION_QUEUE_SIZE),
+                intFromEnvironment("COLLAR_OUTBOUND_QUEUE_MESSAGES", DEFAULT_OUTBOUND_QUEUE_MESSAGES),
+                intFromEnvironment("COLLAR_OUTBOUND_QUEUE_BYTES", DEFAULT_OUTBOUND_QUEUE_BYTES),
+                RateLimits.fromEnvironment(workerQueueSize),
+                intFromEnvironment("COLLAR_FANOUT_THREADS", defaultFanOutThreads()),
+                intFromEnvironment("COLLAR_FANOUT_MIN_RECIPIENTS", DEFAULT_FANOUT_MIN_RECIPIENTS),
+                intFromEnvironment("COLLAR_LOCATION_FLUSH_MILLIS", DEFAULT_LOCATION_FLUSH_MILLIS)
         );
     }
 
@@ -111,7 +158,16 @@ public class Configuration {
                 true,
                 httpPort(),
                 new LocalEmail(appUrlProvider),
-                new HttpClient(null));
+                new HttpClient(null),
+                defaultWorkerThreads(),
+                DEFAULT_WORKER_QUEUE_SIZE,
+                DEFAULT_SESSION_QUEUE_SIZE,
+                DEFAULT_OUTBOUND_QUEUE_MESSAGES,
+                DEFAULT_OUTBOUND_QUEUE_BYTES,
+                RateLimits.defaults(DEFAULT_WORKER_QUEUE_SIZE),
+                defaultFanOutThreads(),
+                DEFAULT_FANOUT_MIN_RECIPIENTS,
+                DEFAULT_LOCATION_FLUSH_MILLIS);
     }
 
     public static Configuration testConfiguration(MongoDatabase db, MinecraftSessionVerifier sessionVerifier) {
@@ -127,11 +183,41 @@ public class Configuration {
                 false,
                 3001,
                 new LocalEmail(appUrlProvider),
-                new HttpClient(null));
+                new HttpClient(null),
+                defaultWorkerThreads(),
+                DEFAULT_WORKER_QUEUE_SIZE,
+                DEFAULT_SESSION_QUEUE_SIZE,
+                DEFAULT_OUTBOUND_QUEUE_MESSAGES,
+                DEFAULT_OUTBOUND_QUEUE_BYTES,
+                RateLimits.defaults(DEFAULT_WORKER_QUEUE_SIZE),
+                defaultFanOutThreads(),
+                DEFAULT_FANOUT_MIN_RECIPIENTS,
+                DEFAULT_LOCATION_FLUSH_MILLIS);
     }
 
     private static int httpPort() {
         String portValue = System.getenv("PORT");
         return portValue != null ? Integer.parseInt(portValue) : 4000;
     }
+
+    static int intFromEnvironment(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    /**
+     * Request handling mostly waits on Mongo and Mojang, so run more workers than there are cores
+     * @return default number of session workers
+     */
+    private static int defaultWorkerThreads() {
+        return Runtime.getRuntime().availableProcessors() * 4;
+    }
+
+    /**
+     * Encryption is CPU bound, so use one thread per core
+     * @return default number of fan out threads
+     */
+    private static int defaultFanOutThreads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
 }
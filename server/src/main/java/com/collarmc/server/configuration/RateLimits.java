@@ -0,0 +1,135 @@
+package com.collarmc.server.configuration;
+
+import com.collarmc.protocol.ProtocolRequest;
+import com.collarmc.protocol.friends.AddFriendRequest;
+import com.collarmc.protocol.friends.RemoveFriendRequest;
+import com.collarmc.protocol.groups.*;
+import com.collarmc.protocol.identity.IdentifyRequest;
+import com.collarmc.protocol.location.UpdateLocationRequest;
+import com.collarmc.protocol.location.UpdateNearbyRequest;
+import com.collarmc.protocol.session.StartSessionRequest;
+import com.collarmc.protocol.textures.GetTextureRequest;
+import com.collarmc.protocol.waypoints.CreateWaypointRequest;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * Per session rate limits and server wide load shedding thresholds
+ */
+public final class RateLimits {
+    /** Frames each session can send per second, checked before they are decoded, of every type **/
+    public final long framesPerSecond;
+    /** Frames each session can send per hour, checked before they are decoded, of every type **/
+    public final long framesPerHour;
+    /** Budget each session can spend per second on requests that are not {@link #sheddable} **/
+    public final long budgetPerSecond;
+    /** Budget each session can spend per hour on requests that are not {@link #sheddable} **/
+    public final long budgetPerHour;
+    /** Allowance each session can spend per second on {@link #sheddable} requests, which are shed past it **/
+    public final long sheddablePerSecond;
+    /** Allowance each session can spend per hour on {@link #sheddable} requests, which are shed past it **/
+    public final long sheddablePerHour;
+    /** Cost of a request by type. Requests without a cost use {@link #defaultCost} **/
+    public final Map<Class<? extends ProtocolRequest>, Long> costs;
+    public final long defaultCost;
+    /** Requests that are dropped first when the server is overloaded **/
+    public final Set<Class<? extends ProtocolRequest>> sheddable;
+    /** Shed when the busiest worker has this many requests queued **/
+    public final int shedQueueDepth;
+    /** Shed when requests recently waited this long for a worker **/
+    public final Duration shedWorkerLag;
+
+    public RateLimits(long framesPerSecond,
+                      long framesPerHour,
+                      long budgetPerSecond,
+                      long budgetPerHour,
+                      long sheddablePerSecond,
+                      long sheddablePerHour,
+                      Map<Class<? extends ProtocolRequest>, Long> costs,
+                      long defaultCost,
+                      Set<Class<? extends ProtocolRequest>> sheddable,
+                      int shedQueueDepth,
+                      Duration shedWorkerLag) {
+        this.framesPerSecond = framesPerSecond;
+        this.framesPerHour = framesPerHour;
+        this.budgetPerSecond = budgetPerSecond;
+        this.budgetPerHour = budgetPerHour;
+        this.sheddablePerSecond = sheddablePerSecond;
+        this.sheddablePerHour = sheddablePerHour;
+        this.costs = Map.copyOf(costs);
+        this.defaultCost = defaultCost;
+        this.sheddable = Set.copyOf(sheddable);
+        this.shedQueueDepth = shedQueueDepth;
+        this.shedWorkerLag = shedWorkerLag;
+    }
+
+    /**
+     * @param type of request
+     * @return cost of the request
+     */
+    public long cost(Class<? extends ProtocolRequest> type) {
+        return costs.getOrDefault(type, defaultCost);
+    }
+
+    /**
+     * Location and nearby updates are cheap and are the first to be shed. They have their own allowance, so a burst of
+     * them is shed rather than spending the budget and stopping the session. Requests that hit Mojang or write groups
+     * cost more. Frames are limited well above both, only to refuse floods before decoding them.
+     * @param workerQueueSize size of each worker queue, used to derive the shedding threshold
+     * @return default limits
+     */
+    public static RateLimits defaults(int workerQueueSize) {
+        return create(workerQueueSize, (name, defaultValue) -> defaultValue);
+    }
+
+    /**
+     * Defaults overridden by the environment. Costs are read from {@code COLLAR_RATE_LIMIT_COST_} followed by the
+     * request name in upper snake case, e.g. {@code COLLAR_RATE_LIMIT_COST_CREATE_GROUP_REQUEST}
+     * @param workerQueueSize size of each worker queue, used to derive the shedding threshold
+     * @return limits
+     */
+    public static RateLimits fromEnvironment(int workerQueueSize) {
+        return create(workerQueueSize, Configuration::intFromEnvironment);
+    }
+
+    private static RateLimits create(int workerQueueSize, ToIntBiFunction<String, Integer> environment) {
+        Map<Class<? extends ProtocolRequest>, Long> costs = new HashMap<>();
+        costs.put(IdentifyRequest.class, 5L);
+        costs.put(StartSessionRequest.class, 10L);
+        costs.put(CreateGroupRequest.class, 10L);
+        costs.put(DeleteGroupRequest.class, 5L);
+        costs.put(GroupInviteRequest.class, 5L);
+        costs.put(JoinGroupRequest.class, 5L);
+        costs.put(EjectGroupMemberRequest.class, 5L);
+        costs.put(TransferGroupOwnershipRequest.class, 5L);
+        costs.put(AddFriendRequest.class, 5L);
+        costs.put(RemoveFriendRequest.class, 5L);
+        costs.put(CreateWaypointRequest.class, 2L);
+        costs.put(GetTextureRequest.class, 2L);
+        int defaultCost = environment.applyAsInt("COLLAR_RATE_LIMIT_DEFAULT_COST", 1);
+        Set<Class<? extends ProtocolRequest>> sheddable = Set.of(UpdateLocationRequest.class, UpdateNearbyRequest.class);
+        sheddable.forEach(type -> costs.putIfAbsent(type, (long) defaultCost));
+        costs.replaceAll((type, cost) -> (long) environment.applyAsInt(costName(type), cost.intValue()));
+        return new RateLimits(
+                environment.applyAsInt("COLLAR_RATE_LIMIT_FRAMES_PER_SECOND", 250),
+                environment.applyAsInt("COLLAR_RATE_LIMIT_FRAMES_PER_HOUR", 180000),
+                environment.applyAsInt("COLLAR_RATE_LIMIT_BUDGET_PER_SECOND", 50),
+                environment.applyAsInt("COLLAR_RATE_LIMIT_BUDGET_PER_HOUR", 18000),
+                environment.applyAsInt("COLLAR_RATE_LIMIT_SHEDDABLE_PER_SECOND", 100),
+                environment.applyAsInt("COLLAR_RATE_LIMIT_SHEDDABLE_PER_HOUR", 72000),
+                costs,
+                defaultCost,
+                sheddable,
+                environment.applyAsInt("COLLAR_SHED_QUEUE_DEPTH", workerQueueSize / 2),
+                Duration.ofMillis(environment.applyAsInt("COLLAR_SHED_WORKER_LAG_MILLIS", 500))
+        );
+    }
+
+    private static String costName(Class<? extends ProtocolRequest> type) {
+        return "COLLAR_RATE_LIMIT_COST_" + type.getSimpleName().replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+    }
+}
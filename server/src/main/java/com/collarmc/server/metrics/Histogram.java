@@ -0,0 +1,72 @@
+package com.collarmc.server.metrics;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed buckets, cheap enough to record on every request.
+ * Buckets are exported in seconds as Prometheus expects.
+ */
+public final class Histogram {
+
+    /** Upper bounds of the buckets in seconds, from 100µs to 10s **/
+    private static final double[] BUCKETS = {0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final long[] BUCKET_NANOS = Arrays.stream(BUCKETS).mapToLong(seconds -> (long) (seconds * TimeUnit.SECONDS.toNanos(1))).toArray();
+
+    /** The last bucket counts everything above the largest bound **/
+    private final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    public Histogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param nanos taken
+     */
+    public void record(long nanos) {
+        int bucket = Arrays.binarySearch(BUCKET_NANOS, nanos);
+        buckets[bucket < 0 ? -bucket - 1 : bucket].increment();
+        count.increment();
+        totalNanos.add(nanos);
+    }
+
+    /**
+     * @return number of recorded values
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * @return sum of all recorded values
+     */
+    public Duration total() {
+        return Duration.ofNanos(totalNanos.sum());
+    }
+
+    /**
+     * Write the buckets, sum and count of the histogram. The family must already have been started.
+     * @param writer to write to
+     * @param name of the family
+     * @param labels as alternating names and values
+     */
+    public void write(PrometheusWriter writer, String name, String... labels) {
+        String[] bucketLabels = Arrays.copyOf(labels, labels.length + 2);
+        bucketLabels[labels.length] = "le";
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += buckets[i].sum();
+            bucketLabels[labels.length + 1] = i < BUCKETS.length ? BigDecimal.valueOf(BUCKETS[i]).stripTrailingZeros().toPlainString() : "+Inf";
+            writer.sample(name + "_bucket", cumulative, bucketLabels);
+        }
+        writer.sample(name + "_sum", (double) totalNanos.sum() / TimeUnit.SECONDS.toNanos(1), labels);
+        writer.sample(name + "_count", cumulative, labels);
+    }
+}
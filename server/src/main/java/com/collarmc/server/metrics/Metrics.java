@@ -0,0 +1,84 @@
+package com.collarmc.server.metrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the server's metrics, scraped in the Prometheus text format.
+ * Components that already keep their own counts register a {@link Collector} that reads them at scrape time, so
+ * nothing extra is recorded on their hot paths.
+ */
+public final class Metrics {
+
+    private final List<Collector> collectors = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param name of the counter
+     * @param help describing the counter
+     * @return counter to increment
+     */
+    public LongAdder counter(String name, String help) {
+        LongAdder counter = new LongAdder();
+        register(writer -> writer.family(name, "counter", help).sample(name, counter.sum()));
+        return counter;
+    }
+
+    /**
+     * @param name of the histogram
+     * @param help describing the histogram
+     * @return histogram to record to
+     */
+    public Histogram histogram(String name, String help) {
+        Histogram histogram = new Histogram();
+        register(writer -> {
+            writer.family(name, "histogram", help);
+            histogram.write(writer, name);
+        });
+        return histogram;
+    }
+
+    /**
+     * @param name of the gauge
+     * @param help describing the gauge
+     * @param value read at scrape time
+     */
+    public void gauge(String name, String help, DoubleSupplier value) {
+        register(writer -> writer.family(name, "gauge", help).sample(name, value.getAsDouble()));
+    }
+
+    /**
+     * @param name of the counter
+     * @param help describing the counter
+     * @param value read at scrape time, kept by the component being measured
+     */
+    public void counter(String name, String help, LongSupplier value) {
+        register(writer -> writer.family(name, "counter", help).sample(name, value.getAsLong()));
+    }
+
+    /**
+     * @param collector to include in every scrape
+     */
+    public void register(Collector collector) {
+        collectors.add(collector);
+    }
+
+    /**
+     * @return every metric in the Prometheus text format
+     */
+    public String scrape() {
+        PrometheusWriter writer = new PrometheusWriter();
+        collectors.forEach(collector -> collector.collect(writer));
+        return writer.toString();
+    }
+
+    /**
+     * Writes metric families at scrape time
+     */
+    @FunctionalInterface
+    public interface Collector {
+        void collect(PrometheusWriter writer);
+    }
+}
@@ -10,6 +10,7 @@ import com.mongodb.client.MongoDatabase;
 import org.bson.UuidRepresentation;
 
 public final class Mongo {
+    private static final MongoMetrics METRICS = new MongoMetrics();
     private static MongoDatabase database;
 
     public static MongoDatabase database() {
@@ -37,11 +38,19 @@ public final class Mongo {
         return MongoClients.create(settings(null)).getDatabase("collar-dev");
     }
 
+    /**
+     * @return timings of commands sent by every client created here
+     */
+    public static MongoMetrics metrics() {
+        return METRICS;
+    }
+
     private static MongoClientSettings settings(ConnectionString uri) {
         MongoClientSettings.Builder builder = MongoClientSettings.builder()
                 .readConcern(ReadConcern.MAJORITY)
                 .writeConcern(WriteConcern.MAJORITY)
-                .uuidRepresentation(UuidRepresentation.STANDARD);
+                .uuidRepresentation(UuidRepresentation.STANDARD)
+                .addCommandListener(METRICS);
         if (uri != null) {
             builder.applyConnectionString(uri);
         }
@@ -0,0 +1,100 @@
+package com.collarmc.server.mongo;
+
+import com.collarmc.server.metrics.Histogram;
+import com.collarmc.server.metrics.PrometheusWriter;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times every command the driver sends, by command and collection. Listening to the driver covers every store that
+ * uses the database without each of them timing its own calls.
+ */
+public final class MongoMetrics implements CommandListener {
+
+    private static final String NO_COLLECTION = "";
+
+    /** Collection of each command in flight, as only the started event carries the command **/
+    private final ConcurrentMap<Integer, String> collections = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Command, Stats> commands = new ConcurrentHashMap<>();
+
+    MongoMetrics() {}
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        collections.put(event.getRequestId(), collection(event.getCommandName(), event.getCommand()));
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        stats(event.getRequestId(), event.getCommandName()).duration.record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        Stats stats = stats(event.getRequestId(), event.getCommandName());
+        stats.duration.record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+        stats.failures.increment();
+    }
+
+    /**
+     * @param writer to write command timings to
+     */
+    public void collect(PrometheusWriter writer) {
+        writer.family("collar_mongo_command_duration_seconds", "histogram", "Time taken by Mongo commands");
+        commands.forEach((command, stats) -> stats.duration.write(writer, "collar_mongo_command_duration_seconds", "command", command.name, "collection", command.collection));
+        writer.family("collar_mongo_command_failures_total", "counter", "Mongo commands that failed");
+        commands.forEach((command, stats) -> writer.sample("collar_mongo_command_failures_total", stats.failures.sum(), "command", command.name, "collection", command.collection));
+    }
+
+    private Stats stats(int requestId, String commandName) {
+        String collection = collections.remove(requestId);
+        return commands.computeIfAbsent(new Command(commandName, collection == null ? NO_COLLECTION : collection), command -> new Stats());
+    }
+
+    private static String collection(String commandName, BsonDocument command) {
+        // Most commands name their collection as the command's value, but getMore names it separately
+        BsonValue value = command.get(commandName);
+        if (value == null || !value.isString()) {
+            value = command.get("collection");
+        }
+        return value != null && value.isString() ? value.asString().getValue() : NO_COLLECTION;
+    }
+
+    private static final class Command {
+        final String name;
+        final String collection;
+
+        Command(String name, String collection) {
+            this.name = name;
+            this.collection = collection;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Command command = (Command) o;
+            return name.equals(command.name) && collection.equals(command.collection);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, collection);
+        }
+    }
+
+    private static final class Stats {
+        final Histogram duration = new Histogram();
+        final LongAdder failures = new LongAdder();
+    }
+}
@@ -2,10 +2,8 @@ package com.collarmc.server.protocol;
 
 import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.api.session.Player;
-import com.collarmc.protocol.ProtocolRequest;
 import com.collarmc.protocol.ProtocolResponse;
 import com.collarmc.protocol.groups.*;
-import com.collarmc.server.CollarServer;
 import com.collarmc.server.Services;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -22,39 +20,19 @@ public final class GroupsProtocolHandler extends ProtocolHandler {
     }
 
     @Override
-    public boolean handleRequest(CollarServer collar, ClientIdentity identity, ProtocolRequest req, BiConsumer<ClientIdentity, ProtocolResponse> sender) {
-        Optional<? extends ProtocolResponse> resp;
-        if (req instanceof CreateGroupRequest) {
-            CreateGroupRequest request = (CreateGroupRequest)req;
-            resp = services.groups.createGroup(identity, request);
-        } else if (req instanceof JoinGroupRequest) {
-            JoinGroupRequest request = (JoinGroupRequest) req;
-            resp = services.groups.acceptMembership(identity, request);
-        } else if (req instanceof LeaveGroupRequest) {
-            LeaveGroupRequest request = (LeaveGroupRequest)req;
-            resp = services.groups.leaveGroup(identity, request);
-        } else if (req instanceof GroupInviteRequest) {
-            GroupInviteRequest request = (GroupInviteRequest)req;
-            resp = services.groups.invite(identity, request);
-        } else if (req instanceof EjectGroupMemberRequest) {
-            EjectGroupMemberRequest request = (EjectGroupMemberRequest) req;
-            resp = services.groups.ejectMember(identity, request);
-        } else if (req instanceof AcknowledgedGroupJoinedRequest) {
-            AcknowledgedGroupJoinedRequest request = (AcknowledgedGroupJoinedRequest) req;
-            resp = services.groups.acknowledgeJoin(identity, request);
-        } else if (req instanceof DeleteGroupRequest) {
-            DeleteGroupRequest request = (DeleteGroupRequest) req;
-            resp = services.groups.delete(identity, request);
-        } else if (req instanceof TransferGroupOwnershipRequest) {
-            TransferGroupOwnershipRequest request = (TransferGroupOwnershipRequest) req;
-            resp = services.groups.transferOwnership(identity, request);
-        } else {
-            resp = Optional.empty();
-        }
-        resp.ifPresent(protocolResponse -> {
-            sender.accept(identity, protocolResponse);
-        });
-        return resp.isPresent();
+    public void register(ProtocolRegistry.Builder registry) {
+        registry.register(CreateGroupRequest.class, (identity, request, sender) -> reply(identity, services.groups.createGroup(identity, request), sender))
+                .register(JoinGroupRequest.class, (identity, request, sender) -> reply(identity, services.groups.acceptMembership(identity, request), sender))
+                .register(LeaveGroupRequest.class, (identity, request, sender) -> reply(identity, services.groups.leaveGroup(identity, request), sender))
+                .register(GroupInviteRequest.class, (identity, request, sender) -> reply(identity, services.groups.invite(identity, request), sender))
+                .register(EjectGroupMemberRequest.class, (identity, request, sender) -> reply(identity, services.groups.ejectMember(identity, request), sender))
+                .register(AcknowledgedGroupJoinedRequest.class, (identity, request, sender) -> reply(identity, services.groups.acknowledgeJoin(identity, request), sender))
+                .register(DeleteGroupRequest.class, (identity, request, sender) -> reply(identity, services.groups.delete(identity, request), sender))
+                .register(TransferGroupOwnershipRequest.class, (identity, request, sender) -> reply(identity, services.groups.transferOwnership(identity, request), sender));
+    }
+
+    private static void reply(ClientIdentity identity, Optional<? extends ProtocolResponse> resp, BiConsumer<ClientIdentity, ProtocolResponse> sender) {
+        resp.ifPresent(protocolResponse -> sender.accept(identity, protocolResponse));
     }
 
     @Override
@@ -2,8 +2,6 @@ package com.collarmc.server.protocol;
 
 import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.api.session.Player;
-import com.collarmc.api.waypoints.EncryptedWaypoint;
-import com.collarmc.protocol.ProtocolRequest;
 import com.collarmc.protocol.ProtocolResponse;
 import com.collarmc.protocol.location.StartSharingLocationRequest;
 import com.collarmc.protocol.location.StopSharingLocationRequest;
@@ -11,13 +9,10 @@ import com.collarmc.protocol.location.UpdateLocationRequest;
 import com.collarmc.protocol.location.UpdateNearbyRequest;
 import com.collarmc.protocol.waypoints.CreateWaypointRequest;
 import com.collarmc.protocol.waypoints.GetWaypointsRequest;
-import com.collarmc.protocol.waypoints.GetWaypointsResponse;
 import com.collarmc.protocol.waypoints.RemoveWaypointRequest;
-import com.collarmc.server.CollarServer;
 import com.collarmc.server.Services;
 import org.eclipse.jetty.websocket.api.Session;
 
-import java.util.List;
 import java.util.function.BiConsumer;
 
 public class LocationProtocolHandler extends ProtocolHandler {
@@ -27,38 +22,22 @@ public class LocationProtocolHandler extends ProtocolHandler {
     }
 
     @Override
-    public boolean handleRequest(CollarServer collar, ClientIdentity identity, ProtocolRequest req, BiConsumer<ClientIdentity, ProtocolResponse> sender) {
-        if (req instanceof StartSharingLocationRequest) {
-            StartSharingLocationRequest request = (StartSharingLocationRequest)req;
+    public void register(ProtocolRegistry.Builder registry) {
+        registry.register(StartSharingLocationRequest.class, (identity, request, sender) -> {
             services.playerLocations.startSharing(identity, request);
-            return true;
-        } else if (req instanceof StopSharingLocationRequest) {
-            StopSharingLocationRequest request = (StopSharingLocationRequest) req;
+        }).register(StopSharingLocationRequest.class, (identity, request, sender) -> {
             services.playerLocations.stopSharing(identity, request).ifPresent(response -> sender.accept(null, response));
-            return true;
-        } else if (req instanceof UpdateLocationRequest) {
-            UpdateLocationRequest request = (UpdateLocationRequest) req;
+        }).register(UpdateLocationRequest.class, (identity, request, sender) -> {
             services.playerLocations.updateLocation(identity, request).ifPresent(response -> sender.accept(identity, response));
-            return true;
-        } else if (req instanceof UpdateNearbyRequest) {
-            UpdateNearbyRequest request = (UpdateNearbyRequest) req;
+        }).register(UpdateNearbyRequest.class, (identity, request, sender) -> {
             services.playerLocations.updateNearbyGroups(identity, request).ifPresent(response -> sender.accept(null, response));
-            return true;
-        } else if (req instanceof CreateWaypointRequest) {
-            CreateWaypointRequest request = (CreateWaypointRequest) req;
+        }).register(CreateWaypointRequest.class, (identity, request, sender) -> {
             services.waypoints.createWaypoint(identity, request);
-            return true;
-        } else if (req instanceof RemoveWaypointRequest) {
-            RemoveWaypointRequest request = (RemoveWaypointRequest) req;
+        }).register(RemoveWaypointRequest.class, (identity, request, sender) -> {
             services.waypoints.removeWaypoint(identity, request);
-            return true;
-        } else if (req instanceof GetWaypointsRequest) {
-            GetWaypointsRequest request = (GetWaypointsRequest) req;
-            List<EncryptedWaypoint> waypoints = services.waypoints.getWaypoints(identity, request);
-            sender.accept(identity, new GetWaypointsResponse(waypoints));
-            return true;
-        }
-        return false;
+        }).register(GetWaypointsRequest.class, (identity, request, sender) -> {
+            sender.accept(identity, services.waypoints.getWaypoints(identity, request));
+        });
     }
 
     @Override
@@ -2,11 +2,9 @@ package com.collarmc.server.protocol;
 
 import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.api.session.Player;
-import com.collarmc.protocol.ProtocolRequest;
 import com.collarmc.protocol.ProtocolResponse;
 import com.collarmc.protocol.messaging.SendMessageRequest;
 import com.collarmc.protocol.messaging.SendMessageResponse;
-import com.collarmc.server.CollarServer;
 import com.collarmc.server.Services;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -23,9 +21,8 @@ public class MessagingProtocolHandler extends ProtocolHandler {
     }
 
     @Override
-    public boolean handleRequest(CollarServer collar, ClientIdentity identity, ProtocolRequest req, BiConsumer<ClientIdentity, ProtocolResponse> sender) {
-        if (req instanceof SendMessageRequest) {
-            SendMessageRequest request = (SendMessageRequest) req;
+    public void register(ProtocolRegistry.Builder registry) {
+        registry.register(SendMessageRequest.class, (identity, request, sender) -> {
             if (request.group != null) {
                 services.groups.createMessages(identity, request).ifPresent(response -> sender.accept(null, response));
             } else if (request.recipient != null) {
@@ -39,9 +36,7 @@ public class MessagingProtocolHandler extends ProtocolHandler {
             } else {
                 LOGGER.warn( "sent a malformed SendMessageRequest by " + identity);
             }
-            return true;
-        }
-        return false;
+        });
     }
 
     @Override
@@ -2,9 +2,7 @@ package com.collarmc.server.protocol;
 
 import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.api.session.Player;
-import com.collarmc.protocol.ProtocolRequest;
 import com.collarmc.protocol.ProtocolResponse;
-import com.collarmc.server.CollarServer;
 import com.collarmc.server.Services;
 import com.collarmc.server.session.SessionManager;
 import org.eclipse.jetty.websocket.api.Session;
@@ -23,14 +21,10 @@ public abstract class ProtocolHandler {
     }
 
     /**
-     * Handles a request coming from a client and processes it
-     * @param collar server
-     * @param identity of the request
-     * @param req request received
-     * @param sender to send a response
-     * @return if packet handled
+     * Register the handlers for each request type this handler processes
+     * @param registry to register with
      */
-    public abstract boolean handleRequest(CollarServer collar, ClientIdentity identity, ProtocolRequest req, BiConsumer<ClientIdentity, ProtocolResponse> sender);
+    public abstract void register(ProtocolRegistry.Builder registry);
 
     /**
      * Fired when the session has started and all the session information is available
@@ -0,0 +1,176 @@
+package com.collarmc.server.protocol;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.protocol.ProtocolRequest;
+import com.collarmc.protocol.ProtocolResponse;
+import com.collarmc.server.metrics.Histogram;
+import com.collarmc.server.metrics.PrometheusWriter;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Maps each request type to the handler that processes it. Built once at startup so dispatching a request is a
+ * single lookup by its class, and so per type concerns such as metrics have one place to live.
+ */
+public final class ProtocolRegistry {
+
+    private final Map<Class<? extends ProtocolRequest>, Registration<?>> registrations;
+
+    private ProtocolRegistry(Map<Class<? extends ProtocolRequest>, Registration<?>> registrations) {
+        this.registrations = Map.copyOf(registrations);
+    }
+
+    /**
+     * Dispatch the request to its handler
+     * @param identity of the client who sent the request
+     * @param request to dispatch
+     * @param sender to send responses
+     * @return false if no handler is registered for the request type
+     */
+    public boolean dispatch(ClientIdentity identity, ProtocolRequest request, BiConsumer<ClientIdentity, ProtocolResponse> sender) {
+        Registration<?> registration = registrations.get(request.getClass());
+        if (registration == null) {
+            return false;
+        }
+        registration.handle(identity, request, sender);
+        return true;
+    }
+
+    /**
+     * @param type of request
+     * @return metrics for the request type if it has a handler
+     */
+    public Optional<RequestMetrics> metrics(Class<? extends ProtocolRequest> type) {
+        Registration<?> registration = registrations.get(type);
+        return registration == null ? Optional.empty() : Optional.of(registration.metrics);
+    }
+
+    /**
+     * @return metrics for every registered request type
+     */
+    public Map<Class<? extends ProtocolRequest>, RequestMetrics> metrics() {
+        Map<Class<? extends ProtocolRequest>, RequestMetrics> metrics = new HashMap<>();
+        registrations.forEach((type, registration) -> metrics.put(type, registration.metrics));
+        return metrics;
+    }
+
+    /**
+     * @param writer to write the metrics of every registered request type to
+     */
+    public void collect(PrometheusWriter writer) {
+        writer.family("collar_requests_total", "counter", "Requests handled by type");
+        registrations.forEach((type, registration) -> writer.sample("collar_requests_total", registration.metrics.count(), "type", type.getSimpleName()));
+        writer.family("collar_request_failures_total", "counter", "Requests whose handler threw by type");
+        registrations.forEach((type, registration) -> writer.sample("collar_request_failures_total", registration.metrics.failures(), "type", type.getSimpleName()));
+        writer.family("collar_request_duration_seconds", "histogram", "Time taken to handle requests by type");
+        registrations.forEach((type, registration) -> registration.metrics.latency.write(writer, "collar_request_duration_seconds", "type", type.getSimpleName()));
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Handles a single type of request
+     * @param <T> type of request
+     */
+    @FunctionalInterface
+    public interface RequestHandler<T extends ProtocolRequest> {
+        /**
+         * @param identity of the client who sent the request
+         * @param request received
+         * @param sender to send responses
+         */
+        void handle(ClientIdentity identity, T request, BiConsumer<ClientIdentity, ProtocolResponse> sender);
+    }
+
+    /**
+     * Counts and timings for a request type
+     */
+    public static final class RequestMetrics {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final Histogram latency = new Histogram();
+
+        /**
+         * @return number of requests handled
+         */
+        public long count() {
+            return count.sum();
+        }
+
+        /**
+         * @return number of requests whose handler threw
+         */
+        public long failures() {
+            return failures.sum();
+        }
+
+        /**
+         * @return total time spent handling requests
+         */
+        public Duration totalTime() {
+            return latency.total();
+        }
+
+        /**
+         * @return distribution of the time spent handling requests
+         */
+        public Histogram latency() {
+            return latency;
+        }
+    }
+
+    public static final class Builder {
+        private final Map<Class<? extends ProtocolRequest>, Registration<?>> registrations = new HashMap<>();
+
+        private Builder() {}
+
+        /**
+         * Register the handler for a request type
+         * @param type of request
+         * @param handler to process it
+         * @param <T> type of request
+         * @return builder
+         */
+        public <T extends ProtocolRequest> Builder register(Class<T> type, RequestHandler<T> handler) {
+            if (registrations.putIfAbsent(type, new Registration<>(type, handler)) != null) {
+                throw new IllegalStateException("handler for " + type.getName() + " already registered");
+            }
+            return this;
+        }
+
+        public ProtocolRegistry build() {
+            return new ProtocolRegistry(registrations);
+        }
+    }
+
+    private static final class Registration<T extends ProtocolRequest> {
+        private final Class<T> type;
+        private final RequestHandler<T> handler;
+        private final RequestMetrics metrics = new RequestMetrics();
+
+        Registration(Class<T> type, RequestHandler<T> handler) {
+            this.type = type;
+            this.handler = handler;
+        }
+
+        void handle(ClientIdentity identity, ProtocolRequest request, BiConsumer<ClientIdentity, ProtocolResponse> sender) {
+            long start = System.nanoTime();
+            try {
+                handler.handle(identity, type.cast(request), sender);
+            } catch (RuntimeException e) {
+                metrics.failures.increment();
+                throw e;
+            } finally {
+                metrics.count.increment();
+                metrics.latency.record(System.nanoTime() - start);
+            }
+        }
+    }
+}
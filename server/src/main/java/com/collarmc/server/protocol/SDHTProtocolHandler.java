@@ -5,14 +5,12 @@ import com.collarmc.api.groups.Member;
 import com.collarmc.api.groups.MembershipState;
 import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.api.session.Player;
-import com.collarmc.protocol.ProtocolRequest;
 import com.collarmc.protocol.ProtocolResponse;
 import com.collarmc.protocol.sdht.SDHTEventRequest;
 import com.collarmc.protocol.sdht.SDHTEventResponse;
 import com.collarmc.sdht.events.*;
 import com.collarmc.security.messages.GroupMessage;
 import com.collarmc.security.messages.GroupMessageEnvelope;
-import com.collarmc.server.CollarServer;
 import com.collarmc.server.Services;
 import org.eclipse.jetty.websocket.api.Session;
 
@@ -29,9 +27,8 @@ public class SDHTProtocolHandler extends ProtocolHandler {
     }
 
     @Override
-    public boolean handleRequest(CollarServer collar, ClientIdentity identity, ProtocolRequest req, BiConsumer<ClientIdentity, ProtocolResponse> sender) {
-        if (req instanceof SDHTEventRequest) {
-            SDHTEventRequest request = (SDHTEventRequest) req;
+    public void register(ProtocolRegistry.Builder registry) {
+        registry.register(SDHTEventRequest.class, (identity, request, sender) -> {
             AbstractSDHTEvent e = request.event;
             if (e instanceof CreateEntryEvent) {
                 CreateEntryEvent event = (CreateEntryEvent) e;
@@ -44,7 +41,6 @@ public class SDHTProtocolHandler extends ProtocolHandler {
                         sender.accept(found, response);
                     }
                 });
-                return true;
             } else if (e instanceof DeleteRecordEvent) {
                 DeleteRecordEvent event = (DeleteRecordEvent) e;
                 findListeners(identity, event.delete.key.namespace).forEach(found -> {
@@ -66,9 +62,7 @@ public class SDHTProtocolHandler extends ProtocolHandler {
                 SDHTEventResponse response = new SDHTEventResponse(new SyncContentEvent(identity, event.recipient, event.record));
                 sender.accept(event.recipient, response);
             }
-            return true;
-        }
-        return false;
+        });
     }
 
     private Set<ClientIdentity> findListeners(ClientIdentity sender, UUID namespace) {
@@ -6,12 +6,10 @@ import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.api.profiles.PublicProfile;
 import com.collarmc.api.session.Player;
 import com.collarmc.api.textures.TextureType;
-import com.collarmc.protocol.ProtocolRequest;
 import com.collarmc.protocol.ProtocolResponse;
 import com.collarmc.protocol.textures.GetTextureRequest;
 import com.collarmc.protocol.textures.GetTextureResponse;
 import com.collarmc.api.minecraft.MinecraftPlayer;
-import com.collarmc.server.CollarServer;
 import com.collarmc.server.Services;
 import com.collarmc.server.services.textures.TextureService;
 import com.collarmc.server.session.SessionManager;
@@ -30,11 +28,12 @@ public class TexturesProtocolHandler extends ProtocolHandler {
     }
 
     @Override
-    public boolean handleRequest(CollarServer collar, ClientIdentity identity, ProtocolRequest req, BiConsumer<ClientIdentity, ProtocolResponse> sender) {
-        if (req instanceof GetTextureRequest) {
-            GetTextureRequest request = (GetTextureRequest) req;
+    public void register(ProtocolRegistry.Builder registry) {
+        registry.register(GetTextureRequest.class, (identity, request, sender) -> {
             if (request.player != null) {
-                services.sessions.getSessionStateByPlayer(request.player).ifPresentOrElse(sessionState -> {
+                // Textures are only requested for players the client can see, so only look on the same server
+                MinecraftPlayer requester = services.sessions.findMinecraftPlayer(identity).orElse(null);
+                services.sessions.partitions().partition(requester).findByPlayer(request.player).ifPresentOrElse(sessionState -> {
                     GetTextureResponse response;
                     try {
                         TextureService.Texture texture = null;
@@ -71,9 +70,7 @@ public class TexturesProtocolHandler extends ProtocolHandler {
                 }
                 sender.accept(identity, response);
             }
-            return true;
-        }
-        return false;
+        });
     }
 
     private TextureService.Texture findDefaultCape(GetTextureRequest request, SessionManager.SessionState sessionState) {
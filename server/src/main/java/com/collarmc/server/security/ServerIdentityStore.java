@@ -2,5 +2,11 @@ package com.collarmc.server.security;
 
 import com.collarmc.api.identity.ServerIdentity;
 import com.collarmc.security.messages.IdentityStore;
+import com.collarmc.security.sodium.SharedKeyCache;
 
-public interface ServerIdentityStore extends IdentityStore<ServerIdentity> {}
+public interface ServerIdentityStore extends IdentityStore<ServerIdentity> {
+    /**
+     * @return keys shared between the server and the clients it talks to
+     */
+    SharedKeyCache sharedKeys();
+}
@@ -1,9 +1,13 @@
 package com.collarmc.server.security;
 
+import com.collarmc.api.identity.Identity;
 import com.collarmc.api.identity.ServerIdentity;
 import com.collarmc.security.CollarIdentity;
+import com.collarmc.security.KeyPair;
 import com.collarmc.security.messages.Cipher;
 import com.collarmc.security.messages.CipherException;
+import com.collarmc.security.sodium.SessionCipher;
+import com.collarmc.security.sodium.SharedKeyCache;
 import com.collarmc.security.sodium.Sodium;
 import com.collarmc.security.sodium.SodiumCipher;
 import com.mongodb.client.MongoCollection;
@@ -14,15 +18,20 @@ import org.apache.logging.log4j.Logger;
 import org.bson.Document;
 import org.bson.types.Binary;
 
+import java.time.Duration;
 import java.util.Map;
 import java.util.UUID;
 
 public class ServerIdentityStoreImpl implements ServerIdentityStore {
 
     private static final Logger LOGGER = LogManager.getLogger(ServerIdentityStoreImpl.class);
+    private static final long MAX_SHARED_KEYS = 16384;
+    /** Long enough to cover players reconnecting when they switch Minecraft servers or restart their game **/
+    private static final Duration SHARED_KEY_IDLE = Duration.ofHours(1);
 
     private final CollarIdentity collarIdentity;
     private final Sodium sodium;
+    private final SharedKeyCache sharedKeys;
 
     public ServerIdentityStoreImpl(MongoDatabase database, Sodium sodium) throws CipherException {
         this.sodium = sodium;
@@ -45,6 +54,7 @@ public class ServerIdentityStoreImpl implements ServerIdentityStore {
             serverIdentityCollection.insertOne(document);
             LOGGER.info("Created new server identity " + collarIdentity.id);
         }
+        this.sharedKeys = new SharedKeyCache(sodium, collarIdentity.keyPair, MAX_SHARED_KEYS, SHARED_KEY_IDLE);
     }
 
     @Override
@@ -56,4 +66,14 @@ public class ServerIdentityStoreImpl implements ServerIdentityStore {
     public Cipher cipher() {
         return new SodiumCipher(this.sodium, collarIdentity.keyPair);
     }
+
+    @Override
+    public SessionCipher sessionCipher(Identity client, KeyPair ephemeral, byte[] clientEphemeralKey) throws CipherException {
+        return SessionCipher.server(sodium, sharedKeys.sharedKey(client.publicKey()), ephemeral, clientEphemeralKey);
+    }
+
+    @Override
+    public SharedKeyCache sharedKeys() {
+        return sharedKeys;
+    }
 }
@@ -141,6 +141,7 @@ public final class GroupService {
                 if (!member.player.equals(player)) {
                     return;
                 }
+                store.updateLivePlayer(group.id, new MemberSource(player, member.profile));
                 switch (member.membershipState) {
                     case DECLINED, PENDING -> response.add(identity, new GroupInviteResponse(group.id, group.name, group.type, null));
                     case ACCEPTED -> response.add(identity, new RejoinGroupResponse(group.id));
@@ -173,6 +174,14 @@ public final class GroupService {
                     }));
             response.concat(updates);
             updateState(group);
+            // Keep the group in memory only while someone in it is still online
+            boolean membersOnline = group.members.stream()
+                    .anyMatch(member -> !member.player.equals(player) && sessions.getSessionStateByOwner(member.profile.id).isPresent());
+            if (membersOnline) {
+                store.updateLivePlayer(group.id, new MemberSource(new Player(player.identity, null), profile));
+            } else {
+                store.evict(group.id);
+            }
         });
         return Optional.of(response);
     }
@@ -17,6 +17,11 @@ import org.bson.Document;
 
 import javax.annotation.Nonnull;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -24,6 +29,11 @@ import java.util.stream.StreamSupport;
 import static com.mongodb.client.model.Filters.*;
 import static com.mongodb.client.model.Updates.*;
 
+/**
+ * Stores groups in Mongo. Groups read while any of their members are online are kept in memory so real time paths
+ * such as messaging, location sharing and SDHT do not query Mongo. Every write drops the in memory copy, which is
+ * loaded again from Mongo on next read, and {@link GroupService} evicts it once none of its members are online.
+ */
 public final class GroupStore {
 
     private static final String FIELD_ID = "id";
@@ -33,10 +43,16 @@ public final class GroupStore {
     private static final String FIELD_MEMBER_ROLE = "role";
     private static final String FIELD_MEMBER_STATE = "state";
     private static final String FIELD_MEMBER_PROFILE_ID = "profileId";
+    private static final int GENERATION_STRIPES = 1024;
 
     private final ProfileCache profiles;
     private final SessionManager sessions;
     private final MongoCollection<Document> docs;
+    private final List<Consumer<UUID>> listeners = new CopyOnWriteArrayList<>();
+    // Groups with online members
+    private final ConcurrentMap<UUID, Group> live = new ConcurrentHashMap<>();
+    // Bumped by every write to a group in the stripe, so a load that raced a write is not kept in memory
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
 
     public GroupStore(ProfileCache profiles, SessionManager sessions, MongoDatabase database) {
         this.profiles = profiles;
@@ -44,6 +60,13 @@ public final class GroupStore {
         this.docs = database.getCollection("groups");
     }
 
+    /**
+     * @param listener called with the id of every group after it is written or deleted
+     */
+    public void onGroupChanged(Consumer<UUID> listener) {
+        listeners.add(listener);
+    }
+
     /**
      * Upsert group into the store
      * @param group to store
@@ -54,6 +77,7 @@ public final class GroupStore {
         if (!result.wasAcknowledged()) {
             throw new IllegalStateException("group " + group.id + " could not be upserted");
         }
+        changed(group.id);
     }
 
     /**
@@ -62,13 +86,56 @@ public final class GroupStore {
      * @return group
      */
     public Optional<Group> findGroup(UUID groupId) {
+        Group group = live.get(groupId);
+        if (group != null) {
+            return Optional.of(group);
+        }
+        // Loaded outside the map so Mongo is never queried while holding one of its locks
+        long generation = generation(groupId);
         Document first = docs.find(eq(FIELD_ID, groupId)).first();
-        return first == null ? Optional.empty() : Optional.of(mapFromDocument(first));
+        return first == null ? Optional.empty() : Optional.of(keepIfLive(mapFromDocument(first), generation));
     }
 
     public Stream<Group> findGroups(Set<UUID> uuids) {
-        MongoCursor<Group> iterator = docs.find(in(FIELD_ID, uuids)).map(this::mapFromDocument).batchSize(100).iterator();
-        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+        List<Group> found = new ArrayList<>(uuids.size());
+        Map<UUID, Long> missing = new HashMap<>();
+        for (UUID id : uuids) {
+            Group group = live.get(id);
+            if (group != null) {
+                found.add(group);
+            } else {
+                missing.put(id, generation(id));
+            }
+        }
+        if (!missing.isEmpty()) {
+            docs.find(in(FIELD_ID, missing.keySet())).map(this::mapFromDocument)
+                    .forEach(group -> found.add(keepIfLive(group, missing.get(group.id))));
+        }
+        return found.stream();
+    }
+
+    /**
+     * Replace a member's player in the in memory copy of the group, after they have come online or gone offline
+     * @param groupId of the group
+     * @param source of the updated member
+     */
+    public void updateLivePlayer(UUID groupId, MemberSource source) {
+        live.computeIfPresent(groupId, (id, group) -> group.containsPlayer(source.player) ? group.updatePlayer(source) : group);
+    }
+
+    /**
+     * Drop the in memory copy of the group
+     * @param groupId of the group
+     */
+    public void evict(UUID groupId) {
+        live.remove(groupId);
+    }
+
+    /**
+     * @return number of groups held in memory
+     */
+    public int liveGroups() {
+        return live.size();
     }
 
     public Stream<Group> findGroupsContaining(Player player) {
@@ -92,6 +159,7 @@ public final class GroupStore {
         if (!result.wasAcknowledged() && result.getModifiedCount() != 1) {
             throw new IllegalStateException("failed to add members to group " + id);
         }
+        changed(id);
         return findGroup(id);
     }
 
@@ -101,6 +169,7 @@ public final class GroupStore {
         if (!result.wasAcknowledged() && result.getModifiedCount() != 1) {
             throw new IllegalStateException("could not remove member " + profile + " from group " + id);
         }
+        changed(id);
         return findGroup(id);
     }
 
@@ -109,6 +178,7 @@ public final class GroupStore {
         if (!result.wasAcknowledged() && result.getModifiedCount() != 1) {
             throw new IllegalStateException("could not remove member " + profile + " from group " + id);
         }
+        changed(id);
         return findGroup(id);
     }
 
@@ -122,6 +192,7 @@ public final class GroupStore {
         if (!result.wasAcknowledged()) {
             throw new IllegalStateException("group " + group + " could not be deleted");
         }
+        changed(group);
         return result.getDeletedCount() == 1;
     }
 
@@ -131,13 +202,52 @@ public final class GroupStore {
      * @return number of groups deleted
      */
     public long delete(GroupType groupType) {
+        List<UUID> deleted = docs.find(eq(FIELD_TYPE, groupType.name())).map(doc -> doc.get(FIELD_ID, UUID.class)).into(new ArrayList<>());
         DeleteResult result = docs.deleteMany(and(eq(FIELD_TYPE, groupType.name())));
         if (!result.wasAcknowledged()) {
             throw new IllegalStateException("groups with type " + groupType + " could not be deleted");
         }
+        deleted.forEach(this::changed);
         return result.getDeletedCount();
     }
 
+    private void changed(UUID group) {
+        // Bump before removing, so a load that is kept after the remove sees it was stale
+        generations.incrementAndGet(stripe(group));
+        live.remove(group);
+        listeners.forEach(listener -> listener.accept(group));
+    }
+
+    /**
+     * Keep a loaded group in memory if any of its members are online and it was not written while it was loading
+     * @param group that was loaded
+     * @param generation of the group's stripe before it was loaded
+     * @return group
+     */
+    private Group keepIfLive(Group group, long generation) {
+        boolean membersOnline = group.members.stream().anyMatch(member -> sessions.getSessionStateByOwner(member.profile.id).isPresent());
+        if (!membersOnline) {
+            return group;
+        }
+        Group existing = live.putIfAbsent(group.id, group);
+        if (existing != null) {
+            return existing;
+        }
+        // Checked after putting, so either this sees the write or the write removes what was put
+        if (generation(group.id) != generation) {
+            live.remove(group.id, group);
+        }
+        return group;
+    }
+
+    private long generation(UUID group) {
+        return generations.get(stripe(group));
+    }
+
+    private static int stripe(UUID group) {
+        return Math.floorMod(group.hashCode(), GENERATION_STRIPES);
+    }
+
     @Nonnull
     private Group mapFromDocument(Document doc) {
         Set<Member> members = doc.getList(FIELD_MEMBERS, Document.class, new ArrayList<>()).stream()
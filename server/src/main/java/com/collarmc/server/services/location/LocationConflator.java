@@ -0,0 +1,225 @@
+package com.collarmc.server.services.location;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.protocol.ProtocolResponse;
+import com.collarmc.protocol.location.LocationUpdatedResponse;
+import com.collarmc.server.protocol.BatchProtocolResponse;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Buffers location updates and sends each recipient only the latest location of each sender in each group, once
+ * every flush interval. Updates replaced before the flush are discarded. Stopping sharing is never discarded and is
+ * always sent before any location the sender shares after it. Flushes are sent from their own thread, so each
+ * buffered location is checked against its group's members when it is flushed, and dropped if the recipient has left.
+ */
+public final class LocationConflator {
+
+    private static final Logger LOGGER = LogManager.getLogger(LocationConflator.class.getName());
+
+    private final long intervalMillis;
+    private final Recipients recipients;
+    private final ConcurrentMap<Key, Pending> latest = new ConcurrentHashMap<>();
+    private final Queue<Pending> stopped = new ConcurrentLinkedQueue<>();
+    private final LongAdder superseded = new LongAdder();
+    /** Held while locations are offered or taken, never while members are loaded **/
+    private final Object flushLock = new Object();
+    private volatile Consumer<BatchProtocolResponse> sender;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param intervalMillis between each flush, or 0 to never buffer
+     * @param recipients of each group's locations
+     */
+    public LocationConflator(long intervalMillis, Recipients recipients) {
+        this.intervalMillis = intervalMillis;
+        this.recipients = recipients;
+    }
+
+    /**
+     * Start flushing buffered locations every interval
+     * @param sender to send flushed locations with
+     */
+    public synchronized void start(Consumer<BatchProtocolResponse> sender) {
+        if (intervalMillis <= 0 || this.sender != null) {
+            return;
+        }
+        this.sender = sender;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "collar-location-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                flush().ifPresent(sender);
+            } catch (Throwable e) {
+                LOGGER.error("Could not flush locations", e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop flushing. Anything still buffered is discarded and later updates are no longer buffered.
+     */
+    public synchronized void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        scheduler = null;
+        sender = null;
+        latest.clear();
+        stopped.clear();
+    }
+
+    /**
+     * @return whether locations are being buffered
+     */
+    public boolean isRunning() {
+        return sender != null;
+    }
+
+    /**
+     * Buffer the location responses until the next flush
+     * @param responses to buffer
+     */
+    public void offer(BatchProtocolResponse responses) {
+        synchronized (flushLock) {
+            for (Map.Entry<ProtocolResponse, ClientIdentity> entry : responses.responses.entrySet()) {
+                if (!(entry.getKey() instanceof LocationUpdatedResponse)) {
+                    throw new IllegalStateException("only location updates can be conflated, not " + entry.getKey().getClass());
+                }
+                LocationUpdatedResponse response = (LocationUpdatedResponse) entry.getKey();
+                Pending pending = new Pending(entry.getValue(), response);
+                Key key = new Key(response.sender.identity.id(), response.group, entry.getValue().id());
+                if (response.location == null) {
+                    // Whatever the recipient was going to be sent is stale now sharing has stopped
+                    if (latest.remove(key) != null) {
+                        superseded.increment();
+                    }
+                    stopped.add(pending);
+                } else if (latest.put(key, pending) != null) {
+                    superseded.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Take everything buffered since the last flush, except locations for recipients who have left the group
+     * @return responses to send
+     */
+    Optional<BatchProtocolResponse> flush() {
+        // Members are looked up before taking the lock, as they may be loaded from the database
+        Map<UUID, Long> generations = new HashMap<>();
+        Map<UUID, Collection<UUID>> members = new HashMap<>();
+        for (Key key : latest.keySet()) {
+            if (key.group != null && !members.containsKey(key.group)) {
+                // Read before the members, so a change made while they load is seen below
+                generations.put(key.group, recipients.generation(key.group));
+                members.put(key.group, recipients.of(key.group));
+            }
+        }
+        BatchProtocolResponse responses = new BatchProtocolResponse();
+        synchronized (flushLock) {
+            // Stops were all taken out of latest when they were offered, so anything left in latest was shared after them
+            Pending stop;
+            while ((stop = stopped.poll()) != null) {
+                responses.add(stop.recipient, stop.response);
+            }
+            latest.forEach((key, pending) -> {
+                if (key.group != null) {
+                    Collection<UUID> groupMembers = members.get(key.group);
+                    if (groupMembers == null || recipients.generation(key.group) != generations.get(key.group)) {
+                        // Offered or changed since the members were looked up, so left for the next flush to check
+                        return;
+                    }
+                    if (!groupMembers.contains(key.recipient)) {
+                        latest.remove(key, pending);
+                        return;
+                    }
+                }
+                if (latest.remove(key, pending)) {
+                    responses.add(pending.recipient, pending.response);
+                }
+            });
+        }
+        return responses.optional();
+    }
+
+    /**
+     * @return locations discarded because a newer one replaced them before they were sent
+     */
+    public long superseded() {
+        return superseded.sum();
+    }
+
+    /**
+     * Who each group's locations can be sent to
+     */
+    public interface Recipients {
+        /**
+         * @param group id
+         * @return a number that changes whenever the group's members may have changed
+         */
+        long generation(UUID group);
+
+        /**
+         * @param group id
+         * @return profiles of the group's members, may be loaded from the database
+         */
+        Collection<UUID> of(UUID group);
+    }
+
+    private static final class Key {
+        final UUID sender;
+        final UUID group;
+        final UUID recipient;
+
+        Key(UUID sender, UUID group, UUID recipient) {
+            this.sender = sender;
+            this.group = group;
+            this.recipient = recipient;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return sender.equals(key.sender) && Objects.equals(group, key.group) && recipient.equals(key.recipient);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sender, group, recipient);
+        }
+    }
+
+    private static final class Pending {
+        final ClientIdentity recipient;
+        final LocationUpdatedResponse response;
+
+        Pending(ClientIdentity recipient, LocationUpdatedResponse response) {
+            this.recipient = recipient;
+            this.response = response;
+        }
+    }
+}
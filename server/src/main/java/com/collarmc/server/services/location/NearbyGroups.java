@@ -15,7 +15,8 @@ import java.util.concurrent.ConcurrentMap;
  */
 public final class NearbyGroups {
 
-    private final ConcurrentMap<MemberSource, Set<String>> playerHashes = new ConcurrentHashMap<>();
+    // Minecraft server to the entity hashes of each player on it
+    private final ConcurrentMap<String, ConcurrentMap<MemberSource, Set<String>>> playerHashes = new ConcurrentHashMap<>();
     private final ConcurrentMap<NearbyGroup, UUID> nearbyGroups = new ConcurrentHashMap<>();
     private final ConcurrentMap<MemberSource, Set<NearbyGroup>> playerToGroups = new ConcurrentHashMap<>();
 
@@ -27,17 +28,21 @@ public final class NearbyGroups {
      * @return result delta
      */
     public Result updateNearbyGroups(MemberSource source, Set<String> hashes) {
-        playerHashes.compute(source, (thePlayer, strings) -> hashes);
         Map<UUID, NearbyGroup> add = new HashMap<>();
         Map<UUID, NearbyGroup> remove = new HashMap<>();
-        playerHashes.keySet().stream()
-                .filter(anotherSource ->
-                        anotherSource.player.minecraftPlayer != null &&
-                        source.player.minecraftPlayer != null &&
-                        anotherSource.player.minecraftPlayer.inServerWith(source.player.minecraftPlayer)
-                        && !anotherSource.equals(source)
-                ).forEach(anotherPlayer -> {
-            Set<String> otherPlayersHashes = playerHashes.get(anotherPlayer);
+        if (source.player.minecraftPlayer == null) {
+            return new Result(add, remove);
+        }
+        // Only players on the same server can be nearby each other
+        ConcurrentMap<MemberSource, Set<String>> serverHashes = playerHashes.compute(source.player.minecraftPlayer.server, (server, sources) -> {
+            sources = sources == null ? new ConcurrentHashMap<>() : sources;
+            sources.put(source, hashes);
+            return sources;
+        });
+        serverHashes.forEach((anotherPlayer, otherPlayersHashes) -> {
+            if (anotherPlayer.equals(source)) {
+                return;
+            }
             NearbyGroup group = new NearbyGroup(Set.of(source, anotherPlayer));
             if (Sets.difference(hashes, otherPlayersHashes).isEmpty()) {
                 nearbyGroups.compute(group, (nearbyGroup, uuid) -> {
@@ -72,8 +77,16 @@ public final class NearbyGroups {
      * @param player to remove
      */
     public void removePlayerState(Player player) {
-        playerHashes.remove(new MemberSource(player, null));
-        Set<NearbyGroup> groups = playerToGroups.remove(new MemberSource(player, null));
+        MemberSource source = new MemberSource(player, null);
+        if (player.minecraftPlayer != null) {
+            playerHashes.computeIfPresent(player.minecraftPlayer.server, (server, sources) -> {
+                sources.remove(source);
+                return sources.isEmpty() ? null : sources;
+            });
+        } else {
+            playerHashes.values().forEach(sources -> sources.remove(source));
+        }
+        Set<NearbyGroup> groups = playerToGroups.remove(source);
         if (groups != null) {
             groups.forEach(nearbyGroups::remove);
         }
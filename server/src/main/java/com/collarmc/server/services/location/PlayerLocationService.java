@@ -1,12 +1,11 @@
 package com.collarmc.server.services.location;
 
-import com.collarmc.api.groups.Group;
-import com.collarmc.api.groups.Member;
 import com.collarmc.api.groups.MemberSource;
 import com.collarmc.api.groups.MembershipState;
 import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.api.profiles.PublicProfile;
 import com.collarmc.api.session.Player;
+import com.collarmc.protocol.PacketIO;
 import com.collarmc.protocol.location.*;
 import com.collarmc.security.messages.GroupMessageEnvelope;
 import com.collarmc.server.Services;
@@ -14,48 +13,104 @@ import com.collarmc.server.protocol.BatchProtocolResponse;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import javax.annotation.Nullable;
+
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class PlayerLocationService {
 
     private static final Logger LOGGER = LogManager.getLogger(PlayerLocationService.class.getName());
+    private static final int GENERATION_STRIPES = 1024;
 
     private final NearbyGroups nearbyGroups = new NearbyGroups();
 
     // Group to players
     private final ConcurrentMap<UUID, Set<UUID>> playersSharing = new ConcurrentHashMap<>();
+    // Player to groups, the inverse of playersSharing
+    private final ConcurrentMap<UUID, Set<UUID>> groupsSharing = new ConcurrentHashMap<>();
+    // Group to the profiles of its accepted members, dropped whenever the group changes
+    private final ConcurrentMap<UUID, List<UUID>> recipients = new ConcurrentHashMap<>();
+    // Bumped whenever a group in the stripe changes, so buffered locations are checked against its current members
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
     private final Services services;
+    private final LocationConflator conflator;
 
-    public PlayerLocationService(Services services) {
+    public PlayerLocationService(Services services, long flushIntervalMillis) {
         this.services = services;
+        this.conflator = new LocationConflator(flushIntervalMillis, new LocationConflator.Recipients() {
+            @Override
+            public long generation(UUID group) {
+                return generations.get(stripe(group));
+            }
+
+            @Override
+            public Collection<UUID> of(UUID group) {
+                return recipients(group);
+            }
+        });
+        services.groupStore.onGroupChanged(group -> {
+            // Bumped before removing, so recipients loaded before the change are not kept
+            generations.incrementAndGet(stripe(group));
+            recipients.remove(group);
+            // and after, so a flush that looked up the old members sees they were stale
+            generations.incrementAndGet(stripe(group));
+        });
+    }
+
+    /**
+     * Start buffering location updates and sending only the latest ones every flush interval
+     * @param sender to send the buffered updates with
+     */
+    public void flushTo(Consumer<BatchProtocolResponse> sender) {
+        conflator.start(sender);
+    }
+
+    /**
+     * Stop buffering location updates
+     */
+    public void stop() {
+        conflator.stop();
+    }
+
+    /**
+     * @return location updates discarded because a newer update replaced them
+     */
+    public long superseded() {
+        return conflator.superseded();
     }
 
     public void startSharing(ClientIdentity identity, StartSharingLocationRequest req) {
         services.sessions.findPlayer(identity).ifPresent(player -> {
-            playersSharing.compute(req.groupId, (uuid, players) -> {
-                if (players == null) {
-                    players = new HashSet<>();
-                }
-                players.add(player.identity.id());
+            UUID profile = player.identity.id();
+            // Add inside compute so it cannot race with stopSharing removing the emptied set
+            playersSharing.compute(req.groupId, (groupId, players) -> {
+                players = players == null ? ConcurrentHashMap.newKeySet() : players;
+                players.add(profile);
                 return players;
             });
+            groupsSharing.compute(profile, (playerId, groups) -> {
+                groups = groups == null ? ConcurrentHashMap.newKeySet() : groups;
+                groups.add(req.groupId);
+                return groups;
+            });
             LOGGER.info("Player " + player + " started sharing location with group " + req.groupId);
         });
     }
 
     public Optional<BatchProtocolResponse> stopSharing(ClientIdentity identity, StopSharingLocationRequest req) {
-        return services.sessions.findPlayer(identity).flatMap(player -> stopSharing(req.groupId, player));
+        return conflate(services.sessions.findPlayer(identity).flatMap(player -> stopSharing(req.groupId, player)));
     }
 
     public Optional<BatchProtocolResponse> stopSharing(Player player) {
-        return services.sessions.getIdentity(player)
+        return conflate(services.sessions.getIdentity(player)
                 .map(identity -> {
                     BatchProtocolResponse responses = new BatchProtocolResponse();
-                    List<BatchProtocolResponse> allResponses = playersSharing.entrySet().stream().filter(entry -> entry.getValue().contains(player.identity.id()))
-                            .map(Map.Entry::getKey)
+                    List<BatchProtocolResponse> allResponses = Set.copyOf(sharingWith(player)).stream()
                             .map(uuid -> stopSharing(uuid, player))
                             .filter(Optional::isPresent)
                             .map(Optional::get)
@@ -65,7 +120,7 @@ public class PlayerLocationService {
                         responses.concat(response);
                     }
                     return responses;
-        });
+        }));
     }
 
     /**
@@ -74,19 +129,37 @@ public class PlayerLocationService {
      * @return {@link LocationUpdatedResponse} responses to send to clients
      */
     public Optional<BatchProtocolResponse> updateLocation(ClientIdentity identity, UpdateLocationRequest req) {
-        return services.sessions.findPlayer(identity).flatMap(player -> createLocationResponses(player, new LocationUpdatedResponse(req.group, player, req.location)));
+        return conflate(services.sessions.findPlayer(identity).flatMap(player -> createLocationResponses(player, new LocationUpdatedResponse(req.group, player, req.location), req.compactLocation)));
+    }
+
+    /**
+     * @param responses location updates
+     * @return the updates to send now, or nothing if they were buffered until the next flush
+     */
+    private Optional<BatchProtocolResponse> conflate(Optional<BatchProtocolResponse> responses) {
+        if (!conflator.isRunning()) {
+            return responses;
+        }
+        responses.ifPresent(conflator::offer);
+        return Optional.empty();
     }
 
     private Optional<BatchProtocolResponse> stopSharing(UUID groupId, Player player) {
         LOGGER.info("Player " + player + " started sharing location with group " + groupId);
         LocationUpdatedResponse locationUpdatedResponse = new LocationUpdatedResponse(groupId, player, null);
-        Optional<BatchProtocolResponse> responses = createLocationResponses(player, locationUpdatedResponse);
-        playersSharing.compute(groupId, (uuid, players) -> {
-            if (players == null) {
+        Optional<BatchProtocolResponse> responses = createLocationResponses(player, locationUpdatedResponse, null);
+        UUID profile = player.identity.id();
+        playersSharing.computeIfPresent(groupId, (uuid, players) -> {
+            players.remove(profile);
+            if (players.isEmpty()) {
+                recipients.remove(groupId);
                 return null;
             }
-            players.remove(player.identity.id());
-            return players.isEmpty() ? null : players;
+            return players;
+        });
+        groupsSharing.computeIfPresent(profile, (uuid, groups) -> {
+            groups.remove(groupId);
+            return groups.isEmpty() ? null : groups;
         });
         return responses;
     }
@@ -101,40 +174,87 @@ public class PlayerLocationService {
         return services.groups.updateNearbyGroups(result);
     }
 
-    private Optional<BatchProtocolResponse> createLocationResponses(Player sender, LocationUpdatedResponse resp) {
+    /**
+     * @param sender of the location
+     * @param resp carrying the location every recipient can read
+     * @param compactLocation sent instead to recipients that negotiated {@link PacketIO#FEATURE_COMPACT_LOCATIONS}
+     * @return responses to send
+     */
+    private Optional<BatchProtocolResponse> createLocationResponses(Player sender, LocationUpdatedResponse resp, @Nullable byte[] compactLocation) {
         BatchProtocolResponse responses = new BatchProtocolResponse();
-        // Find all the groups the requesting player is a member of
-        Set<UUID> sharingWithGroups = playersSharing.entrySet().stream().filter(entry -> entry.getValue().contains(sender.identity.id()))
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toSet());
-        Set<Group> memberGroups = services.groups.findGroups(sharingWithGroups);
+        UUID senderProfile = sender.identity.id();
         // Keep track of players we have sent to, so we do not send them duplicate messages (e.g. if they share membership of 2 or more groups)
-        HashSet<Player> uniquePlayers = new HashSet<>();
+        Set<UUID> uniquePlayers = new HashSet<>();
         GroupMessageEnvelope messageEnvelope = resp.location == null ? null : new GroupMessageEnvelope(resp.location);
-        for (Group group : memberGroups) {
-            for (Member member : group.members) {
-                Player memberPlayer = member.player;
+        GroupMessageEnvelope compactEnvelope = messageEnvelope == null || compactLocation == null ? null : new GroupMessageEnvelope(compactLocation);
+        for (UUID groupId : sharingWith(sender)) {
+            for (UUID profile : recipients(groupId)) {
                 // Do not send to self
-                if (memberPlayer.equals(sender)) {
+                if (profile.equals(senderProfile) || uniquePlayers.contains(profile)) {
                     continue;
                 }
-                if (uniquePlayers.contains(memberPlayer) || member.membershipState != MembershipState.ACCEPTED) {
+                if (messageEnvelope != null && !messageEnvelope.messages.containsKey(profile)) {
                     continue;
                 }
-                if (messageEnvelope != null && !messageEnvelope.messages.containsKey(memberPlayer.identity.id())) {
-                    continue;
-                }
-                services.sessions.getIdentity(memberPlayer).ifPresent(identity -> {
-                    uniquePlayers.add(memberPlayer);
-                    byte[] location = messageEnvelope == null ? null : messageEnvelope.messages.get(memberPlayer.identity.id()).contents;
-                    responses.add(identity, new LocationUpdatedResponse(resp.group, sender, location));
+                services.sessions.getSessionStateByOwner(profile).ifPresent(state -> {
+                    uniquePlayers.add(profile);
+                    byte[] location;
+                    if (messageEnvelope == null) {
+                        location = null;
+                    } else if (compactEnvelope != null && compactEnvelope.messages.containsKey(profile) && state.supports(PacketIO.FEATURE_COMPACT_LOCATIONS)) {
+                        location = compactEnvelope.messages.get(profile).contents;
+                    } else {
+                        location = messageEnvelope.messages.get(profile).contents;
+                    }
+                    responses.add(state.identity, new LocationUpdatedResponse(resp.group, sender, location));
                 });
             }
         }
         return responses.optional();
     }
 
+    /**
+     * @param player sharing
+     * @return groups the player is sharing their location with
+     */
+    private Set<UUID> sharingWith(Player player) {
+        Set<UUID> groups = groupsSharing.get(player.identity.id());
+        return groups == null ? Set.of() : groups;
+    }
+
+    /**
+     * @param groupId of the group
+     * @return profiles of accepted members of the group, loaded from the group store on first use
+     */
+    private List<UUID> recipients(UUID groupId) {
+        List<UUID> cached = recipients.get(groupId);
+        if (cached != null) {
+            return cached;
+        }
+        // Loaded outside the map so Mongo is never queried while holding one of its locks
+        long generation = generations.get(stripe(groupId));
+        List<UUID> loaded = services.groups.findGroup(groupId)
+                .map(group -> group.members.stream()
+                        .filter(member -> member.membershipState == MembershipState.ACCEPTED)
+                        .map(member -> member.player.identity.id())
+                        .collect(Collectors.toUnmodifiableList()))
+                .orElse(List.of());
+        List<UUID> existing = recipients.putIfAbsent(groupId, loaded);
+        if (existing != null) {
+            return existing;
+        }
+        // Checked after putting, so either this sees the change or the change removes what was put
+        if (generations.get(stripe(groupId)) != generation) {
+            recipients.remove(groupId, loaded);
+        }
+        return loaded;
+    }
+
     public void removePlayerState(Player player) {
         this.nearbyGroups.removePlayerState(player);
     }
+
+    private static int stripe(UUID group) {
+        return Math.floorMod(group.hashCode(), GENERATION_STRIPES);
+    }
 }
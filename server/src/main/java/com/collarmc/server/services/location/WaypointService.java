@@ -4,6 +4,7 @@ import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.api.waypoints.EncryptedWaypoint;
 import com.collarmc.protocol.waypoints.CreateWaypointRequest;
 import com.collarmc.protocol.waypoints.GetWaypointsRequest;
+import com.collarmc.protocol.waypoints.GetWaypointsResponse;
 import com.collarmc.protocol.waypoints.RemoveWaypointRequest;
 import com.collarmc.server.services.profiles.storage.ProfileStorage;
 
@@ -15,6 +16,8 @@ import java.util.stream.Collectors;
  */
 public final class WaypointService {
     private static final String WAYPOINT_BLOB_TYPE = "W";
+    /** Largest page of waypoints returned for one request **/
+    public static final int MAX_PAGE_SIZE = 256;
 
     private final ProfileStorage storage;
 
@@ -30,8 +33,27 @@ public final class WaypointService {
         storage.delete(identity.id(), req.waypointId);
     }
 
-    public List<EncryptedWaypoint> getWaypoints(ClientIdentity identity, GetWaypointsRequest req) {
-        List<ProfileStorage.Blob> blobs = storage.find(identity.id(), WAYPOINT_BLOB_TYPE);
+    /**
+     * Clients that don't send a limit get every waypoint in one response
+     * @param identity of the owner
+     * @param req request
+     * @return page of waypoints
+     */
+    public GetWaypointsResponse getWaypoints(ClientIdentity identity, GetWaypointsRequest req) {
+        if (req.limit == null) {
+            return new GetWaypointsResponse(waypoints(storage.find(identity.id(), WAYPOINT_BLOB_TYPE)), null);
+        }
+        int limit = Math.max(1, Math.min(req.limit, MAX_PAGE_SIZE));
+        // Ask for one more than the page to find out if there is another page
+        List<ProfileStorage.Blob> blobs = storage.find(identity.id(), WAYPOINT_BLOB_TYPE, req.after, limit + 1);
+        if (blobs.size() <= limit) {
+            return new GetWaypointsResponse(waypoints(blobs), null);
+        }
+        List<ProfileStorage.Blob> page = blobs.subList(0, limit);
+        return new GetWaypointsResponse(waypoints(page), page.get(limit - 1).key);
+    }
+
+    private static List<EncryptedWaypoint> waypoints(List<ProfileStorage.Blob> blobs) {
         return blobs.stream().map(blob -> new EncryptedWaypoint(blob.key, blob.data)).collect(Collectors.toList());
     }
 }
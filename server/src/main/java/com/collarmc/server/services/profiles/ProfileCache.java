@@ -7,6 +7,7 @@ import com.collarmc.api.profiles.ProfileService;
 import com.collarmc.api.profiles.ProfileService.GetProfileRequest;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
 
 import java.util.Optional;
@@ -18,6 +19,7 @@ public final class ProfileCache {
     private final ProfileService profiles;
     private final LoadingCache<UUID, Optional<Profile>> profileCache = CacheBuilder.newBuilder()
             .expireAfterAccess(30, TimeUnit.SECONDS)
+            .recordStats()
             .build(new CacheLoader<>() {
                 @Override
                 public Optional<Profile> load(UUID key) {
@@ -46,4 +48,11 @@ public final class ProfileCache {
             return Optional.empty();
         }
     }
+
+    /**
+     * @return hits, misses and load times of the cache
+     */
+    public CacheStats stats() {
+        return profileCache.stats();
+    }
 }
@@ -1,12 +1,15 @@
 package com.collarmc.server.services.profiles.storage;
 
+import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Sorts;
 import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.Binary;
 
 import java.util.ArrayList;
@@ -16,6 +19,7 @@ import java.util.UUID;
 
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
 
 public class ProfileStorage {
     public static final String FIELD_KEY = "key";
@@ -70,7 +74,26 @@ public class ProfileStorage {
     }
 
     public List<Blob> find(UUID owner, String type) {
-        MongoCursor<Blob> iterator = docs.find(and(eq(FIELD_OWNER, owner), eq(FIELD_TYPE, type))).map(document -> new Blob(
+        return blobs(docs.find(and(eq(FIELD_OWNER, owner), eq(FIELD_TYPE, type))));
+    }
+
+    /**
+     * Find a page of blobs belonging to the owner, ordered by key
+     * @param owner of the blobs
+     * @param type of the blobs
+     * @param after key to start after, or null to start from the first
+     * @param limit of blobs to return
+     * @return blobs
+     */
+    public List<Blob> find(UUID owner, String type, UUID after, int limit) {
+        Bson filter = after == null
+                ? and(eq(FIELD_OWNER, owner), eq(FIELD_TYPE, type))
+                : and(eq(FIELD_OWNER, owner), eq(FIELD_TYPE, type), gt(FIELD_KEY, after));
+        return blobs(docs.find(filter).sort(Sorts.ascending(FIELD_KEY)).limit(limit));
+    }
+
+    private static List<Blob> blobs(FindIterable<Document> documents) {
+        MongoCursor<Blob> iterator = documents.map(document -> new Blob(
                 document.get(FIELD_OWNER, UUID.class),
                 document.get(FIELD_KEY, UUID.class),
                 document.get(FIELD_TYPE, String.class),
@@ -0,0 +1,49 @@
+package com.collarmc.server.session;
+
+import com.collarmc.protocol.ProtocolRequest;
+import com.collarmc.server.configuration.RateLimits;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server wide admission control. When the session workers fall behind, the cheapest and most frequent requests
+ * are shed so that everything else keeps being served.
+ */
+public final class AdmissionController {
+
+    private final SessionExecutor workers;
+    private final RateLimits limits;
+    private final LongAdder shed = new LongAdder();
+
+    public AdmissionController(SessionExecutor workers, RateLimits limits) {
+        this.workers = workers;
+        this.limits = limits;
+    }
+
+    /**
+     * @param request to admit
+     * @return true if the request should be processed
+     */
+    public boolean admit(ProtocolRequest request) {
+        if (!limits.sheddable.contains(request.getClass()) || !overloaded()) {
+            return true;
+        }
+        shed.increment();
+        return false;
+    }
+
+    /**
+     * @return if worker queues or worker lag are past their thresholds
+     */
+    public boolean overloaded() {
+        return workers.maxQueueDepth() >= limits.shedQueueDepth
+                || workers.recentWait().compareTo(limits.shedWorkerLag) >= 0;
+    }
+
+    /**
+     * @return number of requests shed
+     */
+    public long shed() {
+        return shed.sum();
+    }
+}
@@ -0,0 +1,109 @@
+package com.collarmc.server.session;
+
+import com.collarmc.protocol.PacketIO;
+import com.collarmc.protocol.ProtocolResponse;
+import com.collarmc.security.messages.CipherException;
+import org.eclipse.jetty.websocket.api.Session;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Encrypts packets for many recipients in parallel on a dedicated pool, so broadcasting to a large group does not
+ * encrypt every recipient's packet one after another on the sending thread. Each packet holds its place in the
+ * recipient's {@link OutboundQueues} while it is encrypted and is written as soon as it is ready.
+ */
+public final class FanOutEncoder {
+
+    private final OutboundQueues outbound;
+    @Nullable
+    private final ForkJoinPool pool;
+    private final int minRecipients;
+    private final LongAdder parallelEncodes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * @param outbound queues to write packets to
+     * @param threads in the pool, or 0 to always encode on the sending thread
+     * @param minRecipients smallest broadcast worth handing to the pool
+     */
+    public FanOutEncoder(OutboundQueues outbound, int threads, int minRecipients) {
+        this.outbound = outbound;
+        this.minRecipients = minRecipients;
+        if (threads > 0) {
+            AtomicInteger counter = new AtomicInteger();
+            this.pool = new ForkJoinPool(threads, forkJoinPool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+                thread.setName("collar-fanout-" + counter.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }, null, true);
+        } else {
+            this.pool = null;
+        }
+    }
+
+    /**
+     * @param recipients of a broadcast
+     * @return if the broadcast should be encoded in parallel
+     */
+    public boolean parallel(int recipients) {
+        return pool != null && recipients >= minRecipients;
+    }
+
+    /**
+     * Encode a packet on the pool and queue it for the session once it is ready
+     * @param session to write to
+     * @param response the packet contains, or null if it is always delivered
+     * @param encoder that produces the packet
+     * @return future completed with false if the packet overflowed the session's queue, or with the error if the
+     * packet could not be encoded
+     */
+    public CompletableFuture<Boolean> send(Session session, @Nullable ProtocolResponse response, Encoder encoder) {
+        if (pool == null) {
+            throw new IllegalStateException("fan out is disabled");
+        }
+        OutboundQueues.Reservation reservation = outbound.reserve(session, response);
+        parallelEncodes.increment();
+        return CompletableFuture.supplyAsync(() -> {
+            byte[] bytes;
+            try {
+                bytes = encoder.encode();
+            } catch (Throwable e) {
+                failures.increment();
+                // Release the place in the queue so the packets behind it are still written
+                reservation.cancel();
+                throw new CompletionException(e);
+            }
+            return reservation.complete(PacketIO.frames(bytes));
+        }, pool);
+    }
+
+    /**
+     * @return number of packets encoded on the pool
+     */
+    public long parallelEncodes() {
+        return parallelEncodes.sum();
+    }
+
+    /**
+     * @return number of packets that failed to encode on the pool
+     */
+    public long failures() {
+        return failures.sum();
+    }
+
+    /**
+     * Encodes a packet
+     */
+    @FunctionalInterface
+    public interface Encoder {
+        byte[] encode() throws IOException, CipherException;
+    }
+}
@@ -0,0 +1,55 @@
+package com.collarmc.server.session;
+
+import com.collarmc.protocol.ProtocolResponse;
+import com.collarmc.protocol.location.LocationUpdatedResponse;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * How a response type is treated while it waits in a session's outbound queue
+ */
+public final class OutboundPolicy {
+
+    /** Response is always delivered. If it does not fit in the queue the session is disconnected. **/
+    public static final OutboundPolicy RELIABLE = new OutboundPolicy(null);
+
+    private final Function<ProtocolResponse, Object> conflationKey;
+
+    private OutboundPolicy(Function<ProtocolResponse, Object> conflationKey) {
+        this.conflationKey = conflationKey;
+    }
+
+    /**
+     * A queued response is replaced by a newer response with the same key, so only the latest is delivered
+     * @param type of response
+     * @param key to conflate responses by, which may be or contain null
+     * @param <T> type of response
+     * @return policy
+     */
+    public static <T extends ProtocolResponse> OutboundPolicy conflate(Class<T> type, Function<T, Object> key) {
+        return new OutboundPolicy(response -> Arrays.asList(type, key.apply(type.cast(response))));
+    }
+
+    /**
+     * @param response to get the key of
+     * @return key or null if the response is never conflated
+     */
+    Object conflationKey(ProtocolResponse response) {
+        return conflationKey == null ? null : conflationKey.apply(response);
+    }
+
+    /**
+     * Location updates are conflated per sender and group, which is null for updates not shared with a group.
+     * Everything else, including group, membership
+     * and message responses, is {@link #RELIABLE}
+     * @return default policies by response type
+     */
+    public static Map<Class<? extends ProtocolResponse>, OutboundPolicy> defaults() {
+        Map<Class<? extends ProtocolResponse>, OutboundPolicy> policies = new HashMap<>();
+        policies.put(LocationUpdatedResponse.class, conflate(LocationUpdatedResponse.class, response -> Arrays.asList(response.sender.identity.id(), response.group)));
+        return policies;
+    }
+}
@@ -0,0 +1,395 @@
+package com.collarmc.server.session;
+
+import com.collarmc.protocol.ProtocolResponse;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded outbound queue per session. Only one write per session is handed to Jetty at a time, so a slow client
+ * backs up here, where it is limited, instead of inside Jetty.
+ */
+public final class OutboundQueues {
+
+    private static final Logger LOGGER = LogManager.getLogger(OutboundQueues.class.getName());
+
+    private final ConcurrentMap<Session, Outbox> outboxes = new ConcurrentHashMap<>();
+    private final Map<Class<? extends ProtocolResponse>, OutboundPolicy> policies;
+    private final int maxMessages;
+    private final long maxBytes;
+    private final LongAdder conflated = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+
+    /**
+     * @param maxMessages maximum number of packets waiting to be written per session
+     * @param maxBytes maximum number of bytes waiting to be written per session
+     * @param policies by response type. Types without a policy are {@link OutboundPolicy#RELIABLE}
+     */
+    public OutboundQueues(int maxMessages, long maxBytes, Map<Class<? extends ProtocolResponse>, OutboundPolicy> policies) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.policies = Map.copyOf(policies);
+    }
+
+    /**
+     * Queue a packet to be written to the session
+     * @param session to write to
+     * @param response the packet contains, used to find its policy. Null if the packet is always delivered.
+     * @param bytes of the packet
+     * @return false if this packet overflowed the queue and the session should be disconnected.
+     *         Packets sent after the queue overflowed, or to a closed session, are dropped.
+     */
+    public boolean send(@Nonnull Session session, @Nullable ProtocolResponse response, @Nonnull ByteBuffer bytes) {
+        return send(session, response, List.of(bytes));
+    }
+
+    /**
+     * Queue a packet that was split in to several frames. The frames are written one after another, with nothing
+     * written between them.
+     * @param session to write to
+     * @param response the packet contains, used to find its policy. Null if the packet is always delivered.
+     * @param frames of the packet
+     * @return false if this packet overflowed the queue and the session should be disconnected
+     */
+    public boolean send(@Nonnull Session session, @Nullable ProtocolResponse response, @Nonnull List<ByteBuffer> frames) {
+        if (!session.isOpen()) {
+            return true;
+        }
+        return outboxes.computeIfAbsent(session, Outbox::new).offer(conflationKey(response), frames);
+    }
+
+    /**
+     * Hold a place in the session's queue for a packet that is still being encoded. Packets queued after it wait
+     * until it is completed or cancelled, so the session receives packets in the order they were sent even when
+     * they finish encoding out of order.
+     * @param session to write to
+     * @param response the packet will contain, used to find its policy. Null if the packet is always delivered.
+     * @return reservation to complete with the packet
+     */
+    public Reservation reserve(@Nonnull Session session, @Nullable ProtocolResponse response) {
+        if (!session.isOpen()) {
+            return Reservation.DROPPED;
+        }
+        return outboxes.computeIfAbsent(session, Outbox::new).reserve(conflationKey(response));
+    }
+
+    private Object conflationKey(@Nullable ProtocolResponse response) {
+        if (response == null) {
+            return null;
+        }
+        return policies.getOrDefault(response.getClass(), OutboundPolicy.RELIABLE).conflationKey(response);
+    }
+
+    /**
+     * Discard anything waiting to be written to the session
+     * @param session to remove
+     */
+    public void remove(Session session) {
+        Outbox outbox = outboxes.remove(session);
+        if (outbox != null) {
+            outbox.discard();
+        }
+    }
+
+    /**
+     * @return packets waiting to be written across all sessions
+     */
+    public long pendingMessages() {
+        return outboxes.values().stream().mapToLong(Outbox::pendingMessages).sum();
+    }
+
+    /**
+     * @return bytes waiting to be written across all sessions
+     */
+    public long pendingBytes() {
+        return outboxes.values().stream().mapToLong(Outbox::pendingBytes).sum();
+    }
+
+    /**
+     * @return number of packets replaced by a newer packet before they were written
+     */
+    public long conflated() {
+        return conflated.sum();
+    }
+
+    /**
+     * @return number of sessions whose queue overflowed
+     */
+    public long overflows() {
+        return overflows.sum();
+    }
+
+    /**
+     * A place in a session's queue waiting for its packet
+     */
+    public static final class Reservation {
+        /** Reservation for a session that is closed, whose packet is dropped **/
+        static final Reservation DROPPED = new Reservation(null, null, 0);
+        /** Reservation that overflowed the queue **/
+        static final Reservation OVERFLOWED = new Reservation(null, null, 0);
+
+        private final Outbox outbox;
+        private final Entry entry;
+        private final int generation;
+
+        private Reservation(Outbox outbox, Entry entry, int generation) {
+            this.outbox = outbox;
+            this.entry = entry;
+            this.generation = generation;
+        }
+
+        /**
+         * @param bytes of the packet
+         * @return false if the queue overflowed and the session should be disconnected
+         */
+        public boolean complete(@Nonnull ByteBuffer bytes) {
+            return complete(List.of(bytes));
+        }
+
+        /**
+         * @param frames of the packet, written one after another
+         * @return false if the queue overflowed and the session should be disconnected
+         */
+        public boolean complete(@Nonnull List<ByteBuffer> frames) {
+            if (this == OVERFLOWED) {
+                return false;
+            }
+            return outbox == null || outbox.fill(entry, generation, frames);
+        }
+
+        /**
+         * Give up the place in the queue, so packets waiting behind it are written
+         */
+        public void cancel() {
+            if (outbox != null) {
+                outbox.cancel(entry, generation);
+            }
+        }
+    }
+
+    private final class Outbox implements WriteCallback {
+        private final Session session;
+        private final ArrayDeque<Entry> pending = new ArrayDeque<>();
+        private final Map<Object, Entry> conflatable = new HashMap<>();
+        private long pendingBytes;
+        private boolean writing;
+        private boolean closed;
+
+        Outbox(Session session) {
+            this.session = session;
+        }
+
+        boolean offer(Object key, List<ByteBuffer> frames) {
+            int size = size(frames);
+            ByteBuffer next;
+            synchronized (this) {
+                if (closed) {
+                    return true;
+                }
+                Entry existing = key == null ? null : conflatable.get(key);
+                if (existing != null) {
+                    pendingBytes += size - existing.size();
+                    existing.frames = frames;
+                    // Supersedes any reservation still encoding the entry
+                    existing.generation++;
+                    conflated.increment();
+                } else {
+                    if (overflows(size)) {
+                        return false;
+                    }
+                    Entry entry = new Entry(key, frames);
+                    add(entry);
+                    pendingBytes += size;
+                }
+                if (writing) {
+                    return true;
+                }
+                next = poll();
+            }
+            write(next);
+            return true;
+        }
+
+        synchronized Reservation reserve(Object key) {
+            if (closed) {
+                return Reservation.DROPPED;
+            }
+            Entry existing = key == null ? null : conflatable.get(key);
+            if (existing != null) {
+                // Wait for the newer packet rather than writing the one it replaces
+                pendingBytes -= existing.size();
+                existing.frames = null;
+                existing.generation++;
+                conflated.increment();
+                return new Reservation(this, existing, existing.generation);
+            }
+            if (overflows(0)) {
+                return Reservation.OVERFLOWED;
+            }
+            Entry entry = new Entry(key, null);
+            add(entry);
+            return new Reservation(this, entry, entry.generation);
+        }
+
+        boolean fill(Entry entry, int generation, List<ByteBuffer> frames) {
+            int size = size(frames);
+            ByteBuffer next;
+            synchronized (this) {
+                if (closed || entry.generation != generation) {
+                    return true;
+                }
+                if (overflows(size)) {
+                    return false;
+                }
+                entry.frames = frames;
+                pendingBytes += size;
+                if (writing) {
+                    return true;
+                }
+                next = poll();
+            }
+            write(next);
+            return true;
+        }
+
+        void cancel(Entry entry, int generation) {
+            ByteBuffer next;
+            synchronized (this) {
+                if (closed || entry.generation != generation) {
+                    return;
+                }
+                entry.cancelled = true;
+                if (entry.key != null) {
+                    conflatable.remove(entry.key, entry);
+                }
+                if (writing) {
+                    return;
+                }
+                next = poll();
+            }
+            write(next);
+        }
+
+        synchronized void discard() {
+            closed = true;
+            pending.clear();
+            conflatable.clear();
+            pendingBytes = 0;
+        }
+
+        synchronized int pendingMessages() {
+            return pending.size();
+        }
+
+        synchronized long pendingBytes() {
+            return pendingBytes;
+        }
+
+        @Override
+        public void writeSuccess() {
+            ByteBuffer next;
+            synchronized (this) {
+                next = poll();
+            }
+            write(next);
+        }
+
+        @Override
+        public void writeFailed(Throwable e) {
+            LOGGER.debug("Write to session failed", e);
+            discard();
+            synchronized (this) {
+                writing = false;
+            }
+        }
+
+        private boolean overflows(int bytes) {
+            if (pending.size() >= maxMessages || pendingBytes + bytes > maxBytes) {
+                LOGGER.warn("Outbound queue overflowed with " + pending.size() + " packets and " + pendingBytes + " bytes pending");
+                overflows.increment();
+                discard();
+                return true;
+            }
+            return false;
+        }
+
+        private void add(Entry entry) {
+            pending.add(entry);
+            if (entry.key != null) {
+                conflatable.put(entry.key, entry);
+            }
+        }
+
+        /**
+         * @return the next frame to write, or null if there is none or the next packet is still being encoded
+         */
+        private ByteBuffer poll() {
+            Entry entry = pending.peek();
+            while (entry != null && entry.cancelled) {
+                pending.poll();
+                entry = pending.peek();
+            }
+            if (entry == null || entry.frames == null) {
+                writing = false;
+                return null;
+            }
+            if (entry.written == 0 && entry.key != null) {
+                // Once a packet starts being written it can no longer be replaced
+                conflatable.remove(entry.key);
+            }
+            ByteBuffer frame = entry.frames.get(entry.written++);
+            if (entry.written == entry.frames.size()) {
+                pending.poll();
+            }
+            pendingBytes -= frame.remaining();
+            writing = true;
+            return frame;
+        }
+
+        private void write(ByteBuffer frame) {
+            if (frame != null) {
+                session.getRemote().sendBytes(frame, this);
+            }
+        }
+    }
+
+    private static int size(List<ByteBuffer> frames) {
+        int size = 0;
+        for (ByteBuffer frame : frames) {
+            size += frame.remaining();
+        }
+        return size;
+    }
+
+    private static final class Entry {
+        final Object key;
+        List<ByteBuffer> frames;
+        int written;
+        int generation;
+        boolean cancelled;
+
+        Entry(Object key, List<ByteBuffer> frames) {
+            this.key = key;
+            this.frames = frames;
+        }
+
+        /**
+         * Only called on entries that can still be conflated, which have not started being written
+         */
+        int size() {
+            return frames == null ? 0 : OutboundQueues.size(frames);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.collarmc.server.session;
+
+import com.collarmc.api.minecraft.MinecraftPlayer;
+import com.collarmc.server.session.SessionManager.SessionState;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Partitions sessions by the Minecraft server their player is connected to, so that questions
+ * that only concern players on one server do not have to look at every session.
+ */
+public final class ServerPartitions {
+
+    private final ConcurrentMap<String, Partition> partitions = new ConcurrentHashMap<>();
+
+    /**
+     * @param server address of the minecraft server
+     * @return view of the sessions on the server. Empty if no players are connected to it.
+     */
+    @Nonnull
+    public Partition partition(String server) {
+        if (server == null) {
+            return Partition.EMPTY;
+        }
+        Partition partition = partitions.get(server);
+        return partition == null ? Partition.EMPTY : partition;
+    }
+
+    /**
+     * @param player to find the server of
+     * @return view of the sessions on the same server as the player
+     */
+    @Nonnull
+    public Partition partition(MinecraftPlayer player) {
+        return player == null ? Partition.EMPTY : partition(player.server);
+    }
+
+    /**
+     * @return number of servers with at least one connected player
+     */
+    public int size() {
+        return partitions.size();
+    }
+
+    void add(SessionState state) {
+        if (state.minecraftPlayer == null) {
+            return;
+        }
+        partitions.compute(state.minecraftPlayer.server, (server, partition) -> {
+            partition = partition == null ? new Partition() : partition;
+            partition.sessions.put(state.minecraftPlayer.id, state);
+            return partition;
+        });
+    }
+
+    void remove(SessionState state) {
+        if (state.minecraftPlayer == null) {
+            return;
+        }
+        partitions.computeIfPresent(state.minecraftPlayer.server, (server, partition) -> {
+            partition.sessions.remove(state.minecraftPlayer.id, state);
+            return partition.sessions.isEmpty() ? null : partition;
+        });
+    }
+
+    /**
+     * Sessions of players connected to a single Minecraft server
+     */
+    public static final class Partition {
+        private static final Partition EMPTY = new Partition();
+
+        private final ConcurrentMap<UUID, SessionState> sessions = new ConcurrentHashMap<>();
+
+        /**
+         * @param player id of the minecraft player
+         * @return session of the player if they are on this server
+         */
+        public Optional<SessionState> findByPlayer(UUID player) {
+            return player == null ? Optional.empty() : Optional.ofNullable(sessions.get(player));
+        }
+
+        /**
+         * @return sessions on this server
+         */
+        public Collection<SessionState> sessions() {
+            return Collections.unmodifiableCollection(sessions.values());
+        }
+
+        /**
+         * @return number of sessions on this server
+         */
+        public int size() {
+            return sessions.size();
+        }
+    }
+}
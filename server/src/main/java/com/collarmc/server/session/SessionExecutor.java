@@ -0,0 +1,239 @@
+package com.collarmc.server.session;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.websocket.api.Session;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs work for sessions off the websocket threads.
+ * Every session is pinned to one stripe, a single thread with a bounded queue, so work for a session
+ * runs in the order it was submitted while different sessions run in parallel.
+ * Sessions share their stripe's queue, so requests from each session are also bounded, stopping one session from
+ * filling the queue its neighbours rely on.
+ */
+public final class SessionExecutor {
+
+    private static final Logger LOGGER = LogManager.getLogger(SessionExecutor.class.getName());
+
+    private final ThreadPoolExecutor[] stripes;
+    private final int sessionQueueSize;
+    /** Tasks queued or running for each session, removed when it reaches zero **/
+    private final ConcurrentMap<Session, Integer> pending = new ConcurrentHashMap<>();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder sessionRejected = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong recentWaitNanos = new AtomicLong();
+
+    /**
+     * @param threads number of stripes
+     * @param queueSize maximum number of pending tasks per stripe
+     * @param sessionQueueSize maximum number of pending requests per session
+     */
+    public SessionExecutor(int threads, int queueSize, int sessionQueueSize) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        if (sessionQueueSize < 1) {
+            throw new IllegalArgumentException("sessionQueueSize must be at least 1");
+        }
+        this.sessionQueueSize = sessionQueueSize;
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "collar-session-worker-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.stripes = new ThreadPoolExecutor[threads];
+        for (int i = 0; i < threads; i++) {
+            stripes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(queueSize), threadFactory);
+        }
+    }
+
+    /**
+     * Queue a request from the session, unless the session already has too many pending
+     * @param session the request came from
+     * @param task to run
+     * @return whether the task was queued, or why it was not
+     */
+    public Submission submit(Session session, Runnable task) {
+        return submit(session, task, Duration.ZERO);
+    }
+
+    /**
+     * Queue a request from the session, unless the session already has too many pending. If the session's stripe is
+     * full, block the caller for up to the wait for room, so a client reading from a busy stripe is slowed down
+     * rather than having its requests thrown away.
+     * @param session the request came from
+     * @param task to run
+     * @param wait longest time to block for room in a full stripe
+     * @return whether the task was queued, or why it was not
+     */
+    public Submission submit(Session session, Runnable task, Duration wait) {
+        if (pending.merge(session, 1, Integer::sum) > sessionQueueSize) {
+            done(session);
+            sessionRejected.increment();
+            return Submission.SESSION_FULL;
+        }
+        return queue(session, task, wait.toNanos()) ? Submission.QUEUED : Submission.STRIPE_FULL;
+    }
+
+    /**
+     * Queue work for the session, such as stopping it, regardless of how many requests it has pending
+     * @param session the work belongs to
+     * @param task to run
+     * @return false if the session's stripe is full and the task was not queued
+     */
+    public boolean execute(Session session, Runnable task) {
+        pending.merge(session, 1, Integer::sum);
+        return queue(session, task, 0);
+    }
+
+    private boolean queue(Session session, Runnable task, long waitNanos) {
+        long queuedAt = System.nanoTime();
+        ThreadPoolExecutor stripe = stripe(session);
+        Runnable timed = () -> {
+            long waited = System.nanoTime() - queuedAt;
+            totalWaitNanos.add(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+            // Moving average weighted 1/8 towards the latest wait
+            recentWaitNanos.accumulateAndGet(waited, (average, latest) -> average + ((latest - average) >> 3));
+            try {
+                task.run();
+            } catch (Throwable e) {
+                LOGGER.error("Session task failed", e);
+            } finally {
+                done(session);
+                executed.increment();
+            }
+        };
+        try {
+            stripe.execute(timed);
+            return true;
+        } catch (RejectedExecutionException e) {
+            if (waitNanos > 0 && !stripe.isShutdown() && offer(stripe, timed, waitNanos)) {
+                return true;
+            }
+            done(session);
+            rejected.increment();
+            return false;
+        }
+    }
+
+    private static boolean offer(ThreadPoolExecutor stripe, Runnable task, long waitNanos) {
+        try {
+            // The stripe's thread is running, as its queue was full, so it will take the task once there is room
+            return stripe.getQueue().offer(task, waitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void done(Session session) {
+        pending.computeIfPresent(session, (theSession, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * @param session to count
+     * @return number of tasks queued or running for the session
+     */
+    public int pending(Session session) {
+        return pending.getOrDefault(session, 0);
+    }
+
+    /**
+     * @return number of tasks waiting to run across all stripes
+     */
+    public int queueDepth() {
+        return Arrays.stream(stripes).mapToInt(stripe -> stripe.getQueue().size()).sum();
+    }
+
+    /**
+     * @return number of tasks waiting in the busiest stripe
+     */
+    public int maxQueueDepth() {
+        return Arrays.stream(stripes).mapToInt(stripe -> stripe.getQueue().size()).max().orElse(0);
+    }
+
+    /**
+     * @return number of tasks run
+     */
+    public long executed() {
+        return executed.sum();
+    }
+
+    /**
+     * @return number of tasks refused because a stripe was full
+     */
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return number of requests refused because their session had too many pending
+     */
+    public long sessionRejected() {
+        return sessionRejected.sum();
+    }
+
+    /**
+     * @return mean time tasks spent queued before running
+     */
+    public Duration averageWait() {
+        long count = executed.sum();
+        return count == 0 ? Duration.ZERO : Duration.ofNanos(totalWaitNanos.sum() / count);
+    }
+
+    /**
+     * @return longest time a task spent queued before running
+     */
+    public Duration maxWait() {
+        return Duration.ofNanos(maxWaitNanos.get());
+    }
+
+    /**
+     * @return moving average of how long recent tasks spent queued before running
+     */
+    public Duration recentWait() {
+        return Duration.ofNanos(recentWaitNanos.get());
+    }
+
+    /**
+     * Stop accepting work and wait for queued work to finish
+     * @param timeout to wait for
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void shutdown(Duration timeout) throws InterruptedException {
+        for (ThreadPoolExecutor stripe : stripes) {
+            stripe.shutdown();
+        }
+        long deadline = System.nanoTime() + timeout.toNanos();
+        for (ThreadPoolExecutor stripe : stripes) {
+            stripe.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public enum Submission {
+        /** The task will run **/
+        QUEUED,
+        /** The session has too many requests pending **/
+        SESSION_FULL,
+        /** The session's stripe is full of work from other sessions too, and stayed full for as long as it waited **/
+        STRIPE_FULL
+    }
+
+    private ThreadPoolExecutor stripe(Session session) {
+        int hash = System.identityHashCode(session);
+        hash ^= (hash >>> 16);
+        return stripes[Math.floorMod(hash, stripes.length)];
+    }
+}
@@ -8,6 +8,7 @@ import com.collarmc.protocol.ProtocolResponse;
 import com.collarmc.protocol.SessionStopReason;
 import com.collarmc.protocol.session.SessionFailedResponse.SessionErrorResponse;
 import com.collarmc.security.messages.CipherException;
+import com.collarmc.security.sodium.SessionCipher;
 import com.collarmc.api.minecraft.MinecraftPlayer;
 import com.collarmc.server.security.ServerIdentityStore;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -19,10 +20,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.function.BiConsumer;
@@ -33,32 +31,92 @@ public final class SessionManager {
     private static final Logger LOGGER = LogManager.getLogger(SessionManager.class.getName());
 
     private final ConcurrentMap<Session, SessionState> sessions = new ConcurrentHashMap<>();
+    // Secondary indexes over sessions, kept consistent by identify and stopSession
+    private final ConcurrentMap<ClientIdentity, SessionState> sessionsByIdentity = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, SessionState> sessionsByProfile = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, SessionState> sessionsByMinecraftPlayer = new ConcurrentHashMap<>();
+    private final ServerPartitions partitions = new ServerPartitions();
 
-    private final ObjectMapper messagePack;
-    private final ServerIdentityStore store;
+    private final PacketIO packets;
+    private final OutboundQueues outbound;
 
-    public SessionManager(ObjectMapper messagePack, ServerIdentityStore store) {
-        this.messagePack = messagePack;
-        this.store = store;
+    public SessionManager(ObjectMapper messagePack, ServerIdentityStore store, OutboundQueues outbound) {
+        this.packets = new PacketIO(messagePack, store == null ? null : store.cipher());
+        this.outbound = outbound;
     }
 
     public void identify(Session session, ClientIdentity identity, MinecraftPlayer player, BiConsumer<ClientIdentity, Player> callback) {
-        SessionState state = new SessionState(session, identity, player);
+        identify(session, identity, player, null, callback);
+    }
+
+    /**
+     * Identify the session
+     * @param session to identify
+     * @param identity of the client
+     * @param player the client is playing as
+     * @param features the client requested, or null to keep those already negotiated
+     * @param callback called when the session has a player
+     */
+    public void identify(Session session, ClientIdentity identity, MinecraftPlayer player, Set<String> features, BiConsumer<ClientIdentity, Player> callback) {
         SessionState computed = sessions.compute(session, (theSession, sessionState) -> {
             if (sessionState != null && sessionState.minecraftPlayer != null) {
                 throw new IllegalStateException("session cannot be identified with a single player more than once");
             }
+            Set<String> negotiated = features != null ? features : sessionState != null ? sessionState.features : Set.of();
+            // Identifying again renegotiates, so the previous session cipher only survives if features are kept
+            SessionCipher sessionCipher = features == null && sessionState != null ? sessionState.sessionCipher : null;
+            if (sessionState != null) {
+                unindex(sessionState);
+            }
+            SessionState state = new SessionState(session, identity, player, negotiated, sessionCipher);
+            index(state);
             return state;
         });
         if (computed.minecraftPlayer != null) {
-            callback.accept(state.identity, state.toPlayer());
+            callback.accept(computed.identity, computed.toPlayer());
+        }
+    }
+
+    /**
+     * Encrypt everything sent and received from now on with the session cipher
+     * @param session identified session
+     * @param sessionCipher negotiated with the client
+     */
+    public void useSessionCipher(Session session, SessionCipher sessionCipher) {
+        SessionState computed = sessions.computeIfPresent(session, (theSession, sessionState) -> {
+            unindex(sessionState);
+            SessionState state = new SessionState(session, sessionState.identity, sessionState.minecraftPlayer, sessionState.features, sessionCipher);
+            index(state);
+            return state;
+        });
+        if (computed == null) {
+            throw new IllegalStateException("session must be identified before using a session cipher");
         }
     }
 
+    /**
+     * @param session to find cipher for
+     * @return the session cipher negotiated with the client
+     */
+    public Optional<SessionCipher> getSessionCipher(Session session) {
+        SessionState sessionState = session == null ? null : sessions.get(session);
+        return sessionState == null ? Optional.empty() : Optional.ofNullable(sessionState.sessionCipher);
+    }
+
     public boolean isIdentified(Session session) {
         return getIdentity(session).isPresent();
     }
 
+    /**
+     * @param session to check
+     * @param feature name
+     * @return if the session negotiated the feature
+     */
+    public boolean supports(Session session, String feature) {
+        SessionState sessionState = session == null ? null : sessions.get(session);
+        return sessionState != null && sessionState.supports(feature);
+    }
+
 
     public void stopSession(Session session,
                             SessionStopReason reason,
@@ -78,6 +136,7 @@ public final class SessionManager {
         }
         SessionState sessionState = sessions.remove(session);
         if (sessionState != null) {
+            unindex(sessionState);
             if (session.isOpen()) {
                 try {
                     send(session, sessionState.identity, new SessionErrorResponse(reason, message));
@@ -91,14 +150,16 @@ public final class SessionManager {
     }
 
     public void send(Session session, ClientIdentity recipient, ProtocolResponse resp) throws IOException, CipherException {
-        PacketIO packetIO = new PacketIO(messagePack, store.cipher());
         ByteBuffer buffer;
-        if (isIdentified(session)) {
-            buffer = ByteBuffer.wrap(packetIO.encodeEncrypted(recipient, resp));
+        SessionState sessionState = sessions.get(session);
+        if (sessionState != null && sessionState.sessionCipher != null) {
+            buffer = ByteBuffer.wrap(packets.encodeSession(sessionState.sessionCipher, resp));
+        } else if (sessionState != null) {
+            buffer = ByteBuffer.wrap(packets.encodeEncrypted(recipient, resp));
         } else {
-            buffer = ByteBuffer.wrap(packetIO.encodePlain(resp));
+            buffer = ByteBuffer.wrap(packets.encodePlain(resp));
         }
-        session.getRemote().sendBytes(buffer);
+        outbound.send(session, resp, buffer);
     }
 
     public Optional<ClientIdentity> getIdentity(Session session) {
@@ -113,8 +174,8 @@ public final class SessionManager {
         if (player == null) {
             return Optional.empty();
         }
-        return sessions.values().stream().filter(sessionState -> sessionState.minecraftPlayer != null && sessionState.minecraftPlayer.equals(player))
-                .findFirst()
+        return Optional.ofNullable(sessionsByMinecraftPlayer.get(player.id))
+                .filter(sessionState -> player.equals(sessionState.minecraftPlayer))
                 .map(sessionState -> sessionState.identity);
     }
 
@@ -123,9 +184,11 @@ public final class SessionManager {
             return new ArrayList<>();
         }
         MinecraftPlayer player = findMinecraftPlayer(identity).orElseThrow(() -> new IllegalStateException("cannot find player for " + identity));
-        return sessions.values().stream()
-                .filter(sessionState -> sessionState.minecraftPlayer != null && sessionState.minecraftPlayer.inServerWith(player))
-                .filter(sessionState -> players.contains(sessionState.minecraftPlayer.id))
+        ServerPartitions.Partition partition = partitions.partition(player);
+        return players.stream()
+                .distinct()
+                .map(partition::findByPlayer)
+                .flatMap(Optional::stream)
                 .map(SessionState::toPlayer)
                 .collect(Collectors.toList());
     }
@@ -134,9 +197,7 @@ public final class SessionManager {
         if (identity == null) {
             return Optional.empty();
         }
-        return sessions.values().stream()
-                .filter(sessionState -> sessionState.identity.equals(identity) && sessionState.minecraftPlayer != null)
-                .findFirst()
+        return Optional.ofNullable(sessionsByIdentity.get(identity))
                 .map(sessionState -> sessionState.minecraftPlayer);
     }
 
@@ -144,9 +205,8 @@ public final class SessionManager {
         if (identity == null) {
             return Optional.empty();
         }
-        return sessions.values().stream()
-                .filter(sessionState -> sessionState.minecraftPlayer != null && sessionState.identity.equals(identity))
-                .findFirst()
+        return Optional.ofNullable(sessionsByIdentity.get(identity))
+                .filter(sessionState -> sessionState.minecraftPlayer != null)
                 .map(SessionState::toPlayer);
     }
 
@@ -154,46 +214,69 @@ public final class SessionManager {
         if (identity == null) {
             return Optional.empty();
         }
-        return sessions.values().stream()
-                .filter(sessionState -> sessionState.identity.equals(identity))
-                .findFirst()
+        return Optional.ofNullable(sessionsByIdentity.get(identity))
                 .map(sessionState -> sessionState.session);
     }
 
     public Optional<SessionState> getSessionStateByOwner(UUID owner) {
-        return sessions.values().stream()
-                .filter(sessionState -> sessionState.identity.id().equals(owner))
-                .findFirst();
+        if (owner == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(sessionsByProfile.get(owner));
     }
 
     public Optional<SessionState> getSessionStateByPlayer(UUID player) {
-        return sessions.values().stream()
-                .filter(sessionState -> sessionState.minecraftPlayer != null && sessionState.minecraftPlayer.id.equals(player))
-                .findFirst();
+        if (player == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(sessionsByMinecraftPlayer.get(player));
     }
 
     public Optional<ClientIdentity> getIdentity(Player player) {
-        return sessions.values().stream().filter(sessionState -> sessionState.identity.id().equals(player.identity.id()))
-                .findAny()
+        return getSessionStateByOwner(player.identity.id())
                 .map(sessionState -> sessionState.identity);
     }
 
     public Optional<ClientIdentity> getIdentityByMinecraftPlayerId(UUID playerId) {
-        return sessions.values().stream().filter(sessionState -> sessionState.minecraftPlayer != null && sessionState.minecraftPlayer.id.equals(playerId))
-                .findAny()
+        return getSessionStateByPlayer(playerId)
                 .map(sessionState -> sessionState.identity);
     }
 
     public Optional<Player> findPlayerByProfile(UUID profile) {
-        return sessions.values().stream().filter(sessionState -> sessionState.identity.id().equals(profile))
-                .findFirst()
+        return getSessionStateByOwner(profile)
                 .map(SessionState::toPlayer);
     }
 
+    /**
+     * @return sessions partitioned by the minecraft server their player is on
+     */
+    public ServerPartitions partitions() {
+        return partitions;
+    }
+
     public long count() {
         return sessions.size();
     }
 
+    private void index(SessionState state) {
+        sessionsByIdentity.put(state.identity, state);
+        sessionsByProfile.put(state.identity.id(), state);
+        if (state.minecraftPlayer != null) {
+            sessionsByMinecraftPlayer.put(state.minecraftPlayer.id, state);
+            partitions.add(state);
+        }
+    }
+
+    private void unindex(SessionState state) {
+        // Only remove entries still pointing at this state, as a newer session may have replaced them
+        sessionsByIdentity.remove(state.identity, state);
+        sessionsByProfile.remove(state.identity.id(), state);
+        if (state.minecraftPlayer != null) {
+            sessionsByMinecraftPlayer.remove(state.minecraftPlayer.id, state);
+            partitions.remove(state);
+        }
+    }
+
     public static final class SessionState {
         @Nonnull
         public final Session session;
@@ -201,11 +284,29 @@ public final class SessionManager {
         public final ClientIdentity identity;
         @Nullable
         public final MinecraftPlayer minecraftPlayer;
+        @Nonnull
+        public final Set<String> features;
+        @Nullable
+        public final SessionCipher sessionCipher;
 
-        public SessionState(@Nonnull Session session, @Nonnull ClientIdentity identity, @Nullable MinecraftPlayer minecraftPlayer) {
+        public SessionState(@Nonnull Session session, @Nonnull ClientIdentity identity, @Nullable MinecraftPlayer minecraftPlayer, @Nonnull Set<String> features, @Nullable SessionCipher sessionCipher) {
             this.session = session;
             this.identity = identity;
             this.minecraftPlayer = minecraftPlayer;
+            this.features = features;
+            this.sessionCipher = sessionCipher;
+        }
+
+        public SessionState(@Nonnull Session session, @Nonnull ClientIdentity identity, @Nullable MinecraftPlayer minecraftPlayer, @Nonnull Set<String> features) {
+            this(session, identity, minecraftPlayer, features, null);
+        }
+
+        /**
+         * @param feature name
+         * @return if the client negotiated the feature
+         */
+        public boolean supports(String feature) {
+            return features.contains(feature);
         }
 
         public Player toPlayer() {
@@ -0,0 +1,66 @@
+package com.collarmc.server.session;
+
+import com.collarmc.protocol.ProtocolRequest;
+import com.collarmc.server.configuration.RateLimits;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.Bucket4j;
+
+import java.time.Duration;
+
+/**
+ * Rate limits a single session.
+ * Frames are counted before they are decoded, against a limit well above what any client sends, so flooding is
+ * refused cheaply. Once decoded, sheddable requests such as location and nearby updates spend their own allowance and
+ * are shed when it runs out, as the next update replaces them anyway. Everything else spends the session's budget,
+ * weighted by cost, and exhausting it stops the session.
+ */
+public final class SessionRateLimiter {
+
+    private final RateLimits limits;
+    private final Bucket frames;
+    private final Bucket budget;
+    private final Bucket sheddable;
+
+    public SessionRateLimiter(RateLimits limits) {
+        this.limits = limits;
+        this.frames = bucket(limits.framesPerSecond, limits.framesPerHour);
+        this.budget = bucket(limits.budgetPerSecond, limits.budgetPerHour);
+        this.sheddable = bucket(limits.sheddablePerSecond, limits.sheddablePerHour);
+    }
+
+    /**
+     * @return false if the session has sent too many frames and should be stopped
+     */
+    public boolean frame() {
+        return frames.tryConsume(1);
+    }
+
+    /**
+     * @param request decoded from the session
+     * @return what to do with the request
+     */
+    public Decision request(ProtocolRequest request) {
+        Class<? extends ProtocolRequest> type = request.getClass();
+        if (limits.sheddable.contains(type)) {
+            return sheddable.tryConsume(limits.cost(type)) ? Decision.PROCESS : Decision.SHED;
+        }
+        return budget.tryConsume(limits.cost(type)) ? Decision.PROCESS : Decision.STOP;
+    }
+
+    private static Bucket bucket(long perSecond, long perHour) {
+        return Bucket4j.builder()
+                .addLimit(Bandwidth.simple(perHour, Duration.ofHours(1)))
+                .addLimit(Bandwidth.simple(perSecond, Duration.ofSeconds(1)))
+                .build();
+    }
+
+    public enum Decision {
+        /** The request is within the session's limits **/
+        PROCESS,
+        /** Drop the request, the session is sending more updates than are useful **/
+        SHED,
+        /** Stop the session, it has made too many requests **/
+        STOP
+    }
+}
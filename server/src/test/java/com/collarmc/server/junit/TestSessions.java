@@ -0,0 +1,48 @@
+package com.collarmc.server.junit;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+
+import java.lang.reflect.Proxy;
+
+/**
+ * Websocket sessions for tests and benchmarks that only need a distinct session to key state by
+ */
+public final class TestSessions {
+
+    /**
+     * @return a session that is already closed, so nothing is ever written to it
+     */
+    public static Session closed() {
+        return session(false, null);
+    }
+
+    /**
+     * @param remote to write to
+     * @return an open session that writes to the remote
+     */
+    public static Session open(RemoteEndpoint remote) {
+        return session(true, remote);
+    }
+
+    private static Session session(boolean open, RemoteEndpoint remote) {
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class[]{Session.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "isOpen":
+                    return open;
+                case "getRemote":
+                    return remote;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "Session@" + System.identityHashCode(proxy);
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private TestSessions() {}
+}
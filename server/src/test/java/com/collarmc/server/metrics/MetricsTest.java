@@ -0,0 +1,42 @@
+package com.collarmc.server.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class MetricsTest {
+    @Test
+    public void scrapesInPrometheusFormat() {
+        Metrics metrics = new Metrics();
+        LongAdder counter = metrics.counter("test_total", "A counter");
+        counter.add(3);
+        metrics.gauge("test_gauge", "A gauge", () -> 0.5);
+        metrics.register(writer -> writer.family("test_labelled_total", "counter", "Labelled").sample("test_labelled_total", 1, "type", "a\"b"));
+
+        String scrape = metrics.scrape();
+        Assert.assertTrue(scrape.contains("# HELP test_total A counter\n# TYPE test_total counter\ntest_total 3\n"));
+        Assert.assertTrue(scrape.contains("# TYPE test_gauge gauge\ntest_gauge 0.5\n"));
+        Assert.assertTrue(scrape.contains("test_labelled_total{type=\"a\\\"b\"} 1\n"));
+    }
+
+    @Test
+    public void histogramBucketsAreCumulative() {
+        Metrics metrics = new Metrics();
+        Histogram histogram = metrics.histogram("test_seconds", "A histogram");
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(50));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        histogram.record(TimeUnit.SECONDS.toNanos(60));
+
+        String scrape = metrics.scrape();
+        Assert.assertTrue(scrape.contains("test_seconds_bucket{le=\"0.0001\"} 1\n"));
+        Assert.assertTrue(scrape.contains("test_seconds_bucket{le=\"0.001\"} 2\n"));
+        Assert.assertTrue(scrape.contains("test_seconds_bucket{le=\"0.005\"} 3\n"));
+        Assert.assertTrue(scrape.contains("test_seconds_bucket{le=\"10\"} 3\n"));
+        Assert.assertTrue(scrape.contains("test_seconds_bucket{le=\"+Inf\"} 4\n"));
+        Assert.assertTrue(scrape.contains("test_seconds_count 4\n"));
+        Assert.assertEquals(4, histogram.count());
+    }
+}
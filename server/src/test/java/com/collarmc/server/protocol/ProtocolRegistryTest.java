@@ -0,0 +1,35 @@
+package com.collarmc.server.protocol;
+
+import com.collarmc.protocol.keepalive.KeepAliveRequest;
+import com.collarmc.protocol.keepalive.KeepAliveResponse;
+import com.collarmc.protocol.location.UpdateNearbyRequest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+public class ProtocolRegistryTest {
+    @Test
+    public void dispatchesByRequestType() {
+        List<Object> handled = new ArrayList<>();
+        ProtocolRegistry registry = ProtocolRegistry.builder()
+                .register(UpdateNearbyRequest.class, (identity, request, sender) -> handled.add(request.nearbyHashes))
+                .register(KeepAliveRequest.class, (identity, request, sender) -> sender.accept(identity, new KeepAliveResponse()))
+                .build();
+
+        Assert.assertTrue(registry.dispatch(null, new UpdateNearbyRequest(Set.of("hash")), (identity, response) -> Assert.fail()));
+        Assert.assertEquals(List.of(Set.of("hash")), handled);
+        Assert.assertTrue(registry.dispatch(null, new KeepAliveRequest(), (identity, response) -> handled.add(response)));
+        Assert.assertTrue(handled.get(1) instanceof KeepAliveResponse);
+        Assert.assertEquals(1, registry.metrics(UpdateNearbyRequest.class).orElseThrow().count());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsDuplicateHandlers() {
+        ProtocolRegistry.builder()
+                .register(KeepAliveRequest.class, (identity, request, sender) -> {})
+                .register(KeepAliveRequest.class, (identity, request, sender) -> {});
+    }
+}
@@ -12,15 +12,20 @@ import com.collarmc.api.session.Player;
 import com.collarmc.api.minecraft.MinecraftPlayer;
 import com.collarmc.server.configuration.Configuration;
 import com.collarmc.server.junit.MongoDatabaseTestRule;
+import com.collarmc.server.junit.TestSessions;
 import com.collarmc.server.services.profiles.ProfileCache;
 import com.collarmc.server.services.profiles.ProfileServiceServer;
+import com.collarmc.server.session.OutboundPolicy;
+import com.collarmc.server.session.OutboundQueues;
 import com.collarmc.server.session.SessionManager;
 import com.collarmc.utils.Utils;
+import org.eclipse.jetty.websocket.api.Session;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 public class GroupStoreTest {
@@ -32,7 +37,7 @@ public class GroupStoreTest {
         ProfileService profiles = new ProfileServiceServer(dbRule.db, Configuration.defaultConfiguration().passwordHashing);
         ProfileCache profileCache = new ProfileCache(profiles);
         Profile ownerProfile = profiles.createProfile(RequestContext.ANON, new CreateProfileRequest("owner@example.com", "cute", "owner")).profile;
-        GroupStore store = new GroupStore(profileCache, new SessionManager(Utils.messagePackMapper(), null), dbRule.db);
+        GroupStore store = new GroupStore(profileCache, new SessionManager(Utils.messagePackMapper(), null, new OutboundQueues(1024, 1024 * 1024, OutboundPolicy.defaults())), dbRule.db);
 
         UUID groupId = UUID.randomUUID();
         Player owner = new Player(new ClientIdentity(ownerProfile.id, null), new MinecraftPlayer(UUID.randomUUID(), "2b2t.org", 1));
@@ -89,4 +94,40 @@ public class GroupStoreTest {
         store.delete(groupId);
         Assert.assertFalse(store.findGroup(groupId).isPresent());
     }
+
+    @Test
+    public void liveGroupsAreReloadedAfterWrites() {
+        ProfileService profiles = new ProfileServiceServer(dbRule.db, Configuration.defaultConfiguration().passwordHashing);
+        ProfileCache profileCache = new ProfileCache(profiles);
+        Profile ownerProfile = profiles.createProfile(RequestContext.ANON, new CreateProfileRequest("owner@example.com", "cute", "owner")).profile;
+        SessionManager sessions = new SessionManager(Utils.messagePackMapper(), null, new OutboundQueues(1024, 1024 * 1024, OutboundPolicy.defaults()));
+        GroupStore store = new GroupStore(profileCache, sessions, dbRule.db);
+
+        UUID groupId = UUID.randomUUID();
+        Player owner = new Player(new ClientIdentity(ownerProfile.id, null), new MinecraftPlayer(UUID.randomUUID(), "2b2t.org", 1));
+        store.upsert(Group.newGroup(groupId, "The Spawnmasons", GroupType.GROUP, new MemberSource(owner, new PublicProfile(ownerProfile.id, ownerProfile.name, null)), List.of()));
+
+        // Nobody in the group is online
+        Assert.assertTrue(store.findGroup(groupId).isPresent());
+        Assert.assertEquals(1, store.findGroups(Set.of(groupId, UUID.randomUUID())).count());
+        Assert.assertEquals(0, store.liveGroups());
+
+        sessions.identify(TestSessions.closed(), owner.identity, owner.minecraftPlayer, (identity, player) -> {});
+        Group group = store.findGroup(groupId).orElseThrow();
+        Assert.assertSame(group, store.findGroup(groupId).orElseThrow());
+        Assert.assertEquals(1, store.liveGroups());
+
+        Profile player1Profile = profiles.createProfile(RequestContext.ANON, new CreateProfileRequest("player1@example.com", "cute", "player1")).profile;
+        Player player1 = new Player(new ClientIdentity(player1Profile.id, null), null);
+        store.addMembers(groupId, List.of(new MemberSource(player1, new PublicProfile(player1Profile.id, player1Profile.name, null))), MembershipRole.MEMBER, MembershipState.PENDING);
+        Assert.assertEquals(2, store.findGroup(groupId).orElseThrow().members.size());
+
+        store.evict(groupId);
+        Assert.assertEquals(0, store.liveGroups());
+        Assert.assertEquals(2, store.findGroup(groupId).orElseThrow().members.size());
+
+        store.delete(groupId);
+        Assert.assertEquals(0, store.liveGroups());
+        Assert.assertFalse(store.findGroup(groupId).isPresent());
+    }
 }
@@ -0,0 +1,156 @@
+package com.collarmc.server.services.location;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.api.minecraft.MinecraftPlayer;
+import com.collarmc.api.session.Player;
+import com.collarmc.protocol.ProtocolResponse;
+import com.collarmc.protocol.location.LocationUpdatedResponse;
+import com.collarmc.server.protocol.BatchProtocolResponse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LocationConflatorTest {
+
+    private final Player alice = new Player(new ClientIdentity(UUID.randomUUID(), null), new MinecraftPlayer(UUID.randomUUID(), "cute", 1));
+    private final ClientIdentity bob = new ClientIdentity(UUID.randomUUID(), null);
+    private final ClientIdentity eve = new ClientIdentity(UUID.randomUUID(), null);
+    private final UUID group = UUID.randomUUID();
+    private final Map<UUID, Set<UUID>> members = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final LocationConflator.Recipients recipients = new LocationConflator.Recipients() {
+        @Override
+        public long generation(UUID group) {
+            return generation.get();
+        }
+
+        @Override
+        public Collection<UUID> of(UUID group) {
+            return members.getOrDefault(group, Set.of());
+        }
+    };
+
+    @Before
+    public void members() {
+        members.put(group, Set.of(bob.id(), eve.id()));
+    }
+
+    @Test
+    public void onlyLatestLocationIsSent() {
+        LocationConflator conflator = new LocationConflator(250, recipients);
+        LocationUpdatedResponse first = location(new byte[] {1});
+        LocationUpdatedResponse second = location(new byte[] {2});
+        conflator.offer(new BatchProtocolResponse().add(bob, first).add(eve, location(new byte[] {1})));
+        conflator.offer(new BatchProtocolResponse().add(bob, second));
+
+        BatchProtocolResponse flushed = conflator.flush().orElseThrow();
+        Assert.assertEquals(2, flushed.responses.size());
+        Assert.assertEquals(bob, flushed.responses.get(second));
+        Assert.assertFalse(flushed.responses.containsKey(first));
+        Assert.assertEquals(1, conflator.superseded());
+        Assert.assertTrue(conflator.flush().isEmpty());
+    }
+
+    @Test
+    public void stoppingIsDeliveredBeforeNewerLocations() {
+        LocationConflator conflator = new LocationConflator(250, recipients);
+        LocationUpdatedResponse stale = location(new byte[] {1});
+        LocationUpdatedResponse stop = location(null);
+        LocationUpdatedResponse restarted = location(new byte[] {2});
+        conflator.offer(new BatchProtocolResponse().add(bob, stale));
+        conflator.offer(new BatchProtocolResponse().add(bob, stop));
+        conflator.offer(new BatchProtocolResponse().add(bob, restarted));
+
+        List<ProtocolResponse> flushed = new ArrayList<>(conflator.flush().orElseThrow().responses.keySet());
+        Assert.assertEquals(List.of(stop, restarted), flushed);
+    }
+
+    @Test
+    public void locationsAreOnlyDroppedForMembersWhoLeft() {
+        LocationConflator conflator = new LocationConflator(250, recipients);
+        LocationUpdatedResponse toEve = location(new byte[] {2});
+        conflator.offer(new BatchProtocolResponse().add(bob, location(new byte[] {1})).add(eve, toEve));
+        // Bob leaves after his location was buffered
+        members.put(group, Set.of(eve.id()));
+        generation.incrementAndGet();
+
+        BatchProtocolResponse flushed = conflator.flush().orElseThrow();
+        Assert.assertEquals(1, flushed.responses.size());
+        Assert.assertEquals(eve, flushed.responses.get(toEve));
+        Assert.assertTrue(conflator.flush().isEmpty());
+    }
+
+    @Test
+    public void locationsOfferedAfterMemberLeftAreNotSent() {
+        LocationConflator conflator = new LocationConflator(250, recipients);
+        // Computed for Bob before he left, but only offered after
+        BatchProtocolResponse computed = new BatchProtocolResponse().add(bob, location(new byte[] {1}));
+        members.put(group, Set.of(eve.id()));
+        generation.incrementAndGet();
+        conflator.offer(computed);
+
+        Assert.assertTrue(conflator.flush().isEmpty());
+    }
+
+    @Test
+    public void locationsAreHeldBackWhileGroupChangesDuringFlush() {
+        AtomicBoolean changing = new AtomicBoolean(true);
+        LocationConflator conflator = new LocationConflator(250, new LocationConflator.Recipients() {
+            @Override
+            public long generation(UUID group) {
+                return generation.get();
+            }
+
+            @Override
+            public Collection<UUID> of(UUID group) {
+                // The group changes while its members are being loaded the first time
+                if (changing.getAndSet(false)) {
+                    generation.incrementAndGet();
+                }
+                return Set.of(bob.id());
+            }
+        });
+        LocationUpdatedResponse toBob = location(new byte[] {1});
+        conflator.offer(new BatchProtocolResponse().add(bob, toBob));
+        Assert.assertTrue(conflator.flush().isEmpty());
+        Assert.assertEquals(bob, conflator.flush().orElseThrow().responses.get(toBob));
+    }
+
+    @Test
+    public void locationsWithoutAGroupAreConflated() {
+        LocationConflator conflator = new LocationConflator(250, recipients);
+        LocationUpdatedResponse second = new LocationUpdatedResponse(null, alice, new byte[] {2});
+        conflator.offer(new BatchProtocolResponse().add(bob, new LocationUpdatedResponse(null, alice, new byte[] {1})));
+        conflator.offer(new BatchProtocolResponse().add(bob, second));
+
+        BatchProtocolResponse flushed = conflator.flush().orElseThrow();
+        Assert.assertEquals(1, flushed.responses.size());
+        Assert.assertEquals(bob, flushed.responses.get(second));
+    }
+
+    @Test
+    public void stoppingDiscardsBufferedLocations() {
+        LocationConflator conflator = new LocationConflator(60_000, recipients);
+        conflator.start(responses -> {});
+        Assert.assertTrue(conflator.isRunning());
+        conflator.offer(new BatchProtocolResponse().add(bob, location(new byte[] {1})));
+        conflator.stop();
+
+        Assert.assertFalse(conflator.isRunning());
+        Assert.assertTrue(conflator.flush().isEmpty());
+    }
+
+    private LocationUpdatedResponse location(byte[] location) {
+        return new LocationUpdatedResponse(group, alice, location);
+    }
+}
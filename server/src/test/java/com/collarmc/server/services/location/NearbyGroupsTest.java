@@ -52,4 +52,16 @@ public class NearbyGroupsTest {
         Assert.assertTrue(group.players.contains(new MemberSource(alice, null)));
         Assert.assertTrue(group.players.contains(new MemberSource(bob, null)));
     }
+
+    @Test
+    public void playersOnDifferentServersAreNotGrouped() {
+        Player alice = new Player(new ClientIdentity(UUID.randomUUID(), null), new MinecraftPlayer(UUID.randomUUID(), "cute", 1));
+        Player bob = new Player(new ClientIdentity(UUID.randomUUID(), null), new MinecraftPlayer(UUID.randomUUID(), "notcute", 1));
+
+        NearbyGroups groups = new NearbyGroups();
+        groups.updateNearbyGroups(new MemberSource(alice, null), Set.of("alice", "bob"));
+        NearbyGroups.Result result = groups.updateNearbyGroups(new MemberSource(bob, null), Set.of("alice", "bob"));
+        Assert.assertTrue(result.add.isEmpty());
+        Assert.assertTrue(result.remove.isEmpty());
+    }
 }
@@ -0,0 +1,48 @@
+package com.collarmc.server.session;
+
+import com.collarmc.protocol.keepalive.KeepAliveRequest;
+import com.collarmc.protocol.location.UpdateNearbyRequest;
+import com.collarmc.server.configuration.RateLimits;
+import com.collarmc.server.junit.TestSessions;
+import org.eclipse.jetty.websocket.api.Session;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+public class AdmissionControllerTest {
+    @Test
+    public void shedsCheapRequestsWhenWorkersFallBehind() throws Exception {
+        SessionExecutor workers = new SessionExecutor(1, 8, 8);
+        AdmissionController admission = new AdmissionController(workers, RateLimits.defaults(8));
+        UpdateNearbyRequest nearby = new UpdateNearbyRequest(Set.of());
+        Assert.assertTrue(admission.admit(nearby));
+
+        Session session = TestSessions.closed();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        workers.execute(session, () -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        running.await();
+        for (int i = 0; i < 4; i++) {
+            workers.execute(session, () -> {});
+        }
+
+        Assert.assertTrue(admission.overloaded());
+        Assert.assertFalse(admission.admit(nearby));
+        Assert.assertTrue(admission.admit(new KeepAliveRequest()));
+        Assert.assertEquals(1, admission.shed());
+
+        release.countDown();
+        workers.shutdown(Duration.ofSeconds(10));
+        Assert.assertFalse(admission.overloaded());
+    }
+}
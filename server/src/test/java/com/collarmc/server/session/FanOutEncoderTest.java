@@ -0,0 +1,79 @@
+package com.collarmc.server.session;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class FanOutEncoderTest {
+    @Test
+    public void packetsAreWrittenInTheOrderTheyWereSent() throws Exception {
+        OutboundQueues queues = new OutboundQueues(8, 1024, OutboundPolicy.defaults());
+        FanOutEncoder fanOut = new FanOutEncoder(queues, 2, 2);
+        List<WriteCallback> writes = new ArrayList<>();
+        List<ByteBuffer> written = new ArrayList<>();
+        Session session = OutboundQueuesTest.session(writes, written);
+
+        // The first packet finishes encoding last
+        CountDownLatch secondEncoded = new CountDownLatch(1);
+        CompletableFuture<Boolean> first = fanOut.send(session, null, () -> {
+            try {
+                Assert.assertTrue(secondEncoded.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return new byte[] {1};
+        });
+        CompletableFuture<Boolean> second = fanOut.send(session, null, () -> new byte[] {2});
+        Assert.assertTrue(second.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, written.size());
+        secondEncoded.countDown();
+        Assert.assertTrue(first.get(5, TimeUnit.SECONDS));
+
+        Assert.assertEquals(1, written.size());
+        Assert.assertEquals(1, written.get(0).get(0));
+        writes.get(0).writeSuccess();
+        Assert.assertEquals(2, written.get(1).get(0));
+        Assert.assertEquals(2, fanOut.parallelEncodes());
+    }
+
+    @Test
+    public void failedPacketsAreReportedAndSkipped() throws Exception {
+        OutboundQueues queues = new OutboundQueues(8, 1024, OutboundPolicy.defaults());
+        FanOutEncoder fanOut = new FanOutEncoder(queues, 2, 2);
+        List<WriteCallback> writes = new ArrayList<>();
+        List<ByteBuffer> written = new ArrayList<>();
+        Session session = OutboundQueuesTest.session(writes, written);
+
+        CompletableFuture<Boolean> failed = fanOut.send(session, null, () -> {
+            throw new IOException("boom");
+        });
+        CompletableFuture<Boolean> sent = fanOut.send(session, null, () -> new byte[] {2});
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            Assert.fail("encode failure was not reported");
+        } catch (ExecutionException e) {
+            Assert.assertEquals("boom", e.getCause().getMessage());
+        }
+        Assert.assertTrue(sent.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, written.size());
+        Assert.assertEquals(2, written.get(0).get(0));
+        Assert.assertEquals(1, fanOut.failures());
+    }
+
+    @Test
+    public void disabledFanOutIsNeverParallel() {
+        FanOutEncoder fanOut = new FanOutEncoder(new OutboundQueues(8, 1024, OutboundPolicy.defaults()), 0, 2);
+        Assert.assertFalse(fanOut.parallel(100));
+        Assert.assertTrue(new FanOutEncoder(new OutboundQueues(8, 1024, OutboundPolicy.defaults()), 1, 2).parallel(2));
+    }
+}
@@ -0,0 +1,170 @@
+package com.collarmc.server.session;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.api.security.PublicKey;
+import com.collarmc.api.session.Player;
+import com.collarmc.protocol.location.LocationUpdatedResponse;
+import com.collarmc.protocol.session.StartSessionResponse;
+import com.collarmc.server.junit.TestSessions;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+public class OutboundQueuesTest {
+    @Test
+    public void locationUpdatesAreConflated() {
+        OutboundQueues queues = new OutboundQueues(3, 1024, OutboundPolicy.defaults());
+        List<WriteCallback> writes = new ArrayList<>();
+        List<ByteBuffer> written = new ArrayList<>();
+        Session session = session(writes, written);
+        Player alice = new Player(new ClientIdentity(UUID.randomUUID(), new PublicKey(new byte[] {1})), null);
+        UUID group = UUID.randomUUID();
+
+        // First packet is handed to the socket straight away, the rest wait behind it
+        Assert.assertTrue(queues.send(session, new StartSessionResponse(), ByteBuffer.wrap(new byte[] {0})));
+        for (byte i = 1; i <= 10; i++) {
+            Assert.assertTrue(queues.send(session, new LocationUpdatedResponse(group, alice, null), ByteBuffer.wrap(new byte[] {i})));
+        }
+        Assert.assertEquals(1, queues.pendingMessages());
+        Assert.assertEquals(9, queues.conflated());
+
+        writes.get(0).writeSuccess();
+        Assert.assertEquals(2, written.size());
+        Assert.assertEquals(10, written.get(1).get(0));
+        Assert.assertEquals(0, queues.pendingMessages());
+    }
+
+    @Test
+    public void locationUpdatesWithoutAGroupAreConflated() {
+        OutboundQueues queues = new OutboundQueues(3, 1024, OutboundPolicy.defaults());
+        List<WriteCallback> writes = new ArrayList<>();
+        List<ByteBuffer> written = new ArrayList<>();
+        Session session = session(writes, written);
+        Player alice = new Player(new ClientIdentity(UUID.randomUUID(), new PublicKey(new byte[] {1})), null);
+
+        Assert.assertTrue(queues.send(session, new StartSessionResponse(), ByteBuffer.wrap(new byte[] {0})));
+        Assert.assertTrue(queues.send(session, new LocationUpdatedResponse(null, alice, null), ByteBuffer.wrap(new byte[] {1})));
+        Assert.assertTrue(queues.send(session, new LocationUpdatedResponse(null, alice, null), ByteBuffer.wrap(new byte[] {2})));
+        Assert.assertEquals(1, queues.pendingMessages());
+        Assert.assertEquals(1, queues.conflated());
+    }
+
+    @Test
+    public void framesOfAPacketAreWrittenTogether() {
+        OutboundQueues queues = new OutboundQueues(8, 1024, OutboundPolicy.defaults());
+        List<WriteCallback> writes = new ArrayList<>();
+        List<ByteBuffer> written = new ArrayList<>();
+        Session session = session(writes, written);
+
+        OutboundQueues.Reservation reservation = queues.reserve(session, null);
+        Assert.assertTrue(queues.send(session, new StartSessionResponse(), ByteBuffer.wrap(new byte[] {4})));
+        Assert.assertTrue(reservation.complete(List.of(ByteBuffer.wrap(new byte[] {1}), ByteBuffer.wrap(new byte[] {2}), ByteBuffer.wrap(new byte[] {3}))));
+        for (int i = 0; i < 3; i++) {
+            writes.get(i).writeSuccess();
+        }
+        Assert.assertEquals(4, written.size());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(i + 1, written.get(i).get(0));
+        }
+        Assert.assertEquals(0, queues.pendingBytes());
+    }
+
+    @Test
+    public void reliableResponsesOverflow() {
+        OutboundQueues queues = new OutboundQueues(3, 1024, OutboundPolicy.defaults());
+        Session session = session(new ArrayList<>(), new ArrayList<>());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(queues.send(session, new StartSessionResponse(), ByteBuffer.wrap(new byte[] {1})));
+        }
+        Assert.assertFalse(queues.send(session, new StartSessionResponse(), ByteBuffer.wrap(new byte[] {1})));
+        Assert.assertEquals(1, queues.overflows());
+        Assert.assertEquals(0, queues.pendingMessages());
+    }
+
+    @Test
+    public void reservationsKeepTheirPlace() {
+        OutboundQueues queues = new OutboundQueues(8, 1024, OutboundPolicy.defaults());
+        List<WriteCallback> writes = new ArrayList<>();
+        List<ByteBuffer> written = new ArrayList<>();
+        Session session = session(writes, written);
+
+        OutboundQueues.Reservation first = queues.reserve(session, null);
+        OutboundQueues.Reservation second = queues.reserve(session, null);
+        Assert.assertTrue(queues.send(session, new StartSessionResponse(), ByteBuffer.wrap(new byte[] {3})));
+        Assert.assertTrue(second.complete(ByteBuffer.wrap(new byte[] {2})));
+        // Nothing is written until the packet at the head is ready
+        Assert.assertEquals(0, written.size());
+        Assert.assertTrue(first.complete(ByteBuffer.wrap(new byte[] {1})));
+        writes.get(0).writeSuccess();
+        writes.get(1).writeSuccess();
+        Assert.assertEquals(3, written.size());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(i + 1, written.get(i).get(0));
+        }
+    }
+
+    @Test
+    public void cancelledReservationsDoNotBlockTheQueue() {
+        OutboundQueues queues = new OutboundQueues(8, 1024, OutboundPolicy.defaults());
+        List<WriteCallback> writes = new ArrayList<>();
+        List<ByteBuffer> written = new ArrayList<>();
+        Session session = session(writes, written);
+
+        OutboundQueues.Reservation reservation = queues.reserve(session, null);
+        Assert.assertTrue(queues.send(session, new StartSessionResponse(), ByteBuffer.wrap(new byte[] {1})));
+        reservation.cancel();
+        Assert.assertEquals(1, written.size());
+        Assert.assertEquals(0, queues.pendingMessages());
+    }
+
+    @Test
+    public void conflatedReservationsWaitForTheNewestPacket() {
+        OutboundQueues queues = new OutboundQueues(8, 1024, OutboundPolicy.defaults());
+        List<WriteCallback> writes = new ArrayList<>();
+        List<ByteBuffer> written = new ArrayList<>();
+        Session session = session(writes, written);
+        Player alice = new Player(new ClientIdentity(UUID.randomUUID(), new PublicKey(new byte[] {1})), null);
+        LocationUpdatedResponse update = new LocationUpdatedResponse(UUID.randomUUID(), alice, null);
+
+        Assert.assertTrue(queues.send(session, new StartSessionResponse(), ByteBuffer.wrap(new byte[] {0})));
+        OutboundQueues.Reservation older = queues.reserve(session, update);
+        OutboundQueues.Reservation newer = queues.reserve(session, update);
+        Assert.assertTrue(newer.complete(ByteBuffer.wrap(new byte[] {2})));
+        Assert.assertTrue(older.complete(ByteBuffer.wrap(new byte[] {1})));
+        writes.get(0).writeSuccess();
+        Assert.assertEquals(2, written.size());
+        Assert.assertEquals(2, written.get(1).get(0));
+        Assert.assertEquals(1, queues.conflated());
+    }
+
+    @Test
+    public void reservationsOverflow() {
+        OutboundQueues queues = new OutboundQueues(1, 1024, OutboundPolicy.defaults());
+        Session session = session(new ArrayList<>(), new ArrayList<>());
+        OutboundQueues.Reservation reservation = queues.reserve(session, null);
+        Assert.assertFalse(queues.reserve(session, null).complete(ByteBuffer.wrap(new byte[] {1})));
+        Assert.assertEquals(1, queues.overflows());
+        // The queue was discarded so the first reservation is dropped
+        Assert.assertTrue(reservation.complete(ByteBuffer.wrap(new byte[] {1})));
+        Assert.assertEquals(0, queues.pendingMessages());
+    }
+
+    static Session session(List<WriteCallback> writes, List<ByteBuffer> written) {
+        RemoteEndpoint remote = (RemoteEndpoint) Proxy.newProxyInstance(RemoteEndpoint.class.getClassLoader(), new Class[]{RemoteEndpoint.class}, (proxy, method, args) -> {
+            if (method.getName().equals("sendBytes") && args.length == 2) {
+                written.add((ByteBuffer) args[0]);
+                writes.add((WriteCallback) args[1]);
+            }
+            return null;
+        });
+        return TestSessions.open(remote);
+    }
+}
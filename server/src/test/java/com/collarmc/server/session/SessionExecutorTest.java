@@ -0,0 +1,138 @@
+package com.collarmc.server.session;
+
+import com.collarmc.server.junit.TestSessions;
+import org.eclipse.jetty.websocket.api.Session;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class SessionExecutorTest {
+    @Test
+    public void tasksForSessionRunInOrder() throws Exception {
+        SessionExecutor executor = new SessionExecutor(4, 1000, 8);
+        Session session = TestSessions.closed();
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 500; i++) {
+            int value = i;
+            Assert.assertTrue(executor.execute(session, () -> order.add(value)));
+        }
+        executor.shutdown(Duration.ofSeconds(10));
+        Assert.assertEquals(IntStream.range(0, 500).boxed().collect(Collectors.toList()), order);
+        Assert.assertEquals(500, executor.executed());
+        Assert.assertEquals(0, executor.queueDepth());
+    }
+
+    @Test
+    public void rejectsWhenQueueIsFull() throws Exception {
+        SessionExecutor executor = new SessionExecutor(1, 1, 1);
+        Session session = TestSessions.closed();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Assert.assertTrue(executor.execute(session, () -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        running.await();
+        Assert.assertTrue(executor.execute(session, () -> {}));
+        Assert.assertFalse(executor.execute(session, () -> {}));
+        Assert.assertEquals(1, executor.queueDepth());
+        Assert.assertEquals(1, executor.rejected());
+        release.countDown();
+        executor.shutdown(Duration.ofSeconds(10));
+        Assert.assertEquals(2, executor.executed());
+    }
+
+    @Test
+    public void onlySessionOverItsBoundIsRejected() throws Exception {
+        SessionExecutor executor = new SessionExecutor(1, 100, 2);
+        Session noisy = TestSessions.closed();
+        Session quiet = TestSessions.closed();
+        CountDownLatch release = block(executor, noisy);
+        Assert.assertEquals(SessionExecutor.Submission.QUEUED, executor.submit(noisy, () -> {}));
+        Assert.assertEquals(SessionExecutor.Submission.SESSION_FULL, executor.submit(noisy, () -> {}));
+        Assert.assertEquals(2, executor.pending(noisy));
+        Assert.assertEquals(SessionExecutor.Submission.QUEUED, executor.submit(quiet, () -> {}));
+        Assert.assertEquals(1, executor.sessionRejected());
+        release.countDown();
+        executor.shutdown(Duration.ofSeconds(10));
+        Assert.assertEquals(0, executor.pending(noisy));
+        Assert.assertEquals(0, executor.pending(quiet));
+    }
+
+    @Test
+    public void fullStripeIsNotTheSubmittersFault() throws Exception {
+        SessionExecutor executor = new SessionExecutor(1, 1, 10);
+        Session noisy = TestSessions.closed();
+        Session quiet = TestSessions.closed();
+        CountDownLatch release = block(executor, noisy);
+        Assert.assertEquals(SessionExecutor.Submission.QUEUED, executor.submit(noisy, () -> {}));
+        Assert.assertEquals(SessionExecutor.Submission.STRIPE_FULL, executor.submit(quiet, () -> {}));
+        Assert.assertEquals(0, executor.pending(quiet));
+        Assert.assertEquals(0, executor.sessionRejected());
+        release.countDown();
+        executor.shutdown(Duration.ofSeconds(10));
+    }
+
+    @Test
+    public void fullStripeHoldsBackSubmitterUntilThereIsRoom() throws Exception {
+        SessionExecutor executor = new SessionExecutor(1, 1, 10);
+        Session noisy = TestSessions.closed();
+        Session quiet = TestSessions.closed();
+        CountDownLatch release = block(executor, noisy);
+        Assert.assertEquals(SessionExecutor.Submission.QUEUED, executor.submit(noisy, () -> {}));
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            release.countDown();
+        });
+        releaser.start();
+        CountDownLatch ran = new CountDownLatch(1);
+        Assert.assertEquals(SessionExecutor.Submission.QUEUED, executor.submit(quiet, ran::countDown, Duration.ofSeconds(10)));
+        Assert.assertTrue(ran.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, executor.rejected());
+        executor.shutdown(Duration.ofSeconds(10));
+    }
+
+    @Test
+    public void fullStripeRejectsOnceWaitIsOver() throws Exception {
+        SessionExecutor executor = new SessionExecutor(1, 1, 10);
+        Session noisy = TestSessions.closed();
+        Session quiet = TestSessions.closed();
+        CountDownLatch release = block(executor, noisy);
+        Assert.assertEquals(SessionExecutor.Submission.QUEUED, executor.submit(noisy, () -> {}));
+        Assert.assertEquals(SessionExecutor.Submission.STRIPE_FULL, executor.submit(quiet, () -> {}, Duration.ofMillis(50)));
+        Assert.assertEquals(0, executor.pending(quiet));
+        release.countDown();
+        executor.shutdown(Duration.ofSeconds(10));
+    }
+
+    private static CountDownLatch block(SessionExecutor executor, Session session) throws InterruptedException {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Assert.assertEquals(SessionExecutor.Submission.QUEUED, executor.submit(session, () -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        running.await();
+        return release;
+    }
+}
@@ -0,0 +1,66 @@
+package com.collarmc.server.session;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.api.minecraft.MinecraftPlayer;
+import com.collarmc.api.security.PublicKey;
+import com.collarmc.api.session.Player;
+import com.collarmc.protocol.SessionStopReason;
+import com.collarmc.server.junit.TestSessions;
+import com.collarmc.utils.Utils;
+import org.eclipse.jetty.websocket.api.Session;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+public class SessionManagerTest {
+    @Test
+    public void lookupsFollowIdentifyAndStop() {
+        SessionManager sessions = new SessionManager(Utils.messagePackMapper(), null, new OutboundQueues(10, 1024, OutboundPolicy.defaults()));
+        Session session = TestSessions.closed();
+        ClientIdentity identity = new ClientIdentity(UUID.randomUUID(), new PublicKey(new byte[] {1, 2, 3}));
+        MinecraftPlayer minecraftPlayer = new MinecraftPlayer(UUID.randomUUID(), "2b2t.org", 1);
+
+        sessions.identify(session, identity, null, (theIdentity, player) -> {});
+        Assert.assertEquals(session, sessions.getSession(identity).orElse(null));
+        Assert.assertTrue(sessions.findPlayer(identity).isEmpty());
+        Assert.assertTrue(sessions.getSessionStateByPlayer(minecraftPlayer.id).isEmpty());
+
+        sessions.identify(session, identity, minecraftPlayer, (theIdentity, player) -> {});
+        Player player = sessions.findPlayer(identity).orElseThrow();
+        Assert.assertEquals(minecraftPlayer, player.minecraftPlayer);
+        Assert.assertEquals(identity, sessions.getIdentity(minecraftPlayer).orElse(null));
+        Assert.assertEquals(identity, sessions.getIdentityByMinecraftPlayerId(minecraftPlayer.id).orElse(null));
+        Assert.assertEquals(identity, sessions.getIdentity(player).orElse(null));
+        Assert.assertEquals(player, sessions.findPlayerByProfile(identity.id()).orElse(null));
+        Assert.assertEquals(session, sessions.getSessionStateByOwner(identity.id()).map(state -> state.session).orElse(null));
+        Assert.assertEquals(1, sessions.partitions().partition("2b2t.org").size());
+        Assert.assertEquals(List.of(player), sessions.findPlayers(identity, List.of(minecraftPlayer.id, UUID.randomUUID())));
+
+        sessions.stopSession(session, SessionStopReason.NORMAL_CLOSE, null, null, null);
+        Assert.assertTrue(sessions.getSession(identity).isEmpty());
+        Assert.assertTrue(sessions.findPlayer(identity).isEmpty());
+        Assert.assertTrue(sessions.getSessionStateByOwner(identity.id()).isEmpty());
+        Assert.assertTrue(sessions.getSessionStateByPlayer(minecraftPlayer.id).isEmpty());
+        Assert.assertEquals(0, sessions.partitions().partition("2b2t.org").size());
+        Assert.assertEquals(0, sessions.count());
+    }
+
+    @Test
+    public void stoppingOldSessionKeepsReconnectedSession() {
+        SessionManager sessions = new SessionManager(Utils.messagePackMapper(), null, new OutboundQueues(10, 1024, OutboundPolicy.defaults()));
+        ClientIdentity identity = new ClientIdentity(UUID.randomUUID(), new PublicKey(new byte[] {1, 2, 3}));
+        MinecraftPlayer minecraftPlayer = new MinecraftPlayer(UUID.randomUUID(), "2b2t.org", 1);
+        Session oldSession = TestSessions.closed();
+        Session newSession = TestSessions.closed();
+
+        sessions.identify(oldSession, identity, minecraftPlayer, (theIdentity, player) -> {});
+        sessions.identify(newSession, identity, minecraftPlayer, (theIdentity, player) -> {});
+        sessions.stopSession(oldSession, SessionStopReason.NORMAL_CLOSE, null, null, null);
+
+        Assert.assertEquals(newSession, sessions.getSession(identity).orElse(null));
+        Assert.assertEquals(newSession, sessions.getSessionStateByPlayer(minecraftPlayer.id).map(state -> state.session).orElse(null));
+        Assert.assertEquals(1, sessions.partitions().partition("2b2t.org").size());
+    }
+}
@@ -0,0 +1,54 @@
+package com.collarmc.server.session;
+
+import com.collarmc.protocol.groups.CreateGroupRequest;
+import com.collarmc.protocol.keepalive.KeepAliveRequest;
+import com.collarmc.protocol.location.UpdateNearbyRequest;
+import com.collarmc.server.configuration.RateLimits;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Set;
+
+public class SessionRateLimiterTest {
+
+    private final RateLimits limits = RateLimits.defaults(256);
+
+    @Test
+    public void nearbyBurstIsShedWithoutStoppingSession() {
+        SessionRateLimiter limiter = new SessionRateLimiter(limits);
+        UpdateNearbyRequest nearby = new UpdateNearbyRequest(Set.of());
+        int shed = 0;
+        // Well past the budget, as a client crossing a busy area would send
+        for (int i = 0; i < limits.budgetPerSecond * 3; i++) {
+            Assert.assertTrue(limiter.frame());
+            SessionRateLimiter.Decision decision = limiter.request(nearby);
+            Assert.assertNotEquals(SessionRateLimiter.Decision.STOP, decision);
+            if (decision == SessionRateLimiter.Decision.SHED) {
+                shed++;
+            }
+        }
+        Assert.assertEquals(limits.budgetPerSecond * 3 - limits.sheddablePerSecond, shed);
+        // The burst did not spend the budget other requests rely on
+        Assert.assertEquals(SessionRateLimiter.Decision.PROCESS, limiter.request(new KeepAliveRequest()));
+    }
+
+    @Test
+    public void expensiveRequestsStopSessionPastBudget() {
+        SessionRateLimiter limiter = new SessionRateLimiter(limits);
+        CreateGroupRequest create = new CreateGroupRequest(null, null, null, null);
+        long allowed = limits.budgetPerSecond / limits.cost(CreateGroupRequest.class);
+        for (int i = 0; i < allowed; i++) {
+            Assert.assertEquals(SessionRateLimiter.Decision.PROCESS, limiter.request(create));
+        }
+        Assert.assertEquals(SessionRateLimiter.Decision.STOP, limiter.request(create));
+    }
+
+    @Test
+    public void floodingFramesAreRefused() {
+        SessionRateLimiter limiter = new SessionRateLimiter(limits);
+        for (int i = 0; i < limits.framesPerSecond; i++) {
+            Assert.assertTrue(limiter.frame());
+        }
+        Assert.assertFalse(limiter.frame());
+    }
+}
@@ -0,0 +1,155 @@
+package com.collarmc.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable {@link OutputStream} backed by a heap {@link ByteBuffer}.
+ * Can be reset and written again, so a single instance can be pooled and reused for many packets.
+ */
+public final class ByteBufferOutputStream extends OutputStream {
+
+    private ByteBuffer buffer;
+
+    public ByteBufferOutputStream(int capacity) {
+        this.buffer = ByteBuffer.allocate(capacity);
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        buffer.put(bytes, offset, length);
+    }
+
+    /**
+     * Write the remaining bytes of a buffer without changing its position
+     * @param bytes to write
+     */
+    public void write(ByteBuffer bytes) {
+        ensureCapacity(bytes.remaining());
+        buffer.put(bytes.duplicate());
+    }
+
+    /**
+     * Write a big endian int
+     * @param value to write
+     */
+    public void writeInt(int value) {
+        ensureCapacity(Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    /**
+     * Write a big endian long
+     * @param value to write
+     */
+    public void writeLong(long value) {
+        ensureCapacity(Long.BYTES);
+        buffer.putLong(value);
+    }
+
+    /**
+     * Overwrite a big endian int that was already written
+     * @param index of the int
+     * @param value to write
+     */
+    public void putInt(int index, int value) {
+        buffer.putInt(index, value);
+    }
+
+    /**
+     * Reserve room to be written to directly, such as by a compressor, then call {@link #skip(int)} with the number
+     * of bytes written
+     * @param length to reserve
+     * @return view of the stream's storage, positioned where the bytes should be written
+     */
+    public ByteBuffer reserve(int length) {
+        ensureCapacity(length);
+        return buffer.duplicate();
+    }
+
+    /**
+     * Count bytes written directly to a {@link #reserve(int)}d buffer as written
+     * @param length written
+     */
+    public void skip(int length) {
+        buffer.position(buffer.position() + length);
+    }
+
+    /**
+     * Write everything remaining in the stream
+     * @param input to read from
+     * @throws IOException if the stream failed to be read
+     */
+    public void readFrom(InputStream input) throws IOException {
+        while (true) {
+            ensureCapacity(1024);
+            int read = input.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (read == -1) {
+                return;
+            }
+            buffer.position(buffer.position() + read);
+        }
+    }
+
+    /**
+     * @return number of bytes written
+     */
+    public int size() {
+        return buffer.position();
+    }
+
+    /**
+     * @return size of the backing buffer
+     */
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Discard everything written so the stream can be reused
+     */
+    public void reset() {
+        buffer.clear();
+    }
+
+    /**
+     * @return view of the bytes written. Only valid until the stream is next written to or reset.
+     */
+    public ByteBuffer buffer() {
+        return buffer.duplicate().flip();
+    }
+
+    /**
+     * @return copy of the bytes written
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOfRange(buffer.array(), buffer.arrayOffset(), buffer.arrayOffset() + buffer.position());
+    }
+
+    /**
+     * Does nothing, so serializers that close their target do not stop the stream being reused
+     */
+    @Override
+    public void close() {}
+
+    private void ensureCapacity(int length) {
+        if (buffer.remaining() >= length) {
+            return;
+        }
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + length);
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+}
@@ -0,0 +1,150 @@
+package com.collarmc.protocol;
+
+import com.collarmc.io.ByteBufferOutputStream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Primitives shared by {@link PacketCodec}s. UUIDs are two longs, lengths are unsigned LEB128 varints and nullable
+ * values are prefixed by their length plus one, so zero means null. Other nullable values are prefixed by a byte that
+ * is 1 if they are present.
+ */
+public final class BinaryFormat {
+
+    public static void writeUuid(UUID uuid, ByteBufferOutputStream out) {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    public static UUID readUuid(ByteBuffer in) throws IOException {
+        try {
+            return new UUID(in.getLong(), in.getLong());
+        } catch (BufferUnderflowException e) {
+            throw new EOFException("uuid was truncated");
+        }
+    }
+
+    public static void writeNullableUuid(UUID uuid, ByteBufferOutputStream out) {
+        out.write(uuid == null ? 0 : 1);
+        if (uuid != null) {
+            writeUuid(uuid, out);
+        }
+    }
+
+    public static UUID readNullableUuid(ByteBuffer in) throws IOException {
+        return readPresent(in) ? readUuid(in) : null;
+    }
+
+    public static void writeNullableInt(Integer value, ByteBufferOutputStream out) {
+        out.write(value == null ? 0 : 1);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    public static Integer readNullableInt(ByteBuffer in) throws IOException {
+        if (!readPresent(in)) {
+            return null;
+        }
+        if (in.remaining() < Integer.BYTES) {
+            throw new EOFException("int was truncated");
+        }
+        return in.getInt();
+    }
+
+    /**
+     * @return if the nullable value that follows is present
+     */
+    public static boolean readPresent(ByteBuffer in) throws IOException {
+        if (!in.hasRemaining()) {
+            throw new EOFException("presence was truncated");
+        }
+        byte present = in.get();
+        if (present != 0 && present != 1) {
+            throw new IOException("invalid presence " + present);
+        }
+        return present == 1;
+    }
+
+    public static void writeVarInt(int value, ByteBufferOutputStream out) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    public static int readVarInt(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!in.hasRemaining()) {
+                throw new EOFException("varint was truncated");
+            }
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("varint is longer than 5 bytes");
+    }
+
+    public static void writeBytes(byte[] bytes, ByteBufferOutputStream out) {
+        if (bytes == null) {
+            writeVarInt(0, out);
+        } else {
+            writeVarInt(bytes.length + 1, out);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+
+    public static byte[] readBytes(ByteBuffer in) throws IOException {
+        int length = readLength(in);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    public static void writeString(String value, ByteBufferOutputStream out) {
+        writeBytes(value == null ? null : value.getBytes(StandardCharsets.UTF_8), out);
+    }
+
+    public static String readString(ByteBuffer in) throws IOException {
+        int length = readLength(in);
+        if (length < 0) {
+            return null;
+        }
+        if (!in.hasArray()) {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    /**
+     * @return length of a nullable value, or -1 if it is null
+     */
+    private static int readLength(ByteBuffer in) throws IOException {
+        int length = readVarInt(in) - 1;
+        if (length < -1) {
+            throw new IOException("invalid length " + length);
+        }
+        if (length > in.remaining()) {
+            throw new EOFException("value is " + length + " bytes but only " + in.remaining() + " remain");
+        }
+        return length;
+    }
+
+    private BinaryFormat() {}
+}
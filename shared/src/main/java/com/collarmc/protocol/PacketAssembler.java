@@ -0,0 +1,95 @@
+package com.collarmc.protocol;
+
+import com.collarmc.io.ByteBufferOutputStream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+/**
+ * Puts packets split by {@link PacketIO#frames(byte[])} back together as their chunks arrive, up to a maximum size.
+ * Chunks of a packet are sent together and in order, so only one packet is assembled at a time.
+ * Not thread safe, use one per connection.
+ */
+public final class PacketAssembler {
+
+    private final int maxSize;
+    private ByteBufferOutputStream assembling;
+    private int stream;
+    private int next;
+    private int count;
+
+    /**
+     * @param maxSize largest packet to assemble
+     */
+    public PacketAssembler(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param frame received
+     * @return the frame if it was not a chunk, the assembled packet if it was the last chunk, otherwise empty
+     * @throws IOException if the chunk is out of order or the packet is too large
+     */
+    public Optional<ByteBuffer> accept(ByteBuffer frame) throws IOException {
+        if (!isChunk(frame)) {
+            return Optional.of(frame);
+        }
+        if (frame.remaining() < PacketIO.CHUNK_HEADER_SIZE) {
+            throw new EOFException("chunk is " + frame.remaining() + " bytes which is smaller than its header");
+        }
+        ByteBuffer chunk = frame.slice().position(PacketIO.HEADER_SIZE);
+        int chunkStream = chunk.getInt();
+        int index = chunk.getInt();
+        int chunkCount = chunk.getInt();
+        if (index == 0) {
+            if (assembling != null) {
+                reset();
+                throw new IOException("chunked packet " + stream + " was interrupted by " + chunkStream);
+            }
+            if (chunkCount < 2 || (long) (chunkCount - 1) * (PacketIO.MAX_PACKET_SIZE - PacketIO.CHUNK_HEADER_SIZE) >= maxSize) {
+                throw new IOException("chunked packet " + chunkStream + " has " + chunkCount + " chunks which is too many");
+            }
+            assembling = new ByteBufferOutputStream(Math.min(maxSize, chunkCount * chunk.remaining()));
+            stream = chunkStream;
+            count = chunkCount;
+            next = 0;
+        } else if (assembling == null || chunkStream != stream || index != next || chunkCount != count) {
+            reset();
+            throw new IOException("chunk " + index + " of packet " + chunkStream + " was out of order");
+        }
+        if (assembling.size() + chunk.remaining() > maxSize) {
+            reset();
+            throw new IOException("chunked packet is larger than " + maxSize + " bytes");
+        }
+        assembling.write(chunk);
+        next++;
+        if (next < count) {
+            return Optional.empty();
+        }
+        ByteBuffer packet = assembling.buffer();
+        reset();
+        return Optional.of(packet);
+    }
+
+    /**
+     * Discard any partially assembled packet
+     */
+    public void reset() {
+        assembling = null;
+        stream = 0;
+        next = 0;
+        count = 0;
+    }
+
+    private static boolean isChunk(ByteBuffer frame) {
+        if (frame.remaining() < PacketIO.HEADER_SIZE) {
+            return false;
+        }
+        int position = frame.position();
+        return frame.getInt(position) == PacketIO.PACKET_MARKER
+                && frame.getInt(position + Integer.BYTES) == PacketIO.VERSION
+                && frame.getInt(position + 2 * Integer.BYTES) == PacketIO.MODE_CHUNK;
+    }
+}
@@ -0,0 +1,26 @@
+package com.collarmc.protocol;
+
+import com.collarmc.io.ByteBufferOutputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed layout binary encoding for a single message type, used instead of Jackson for the hottest packets
+ * @param <T> type of message
+ */
+public interface PacketCodec<T> {
+    /**
+     * @param value to encode
+     * @param out to write to
+     * @throws IOException if the value cannot be encoded
+     */
+    void encode(T value, ByteBufferOutputStream out) throws IOException;
+
+    /**
+     * @param in positioned at the start of the message and limited to its end
+     * @return decoded message
+     * @throws IOException if the message is malformed
+     */
+    T decode(ByteBuffer in) throws IOException;
+}
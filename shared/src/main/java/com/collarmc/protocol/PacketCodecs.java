@@ -0,0 +1,129 @@
+package com.collarmc.protocol;
+
+import com.collarmc.io.ByteBufferOutputStream;
+import com.collarmc.protocol.location.LocationCodecs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Registry of {@link PacketCodec}s for message types that are sent often enough to be worth a fixed binary layout.
+ * Encoded messages start with {@link #TAG}, a byte MessagePack never uses, followed by the codec id as a varint, so
+ * they can be told apart from messages written by Jackson in the same packet.
+ */
+public final class PacketCodecs {
+
+    /** Version of the registered codecs, advertised with {@link PacketIO#FEATURE_BINARY_CODECS} **/
+    public static final int VERSION = 2;
+    /** MessagePack's never used byte **/
+    static final int TAG = 0xc1;
+
+    private static final PacketCodecs DEFAULTS = new PacketCodecs();
+
+    static {
+        LocationCodecs.register(DEFAULTS);
+    }
+
+    private final Map<Class<?>, Registration<?>> byType = new HashMap<>();
+    private final Map<Integer, Registration<?>> byId = new HashMap<>();
+
+    /**
+     * @return codecs for {@link #VERSION}
+     */
+    public static PacketCodecs defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Register a codec. Ids and layouts must never change once released, bump {@link #VERSION} instead.
+     * Codecs must all be registered before the registry is shared with other threads.
+     * @param id of the codec
+     * @param type encoded by the codec
+     * @param codec to register
+     * @param <T> type
+     */
+    public <T> void register(int id, Class<T> type, PacketCodec<T> codec) {
+        if (id < 0) {
+            throw new IllegalArgumentException("codec id must not be negative");
+        }
+        if (byId.containsKey(id) || byType.containsKey(type)) {
+            throw new IllegalStateException("codec " + id + " for " + type.getName() + " is already registered");
+        }
+        Registration<T> registration = new Registration<>(id, codec);
+        byId.put(id, registration);
+        byType.put(type, registration);
+    }
+
+    /**
+     * @param type of message
+     * @return if the type has a codec
+     */
+    public boolean supports(Class<?> type) {
+        return byType.containsKey(type);
+    }
+
+    /**
+     * Encode a message with its codec, including the tag
+     * @param value to encode, which must have a codec
+     * @param out to write to
+     * @throws IOException if the message could not be encoded
+     */
+    @SuppressWarnings("unchecked")
+    public void encode(Object value, ByteBufferOutputStream out) throws IOException {
+        Registration<Object> registration = (Registration<Object>) byType.get(value.getClass());
+        if (registration == null) {
+            throw new IllegalStateException("no codec registered for " + value.getClass().getName());
+        }
+        out.write(TAG);
+        BinaryFormat.writeVarInt(registration.id, out);
+        registration.codec.encode(value, out);
+    }
+
+    /**
+     * @param buffer containing a message
+     * @return if the message was encoded by a codec
+     */
+    public static boolean isTagged(ByteBuffer buffer) {
+        return buffer.hasRemaining() && (buffer.get(buffer.position()) & 0xff) == TAG;
+    }
+
+    /**
+     * Decode a tagged message
+     * @param buffer positioned at the tag and limited to the end of the message
+     * @param type expected
+     * @param <T> type
+     * @return message
+     * @throws IOException if the message is malformed, unknown or not of the expected type
+     */
+    public <T> T decode(ByteBuffer buffer, Class<T> type) throws IOException {
+        if (!isTagged(buffer)) {
+            throw new IOException("message was not encoded by a codec");
+        }
+        buffer.get();
+        int id = BinaryFormat.readVarInt(buffer);
+        Registration<?> registration = byId.get(id);
+        if (registration == null) {
+            throw new IOException("unknown codec " + id);
+        }
+        Object value = registration.codec.decode(buffer);
+        if (!type.isInstance(value)) {
+            throw new IOException("codec " + id + " decoded " + value.getClass().getName() + " but expected " + type.getName());
+        }
+        if (buffer.hasRemaining()) {
+            throw new IOException("codec " + id + " left " + buffer.remaining() + " bytes unread");
+        }
+        return type.cast(value);
+    }
+
+    private static final class Registration<T> {
+        final int id;
+        final PacketCodec<T> codec;
+
+        Registration(int id, PacketCodec<T> codec) {
+            this.id = id;
+            this.codec = codec;
+        }
+    }
+}
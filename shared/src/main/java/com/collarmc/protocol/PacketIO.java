@@ -2,124 +2,540 @@ package com.collarmc.protocol;
 
 import com.collarmc.api.identity.Identity;
 import com.collarmc.io.ByteBufferInputStream;
-import com.collarmc.api.io.IO;
+import com.collarmc.io.ByteBufferOutputStream;
 import com.collarmc.security.messages.Cipher;
 import com.collarmc.security.messages.CipherException;
+import com.collarmc.security.sodium.NativeBuffers;
+import com.collarmc.security.sodium.SessionCipher;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.io.*;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Encodes and decodes packets for/from the wire, handling encryption and different types of signal messages
  * Packet format is int(0x22)+int(version)+int(ENCRYPTEDMODE)+CiphertextMessage()
+ * Batched packets encrypt int(count)+[int(length)+message]... as a single CiphertextMessage()
+ * Session packets replace CiphertextMessage() with a {@link SessionCipher} message, authenticating the header with it
+ * Encrypted and session modes may have {@link #FLAG_COMPRESSED} set, in which case the plain text is
+ * int(length)+LZ4 block, compressed before it was encrypted
+ * Instances are stateless and safe to share between threads. Messages are serialized into per thread buffers and
+ * read straight out of the buffer they arrived in, so the only arrays allocated are the ones handed to the cipher
+ * and the finished packet. Session packets are encrypted in per thread {@link NativeBuffers}.
+ * Messages with a {@link PacketCodec} are always read, but are only written with it by instances returned from
+ * {@link #withBinaryCodecs()}, for peers that negotiated {@link #FEATURE_BINARY_CODECS}.
  */
 public final class PacketIO {
 
     private static final Logger LOGGER = LogManager.getLogger(PacketIO.class);
 
     /** UwU **/
-    private static final int PACKET_MARKER = 0x22;
-    private static final int VERSION = 2;
+    static final int PACKET_MARKER = 0x22;
+    static final int VERSION = 2;
     private static final int MODE_PLAIN = 0xc001;
     private static final int MODE_ENCRYPTED = 0xba5ed;
+    private static final int MODE_ENCRYPTED_BATCH = 0xba7c4ed;
+    private static final int MODE_SESSION = 0x5e55;
+    private static final int MODE_SESSION_BATCH = 0x5e55ba7c;
+    private static final int FLAG_COMPRESSED = 0x80000000;
+    static final int MODE_CHUNK = 0xc4a2c;
+    static final int HEADER_SIZE = 3 * Integer.BYTES;
+    /** Chunks carry int(stream)+int(index)+int(count) after the header **/
+    static final int CHUNK_HEADER_SIZE = HEADER_SIZE + 3 * Integer.BYTES;
     public static final short MAX_PACKET_SIZE = Short.MAX_VALUE;
+    /** Largest packet that can be split in to chunks **/
+    public static final int MAX_CHUNKED_PACKET_SIZE = 16 * MAX_PACKET_SIZE;
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private static final int MAX_POOLED_BUFFER_SIZE = 2 * MAX_PACKET_SIZE;
+    /** Messages smaller than this are not worth compressing **/
+    private static final int COMPRESSION_THRESHOLD = 1024;
+    /** Largest plain text a compressed packet may expand to **/
+    public static final int MAX_DECOMPRESSED_SIZE = 16 * MAX_PACKET_SIZE;
+    /** Java only, so nothing native has to be loaded by the client **/
+    private static final LZ4Factory LZ4 = LZ4Factory.fastestJavaInstance();
+    private static final AtomicInteger CHUNKED_STREAMS = new AtomicInteger();
+
+    /**
+     * Scratch buffers reused by every packet encoded or decoded on the thread. Decode has its own so that decoding
+     * while encoding, or the other way around, never shares a buffer.
+     */
+    private static final ThreadLocal<ByteBufferOutputStream> WRITE_BUFFERS = ThreadLocal.withInitial(() -> new ByteBufferOutputStream(INITIAL_BUFFER_SIZE));
+    private static final ThreadLocal<ByteBufferOutputStream> READ_BUFFERS = ThreadLocal.withInitial(() -> new ByteBufferOutputStream(INITIAL_BUFFER_SIZE));
+    private static final ThreadLocal<ByteBufferOutputStream> COMPRESS_BUFFERS = ThreadLocal.withInitial(() -> new ByteBufferOutputStream(INITIAL_BUFFER_SIZE));
+
+    /** Headers of uncompressed session packets, authenticated as additional data. Only ever read, so can be shared by threads **/
+    private static final byte[] SESSION_HEADER_BYTES = ByteBuffer.allocate(HEADER_SIZE).putInt(PACKET_MARKER).putInt(VERSION).putInt(MODE_SESSION).array();
+    private static final byte[] SESSION_BATCH_HEADER_BYTES = ByteBuffer.allocate(HEADER_SIZE).putInt(PACKET_MARKER).putInt(VERSION).putInt(MODE_SESSION_BATCH).array();
+
+    /** Feature advertised by servers and requested by clients that can read batched packets **/
+    public static final String FEATURE_BATCHED_RESPONSES = "protocol:batched_responses";
+    /** Feature advertised by servers and requested by clients that can derive a {@link SessionCipher} while identifying **/
+    public static final String FEATURE_SESSION_KEYS = "protocol:session_keys";
+    /** Feature advertised by servers and requested by clients that can read messages encoded by {@link PacketCodecs#VERSION} **/
+    public static final String FEATURE_BINARY_CODECS = "protocol:binary_codecs";
+    /** Feature advertised by servers and requested by clients that can read packets compressed with {@link #COMPRESSION} **/
+    public static final String FEATURE_COMPRESSION = "protocol:compression";
+    /** Value of {@link #FEATURE_COMPRESSION} **/
+    public static final String COMPRESSION = "lz4";
+    /** Feature advertised by servers and requested by clients that can reassemble packets split by {@link #frames(byte[])} **/
+    public static final String FEATURE_CHUNKED_PACKETS = "protocol:chunked_packets";
+    /** Feature advertised by servers and requested by clients that can read locations written by {@link com.collarmc.api.location.Location#serializeCompact()} **/
+    public static final String FEATURE_COMPACT_LOCATIONS = "protocol:compact_locations";
 
     @Nonnull
-    private final ObjectMapper mapper;
+    private final PacketMapper mapper;
     @Nullable
     private final Cipher cipher;
+    @Nonnull
+    private final PacketCodecs codecs;
+    private final boolean writeCodecs;
+    private final boolean compress;
+    private final boolean chunk;
 
     public PacketIO(@Nonnull ObjectMapper mapper, @Nullable Cipher cipher) {
+        this(new PacketMapper(mapper), cipher);
+    }
+
+    /**
+     * @param mapper shared by every instance that reads or writes the same connection
+     * @param cipher to encrypt and decrypt packets with, or null if there is none
+     */
+    public PacketIO(@Nonnull PacketMapper mapper, @Nullable Cipher cipher) {
+        this(mapper, cipher, PacketCodecs.defaults(), false, false, false);
+    }
+
+    private PacketIO(@Nonnull PacketMapper mapper, @Nullable Cipher cipher, @Nonnull PacketCodecs codecs, boolean writeCodecs, boolean compress, boolean chunk) {
         this.mapper = mapper;
         this.cipher = cipher;
+        this.codecs = codecs;
+        this.writeCodecs = writeCodecs;
+        this.compress = compress;
+        this.chunk = chunk;
+    }
+
+    /**
+     * Only use with peers that negotiated {@link #FEATURE_BINARY_CODECS}
+     * @return packet io that writes messages with their {@link PacketCodec} when they have one
+     */
+    public PacketIO withBinaryCodecs() {
+        return writeCodecs ? this : new PacketIO(mapper, cipher, codecs, true, compress, chunk);
+    }
+
+    /**
+     * Only use with peers that negotiated {@link #FEATURE_COMPRESSION}
+     * @return packet io that compresses large encrypted and session packets
+     */
+    public PacketIO withCompression() {
+        return compress ? this : new PacketIO(mapper, cipher, codecs, writeCodecs, true, chunk);
+    }
+
+    /**
+     * Only use with peers that negotiated {@link #FEATURE_CHUNKED_PACKETS}
+     * @return packet io that encodes packets up to {@link #MAX_CHUNKED_PACKET_SIZE}, which must be sent with {@link #frames(byte[])}
+     */
+    public PacketIO withChunking() {
+        return chunk ? this : new PacketIO(mapper, cipher, codecs, writeCodecs, compress, true);
+    }
+
+    /**
+     * Split a packet too large to send in one websocket message in to chunks, to be put back together by a
+     * {@link PacketAssembler}. Chunks must be sent in order and before any other packet that has to be chunked.
+     * Chunk format is int(0x22)+int(version)+int(MODE_CHUNK)+int(stream)+int(index)+int(count)+bytes
+     * @param packet to split
+     * @return the packet if it fits in one message, otherwise its chunks
+     */
+    public static List<ByteBuffer> frames(byte[] packet) {
+        if (packet.length <= MAX_PACKET_SIZE) {
+            return List.of(ByteBuffer.wrap(packet));
+        }
+        int chunkSize = MAX_PACKET_SIZE - CHUNK_HEADER_SIZE;
+        int count = (packet.length + chunkSize - 1) / chunkSize;
+        int stream = CHUNKED_STREAMS.incrementAndGet();
+        List<ByteBuffer> frames = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            int offset = index * chunkSize;
+            int length = Math.min(chunkSize, packet.length - offset);
+            ByteBuffer frame = ByteBuffer.allocate(CHUNK_HEADER_SIZE + length);
+            frame.putInt(PACKET_MARKER).putInt(VERSION).putInt(MODE_CHUNK)
+                    .putInt(stream).putInt(index).putInt(count)
+                    .put(packet, offset, length)
+                    .flip();
+            frames.add(frame);
+        }
+        return frames;
     }
 
     public <T> Optional<T> decode(Identity sender, InputStream is, Class<T> type) throws IOException, CipherException {
-        return decode(sender, IO.toByteBuffer(is), type);
+        ByteBufferOutputStream buffer = borrow(READ_BUFFERS);
+        buffer.readFrom(is);
+        return decode(sender, buffer.buffer(), type);
+    }
+
+    /**
+     * Decode a packet held in part of an array, without copying it
+     * @param sender of the packet
+     * @param payload containing the packet
+     * @param offset of the packet in the payload
+     * @param length of the packet
+     * @param type of the message
+     * @param <T> type
+     * @return message
+     * @throws IOException on read error
+     * @throws CipherException on decryption error
+     */
+    public <T> Optional<T> decode(Identity sender, byte[] payload, int offset, int length, Class<T> type) throws IOException, CipherException {
+        return decode(sender, ByteBuffer.wrap(payload, offset, length), type);
     }
 
     public <T> Optional<T> decode(Identity sender, ByteBuffer buffer, Class<T> type) throws IOException, CipherException {
-        T decoded;
-        int packetType;
-        try (DataInputStream objectStream = new DataInputStream(new ByteBufferInputStream(buffer))) {
-            int packetMarker = objectStream.readInt();
-            if (packetMarker != PACKET_MARKER) {
-                throw new IllegalStateException("not a collar packet " + Integer.toHexString(packetMarker));
-            }
-            int version = objectStream.readInt();
-            if (version != VERSION) {
-                throw new IllegalStateException("unknown packet version " + version);
+        return decode(sender, null, buffer, type);
+    }
+
+    /**
+     * Decode a packet that may have been encrypted with the session cipher
+     * @param sender of the packet
+     * @param session cipher negotiated with the sender, or null if there is none
+     * @param buffer containing the packet
+     * @param type of the message
+     * @param <T> type
+     * @return message
+     * @throws IOException on read error
+     * @throws CipherException on decryption error
+     */
+    public <T> Optional<T> decode(Identity sender, @Nullable SessionCipher session, ByteBuffer buffer, Class<T> type) throws IOException, CipherException {
+        List<T> decoded = decodeAll(sender, session, buffer, type);
+        if (decoded.size() > 1) {
+            throw new IllegalStateException("packet contains " + decoded.size() + " messages and must be read with decodeAll");
+        }
+        return decoded.isEmpty() ? Optional.empty() : Optional.ofNullable(decoded.get(0));
+    }
+
+    /**
+     * Decode all messages contained in a packet
+     * @param sender of the packet
+     * @param buffer containing the packet
+     * @param type of the messages
+     * @param <T> type
+     * @return messages in the order they were encoded, or empty if the packet could not be read
+     * @throws IOException on read error
+     * @throws CipherException on decryption error
+     */
+    public <T> List<T> decodeAll(Identity sender, ByteBuffer buffer, Class<T> type) throws IOException, CipherException {
+        return decodeAll(sender, null, buffer, type);
+    }
+
+    /**
+     * Decode all messages contained in a packet that may have been encrypted with the session cipher
+     * @param sender of the packet
+     * @param session cipher negotiated with the sender, or null if there is none
+     * @param buffer containing the packet
+     * @param type of the messages
+     * @param <T> type
+     * @return messages in the order they were encoded, or empty if the packet could not be read
+     * @throws IOException on read error
+     * @throws CipherException on decryption error
+     */
+    public <T> List<T> decodeAll(Identity sender, @Nullable SessionCipher session, ByteBuffer buffer, Class<T> type) throws IOException, CipherException {
+        List<T> decoded = new ArrayList<>();
+        ByteBuffer packet = buffer.slice();
+        if (packet.remaining() < HEADER_SIZE) {
+            throw new EOFException("packet is " + packet.remaining() + " bytes which is smaller than the header");
+        }
+        int packetMarker = packet.getInt();
+        if (packetMarker != PACKET_MARKER) {
+            throw new IllegalStateException("not a collar packet " + Integer.toHexString(packetMarker));
+        }
+        int version = packet.getInt();
+        if (version != VERSION) {
+            throw new IllegalStateException("unknown packet version " + version);
+        }
+        int header = packet.getInt();
+        boolean compressed = (header & FLAG_COMPRESSED) != 0;
+        int packetType = header & ~FLAG_COMPRESSED;
+        if (packetType == MODE_PLAIN && !compressed) {
+            checkDecodedSize(packet.remaining());
+            decoded.add(read(packet, type));
+        } else if (packetType == MODE_ENCRYPTED || packetType == MODE_ENCRYPTED_BATCH) {
+            if (cipher == null) {
+                throw new IllegalStateException("cipher was not set when mode is expecting encrypted");
             }
-            packetType = objectStream.readInt();
-            byte[] remainingBytes = IO.toByteArray(objectStream);
-            if (packetType == MODE_PLAIN) {
-                checkPacketSize(remainingBytes);
-                decoded = mapper.readValue(remainingBytes, type);
-            } else if (packetType == MODE_ENCRYPTED) {
-                if (cipher == null) {
-                    throw new IllegalStateException("cipher was not set when mode is expecting encrypted");
+            if (sender == null) {
+                LOGGER.error("Cannot read encrypted packets with no sender");
+            } else {
+                byte[] cipherText = new byte[packet.remaining()];
+                packet.get(cipherText);
+                byte[] plainText = cipher.decrypt(cipherText, sender);
+                checkDecodedSize(plainText.length);
+                if (compressed) {
+                    plainText = decompress(plainText);
                 }
-                if (sender == null) {
-                    LOGGER.error("Cannot read encrypted packets with no sender");
-                    decoded = null;
+                if (packetType == MODE_ENCRYPTED) {
+                    decoded.add(read(ByteBuffer.wrap(plainText), type));
                 } else {
-                    remainingBytes = cipher.decrypt(remainingBytes, sender);
-                    checkPacketSize(remainingBytes);
-                    decoded = mapper.readValue(remainingBytes, type);
+                    readBatch(ByteBuffer.wrap(plainText), type, decoded);
                 }
+            }
+        } else if (packetType == MODE_SESSION || packetType == MODE_SESSION_BATCH) {
+            if (session == null) {
+                throw new IllegalStateException("session cipher was not negotiated when mode is expecting session");
+            }
+            // Jackson reads arrays faster than streams, so the plain text is decrypted to the heap
+            byte[] cipherText = new byte[packet.remaining()];
+            packet.get(cipherText);
+            byte[] plainText = session.decrypt(cipherText, headerBytes(header));
+            checkDecodedSize(plainText.length);
+            if (compressed) {
+                plainText = decompress(plainText);
+            }
+            if (packetType == MODE_SESSION) {
+                decoded.add(read(ByteBuffer.wrap(plainText), type));
             } else {
-                LOGGER.error("unknown packet type " + packetType);
-                decoded = null;
+                readBatch(ByteBuffer.wrap(plainText), type, decoded);
             }
+        } else if (packetType == MODE_CHUNK) {
+            throw new IllegalStateException("chunked packets must be put back together by a PacketAssembler before they are decoded");
+        } else {
+            LOGGER.error("unknown packet type " + packetType);
         }
-        return Optional.ofNullable(decoded);
+        return decoded;
     }
 
     public byte[] encodePlain(Object object) throws IOException {
-        byte[] rawBytes = mapper.writeValueAsBytes(object);
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            try (DataOutputStream objectStream = new DataOutputStream(outputStream)) {
-                objectStream.writeInt(PACKET_MARKER);
-                objectStream.writeInt(VERSION);
-                objectStream.writeInt(MODE_PLAIN);
-                objectStream.write(rawBytes);
-            }
-            byte[] bytes = outputStream.toByteArray();
-            checkPacketSize(bytes);
-            return bytes;
-        }
+        ByteBufferOutputStream buffer = borrow(WRITE_BUFFERS);
+        buffer.writeInt(PACKET_MARKER);
+        buffer.writeInt(VERSION);
+        buffer.writeInt(MODE_PLAIN);
+        write(buffer, object);
+        checkPacketSize(buffer.size());
+        return buffer.toByteArray();
     }
 
     public byte[] encodeEncrypted(Identity recipient, Object object) throws IOException, CipherException {
         if (cipher == null) {
             throw new IllegalStateException("cipher was not set when mode is expecting encrypted");
         }
-        byte[] rawBytes = mapper.writeValueAsBytes(object);
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            try (DataOutputStream objectStream = new DataOutputStream(outputStream)) {
-                objectStream.writeInt(PACKET_MARKER);
-                objectStream.writeInt(VERSION);
-                objectStream.writeInt(MODE_ENCRYPTED);
-                if (recipient == null) {
-                    throw new IllegalArgumentException("recipient cannot be null when sending MODE_ENCRYPTED packets");
-                }
-                objectStream.write(cipher.encrypt(rawBytes, recipient));
+        if (recipient == null) {
+            throw new IllegalArgumentException("recipient cannot be null when sending MODE_ENCRYPTED packets");
+        }
+        ByteBufferOutputStream buffer = borrow(WRITE_BUFFERS);
+        write(buffer, object);
+        return encryptedPacket(MODE_ENCRYPTED, recipient, buffer);
+    }
+
+    /**
+     * Encode several messages for one recipient into a single encrypted packet
+     * Only send to recipients that requested {@link #FEATURE_BATCHED_RESPONSES}
+     * @param recipient of the messages
+     * @param objects to encode
+     * @return packet
+     * @throws IOException on write error
+     * @throws CipherException on encryption error
+     */
+    public byte[] encodeEncryptedBatch(Identity recipient, List<?> objects) throws IOException, CipherException {
+        if (cipher == null) {
+            throw new IllegalStateException("cipher was not set when mode is expecting encrypted");
+        }
+        if (recipient == null) {
+            throw new IllegalArgumentException("recipient cannot be null when sending MODE_ENCRYPTED_BATCH packets");
+        }
+        return encryptedPacket(MODE_ENCRYPTED_BATCH, recipient, writeBatch(objects));
+    }
+
+    /**
+     * Encode a message with the cipher negotiated for the session
+     * Only use with sessions that negotiated {@link #FEATURE_SESSION_KEYS}
+     * @param session cipher
+     * @param object to encode
+     * @return packet
+     * @throws IOException on write error
+     * @throws CipherException on encryption error
+     */
+    public byte[] encodeSession(SessionCipher session, Object object) throws IOException, CipherException {
+        ByteBufferOutputStream buffer = borrow(WRITE_BUFFERS);
+        write(buffer, object);
+        return sessionPacket(MODE_SESSION, session, buffer);
+    }
+
+    /**
+     * Encode several messages into a single packet with the cipher negotiated for the session
+     * Only use with sessions that negotiated {@link #FEATURE_SESSION_KEYS} and {@link #FEATURE_BATCHED_RESPONSES}
+     * @param session cipher
+     * @param objects to encode
+     * @return packet
+     * @throws IOException on write error
+     * @throws CipherException on encryption error
+     */
+    public byte[] encodeSessionBatch(SessionCipher session, List<?> objects) throws IOException, CipherException {
+        return sessionPacket(MODE_SESSION_BATCH, session, writeBatch(objects));
+    }
+
+    private ByteBufferOutputStream writeBatch(List<?> objects) throws IOException {
+        ByteBufferOutputStream buffer = borrow(WRITE_BUFFERS);
+        buffer.writeInt(objects.size());
+        for (Object object : objects) {
+            // Reserve the length and fill it in once the message is written
+            int lengthIndex = buffer.size();
+            buffer.writeInt(0);
+            write(buffer, object);
+            buffer.putInt(lengthIndex, buffer.size() - lengthIndex - Integer.BYTES);
+        }
+        return buffer;
+    }
+
+    private <T> void readBatch(ByteBuffer batch, Class<T> type, List<T> decoded) throws IOException {
+        int count = batch.getInt();
+        for (int i = 0; i < count; i++) {
+            int length = batch.getInt();
+            if (length < 0 || length > batch.remaining()) {
+                throw new EOFException("batched message is " + length + " bytes but only " + batch.remaining() + " remain");
+            }
+            decoded.add(read(batch.slice().limit(length), type));
+            batch.position(batch.position() + length);
+        }
+    }
+
+    private void write(ByteBufferOutputStream buffer, Object object) throws IOException {
+        if (writeCodecs && codecs.supports(object.getClass())) {
+            codecs.encode(object, buffer);
+        } else {
+            mapper.write(buffer, object);
+        }
+    }
+
+    /**
+     * Reads the message without copying it out of the buffer
+     */
+    private <T> T read(ByteBuffer buffer, Class<T> type) throws IOException {
+        if (PacketCodecs.isTagged(buffer)) {
+            return codecs.decode(buffer, type);
+        }
+        if (buffer.hasArray()) {
+            return mapper.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), type);
+        }
+        return mapper.read(new ByteBufferInputStream(buffer), type);
+    }
+
+    private static byte[] headerBytes(int header) {
+        if (header == MODE_SESSION) {
+            return SESSION_HEADER_BYTES;
+        } else if (header == MODE_SESSION_BATCH) {
+            return SESSION_BATCH_HEADER_BYTES;
+        }
+        return ByteBuffer.allocate(HEADER_SIZE).putInt(PACKET_MARKER).putInt(VERSION).putInt(header).array();
+    }
+
+    private byte[] encryptedPacket(int mode, Identity recipient, ByteBufferOutputStream message) throws CipherException {
+        ByteBufferOutputStream compressed = compress(message);
+        if (compressed != null) {
+            return packet(mode | FLAG_COMPRESSED, cipher.encrypt(compressed.toByteArray(), recipient));
+        }
+        return packet(mode, cipher.encrypt(message.toByteArray(), recipient));
+    }
+
+    /**
+     * Encrypts the message in native memory and writes the packet around it, so the packet is the only array
+     */
+    private byte[] sessionPacket(int mode, SessionCipher session, ByteBufferOutputStream message) throws CipherException {
+        ByteBufferOutputStream compressed = compress(message);
+        if (compressed != null) {
+            mode |= FLAG_COMPRESSED;
+            message = compressed;
+        }
+        NativeBuffers buffers = NativeBuffers.get();
+        ByteBuffer plainText = buffers.input(message.size()).put(message.buffer()).flip();
+        ByteBuffer packet = buffers.output(HEADER_SIZE + SessionCipher.OVERHEAD + plainText.remaining());
+        packet.putInt(PACKET_MARKER).putInt(VERSION).putInt(mode);
+        // The header just written is authenticated as additional data
+        session.encrypt(plainText, packet.duplicate().flip(), packet);
+        packet.flip();
+        checkPacketSize(packet.remaining());
+        byte[] bytes = new byte[packet.remaining()];
+        packet.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return message compressed in to a per thread buffer, or null if compression is off or did not make it smaller
+     */
+    @Nullable
+    private ByteBufferOutputStream compress(ByteBufferOutputStream message) {
+        if (!compress || message.size() < COMPRESSION_THRESHOLD) {
+            return null;
+        }
+        LZ4Compressor compressor = LZ4.fastCompressor();
+        ByteBufferOutputStream compressed = borrow(COMPRESS_BUFFERS);
+        compressed.writeInt(message.size());
+        ByteBuffer source = message.buffer();
+        ByteBuffer destination = compressed.reserve(compressor.maxCompressedLength(source.remaining()));
+        int length = compressor.compress(source, source.position(), source.remaining(), destination, destination.position(), destination.remaining());
+        compressed.skip(length);
+        return compressed.size() < message.size() ? compressed : null;
+    }
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        if (compressed.length < Integer.BYTES) {
+            throw new EOFException("compressed message is " + compressed.length + " bytes which is smaller than its length");
+        }
+        int length = ByteBuffer.wrap(compressed).getInt();
+        if (length < 0 || length > MAX_DECOMPRESSED_SIZE) {
+            throw new IllegalStateException("Packet is too large. Decompressed size is " + length + " bytes when maximum is " + MAX_DECOMPRESSED_SIZE);
+        }
+        byte[] plainText = new byte[length];
+        try {
+            int decompressed = LZ4.safeDecompressor().decompress(compressed, Integer.BYTES, compressed.length - Integer.BYTES, plainText, 0);
+            if (decompressed != length) {
+                throw new IOException("compressed message expanded to " + decompressed + " bytes but should be " + length);
             }
-            byte[] bytes = outputStream.toByteArray();
-            checkPacketSize(bytes);
-            return bytes;
+        } catch (LZ4Exception e) {
+            throw new IOException("compressed message is malformed", e);
+        }
+        return plainText;
+    }
+
+    private byte[] packet(int mode, byte[] body) {
+        byte[] bytes = new byte[HEADER_SIZE + body.length];
+        ByteBuffer.wrap(bytes).putInt(PACKET_MARKER).putInt(VERSION).putInt(mode).put(body);
+        checkPacketSize(bytes.length);
+        return bytes;
+    }
+
+    private static ByteBufferOutputStream borrow(ThreadLocal<ByteBufferOutputStream> pool) {
+        ByteBufferOutputStream buffer = pool.get();
+        if (buffer.capacity() > MAX_POOLED_BUFFER_SIZE) {
+            // Don't let one oversized message pin a large buffer to the thread forever
+            buffer = new ByteBufferOutputStream(INITIAL_BUFFER_SIZE);
+            pool.set(buffer);
+        }
+        buffer.reset();
+        return buffer;
+    }
+
+    private void checkPacketSize(int size) {
+        int maxSize = chunk ? MAX_CHUNKED_PACKET_SIZE : MAX_PACKET_SIZE;
+        if (size > maxSize) {
+            throw new IllegalStateException("Packet is too large. Size is " + size + " bytes when maximum is " + maxSize);
         }
     }
 
-    private void checkPacketSize(byte[] bytes) {
-        if (bytes.length > PacketIO.MAX_PACKET_SIZE) {
-            throw new IllegalStateException("Packet is too large. Size is " + bytes.length + " bytes when maximum is " + MAX_PACKET_SIZE);
+    /**
+     * Packets read have already been limited by the transport or a {@link PacketAssembler}
+     */
+    private static void checkDecodedSize(int size) {
+        if (size > MAX_CHUNKED_PACKET_SIZE) {
+            throw new IllegalStateException("Packet is too large. Size is " + size + " bytes when maximum is " + MAX_CHUNKED_PACKET_SIZE);
         }
     }
 }
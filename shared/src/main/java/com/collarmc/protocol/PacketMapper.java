@@ -0,0 +1,68 @@
+package com.collarmc.protocol;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Serializes messages with Jackson, resolving the reader or writer for each type once instead of on every packet.
+ * Property access is generated by {@link BlackbirdModule} rather than done by reflection.
+ * Instances are safe to share between threads and should be, so that the readers and writers are reused.
+ */
+public final class PacketMapper {
+
+    private final ObjectMapper mapper;
+    private final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    /**
+     * @param mapper to copy the configuration of, which is left unchanged
+     */
+    public PacketMapper(ObjectMapper mapper) {
+        this.mapper = mapper.copy().registerModule(new BlackbirdModule());
+    }
+
+    /**
+     * @param bytes to read
+     * @param offset of the message
+     * @param length of the message
+     * @param type of the message
+     * @param <T> type
+     * @return message
+     * @throws IOException if the message could not be read
+     */
+    public <T> T read(byte[] bytes, int offset, int length, Class<T> type) throws IOException {
+        return reader(type).readValue(bytes, offset, length);
+    }
+
+    /**
+     * @param stream to read
+     * @param type of the message
+     * @param <T> type
+     * @return message
+     * @throws IOException if the message could not be read
+     */
+    public <T> T read(InputStream stream, Class<T> type) throws IOException {
+        return reader(type).readValue(stream);
+    }
+
+    /**
+     * @param stream to write to
+     * @param value to write
+     * @throws IOException if the message could not be written
+     */
+    public void write(OutputStream stream, Object value) throws IOException {
+        writers.computeIfAbsent(value.getClass(), mapper::writerFor).writeValue(stream, value);
+    }
+
+    private ObjectReader reader(Class<?> type) {
+        return readers.computeIfAbsent(type, mapper::readerFor);
+    }
+}
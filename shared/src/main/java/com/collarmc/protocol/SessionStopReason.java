@@ -7,6 +7,7 @@ public enum SessionStopReason {
     NORMAL_CLOSE(1000, "Session ended"),
     TOO_MANY_REQUESTS(1013, "Too many requests"),
     UNAUTHORISED(1401, "Unauthorised"),
+    SLOW_CONSUMER(1408, "Client could not keep up with the server"),
     @JsonEnumDefaultValue
     SERVER_ERROR(1500, "Server error");
 
@@ -5,6 +5,8 @@ import com.collarmc.protocol.ProtocolRequest;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.Set;
+
 /**
  * When sent with a null identity, prompts a login response
  */
@@ -16,11 +18,47 @@ public final class IdentifyRequest extends ProtocolRequest {
     @JsonProperty("token")
     public final byte[] token;
 
+    /** Optional protocol features the client wants to use, as advertised by the server's discover endpoint **/
+    @JsonProperty("features")
+    public final Set<String> features;
+
+    /** Ephemeral public key for deriving session keys, when requesting {@link com.collarmc.protocol.PacketIO#FEATURE_SESSION_KEYS} **/
+    @JsonProperty("sessionKey")
+    public final byte[] sessionKey;
+
     @JsonCreator
     public IdentifyRequest(@JsonProperty("identity") ClientIdentity identity,
-                           @JsonProperty("token") byte[] token) {
+                           @JsonProperty("token") byte[] token,
+                           @JsonProperty("features") Set<String> features,
+                           @JsonProperty("sessionKey") byte[] sessionKey) {
         this.identity = identity;
         this.token = token;
+        this.features = features == null ? Set.of() : Set.copyOf(features);
+        this.sessionKey = sessionKey;
+    }
+
+    public IdentifyRequest(ClientIdentity identity, byte[] token, Set<String> features) {
+        this(identity, token, features, null);
+    }
+
+    public IdentifyRequest(ClientIdentity identity, byte[] token) {
+        this(identity, token, null);
+    }
+
+    /**
+     * @param features to request
+     * @return copy of this request asking for the features
+     */
+    public IdentifyRequest withFeatures(Set<String> features) {
+        return new IdentifyRequest(identity, token, features, sessionKey);
+    }
+
+    /**
+     * @param sessionKey ephemeral public key
+     * @return copy of this request offering the session key
+     */
+    public IdentifyRequest withSessionKey(byte[] sessionKey) {
+        return new IdentifyRequest(identity, token, features, sessionKey);
     }
 
     /**
@@ -35,18 +35,35 @@ public final class IdentifyResponse extends ProtocolResponse {
     @JsonProperty("token")
     public final byte[] token;
 
+    /**
+     * Ephemeral public key for deriving session keys, if the client offered one
+     */
+    @JsonProperty("sessionKey")
+    public final byte[] sessionKey;
+
     @JsonCreator
     public IdentifyResponse(@JsonProperty("identity") ServerIdentity identity,
                             @JsonProperty("profile") PublicProfile profile,
                             @JsonProperty("minecraftServerId") String minecraftServerId,
                             @JsonProperty("sharedSecret") byte[] minecraftSharedSecret,
                             @JsonProperty("apiToken") String apiToken,
-                            @JsonProperty("token") byte[] token) {
+                            @JsonProperty("token") byte[] token,
+                            @JsonProperty("sessionKey") byte[] sessionKey) {
         this.identity = identity;
         this.profile = profile;
         this.minecraftServerId = minecraftServerId;
         this.minecraftSharedSecret = minecraftSharedSecret;
         this.apiToken = apiToken;
         this.token = token;
+        this.sessionKey = sessionKey;
+    }
+
+    public IdentifyResponse(ServerIdentity identity,
+                            PublicProfile profile,
+                            String minecraftServerId,
+                            byte[] minecraftSharedSecret,
+                            String apiToken,
+                            byte[] token) {
+        this(identity, profile, minecraftServerId, minecraftSharedSecret, apiToken, token, null);
     }
 }
@@ -0,0 +1,157 @@
+package com.collarmc.protocol.location;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.api.minecraft.MinecraftPlayer;
+import com.collarmc.api.security.PublicKey;
+import com.collarmc.api.session.Player;
+import com.collarmc.io.ByteBufferOutputStream;
+import com.collarmc.protocol.PacketCodec;
+import com.collarmc.protocol.PacketCodecs;
+import com.google.common.io.BaseEncoding;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static com.collarmc.protocol.BinaryFormat.*;
+
+/**
+ * Binary layouts for location packets, which make up most of the traffic between clients and the server
+ */
+public final class LocationCodecs {
+
+    public static final int UPDATE_LOCATION_REQUEST = 1;
+    public static final int LOCATION_UPDATED_RESPONSE = 2;
+    public static final int UPDATE_NEARBY_REQUEST = 3;
+
+    /** Nearby hashes are hex sha256 digests, sent as the digest rather than the hex **/
+    private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+    private static final int HASH_BYTES = 32;
+    private static final int HASH_DIGEST = 0;
+    private static final int HASH_STRING = 1;
+
+    /**
+     * Layout is nullableUuid(group)+bytes(location)+bytes(compactLocation)
+     */
+    static final PacketCodec<UpdateLocationRequest> UPDATE_LOCATION_REQUEST_CODEC = new PacketCodec<>() {
+        @Override
+        public void encode(UpdateLocationRequest value, ByteBufferOutputStream out) {
+            writeNullableUuid(value.group, out);
+            writeBytes(value.location, out);
+            writeBytes(value.compactLocation, out);
+        }
+
+        @Override
+        public UpdateLocationRequest decode(ByteBuffer in) throws IOException {
+            return new UpdateLocationRequest(readNullableUuid(in), readBytes(in), readBytes(in));
+        }
+    };
+
+    /**
+     * Layout is nullableUuid(group)+player+bytes(location)
+     * Players are uuid(profile)+bytes(publicKey)+present+[uuid(id)+string(server)+nullableInt(networkId)]
+     */
+    static final PacketCodec<LocationUpdatedResponse> LOCATION_UPDATED_RESPONSE_CODEC = new PacketCodec<>() {
+        @Override
+        public void encode(LocationUpdatedResponse value, ByteBufferOutputStream out) {
+            writeNullableUuid(value.group, out);
+            writePlayer(value.sender, out);
+            writeBytes(value.location, out);
+        }
+
+        @Override
+        public LocationUpdatedResponse decode(ByteBuffer in) throws IOException {
+            return new LocationUpdatedResponse(readNullableUuid(in), readPlayer(in), readBytes(in));
+        }
+    };
+
+    /**
+     * Layout is varint(count)+[byte(HASH_DIGEST)+digest|byte(HASH_STRING)+string(hash)]...
+     * Null hashes are sent as none, meaning the player can see nobody
+     */
+    static final PacketCodec<UpdateNearbyRequest> UPDATE_NEARBY_REQUEST_CODEC = new PacketCodec<>() {
+        @Override
+        public void encode(UpdateNearbyRequest value, ByteBufferOutputStream out) {
+            Set<String> nearbyHashes = value.nearbyHashes == null ? Set.of() : value.nearbyHashes;
+            writeVarInt(nearbyHashes.size(), out);
+            for (String hash : nearbyHashes) {
+                if (hash.length() == HASH_BYTES * 2 && HEX.canDecode(hash)) {
+                    out.write(HASH_DIGEST);
+                    byte[] digest = HEX.decode(hash);
+                    out.write(digest, 0, digest.length);
+                } else {
+                    out.write(HASH_STRING);
+                    writeString(hash, out);
+                }
+            }
+        }
+
+        @Override
+        public UpdateNearbyRequest decode(ByteBuffer in) throws IOException {
+            int count = readVarInt(in);
+            // Every hash is at least two bytes, so a bogus count can't allocate more than the packet
+            if (count < 0 || count > in.remaining() / 2) {
+                throw new IOException("invalid nearby hash count " + count);
+            }
+            Set<String> hashes = new HashSet<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                if (!in.hasRemaining()) {
+                    throw new EOFException("nearby hash was truncated");
+                }
+                int kind = in.get();
+                if (kind == HASH_DIGEST) {
+                    if (in.remaining() < HASH_BYTES) {
+                        throw new EOFException("nearby hash was truncated");
+                    }
+                    byte[] digest = new byte[HASH_BYTES];
+                    in.get(digest);
+                    hashes.add(HEX.encode(digest));
+                } else if (kind == HASH_STRING) {
+                    hashes.add(readString(in));
+                } else {
+                    throw new IOException("unknown nearby hash kind " + kind);
+                }
+            }
+            return new UpdateNearbyRequest(hashes);
+        }
+    };
+
+    /**
+     * Register location codecs
+     * @param codecs to register with
+     */
+    public static void register(PacketCodecs codecs) {
+        codecs.register(UPDATE_LOCATION_REQUEST, UpdateLocationRequest.class, UPDATE_LOCATION_REQUEST_CODEC);
+        codecs.register(LOCATION_UPDATED_RESPONSE, LocationUpdatedResponse.class, LOCATION_UPDATED_RESPONSE_CODEC);
+        codecs.register(UPDATE_NEARBY_REQUEST, UpdateNearbyRequest.class, UPDATE_NEARBY_REQUEST_CODEC);
+    }
+
+    private static void writePlayer(Player player, ByteBufferOutputStream out) {
+        writeUuid(player.identity.id(), out);
+        PublicKey publicKey = player.identity.publicKey();
+        writeBytes(publicKey == null ? null : publicKey.key, out);
+        MinecraftPlayer minecraftPlayer = player.minecraftPlayer;
+        out.write(minecraftPlayer == null ? 0 : 1);
+        if (minecraftPlayer != null) {
+            writeUuid(minecraftPlayer.id, out);
+            writeString(minecraftPlayer.server, out);
+            writeNullableInt(minecraftPlayer.networkId, out);
+        }
+    }
+
+    private static Player readPlayer(ByteBuffer in) throws IOException {
+        UUID profile = readUuid(in);
+        byte[] key = readBytes(in);
+        ClientIdentity identity = new ClientIdentity(profile, key == null ? null : new PublicKey(key));
+        MinecraftPlayer minecraftPlayer = null;
+        if (readPresent(in)) {
+            minecraftPlayer = new MinecraftPlayer(readUuid(in), readString(in), readNullableInt(in));
+        }
+        return new Player(identity, minecraftPlayer);
+    }
+
+    private LocationCodecs() {}
+}
@@ -4,6 +4,8 @@ import com.collarmc.protocol.ProtocolRequest;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import javax.annotation.Nullable;
+
 import java.util.UUID;
 
 /**
@@ -17,11 +19,24 @@ public final class UpdateLocationRequest extends ProtocolRequest {
     /** Location **/
     @JsonProperty("location")
     public final byte[] location;
+    /**
+     * Location written by {@link com.collarmc.api.location.Location#serializeCompact()}, relayed instead of
+     * {@link #location} to recipients that negotiated {@link com.collarmc.protocol.PacketIO#FEATURE_COMPACT_LOCATIONS}
+     **/
+    @JsonProperty("compactLocation")
+    @Nullable
+    public final byte[] compactLocation;
 
     @JsonCreator
     public UpdateLocationRequest(@JsonProperty("group") UUID group,
-                                 @JsonProperty("location") byte[] location) {
+                                 @JsonProperty("location") byte[] location,
+                                 @Nullable @JsonProperty("compactLocation") byte[] compactLocation) {
         this.group = group;
         this.location = location;
+        this.compactLocation = compactLocation;
+    }
+
+    public UpdateLocationRequest(UUID group, byte[] location) {
+        this(group, location, null);
     }
 }
@@ -1,5 +1,33 @@
 package com.collarmc.protocol.waypoints;
 
 import com.collarmc.protocol.ProtocolRequest;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 
-public final class GetWaypointsRequest extends ProtocolRequest {}
+import javax.annotation.Nullable;
+import java.util.UUID;
+
+/**
+ * Requests the sender's private waypoints, a page at a time when a limit is given
+ */
+public final class GetWaypointsRequest extends ProtocolRequest {
+    /** Continue after this waypoint, from {@link GetWaypointsResponse#next}, or null for the first page **/
+    @JsonProperty("after")
+    @Nullable
+    public final UUID after;
+    /** Maximum number of waypoints in the page, or null for all of them **/
+    @JsonProperty("limit")
+    @Nullable
+    public final Integer limit;
+
+    @JsonCreator
+    public GetWaypointsRequest(@Nullable @JsonProperty("after") UUID after,
+                               @Nullable @JsonProperty("limit") Integer limit) {
+        this.after = after;
+        this.limit = limit;
+    }
+
+    public GetWaypointsRequest() {
+        this(null, null);
+    }
+}
@@ -4,13 +4,21 @@ import com.collarmc.api.waypoints.EncryptedWaypoint;
 import com.collarmc.protocol.ProtocolResponse;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import javax.annotation.Nullable;
 import java.util.List;
+import java.util.UUID;
 
 public final class GetWaypointsResponse extends ProtocolResponse {
     @JsonProperty("waypoints")
     public final List<EncryptedWaypoint> waypoints;
+    /** Cursor to request the next page with, or null if this is the last page **/
+    @JsonProperty("next")
+    @Nullable
+    public final UUID next;
 
-    public GetWaypointsResponse(@JsonProperty("waypoints") List<EncryptedWaypoint> waypoints) {
+    public GetWaypointsResponse(@JsonProperty("waypoints") List<EncryptedWaypoint> waypoints,
+                                @Nullable @JsonProperty("next") UUID next) {
         this.waypoints = waypoints;
+        this.next = next;
     }
 }
@@ -1,6 +1,8 @@
 package com.collarmc.security.messages;
 
 import com.collarmc.api.identity.Identity;
+import com.collarmc.security.KeyPair;
+import com.collarmc.security.sodium.SessionCipher;
 
 public interface IdentityStore<T extends Identity> {
     /**
@@ -12,4 +14,14 @@ public interface IdentityStore<T extends Identity> {
      * @return creates a new {@link Cipher}
      */
     Cipher cipher();
+
+    /**
+     * Derive the symmetric cipher for a session with a peer
+     * @param peer on the other side of the session
+     * @param ephemeral keys generated for this session
+     * @param peerEphemeralKey public key the peer generated for this session
+     * @return session cipher
+     * @throws CipherException if keys could not be derived
+     */
+    SessionCipher sessionCipher(Identity peer, KeyPair ephemeral, byte[] peerEphemeralKey) throws CipherException;
 }
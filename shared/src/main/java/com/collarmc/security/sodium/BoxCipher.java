@@ -0,0 +1,92 @@
+package com.collarmc.security.sodium;
+
+import com.collarmc.api.identity.Identity;
+import com.collarmc.api.security.PublicKey;
+import com.collarmc.security.KeyPair;
+import com.collarmc.security.messages.Cipher;
+import com.collarmc.security.messages.CipherException;
+
+/**
+ * Authenticated box cipher using keys from a {@link SharedKeyCache}.
+ * Unlike {@link SodiumCipher}, which seals to a fresh ephemeral key for every message, the box authenticates the
+ * sender with their own key pair, so the shared key for a peer can be computed once and reused.
+ * Message format is nonce+ciphertext+tag
+ */
+public final class BoxCipher implements Cipher {
+
+    private final Sodium sodium;
+    private final KeyPair keyPair;
+    private final SharedKeyCache sharedKeys;
+
+    /**
+     * @param sodium to use
+     * @param keyPair our key pair, which must be the one the cache was created with
+     * @param sharedKeys cache of keys shared with peers
+     */
+    public BoxCipher(Sodium sodium, KeyPair keyPair, SharedKeyCache sharedKeys) {
+        this.sodium = sodium;
+        this.keyPair = keyPair;
+        this.sharedKeys = sharedKeys;
+    }
+
+    @Override
+    public byte[] decrypt(byte[] content, PublicKey publicKey) throws CipherException {
+        return decryptWith(content, sharedKeys.sharedKey(publicKey));
+    }
+
+    @Override
+    public byte[] decrypt(byte[] content, Identity sender) throws CipherException {
+        return decrypt(content, sender.publicKey());
+    }
+
+    @Override
+    public byte[] decrypt(byte[] bytes) throws CipherException {
+        return decrypt(bytes, self());
+    }
+
+    @Override
+    public byte[] encrypt(byte[] plain, Identity recipient) throws CipherException {
+        return encrypt(plain, recipient.publicKey());
+    }
+
+    @Override
+    public byte[] encrypt(byte[] plain, PublicKey recipient) throws CipherException {
+        return encryptWith(plain, sharedKeys.sharedKey(recipient));
+    }
+
+    @Override
+    public byte[] encrypt(byte[] plain) throws CipherException {
+        return encrypt(plain, self());
+    }
+
+    private byte[] encryptWith(byte[] plain, byte[] sharedKey) throws CipherException {
+        byte[] nonce = sodium.randomBytesBuf(Sodium.Box.NONCEBYTES);
+        byte[] cipherText = new byte[Sodium.Box.MACBYTES + plain.length];
+        if (!sodium.cryptoBoxEasyAfterNm(cipherText, plain, plain.length, nonce, sharedKey)) {
+            throw new CipherException("Could not encrypt message.");
+        }
+        byte[] message = new byte[nonce.length + cipherText.length];
+        System.arraycopy(nonce, 0, message, 0, nonce.length);
+        System.arraycopy(cipherText, 0, message, nonce.length, cipherText.length);
+        return message;
+    }
+
+    private byte[] decryptWith(byte[] message, byte[] sharedKey) throws CipherException {
+        if (message.length < Sodium.Box.NONCEBYTES + Sodium.Box.MACBYTES) {
+            throw new CipherException("Message is too short.");
+        }
+        byte[] nonce = new byte[Sodium.Box.NONCEBYTES];
+        System.arraycopy(message, 0, nonce, 0, nonce.length);
+        byte[] cipherText = new byte[message.length - nonce.length];
+        System.arraycopy(message, nonce.length, cipherText, 0, cipherText.length);
+        byte[] plain = new byte[cipherText.length - Sodium.Box.MACBYTES];
+        if (!sodium.cryptoBoxOpenEasyAfterNm(plain, cipherText, cipherText.length, nonce, sharedKey)) {
+            throw new CipherException("Could not decrypt message.");
+        }
+        return plain;
+    }
+
+    private PublicKey self() {
+        return new PublicKey(keyPair.getPublicKey().getAsBytes());
+    }
+}
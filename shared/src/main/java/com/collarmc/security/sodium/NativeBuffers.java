@@ -0,0 +1,65 @@
+package com.collarmc.security.sodium;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Direct buffers reused by every call on a thread, so data can be handed to libsodium without JNA copying it in and
+ * out of the Java heap. Buffers are only valid until the next call on the same thread asks for them again.
+ */
+public final class NativeBuffers {
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private static final int MAX_POOLED_BUFFER_SIZE = 2 * Short.MAX_VALUE;
+    private static final int NONCE_SIZE = Math.max(Sodium.Box.NONCEBYTES, Sodium.Aead.XCHACHA20POLY1305_IETF_NPUBBYTES);
+
+    private static final ThreadLocal<NativeBuffers> BUFFERS = ThreadLocal.withInitial(NativeBuffers::new);
+
+    private ByteBuffer input = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+    private ByteBuffer output = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+    private final ByteBuffer nonce = ByteBuffer.allocateDirect(NONCE_SIZE);
+
+    private NativeBuffers() {}
+
+    /**
+     * @return buffers for the current thread
+     */
+    public static NativeBuffers get() {
+        return BUFFERS.get();
+    }
+
+    /**
+     * @param capacity needed
+     * @return cleared buffer for data going in to a native call
+     */
+    public ByteBuffer input(int capacity) {
+        input = ensureCapacity(input, capacity);
+        return input;
+    }
+
+    /**
+     * @param capacity needed
+     * @return cleared buffer for data coming out of a native call
+     */
+    public ByteBuffer output(int capacity) {
+        output = ensureCapacity(output, capacity);
+        return output;
+    }
+
+    /**
+     * @return cleared buffer large enough for any nonce
+     */
+    ByteBuffer nonce() {
+        return nonce.clear();
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int capacity) {
+        // Don't let one oversized message pin a large buffer to the thread forever
+        if (buffer.capacity() > Math.max(capacity, MAX_POOLED_BUFFER_SIZE)) {
+            return ByteBuffer.allocateDirect(Math.max(capacity, INITIAL_BUFFER_SIZE));
+        }
+        if (buffer.capacity() < capacity) {
+            return ByteBuffer.allocateDirect(Math.max(capacity, buffer.capacity() * 2));
+        }
+        return buffer.clear();
+    }
+}
@@ -0,0 +1,228 @@
+package com.collarmc.security.sodium;
+
+import com.collarmc.security.KeyPair;
+import com.collarmc.security.messages.CipherException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Symmetric cipher for a single client/server session.
+ * Keys are derived once from two X25519 exchanges, one between the client and server identity keys, which
+ * authenticates both sides and can come from a {@link SharedKeyCache}, and one between ephemeral keys swapped while
+ * identifying, so every session gets fresh keys. Each direction has its own key and packets are sealed with XChaCha20-Poly1305 using a counter as the nonce,
+ * so no curve operations are done per packet. Counters keep nonces unique, and each counter is only accepted once.
+ * Packets can arrive out of order, as they are encrypted in parallel and conflated while queued, so counters up to
+ * {@link #REPLAY_WINDOW} below the highest received are still accepted if they have not been seen before.
+ * Message format is long(counter)+ciphertext+tag
+ */
+public final class SessionCipher {
+
+    /** Bytes added to every message **/
+    public static final int OVERHEAD = Long.BYTES + Sodium.Aead.XCHACHA20POLY1305_IETF_ABYTES;
+    /** Blocks of received counters, one more than the window so a block is always free to be cleared **/
+    private static final int REPLAY_BLOCKS = 65;
+    /** How far behind the highest received counter a message can arrive **/
+    public static final int REPLAY_WINDOW = (REPLAY_BLOCKS - 1) * Long.SIZE;
+
+    private final Sodium sodium;
+    private final byte[] receiveKey;
+    private final byte[] transmitKey;
+    private final ByteBuffer receiveKeyBuffer;
+    private final ByteBuffer transmitKeyBuffer;
+    private final AtomicLong counter = new AtomicLong();
+    /** Bitmap of received counters, used as a ring of blocks following {@link #highestReceived} **/
+    private final long[] received = new long[REPLAY_BLOCKS];
+    private long highestReceived = -1;
+
+    private SessionCipher(Sodium sodium, byte[] receiveKey, byte[] transmitKey) {
+        this.sodium = sodium;
+        this.receiveKey = receiveKey;
+        this.transmitKey = transmitKey;
+        this.receiveKeyBuffer = ByteBuffer.allocateDirect(receiveKey.length).put(receiveKey).flip();
+        this.transmitKeyBuffer = ByteBuffer.allocateDirect(transmitKey.length).put(transmitKey).flip();
+    }
+
+    /**
+     * Encrypt a message for the other side of the session
+     * @param plain to encrypt
+     * @param additionalData authenticated but not encrypted, which must be given again to decrypt
+     * @return message
+     * @throws CipherException if encryption fails
+     */
+    public byte[] encrypt(byte[] plain, byte[] additionalData) throws CipherException {
+        long count = counter.getAndIncrement();
+        byte[] cipherText = new byte[plain.length + Sodium.Aead.XCHACHA20POLY1305_IETF_ABYTES];
+        if (!sodium.cryptoAeadXChaCha20Poly1305Encrypt(cipherText, plain, plain.length, additionalData, nonce(count), transmitKey)) {
+            throw new CipherException("Could not encrypt message.");
+        }
+        byte[] message = new byte[Long.BYTES + cipherText.length];
+        ByteBuffer.wrap(message).putLong(count).put(cipherText);
+        return message;
+    }
+
+    /**
+     * Decrypt a message from the other side of the session
+     * @param message to decrypt
+     * @param additionalData the message was encrypted with
+     * @return plain text
+     * @throws CipherException if the message could not be authenticated or was replayed
+     */
+    public byte[] decrypt(byte[] message, byte[] additionalData) throws CipherException {
+        if (message.length < OVERHEAD) {
+            throw new CipherException("Message is too short.");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(message);
+        long count = buffer.getLong();
+        checkReplay(count);
+        byte[] cipherText = new byte[buffer.remaining()];
+        buffer.get(cipherText);
+        byte[] plain = new byte[cipherText.length - Sodium.Aead.XCHACHA20POLY1305_IETF_ABYTES];
+        if (!sodium.cryptoAeadXChaCha20Poly1305Decrypt(plain, cipherText, cipherText.length, additionalData, nonce(count), receiveKey)) {
+            throw new CipherException("Could not decrypt message.");
+        }
+        markReceived(count);
+        return plain;
+    }
+
+    /**
+     * Encrypt a message for the other side of the session without copying it out of native memory
+     * @param plain direct buffer, whose remaining bytes are encrypted
+     * @param additionalData direct buffer, authenticated but not encrypted, which must be given again to decrypt
+     * @param out direct buffer the message is written to, with room for the plain text plus {@link #OVERHEAD}
+     * @throws CipherException if encryption fails
+     */
+    public void encrypt(ByteBuffer plain, ByteBuffer additionalData, ByteBuffer out) throws CipherException {
+        long count = counter.getAndIncrement();
+        out.putLong(count);
+        if (!sodium.cryptoAeadXChaCha20Poly1305Encrypt(out, plain, additionalData, nonceBuffer(count), transmitKeyBuffer)) {
+            throw new CipherException("Could not encrypt message.");
+        }
+    }
+
+    /**
+     * Decrypt a message from the other side of the session without copying it out of native memory
+     * @param message direct buffer, whose remaining bytes are decrypted
+     * @param additionalData direct buffer the message was encrypted with
+     * @param out direct buffer the plain text is written to, with room for the message minus {@link #OVERHEAD}
+     * @throws CipherException if the message could not be authenticated or was replayed
+     */
+    public void decrypt(ByteBuffer message, ByteBuffer additionalData, ByteBuffer out) throws CipherException {
+        if (message.remaining() < OVERHEAD) {
+            throw new CipherException("Message is too short.");
+        }
+        long count = message.getLong();
+        checkReplay(count);
+        if (!sodium.cryptoAeadXChaCha20Poly1305Decrypt(out, message, additionalData, nonceBuffer(count), receiveKeyBuffer)) {
+            throw new CipherException("Could not decrypt message.");
+        }
+        markReceived(count);
+    }
+
+    /**
+     * Derive the client side of a session
+     * @param sodium to use
+     * @param identityKey key shared between the client and server identity keys, see {@link SharedKeyCache}
+     * @param ephemeral keys the client generated for this session
+     * @param serverEphemeralKey public key the server generated for this session
+     * @return cipher
+     * @throws CipherException if keys could not be derived
+     */
+    public static SessionCipher client(Sodium sodium, byte[] identityKey, KeyPair ephemeral, byte[] serverEphemeralKey) throws CipherException {
+        checkPublicKey(serverEphemeralKey);
+        byte[] rx = new byte[Sodium.KeyExchange.SESSIONKEYBYTES];
+        byte[] tx = new byte[Sodium.KeyExchange.SESSIONKEYBYTES];
+        if (!sodium.cryptoKxClientSessionKeys(rx, tx, ephemeral.getPublicKey().getAsBytes(), ephemeral.getSecretKey().getAsBytes(), serverEphemeralKey)) {
+            throw new CipherException("Could not exchange session keys.");
+        }
+        return new SessionCipher(sodium, combine(sodium, identityKey, rx), combine(sodium, identityKey, tx));
+    }
+
+    /**
+     * Derive the server side of a session
+     * @param sodium to use
+     * @param identityKey key shared between the client and server identity keys, see {@link SharedKeyCache}
+     * @param ephemeral keys the server generated for this session
+     * @param clientEphemeralKey public key the client generated for this session
+     * @return cipher
+     * @throws CipherException if keys could not be derived
+     */
+    public static SessionCipher server(Sodium sodium, byte[] identityKey, KeyPair ephemeral, byte[] clientEphemeralKey) throws CipherException {
+        checkPublicKey(clientEphemeralKey);
+        byte[] rx = new byte[Sodium.KeyExchange.SESSIONKEYBYTES];
+        byte[] tx = new byte[Sodium.KeyExchange.SESSIONKEYBYTES];
+        if (!sodium.cryptoKxServerSessionKeys(rx, tx, ephemeral.getPublicKey().getAsBytes(), ephemeral.getSecretKey().getAsBytes(), clientEphemeralKey)) {
+            throw new CipherException("Could not exchange session keys.");
+        }
+        return new SessionCipher(sodium, combine(sodium, identityKey, rx), combine(sodium, identityKey, tx));
+    }
+
+    /**
+     * Checked before decrypting, so replays are rejected without doing the work
+     * @param count of the message
+     * @throws CipherException if the counter was already received or is too old to tell
+     */
+    private synchronized void checkReplay(long count) throws CipherException {
+        if (count < 0 || (count <= highestReceived && (highestReceived - count >= REPLAY_WINDOW || isReceived(count)))) {
+            throw new CipherException("Message was replayed.");
+        }
+    }
+
+    /**
+     * Only called once the message is authenticated, so forged counters cannot move the window
+     * @param count of the message
+     * @throws CipherException if the same counter was received while this message was being decrypted
+     */
+    private synchronized void markReceived(long count) throws CipherException {
+        checkReplay(count);
+        if (count > highestReceived) {
+            long block = highestReceived >> 6;
+            long blocks = Math.min((count >> 6) - block, REPLAY_BLOCKS);
+            for (long i = 1; i <= blocks; i++) {
+                received[(int) Math.floorMod(block + i, (long) REPLAY_BLOCKS)] = 0;
+            }
+            highestReceived = count;
+        }
+        received[(int) Math.floorMod(count >> 6, (long) REPLAY_BLOCKS)] |= 1L << (count & 63);
+    }
+
+    private boolean isReceived(long count) {
+        return (received[(int) Math.floorMod(count >> 6, (long) REPLAY_BLOCKS)] & (1L << (count & 63))) != 0;
+    }
+
+    private static void checkPublicKey(byte[] key) throws CipherException {
+        if (key == null || key.length != Sodium.KeyExchange.PUBLICKEYBYTES) {
+            throw new CipherException("Session public key must be " + Sodium.KeyExchange.PUBLICKEYBYTES + " bytes.");
+        }
+    }
+
+    private static byte[] combine(Sodium sodium, byte[] identityKey, byte[] ephemeralKey) throws CipherException {
+        if (identityKey.length != Sodium.Box.BEFORENMBYTES) {
+            throw new CipherException("Identity key must be " + Sodium.Box.BEFORENMBYTES + " bytes.");
+        }
+        byte[] input = new byte[identityKey.length + ephemeralKey.length];
+        System.arraycopy(identityKey, 0, input, 0, identityKey.length);
+        System.arraycopy(ephemeralKey, 0, input, identityKey.length, ephemeralKey.length);
+        byte[] key = new byte[Sodium.Aead.XCHACHA20POLY1305_IETF_KEYBYTES];
+        if (!sodium.cryptoGenericHash(key, input, input.length)) {
+            throw new CipherException("Could not derive session key.");
+        }
+        return key;
+    }
+
+    private static ByteBuffer nonceBuffer(long count) {
+        ByteBuffer nonce = NativeBuffers.get().nonce().limit(Sodium.Aead.XCHACHA20POLY1305_IETF_NPUBBYTES);
+        nonce.putLong(0, Long.reverseBytes(count));
+        for (int i = Long.BYTES; i < nonce.limit(); i++) {
+            nonce.put(i, (byte) 0);
+        }
+        return nonce;
+    }
+
+    private static byte[] nonce(long count) {
+        byte[] nonce = new byte[Sodium.Aead.XCHACHA20POLY1305_IETF_NPUBBYTES];
+        ByteBuffer.wrap(nonce).order(ByteOrder.LITTLE_ENDIAN).putLong(count);
+        return nonce;
+    }
+}
@@ -0,0 +1,104 @@
+package com.collarmc.security.sodium;
+
+import com.collarmc.api.security.PublicKey;
+import com.collarmc.security.KeyPair;
+import com.collarmc.security.messages.CipherException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Shared keys precomputed with crypto_box_beforenm between our key pair and the peers we talk to, so the curve
+ * operation is done once per peer rather than once per message. Bounded, so peers we stop talking to are dropped.
+ * Keys can be kept after a peer disconnects, so a peer that reconnects soon after reuses its key.
+ */
+public final class SharedKeyCache {
+
+    private final Sodium sodium;
+    private final KeyPair keyPair;
+    private final Cache<PublicKey, byte[]> sharedKeys;
+
+    /**
+     * @param sodium to use
+     * @param keyPair our key pair
+     * @param maximumSize number of peers to keep keys for
+     */
+    public SharedKeyCache(Sodium sodium, KeyPair keyPair, long maximumSize) {
+        this(sodium, keyPair, maximumSize, null);
+    }
+
+    /**
+     * @param sodium to use
+     * @param keyPair our key pair
+     * @param maximumSize number of peers to keep keys for
+     * @param expireAfterAccess how long to keep a key no one has used, or null to keep it until the cache is full
+     */
+    public SharedKeyCache(Sodium sodium, KeyPair keyPair, long maximumSize, @Nullable Duration expireAfterAccess) {
+        this.sodium = sodium;
+        this.keyPair = keyPair;
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats();
+        if (expireAfterAccess != null) {
+            builder.expireAfterAccess(expireAfterAccess);
+        }
+        this.sharedKeys = builder.build();
+    }
+
+    /**
+     * @param peer public key of the peer
+     * @return key shared with the peer
+     * @throws CipherException if the key could not be computed
+     */
+    public byte[] sharedKey(PublicKey peer) throws CipherException {
+        try {
+            return sharedKeys.get(peer, () -> compute(peer));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new CipherException("Could not compute shared key.", e.getCause());
+        }
+    }
+
+    /**
+     * Forget the key shared with a peer
+     * @param peer public key of the peer
+     */
+    public void evict(PublicKey peer) {
+        sharedKeys.invalidate(peer);
+    }
+
+    /**
+     * @return number of peers with a cached key
+     */
+    public long size() {
+        return sharedKeys.size();
+    }
+
+    /**
+     * @return number of keys served without computing them
+     */
+    public long hits() {
+        return sharedKeys.stats().hitCount();
+    }
+
+    /**
+     * @return number of keys computed
+     */
+    public long misses() {
+        return sharedKeys.stats().missCount();
+    }
+
+    private byte[] compute(PublicKey peer) throws CipherException {
+        if (peer.key == null || peer.key.length != Sodium.Box.PUBLICKEYBYTES) {
+            throw new CipherException("Public key must be " + Sodium.Box.PUBLICKEYBYTES + " bytes.");
+        }
+        byte[] sharedKey = new byte[Sodium.Box.BEFORENMBYTES];
+        if (!sodium.cryptoBoxBeforeNm(sharedKey, peer.key, keyPair.getSecretKey().getAsBytes())) {
+            throw new CipherException("Could not compute shared key.");
+        }
+        return sharedKey;
+    }
+}
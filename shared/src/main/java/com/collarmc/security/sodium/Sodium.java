@@ -7,14 +7,15 @@ import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.sun.jna.Library;
 import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
 import com.sun.jna.Platform;
 import com.sun.jna.Pointer;
-import com.sun.jna.ptr.PointerByReference;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 public final class Sodium {
 
@@ -52,14 +53,14 @@ public final class Sodium {
         if (messageLen < 0 || messageLen > message.length) {
             throw new IllegalArgumentException("messageLen out of bounds: " + messageLen);
         }
-        return successful(sodiumNative.crypto_sign(signedMessage, (new PointerByReference(Pointer.NULL)).getPointer(), message, messageLen, secretKey));
+        return successful(sodiumNative.crypto_sign(signedMessage, null, message, messageLen, secretKey));
     }
 
     public boolean cryptoSignOpen(byte[] message, byte[] signedMessage, long signedMessageLen, byte[] publicKey) {
         if (signedMessageLen < 0 || signedMessageLen > signedMessage.length) {
             throw new IllegalArgumentException("signedMessageLen out of bounds: " + signedMessageLen);
         }
-        return successful(sodiumNative.crypto_sign_open(message, (new PointerByReference(Pointer.NULL)).getPointer(), signedMessage, signedMessageLen, publicKey));
+        return successful(sodiumNative.crypto_sign_open(message, null, signedMessage, signedMessageLen, publicKey));
     }
 
     public boolean cryptoBoxSeal(byte[] cipher, byte[] message, long messageLen, byte[] publicKey) {
@@ -76,6 +77,131 @@ public final class Sodium {
         return successful(sodiumNative.crypto_box_seal_open(m, cipher, cipherLen, publicKey, secretKey));
     }
 
+    public boolean cryptoBoxBeforeNm(byte[] sharedKey, byte[] publicKey, byte[] secretKey) {
+        return successful(sodiumNative.crypto_box_beforenm(sharedKey, publicKey, secretKey));
+    }
+
+    public boolean cryptoBoxEasyAfterNm(byte[] cipher, byte[] message, long messageLen, byte[] nonce, byte[] sharedKey) {
+        if (messageLen < 0 || messageLen > message.length) {
+            throw new IllegalArgumentException("messageLen out of bounds: " + messageLen);
+        }
+        return successful(sodiumNative.crypto_box_easy_afternm(cipher, message, messageLen, nonce, sharedKey));
+    }
+
+    public boolean cryptoBoxOpenEasyAfterNm(byte[] message, byte[] cipher, long cipherLen, byte[] nonce, byte[] sharedKey) {
+        if (cipherLen < Box.MACBYTES || cipherLen > cipher.length) {
+            throw new IllegalArgumentException("cipherLen out of bounds: " + cipherLen);
+        }
+        return successful(sodiumNative.crypto_box_open_easy_afternm(message, cipher, cipherLen, nonce, sharedKey));
+    }
+
+    /**
+     * Generates a keypair for a single session key exchange.
+     * @return public/private keypair
+     * @throws CipherException
+     */
+    public KeyPair generateSessionKeyPair() throws CipherException {
+        byte[] publicKey = new byte[KeyExchange.PUBLICKEYBYTES];
+        byte[] secretKey = new byte[KeyExchange.SECRETKEYBYTES];
+        if (!successful(sodiumNative.crypto_kx_keypair(publicKey, secretKey))) {
+            throw new CipherException("Unable to create a session key pair.");
+        }
+        return new KeyPair(Key.fromBytes(publicKey), Key.fromBytes(secretKey));
+    }
+
+    public boolean cryptoKxClientSessionKeys(byte[] rx, byte[] tx, byte[] clientPublicKey, byte[] clientSecretKey, byte[] serverPublicKey) {
+        return successful(sodiumNative.crypto_kx_client_session_keys(rx, tx, clientPublicKey, clientSecretKey, serverPublicKey));
+    }
+
+    public boolean cryptoKxServerSessionKeys(byte[] rx, byte[] tx, byte[] serverPublicKey, byte[] serverSecretKey, byte[] clientPublicKey) {
+        return successful(sodiumNative.crypto_kx_server_session_keys(rx, tx, serverPublicKey, serverSecretKey, clientPublicKey));
+    }
+
+    public boolean cryptoGenericHash(byte[] out, byte[] in, long inLen) {
+        if (inLen < 0 || inLen > in.length) {
+            throw new IllegalArgumentException("inLen out of bounds: " + inLen);
+        }
+        return successful(sodiumNative.crypto_generichash(out, out.length, in, inLen, null, 0));
+    }
+
+    public boolean cryptoAeadXChaCha20Poly1305Encrypt(byte[] cipher, byte[] message, long messageLen, byte[] additionalData, byte[] nonce, byte[] key) {
+        if (messageLen < 0 || messageLen > message.length) {
+            throw new IllegalArgumentException("messageLen out of bounds: " + messageLen);
+        }
+        return successful(sodiumNative.crypto_aead_xchacha20poly1305_ietf_encrypt(cipher, null, message, messageLen, additionalData, additionalData.length, null, nonce, key));
+    }
+
+    public boolean cryptoAeadXChaCha20Poly1305Decrypt(byte[] message, byte[] cipher, long cipherLen, byte[] additionalData, byte[] nonce, byte[] key) {
+        if (cipherLen < Aead.XCHACHA20POLY1305_IETF_ABYTES || cipherLen > cipher.length) {
+            throw new IllegalArgumentException("cipherLen out of bounds: " + cipherLen);
+        }
+        return successful(sodiumNative.crypto_aead_xchacha20poly1305_ietf_decrypt(message, null, null, cipher, cipherLen, additionalData, additionalData.length, nonce, key));
+    }
+
+    /**
+     * Encrypt in native memory without copying.
+     * Encrypts the remaining bytes of the message to the cipher buffer and advances both.
+     * The additional data, nonce and key are read from their position to their limit and left as they are.
+     * @param cipher direct buffer with room for the message plus {@link Aead#XCHACHA20POLY1305_IETF_ABYTES}
+     * @param message direct buffer
+     * @param additionalData direct buffer
+     * @param nonce direct buffer of {@link Aead#XCHACHA20POLY1305_IETF_NPUBBYTES}
+     * @param key direct buffer of {@link Aead#XCHACHA20POLY1305_IETF_KEYBYTES}
+     * @return if successful
+     */
+    public boolean cryptoAeadXChaCha20Poly1305Encrypt(ByteBuffer cipher, ByteBuffer message, ByteBuffer additionalData, ByteBuffer nonce, ByteBuffer key) {
+        int messageLen = message.remaining();
+        checkDirect(cipher, messageLen + Aead.XCHACHA20POLY1305_IETF_ABYTES);
+        checkDirect(message, messageLen);
+        checkDirect(additionalData, additionalData.remaining());
+        checkDirect(nonce, Aead.XCHACHA20POLY1305_IETF_NPUBBYTES);
+        checkDirect(key, Aead.XCHACHA20POLY1305_IETF_KEYBYTES);
+        if (!successful(sodiumNative.crypto_aead_xchacha20poly1305_ietf_encrypt(cipher, null, message, messageLen, additionalData, additionalData.remaining(), null, nonce, key))) {
+            return false;
+        }
+        message.position(message.limit());
+        cipher.position(cipher.position() + messageLen + Aead.XCHACHA20POLY1305_IETF_ABYTES);
+        return true;
+    }
+
+    /**
+     * Decrypt in native memory without copying.
+     * Decrypts the remaining bytes of the cipher to the message buffer and advances both.
+     * The additional data, nonce and key are read from their position to their limit and left as they are.
+     * @param message direct buffer with room for the cipher minus {@link Aead#XCHACHA20POLY1305_IETF_ABYTES}
+     * @param cipher direct buffer
+     * @param additionalData direct buffer
+     * @param nonce direct buffer of {@link Aead#XCHACHA20POLY1305_IETF_NPUBBYTES}
+     * @param key direct buffer of {@link Aead#XCHACHA20POLY1305_IETF_KEYBYTES}
+     * @return if successful
+     */
+    public boolean cryptoAeadXChaCha20Poly1305Decrypt(ByteBuffer message, ByteBuffer cipher, ByteBuffer additionalData, ByteBuffer nonce, ByteBuffer key) {
+        int cipherLen = cipher.remaining();
+        if (cipherLen < Aead.XCHACHA20POLY1305_IETF_ABYTES) {
+            throw new IllegalArgumentException("cipherLen out of bounds: " + cipherLen);
+        }
+        checkDirect(message, cipherLen - Aead.XCHACHA20POLY1305_IETF_ABYTES);
+        checkDirect(cipher, cipherLen);
+        checkDirect(additionalData, additionalData.remaining());
+        checkDirect(nonce, Aead.XCHACHA20POLY1305_IETF_NPUBBYTES);
+        checkDirect(key, Aead.XCHACHA20POLY1305_IETF_KEYBYTES);
+        if (!successful(sodiumNative.crypto_aead_xchacha20poly1305_ietf_decrypt(message, null, null, cipher, cipherLen, additionalData, additionalData.remaining(), nonce, key))) {
+            return false;
+        }
+        cipher.position(cipher.limit());
+        message.position(message.position() + cipherLen - Aead.XCHACHA20POLY1305_IETF_ABYTES);
+        return true;
+    }
+
+    private static void checkDirect(ByteBuffer buffer, int length) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("buffer must be direct");
+        }
+        if (buffer.remaining() < length) {
+            throw new IllegalArgumentException("buffer has " + buffer.remaining() + " bytes remaining but needs " + length);
+        }
+    }
+
     private static boolean successful(int res) {
         return (res == 0);
     }
@@ -84,6 +210,17 @@ public final class Sodium {
         return SingletonHolder.getInstance();
     }
 
+    /**
+     * Natives bound to the library loaded by {@link #create()} with interface mapping rather than direct mapping.
+     * Slower, only kept so the two can be compared.
+     * @return natives
+     * @throws CipherException if the library could not be loaded
+     */
+    static SodiumNative interfaceMapped() throws CipherException {
+        create();
+        return Native.load(SingletonHolder.libraryPath, SodiumNative.class);
+    }
+
     public interface Sign {
         int ED25519_PUBLICKEYBYTES = 32,
                 ED25519_BYTES = 64,
@@ -126,23 +263,48 @@ public final class Sodium {
         int crypto_box_keypair(byte[] publicKey, byte[] secretKey);
         int crypto_box_seal(byte[] cipher, byte[] message, long messageLen, byte[] publicKey);
         int crypto_box_seal_open(byte[] m, byte[] cipher, long cipherLen, byte[] publicKey, byte[] secretKey);
+        int crypto_box_beforenm(byte[] sharedKey, byte[] publicKey, byte[] secretKey);
+        int crypto_box_easy_afternm(byte[] cipher, byte[] message, long messageLen, byte[] nonce, byte[] sharedKey);
+        int crypto_box_open_easy_afternm(byte[] message, byte[] cipher, long cipherLen, byte[] nonce, byte[] sharedKey);
         void randombytes_buf(byte[] buffer, int size);
     }
 
-    public static final class KeyExchange {
-        public static final int PUBLICKEYBYTES = 32;
-        public static final int SECRETKEYBYTES = 32;
-        public static final int SESSIONKEYBYTES = 32;
-        public static final int SEEDBYTES = 32;
-        public static final String PRIMITIVE = "x25519blake2b";
+    public interface KeyExchange {
+        int PUBLICKEYBYTES = 32,
+                SECRETKEYBYTES = 32,
+                SESSIONKEYBYTES = 32,
+                SEEDBYTES = 32;
+        String PRIMITIVE = "x25519blake2b";
+
+        int crypto_kx_keypair(byte[] publicKey, byte[] secretKey);
+        int crypto_kx_client_session_keys(byte[] rx, byte[] tx, byte[] clientPublicKey, byte[] clientSecretKey, byte[] serverPublicKey);
+        int crypto_kx_server_session_keys(byte[] rx, byte[] tx, byte[] serverPublicKey, byte[] serverSecretKey, byte[] clientPublicKey);
+    }
+
+    public interface GenericHash {
+        int BYTES = 32;
+
+        int crypto_generichash(byte[] out, int outLen, byte[] in, long inLen, byte[] key, int keyLen);
+    }
+
+    public interface Aead {
+        int XCHACHA20POLY1305_IETF_KEYBYTES = 32,
+                XCHACHA20POLY1305_IETF_NPUBBYTES = 24,
+                XCHACHA20POLY1305_IETF_ABYTES = 16;
+
+        int crypto_aead_xchacha20poly1305_ietf_encrypt(byte[] cipher, Pointer cipherLen, byte[] message, long messageLen, byte[] additionalData, long additionalDataLen, Pointer nsec, byte[] nonce, byte[] key);
+        int crypto_aead_xchacha20poly1305_ietf_encrypt(ByteBuffer cipher, Pointer cipherLen, ByteBuffer message, long messageLen, ByteBuffer additionalData, long additionalDataLen, Pointer nsec, ByteBuffer nonce, ByteBuffer key);
+        int crypto_aead_xchacha20poly1305_ietf_decrypt(byte[] message, Pointer messageLen, Pointer nsec, byte[] cipher, long cipherLen, byte[] additionalData, long additionalDataLen, byte[] nonce, byte[] key);
+        int crypto_aead_xchacha20poly1305_ietf_decrypt(ByteBuffer message, Pointer messageLen, Pointer nsec, ByteBuffer cipher, long cipherLen, ByteBuffer additionalData, long additionalDataLen, ByteBuffer nonce, ByteBuffer key);
     }
 
-    public interface SodiumNative extends Box,Sign,Library {}
+    public interface SodiumNative extends Box,Sign,KeyExchange,GenericHash,Aead,Library {}
 
     private static class SingletonHolder {
         private static Sodium instance;
+        private static String libraryPath;
 
-        public static Sodium getInstance() throws CipherException {
+        public static synchronized Sodium getInstance() throws CipherException {
             if (null == instance) {
                 instance = create();
             }
@@ -173,8 +335,8 @@ public final class Sodium {
             } catch (IOException e) {
                 throw new CipherException("Problem loading sodium native from " + resourcePath);
             }
-            SodiumNative sodiumNative = Native.loadLibrary(nativeLibPath.getAbsolutePath(), SodiumNative.class);
-            return new Sodium(sodiumNative);
+            libraryPath = nativeLibPath.getAbsolutePath();
+            return new Sodium(SodiumDirect.register(NativeLibrary.getInstance(libraryPath)));
         }
 
         private static String findResourcePath() throws CipherException {
@@ -0,0 +1,135 @@
+package com.collarmc.security.sodium;
+
+import com.collarmc.security.sodium.Sodium.SodiumNative;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.Pointer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SodiumNative} bound with JNA direct mapping. Calls go straight to registered native methods instead of
+ * through the reflective proxy used by interface mapping, and direct {@link ByteBuffer}s are passed by address.
+ */
+final class SodiumDirect implements SodiumNative {
+
+    private SodiumDirect() {}
+
+    /**
+     * Bind the native methods to the library. Must only be called once.
+     * @param library to bind to
+     * @return natives
+     */
+    static SodiumDirect register(NativeLibrary library) {
+        Native.register(Natives.class, library);
+        return new SodiumDirect();
+    }
+
+    @Override
+    public int crypto_box_keypair(byte[] publicKey, byte[] secretKey) {
+        return Natives.crypto_box_keypair(publicKey, secretKey);
+    }
+
+    @Override
+    public int crypto_box_seal(byte[] cipher, byte[] message, long messageLen, byte[] publicKey) {
+        return Natives.crypto_box_seal(cipher, message, messageLen, publicKey);
+    }
+
+    @Override
+    public int crypto_box_seal_open(byte[] m, byte[] cipher, long cipherLen, byte[] publicKey, byte[] secretKey) {
+        return Natives.crypto_box_seal_open(m, cipher, cipherLen, publicKey, secretKey);
+    }
+
+    @Override
+    public int crypto_box_beforenm(byte[] sharedKey, byte[] publicKey, byte[] secretKey) {
+        return Natives.crypto_box_beforenm(sharedKey, publicKey, secretKey);
+    }
+
+    @Override
+    public int crypto_box_easy_afternm(byte[] cipher, byte[] message, long messageLen, byte[] nonce, byte[] sharedKey) {
+        return Natives.crypto_box_easy_afternm(cipher, message, messageLen, nonce, sharedKey);
+    }
+
+    @Override
+    public int crypto_box_open_easy_afternm(byte[] message, byte[] cipher, long cipherLen, byte[] nonce, byte[] sharedKey) {
+        return Natives.crypto_box_open_easy_afternm(message, cipher, cipherLen, nonce, sharedKey);
+    }
+
+    @Override
+    public void randombytes_buf(byte[] buffer, int size) {
+        Natives.randombytes_buf(buffer, size);
+    }
+
+    @Override
+    public int crypto_sign_open(byte[] message, Pointer messageLen, byte[] signedMessage, long signedMessageLen, byte[] publicKey) {
+        return Natives.crypto_sign_open(message, messageLen, signedMessage, signedMessageLen, publicKey);
+    }
+
+    @Override
+    public int crypto_sign(byte[] signedMessage, Pointer sigLength, byte[] message, long messageLen, byte[] secretKey) {
+        return Natives.crypto_sign(signedMessage, sigLength, message, messageLen, secretKey);
+    }
+
+    @Override
+    public int crypto_kx_keypair(byte[] publicKey, byte[] secretKey) {
+        return Natives.crypto_kx_keypair(publicKey, secretKey);
+    }
+
+    @Override
+    public int crypto_kx_client_session_keys(byte[] rx, byte[] tx, byte[] clientPublicKey, byte[] clientSecretKey, byte[] serverPublicKey) {
+        return Natives.crypto_kx_client_session_keys(rx, tx, clientPublicKey, clientSecretKey, serverPublicKey);
+    }
+
+    @Override
+    public int crypto_kx_server_session_keys(byte[] rx, byte[] tx, byte[] serverPublicKey, byte[] serverSecretKey, byte[] clientPublicKey) {
+        return Natives.crypto_kx_server_session_keys(rx, tx, serverPublicKey, serverSecretKey, clientPublicKey);
+    }
+
+    @Override
+    public int crypto_generichash(byte[] out, int outLen, byte[] in, long inLen, byte[] key, int keyLen) {
+        return Natives.crypto_generichash(out, outLen, in, inLen, key, keyLen);
+    }
+
+    @Override
+    public int crypto_aead_xchacha20poly1305_ietf_encrypt(byte[] cipher, Pointer cipherLen, byte[] message, long messageLen, byte[] additionalData, long additionalDataLen, Pointer nsec, byte[] nonce, byte[] key) {
+        return Natives.crypto_aead_xchacha20poly1305_ietf_encrypt(cipher, cipherLen, message, messageLen, additionalData, additionalDataLen, nsec, nonce, key);
+    }
+
+    @Override
+    public int crypto_aead_xchacha20poly1305_ietf_encrypt(ByteBuffer cipher, Pointer cipherLen, ByteBuffer message, long messageLen, ByteBuffer additionalData, long additionalDataLen, Pointer nsec, ByteBuffer nonce, ByteBuffer key) {
+        return Natives.crypto_aead_xchacha20poly1305_ietf_encrypt(cipher, cipherLen, message, messageLen, additionalData, additionalDataLen, nsec, nonce, key);
+    }
+
+    @Override
+    public int crypto_aead_xchacha20poly1305_ietf_decrypt(byte[] message, Pointer messageLen, Pointer nsec, byte[] cipher, long cipherLen, byte[] additionalData, long additionalDataLen, byte[] nonce, byte[] key) {
+        return Natives.crypto_aead_xchacha20poly1305_ietf_decrypt(message, messageLen, nsec, cipher, cipherLen, additionalData, additionalDataLen, nonce, key);
+    }
+
+    @Override
+    public int crypto_aead_xchacha20poly1305_ietf_decrypt(ByteBuffer message, Pointer messageLen, Pointer nsec, ByteBuffer cipher, long cipherLen, ByteBuffer additionalData, long additionalDataLen, ByteBuffer nonce, ByteBuffer key) {
+        return Natives.crypto_aead_xchacha20poly1305_ietf_decrypt(message, messageLen, nsec, cipher, cipherLen, additionalData, additionalDataLen, nonce, key);
+    }
+
+    /**
+     * Direct mapping binds native methods by name, so they live apart from the instance methods of the same name
+     */
+    private static final class Natives {
+        static native int crypto_box_keypair(byte[] publicKey, byte[] secretKey);
+        static native int crypto_box_seal(byte[] cipher, byte[] message, long messageLen, byte[] publicKey);
+        static native int crypto_box_seal_open(byte[] m, byte[] cipher, long cipherLen, byte[] publicKey, byte[] secretKey);
+        static native int crypto_box_beforenm(byte[] sharedKey, byte[] publicKey, byte[] secretKey);
+        static native int crypto_box_easy_afternm(byte[] cipher, byte[] message, long messageLen, byte[] nonce, byte[] sharedKey);
+        static native int crypto_box_open_easy_afternm(byte[] message, byte[] cipher, long cipherLen, byte[] nonce, byte[] sharedKey);
+        static native void randombytes_buf(byte[] buffer, int size);
+        static native int crypto_sign_open(byte[] message, Pointer messageLen, byte[] signedMessage, long signedMessageLen, byte[] publicKey);
+        static native int crypto_sign(byte[] signedMessage, Pointer sigLength, byte[] message, long messageLen, byte[] secretKey);
+        static native int crypto_kx_keypair(byte[] publicKey, byte[] secretKey);
+        static native int crypto_kx_client_session_keys(byte[] rx, byte[] tx, byte[] clientPublicKey, byte[] clientSecretKey, byte[] serverPublicKey);
+        static native int crypto_kx_server_session_keys(byte[] rx, byte[] tx, byte[] serverPublicKey, byte[] serverSecretKey, byte[] clientPublicKey);
+        static native int crypto_generichash(byte[] out, int outLen, byte[] in, long inLen, byte[] key, int keyLen);
+        static native int crypto_aead_xchacha20poly1305_ietf_encrypt(byte[] cipher, Pointer cipherLen, byte[] message, long messageLen, byte[] additionalData, long additionalDataLen, Pointer nsec, byte[] nonce, byte[] key);
+        static native int crypto_aead_xchacha20poly1305_ietf_encrypt(ByteBuffer cipher, Pointer cipherLen, ByteBuffer message, long messageLen, ByteBuffer additionalData, long additionalDataLen, Pointer nsec, ByteBuffer nonce, ByteBuffer key);
+        static native int crypto_aead_xchacha20poly1305_ietf_decrypt(byte[] message, Pointer messageLen, Pointer nsec, byte[] cipher, long cipherLen, byte[] additionalData, long additionalDataLen, byte[] nonce, byte[] key);
+        static native int crypto_aead_xchacha20poly1305_ietf_decrypt(ByteBuffer message, Pointer messageLen, Pointer nsec, ByteBuffer cipher, long cipherLen, ByteBuffer additionalData, long additionalDataLen, ByteBuffer nonce, ByteBuffer key);
+    }
+}
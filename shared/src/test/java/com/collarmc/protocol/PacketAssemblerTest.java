@@ -0,0 +1,68 @@
+package com.collarmc.protocol;
+
+import com.collarmc.api.security.TokenGenerator;
+import com.collarmc.protocol.keepalive.KeepAliveRequest;
+import com.collarmc.protocol.location.UpdateLocationRequest;
+import com.collarmc.utils.Utils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+public class PacketAssemblerTest {
+    @Test
+    public void chunkedPacketsAreReassembled() throws Exception {
+        PacketIO packets = new PacketIO(Utils.messagePackMapper(), null);
+        byte[] location = TokenGenerator.byteToken(3 * PacketIO.MAX_PACKET_SIZE);
+        try {
+            packets.encodePlain(new UpdateLocationRequest(UUID.randomUUID(), location));
+            Assert.fail("oversized packet was encoded without chunking");
+        } catch (IllegalStateException ignored) {}
+
+        byte[] packet = packets.withChunking().encodePlain(new UpdateLocationRequest(UUID.randomUUID(), location));
+        List<ByteBuffer> frames = PacketIO.frames(packet);
+        Assert.assertEquals(4, frames.size());
+        frames.forEach(frame -> Assert.assertTrue(frame.remaining() <= PacketIO.MAX_PACKET_SIZE));
+
+        PacketAssembler assembler = new PacketAssembler(PacketIO.MAX_CHUNKED_PACKET_SIZE);
+        byte[] small = packets.encodePlain(new KeepAliveRequest());
+        Optional<ByteBuffer> assembled = Optional.empty();
+        for (ByteBuffer frame : frames) {
+            Assert.assertFalse(assembled.isPresent());
+            assembled = assembler.accept(frame);
+            // Packets that weren't chunked can arrive between chunks
+            Assert.assertTrue(assembler.accept(ByteBuffer.wrap(small)).isPresent());
+        }
+        UpdateLocationRequest request = (UpdateLocationRequest) packets.decode(null, assembled.orElseThrow(), ProtocolRequest.class).orElseThrow();
+        Assert.assertArrayEquals(location, request.location);
+    }
+
+    @Test
+    public void chunksMustArriveInOrder() throws Exception {
+        PacketIO packets = new PacketIO(Utils.messagePackMapper(), null).withChunking();
+        List<ByteBuffer> frames = PacketIO.frames(packets.encodePlain(new UpdateLocationRequest(UUID.randomUUID(), new byte[3 * PacketIO.MAX_PACKET_SIZE])));
+        PacketAssembler assembler = new PacketAssembler(PacketIO.MAX_CHUNKED_PACKET_SIZE);
+        assembler.accept(frames.get(0));
+        try {
+            assembler.accept(frames.get(2));
+            Assert.fail("chunk was accepted out of order");
+        } catch (IOException ignored) {}
+    }
+
+    @Test
+    public void packetsLargerThanTheLimitAreRejected() throws Exception {
+        PacketIO packets = new PacketIO(Utils.messagePackMapper(), null).withChunking();
+        List<ByteBuffer> frames = PacketIO.frames(packets.encodePlain(new UpdateLocationRequest(UUID.randomUUID(), new byte[3 * PacketIO.MAX_PACKET_SIZE])));
+        PacketAssembler assembler = new PacketAssembler(2 * PacketIO.MAX_PACKET_SIZE);
+        try {
+            for (ByteBuffer frame : frames) {
+                assembler.accept(frame);
+            }
+            Assert.fail("oversized packet was assembled");
+        } catch (IOException ignored) {}
+    }
+}
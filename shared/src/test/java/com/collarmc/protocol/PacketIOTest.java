@@ -0,0 +1,223 @@
+package com.collarmc.protocol;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.api.identity.ServerIdentity;
+import com.collarmc.api.minecraft.MinecraftPlayer;
+import com.collarmc.api.security.PublicKey;
+import com.collarmc.api.session.Player;
+import com.collarmc.protocol.keepalive.KeepAliveResponse;
+import com.collarmc.protocol.location.LocationUpdatedResponse;
+import com.collarmc.protocol.location.UpdateLocationRequest;
+import com.collarmc.protocol.location.UpdateNearbyRequest;
+import com.collarmc.protocol.session.StartSessionResponse;
+import com.collarmc.security.CollarIdentity;
+import com.collarmc.security.KeyPair;
+import com.collarmc.security.messages.CipherException;
+import com.collarmc.security.sodium.SessionCipher;
+import com.collarmc.security.sodium.SharedKeyCache;
+import com.collarmc.security.sodium.Sodium;
+import com.collarmc.security.sodium.SodiumCipher;
+import com.collarmc.utils.Utils;
+import com.google.common.hash.Hashing;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+public class PacketIOTest {
+
+    private static final int HEADER_MODE_OFFSET = 2 * Integer.BYTES;
+
+    @Test
+    public void batchedResponsesDecodeInOrder() throws Exception {
+        Sodium sodium = Sodium.create();
+        CollarIdentity server = CollarIdentity.createServerIdentity(sodium);
+        ServerIdentity serverIdentity = new ServerIdentity(server.id, server.publicKey());
+        CollarIdentity bob = CollarIdentity.createClientIdentity(UUID.randomUUID(), serverIdentity, sodium);
+        ClientIdentity bobIdentity = new ClientIdentity(bob.id, bob.publicKey());
+
+        PacketIO serverPackets = new PacketIO(Utils.messagePackMapper(), new SodiumCipher(sodium, server.keyPair));
+        PacketIO bobPackets = new PacketIO(Utils.messagePackMapper(), new SodiumCipher(sodium, bob.keyPair));
+
+        byte[] packet = serverPackets.encodeEncryptedBatch(bobIdentity, List.of(new KeepAliveResponse(), new StartSessionResponse(), new KeepAliveResponse()));
+        List<ProtocolResponse> responses = bobPackets.decodeAll(serverIdentity, ByteBuffer.wrap(packet), ProtocolResponse.class);
+        Assert.assertEquals(3, responses.size());
+        Assert.assertTrue(responses.get(0) instanceof KeepAliveResponse);
+        Assert.assertTrue(responses.get(1) instanceof StartSessionResponse);
+        Assert.assertTrue(responses.get(2) instanceof KeepAliveResponse);
+
+        try {
+            bobPackets.decode(serverIdentity, ByteBuffer.wrap(packet), ProtocolResponse.class);
+            Assert.fail("batched packet was read as a single response");
+        } catch (IllegalStateException ignored) {}
+
+        byte[] single = serverPackets.encodeEncrypted(bobIdentity, new StartSessionResponse());
+        Assert.assertEquals(1, bobPackets.decodeAll(serverIdentity, ByteBuffer.wrap(single), ProtocolResponse.class).size());
+    }
+
+    @Test
+    public void plainPacketsReuseBuffersBetweenMessages() throws Exception {
+        PacketIO packets = new PacketIO(Utils.messagePackMapper(), null);
+        UUID group = UUID.randomUUID();
+        // Large enough to grow the pooled buffer, then small enough to reuse it
+        for (int size : new int[] {8192, 16, 8192}) {
+            byte[] packet = packets.encodePlain(new UpdateLocationRequest(group, new byte[size]));
+            UpdateLocationRequest fromBuffer = (UpdateLocationRequest) packets.decode(null, ByteBuffer.wrap(packet), ProtocolRequest.class).orElseThrow();
+            UpdateLocationRequest fromStream = (UpdateLocationRequest) packets.decode(null, new ByteArrayInputStream(packet), ProtocolRequest.class).orElseThrow();
+            Assert.assertEquals(group, fromBuffer.group);
+            Assert.assertEquals(size, fromBuffer.location.length);
+            Assert.assertEquals(size, fromStream.location.length);
+        }
+    }
+
+    @Test
+    public void decodesPacketFromPartOfAnArray() throws Exception {
+        PacketIO packets = new PacketIO(Utils.messagePackMapper(), null);
+        byte[] packet = packets.encodePlain(new UpdateLocationRequest(UUID.randomUUID(), new byte[32]));
+        byte[] payload = new byte[packet.length + 20];
+        System.arraycopy(packet, 0, payload, 7, packet.length);
+        UpdateLocationRequest request = (UpdateLocationRequest) packets.decode(null, payload, 7, packet.length, ProtocolRequest.class).orElseThrow();
+        Assert.assertEquals(32, request.location.length);
+    }
+
+    @Test
+    public void sessionPacketsRoundTrip() throws Exception {
+        Sodium sodium = Sodium.create();
+        CollarIdentity server = CollarIdentity.createServerIdentity(sodium);
+        CollarIdentity bob = CollarIdentity.createClientIdentity(UUID.randomUUID(), server.serverIdentity, sodium);
+        KeyPair bobEphemeral = sodium.generateSessionKeyPair();
+        KeyPair serverEphemeral = sodium.generateSessionKeyPair();
+        SessionCipher bobSession = SessionCipher.client(sodium, new SharedKeyCache(sodium, bob.keyPair, 1).sharedKey(server.publicKey()), bobEphemeral, serverEphemeral.getPublicKey().getAsBytes());
+        SessionCipher serverSession = SessionCipher.server(sodium, new SharedKeyCache(sodium, server.keyPair, 1).sharedKey(bob.publicKey()), serverEphemeral, bobEphemeral.getPublicKey().getAsBytes());
+        PacketIO packets = new PacketIO(Utils.messagePackMapper(), null);
+
+        byte[] request = packets.encodeSession(bobSession, new UpdateLocationRequest(UUID.randomUUID(), new byte[16]));
+        Assert.assertTrue(packets.decode(null, serverSession, ByteBuffer.wrap(request), ProtocolRequest.class).orElseThrow() instanceof UpdateLocationRequest);
+
+        byte[] batch = packets.encodeSessionBatch(serverSession, List.of(new KeepAliveResponse(), new StartSessionResponse()));
+        List<ProtocolResponse> responses = packets.decodeAll(null, bobSession, ByteBuffer.wrap(batch), ProtocolResponse.class);
+        Assert.assertEquals(2, responses.size());
+        Assert.assertTrue(responses.get(1) instanceof StartSessionResponse);
+    }
+
+    @Test
+    public void binaryCodecsRoundTripAlongsideJackson() throws Exception {
+        PacketIO jackson = new PacketIO(Utils.messagePackMapper(), null);
+        PacketIO binary = jackson.withBinaryCodecs();
+        UUID group = UUID.randomUUID();
+        Player player = new Player(new ClientIdentity(UUID.randomUUID(), new PublicKey(new byte[32])), new MinecraftPlayer(UUID.randomUUID(), "mc.example.com", 42));
+        LocationUpdatedResponse location = new LocationUpdatedResponse(group, player, new byte[64]);
+        LocationUpdatedResponse stopped = new LocationUpdatedResponse(group, new Player(player.identity, null), null);
+
+        byte[] packet = binary.encodePlain(location);
+        Assert.assertTrue(packet.length < jackson.encodePlain(location).length);
+        // Both ends always read codecs, whether or not they write them
+        LocationUpdatedResponse decoded = (LocationUpdatedResponse) jackson.decode(null, ByteBuffer.wrap(packet), ProtocolResponse.class).orElseThrow();
+        Assert.assertEquals(group, decoded.group);
+        Assert.assertEquals(player.identity, decoded.sender.identity);
+        Assert.assertEquals(player.minecraftPlayer, decoded.sender.minecraftPlayer);
+        Assert.assertEquals(64, decoded.location.length);
+
+        Sodium sodium = Sodium.create();
+        CollarIdentity server = CollarIdentity.createServerIdentity(sodium);
+        CollarIdentity bob = CollarIdentity.createClientIdentity(UUID.randomUUID(), server.serverIdentity, sodium);
+        KeyPair bobEphemeral = sodium.generateSessionKeyPair();
+        KeyPair serverEphemeral = sodium.generateSessionKeyPair();
+        SessionCipher bobSession = SessionCipher.client(sodium, new SharedKeyCache(sodium, bob.keyPair, 1).sharedKey(server.publicKey()), bobEphemeral, serverEphemeral.getPublicKey().getAsBytes());
+        SessionCipher serverSession = SessionCipher.server(sodium, new SharedKeyCache(sodium, server.keyPair, 1).sharedKey(bob.publicKey()), serverEphemeral, bobEphemeral.getPublicKey().getAsBytes());
+
+        byte[] batch = binary.encodeSessionBatch(serverSession, List.of(location, new KeepAliveResponse(), stopped));
+        List<ProtocolResponse> responses = binary.decodeAll(null, bobSession, ByteBuffer.wrap(batch), ProtocolResponse.class);
+        Assert.assertEquals(3, responses.size());
+        Assert.assertTrue(responses.get(1) instanceof KeepAliveResponse);
+        LocationUpdatedResponse decodedStopped = (LocationUpdatedResponse) responses.get(2);
+        Assert.assertNull(decodedStopped.location);
+        Assert.assertNull(decodedStopped.sender.minecraftPlayer);
+
+        Set<String> hashes = Set.of(Hashing.sha256().hashString("player", StandardCharsets.UTF_8).toString(), "not a hash");
+        byte[] nearby = binary.encodeSession(bobSession, new UpdateNearbyRequest(hashes));
+        UpdateNearbyRequest decodedNearby = (UpdateNearbyRequest) binary.decode(null, serverSession, ByteBuffer.wrap(nearby), ProtocolRequest.class).orElseThrow();
+        Assert.assertEquals(hashes, decodedNearby.nearbyHashes);
+
+        byte[] update = binary.encodeSession(bobSession, new UpdateLocationRequest(group, new byte[16]));
+        UpdateLocationRequest decodedUpdate = (UpdateLocationRequest) binary.decode(null, serverSession, ByteBuffer.wrap(update), ProtocolRequest.class).orElseThrow();
+        Assert.assertEquals(group, decodedUpdate.group);
+        Assert.assertEquals(16, decodedUpdate.location.length);
+        Assert.assertNull(decodedUpdate.compactLocation);
+
+        byte[] compactUpdate = binary.encodeSession(bobSession, new UpdateLocationRequest(group, new byte[16], new byte[4]));
+        UpdateLocationRequest decodedCompactUpdate = (UpdateLocationRequest) binary.decode(null, serverSession, ByteBuffer.wrap(compactUpdate), ProtocolRequest.class).orElseThrow();
+        Assert.assertEquals(16, decodedCompactUpdate.location.length);
+        Assert.assertEquals(4, decodedCompactUpdate.compactLocation.length);
+    }
+
+    @Test
+    public void binaryCodecsRejectTheWrongType() throws Exception {
+        PacketIO packets = new PacketIO(Utils.messagePackMapper(), null).withBinaryCodecs();
+        byte[] packet = packets.encodePlain(new UpdateLocationRequest(UUID.randomUUID(), new byte[16]));
+        try {
+            packets.decode(null, ByteBuffer.wrap(packet), ProtocolResponse.class);
+            Assert.fail("request was decoded as a response");
+        } catch (IOException ignored) {}
+
+        byte[] truncated = new byte[packet.length - 4];
+        System.arraycopy(packet, 0, truncated, 0, truncated.length);
+        try {
+            packets.decode(null, ByteBuffer.wrap(truncated), ProtocolRequest.class);
+            Assert.fail("truncated message was decoded");
+        } catch (IOException ignored) {}
+    }
+
+    @Test
+    public void compressedPacketsRoundTrip() throws Exception {
+        Sodium sodium = Sodium.create();
+        CollarIdentity server = CollarIdentity.createServerIdentity(sodium);
+        ServerIdentity serverIdentity = new ServerIdentity(server.id, server.publicKey());
+        CollarIdentity bob = CollarIdentity.createClientIdentity(UUID.randomUUID(), serverIdentity, sodium);
+        ClientIdentity bobIdentity = new ClientIdentity(bob.id, bob.publicKey());
+        PacketIO bobPackets = new PacketIO(Utils.messagePackMapper(), new SodiumCipher(sodium, bob.keyPair)).withCompression();
+        PacketIO serverPackets = new PacketIO(Utils.messagePackMapper(), new SodiumCipher(sodium, server.keyPair));
+        PacketIO compressedServerPackets = serverPackets.withCompression();
+
+        // Too large to send uncompressed, but compresses well
+        UpdateLocationRequest large = new UpdateLocationRequest(UUID.randomUUID(), new byte[PacketIO.MAX_PACKET_SIZE + 1]);
+        try {
+            serverPackets.encodeEncrypted(bobIdentity, large);
+            Assert.fail("oversized packet was encoded");
+        } catch (IllegalStateException ignored) {}
+        byte[] packet = compressedServerPackets.encodeEncrypted(bobIdentity, large);
+        Assert.assertTrue(packet.length < PacketIO.MAX_PACKET_SIZE);
+        UpdateLocationRequest decoded = (UpdateLocationRequest) bobPackets.decode(serverIdentity, ByteBuffer.wrap(packet), ProtocolRequest.class).orElseThrow();
+        Assert.assertEquals(large.location.length, decoded.location.length);
+
+        // Small packets are left alone
+        KeepAliveResponse small = new KeepAliveResponse();
+        Assert.assertEquals(serverPackets.encodeEncrypted(bobIdentity, small).length, compressedServerPackets.encodeEncrypted(bobIdentity, small).length);
+
+        KeyPair bobEphemeral = sodium.generateSessionKeyPair();
+        KeyPair serverEphemeral = sodium.generateSessionKeyPair();
+        SessionCipher bobSession = SessionCipher.client(sodium, new SharedKeyCache(sodium, bob.keyPair, 1).sharedKey(server.publicKey()), bobEphemeral, serverEphemeral.getPublicKey().getAsBytes());
+        SessionCipher serverSession = SessionCipher.server(sodium, new SharedKeyCache(sodium, server.keyPair, 1).sharedKey(bob.publicKey()), serverEphemeral, bobEphemeral.getPublicKey().getAsBytes());
+        List<ProtocolResponse> responses = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            responses.add(new StartSessionResponse());
+        }
+        byte[] batch = compressedServerPackets.encodeSessionBatch(serverSession, responses);
+        Assert.assertTrue(batch.length < serverPackets.encodeSessionBatch(serverSession, responses).length);
+        Assert.assertEquals(100, bobPackets.decodeAll(null, bobSession, ByteBuffer.wrap(batch), ProtocolResponse.class).size());
+
+        // Flipping the compressed flag fails authentication
+        batch[HEADER_MODE_OFFSET] ^= 0x80;
+        try {
+            bobPackets.decodeAll(null, bobSession, ByteBuffer.wrap(batch), ProtocolResponse.class);
+            Assert.fail("tampered header was accepted");
+        } catch (CipherException ignored) {}
+    }
+}
@@ -0,0 +1,25 @@
+package com.collarmc.protocol.location;
+
+import com.collarmc.io.ByteBufferOutputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Set;
+
+public class LocationCodecsTest {
+    @Test
+    public void nearbyHashesRoundTrip() throws Exception {
+        Set<String> hashes = Set.of("9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08", "not-a-digest");
+        ByteBufferOutputStream out = new ByteBufferOutputStream(128);
+        LocationCodecs.UPDATE_NEARBY_REQUEST_CODEC.encode(new UpdateNearbyRequest(hashes), out);
+        Assert.assertEquals(hashes, LocationCodecs.UPDATE_NEARBY_REQUEST_CODEC.decode(out.buffer()).nearbyHashes);
+    }
+
+    @Test
+    public void nullNearbyHashesAreSentAsNone() throws Exception {
+        ByteBufferOutputStream out = new ByteBufferOutputStream(16);
+        LocationCodecs.UPDATE_NEARBY_REQUEST_CODEC.encode(new UpdateNearbyRequest(null), out);
+        UpdateNearbyRequest decoded = LocationCodecs.UPDATE_NEARBY_REQUEST_CODEC.decode(out.buffer());
+        Assert.assertEquals(Set.of(), decoded.nearbyHashes);
+    }
+}
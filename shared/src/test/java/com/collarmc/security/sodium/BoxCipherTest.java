@@ -0,0 +1,84 @@
+package com.collarmc.security.sodium;
+
+import com.collarmc.api.security.TokenGenerator;
+import com.collarmc.security.CollarIdentity;
+import com.collarmc.security.messages.Cipher;
+import com.collarmc.security.messages.CipherException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.fail;
+
+public class BoxCipherTest {
+
+    CollarIdentity server;
+    CollarIdentity bob;
+    SharedKeyCache bobKeys;
+    Cipher bobCipher;
+    CollarIdentity alice;
+    Cipher aliceCipher;
+    CollarIdentity eve;
+    Cipher eveCipher;
+
+    @Before
+    public void setup() throws Exception {
+        final Sodium sodium = Sodium.create();
+        server = CollarIdentity.createServerIdentity(sodium);
+        bob = CollarIdentity.createClientIdentity(UUID.randomUUID(), server.serverIdentity, sodium);
+        bobKeys = new SharedKeyCache(sodium, bob.keyPair, 2);
+        bobCipher = new BoxCipher(sodium, bob.keyPair, bobKeys);
+        alice = CollarIdentity.createClientIdentity(UUID.randomUUID(), server.serverIdentity, sodium);
+        aliceCipher = new BoxCipher(sodium, alice.keyPair, new SharedKeyCache(sodium, alice.keyPair, 2));
+        eve = CollarIdentity.createClientIdentity(UUID.randomUUID(), server.serverIdentity, sodium);
+        eveCipher = new BoxCipher(sodium, eve.keyPair, new SharedKeyCache(sodium, eve.keyPair, 2));
+    }
+
+    @Test
+    public void bobSendsMessagesToAlice() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            byte[] message = TokenGenerator.byteToken(256);
+            byte[] cipherText = bobCipher.encrypt(message, alice.publicKey());
+            Assert.assertFalse(Arrays.equals(cipherText, message));
+            Assert.assertArrayEquals(message, aliceCipher.decrypt(cipherText, bob.publicKey()));
+        }
+        Assert.assertEquals(1, bobKeys.size());
+        bobKeys.evict(alice.publicKey());
+        Assert.assertEquals(0, bobKeys.size());
+    }
+
+    @Test
+    public void eveCantReadBobsMessageToAlice() throws Exception {
+        byte[] cipherText = bobCipher.encrypt(TokenGenerator.byteToken(256), alice.publicKey());
+        try {
+            eveCipher.decrypt(cipherText, bob.publicKey());
+            fail("eve could read bobs message to alice!");
+        } catch (CipherException ignored) {}
+
+        try {
+            eveCipher.decrypt(cipherText, alice.publicKey());
+            fail("eve could read bobs message to alice!");
+        } catch (CipherException ignored) {}
+    }
+
+    @Test
+    public void encryptDecryptAndMutate() throws Exception {
+        byte[] token = TokenGenerator.byteToken(1024);
+        byte[] bytes = bobCipher.encrypt(token);
+        Assert.assertArrayEquals(token, bobCipher.decrypt(bytes));
+
+        for (int i = 0; i < bytes.length; i++) {
+            try {
+                bytes[i]++;
+                bobCipher.decrypt(bytes);
+                fail("CipherException was not thrown");
+            } catch (CipherException ignored) {
+            } finally {
+                bytes[i]--;
+            }
+        }
+    }
+}
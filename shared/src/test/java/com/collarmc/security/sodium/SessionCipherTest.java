@@ -0,0 +1,182 @@
+package com.collarmc.security.sodium;
+
+import com.collarmc.api.security.TokenGenerator;
+import com.collarmc.security.CollarIdentity;
+import com.collarmc.security.KeyPair;
+import com.collarmc.security.messages.CipherException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.fail;
+
+public class SessionCipherTest {
+
+    private static final byte[] HEADER = new byte[] {1, 2, 3};
+
+    Sodium sodium;
+    CollarIdentity server;
+    CollarIdentity bob;
+    CollarIdentity eve;
+
+    @Before
+    public void setup() throws Exception {
+        sodium = Sodium.create();
+        server = CollarIdentity.createServerIdentity(sodium);
+        bob = CollarIdentity.createClientIdentity(UUID.randomUUID(), server.serverIdentity, sodium);
+        eve = CollarIdentity.createClientIdentity(UUID.randomUUID(), server.serverIdentity, sodium);
+    }
+
+    @Test
+    public void bothSidesDeriveTheSameKeys() throws Exception {
+        KeyPair bobEphemeral = sodium.generateSessionKeyPair();
+        KeyPair serverEphemeral = sodium.generateSessionKeyPair();
+        SessionCipher bobSession = SessionCipher.client(sodium, sharedKey(bob, server), bobEphemeral, serverEphemeral.getPublicKey().getAsBytes());
+        SessionCipher serverSession = SessionCipher.server(sodium, sharedKey(server, bob), serverEphemeral, bobEphemeral.getPublicKey().getAsBytes());
+
+        for (int i = 0; i < 3; i++) {
+            byte[] token = TokenGenerator.byteToken(256);
+            Assert.assertArrayEquals(token, serverSession.decrypt(bobSession.encrypt(token, HEADER), HEADER));
+            Assert.assertArrayEquals(token, bobSession.decrypt(serverSession.encrypt(token, HEADER), HEADER));
+        }
+    }
+
+    @Test
+    public void directBuffersReadByteArrayMessages() throws Exception {
+        KeyPair bobEphemeral = sodium.generateSessionKeyPair();
+        KeyPair serverEphemeral = sodium.generateSessionKeyPair();
+        SessionCipher bobSession = SessionCipher.client(sodium, sharedKey(bob, server), bobEphemeral, serverEphemeral.getPublicKey().getAsBytes());
+        SessionCipher serverSession = SessionCipher.server(sodium, sharedKey(server, bob), serverEphemeral, bobEphemeral.getPublicKey().getAsBytes());
+        ByteBuffer header = ByteBuffer.allocateDirect(HEADER.length).put(HEADER).flip();
+
+        byte[] token = TokenGenerator.byteToken(256);
+        ByteBuffer message = ByteBuffer.allocateDirect(token.length + SessionCipher.OVERHEAD).put(bobSession.encrypt(token, HEADER)).flip();
+        ByteBuffer plain = ByteBuffer.allocateDirect(token.length);
+        serverSession.decrypt(message, header, plain);
+        Assert.assertFalse(plain.hasRemaining());
+        Assert.assertEquals(ByteBuffer.wrap(token), plain.flip());
+
+        // Write after some bytes that are already in the buffer, as packets do with their header
+        ByteBuffer reply = ByteBuffer.allocateDirect(3 + token.length + SessionCipher.OVERHEAD).put(new byte[3]);
+        serverSession.encrypt(plain, header, reply);
+        byte[] replyBytes = new byte[token.length + SessionCipher.OVERHEAD];
+        reply.flip().position(3);
+        reply.get(replyBytes);
+        Assert.assertArrayEquals(token, bobSession.decrypt(replyBytes, HEADER));
+    }
+
+    @Test
+    public void eveCannotReadSessionWithStolenEphemeralKey() throws Exception {
+        KeyPair bobEphemeral = sodium.generateSessionKeyPair();
+        KeyPair serverEphemeral = sodium.generateSessionKeyPair();
+        SessionCipher bobSession = SessionCipher.client(sodium, sharedKey(bob, server), bobEphemeral, serverEphemeral.getPublicKey().getAsBytes());
+        // Eve swapped in her identity but knows bob's ephemeral key
+        SessionCipher eveSession = SessionCipher.client(sodium, sharedKey(eve, server), bobEphemeral, serverEphemeral.getPublicKey().getAsBytes());
+        SessionCipher serverSession = SessionCipher.server(sodium, sharedKey(server, bob), serverEphemeral, bobEphemeral.getPublicKey().getAsBytes());
+
+        byte[] message = serverSession.encrypt(TokenGenerator.byteToken(64), HEADER);
+        try {
+            eveSession.decrypt(message, HEADER);
+            fail("eve could read the session");
+        } catch (CipherException ignored) {}
+        Assert.assertEquals(64, bobSession.decrypt(message, HEADER).length);
+    }
+
+    @Test
+    public void tamperedMessagesAreRejected() throws Exception {
+        KeyPair bobEphemeral = sodium.generateSessionKeyPair();
+        KeyPair serverEphemeral = sodium.generateSessionKeyPair();
+        SessionCipher bobSession = SessionCipher.client(sodium, sharedKey(bob, server), bobEphemeral, serverEphemeral.getPublicKey().getAsBytes());
+        SessionCipher serverSession = SessionCipher.server(sodium, sharedKey(server, bob), serverEphemeral, bobEphemeral.getPublicKey().getAsBytes());
+
+        byte[] message = bobSession.encrypt(TokenGenerator.byteToken(128), HEADER);
+        for (int i = 0; i < message.length; i++) {
+            try {
+                message[i]++;
+                serverSession.decrypt(message, HEADER);
+                fail("CipherException was not thrown");
+            } catch (CipherException ignored) {
+            } finally {
+                message[i]--;
+            }
+        }
+        try {
+            serverSession.decrypt(message, new byte[] {1, 2, 4});
+            fail("header was not authenticated");
+        } catch (CipherException ignored) {}
+        Assert.assertEquals(128, serverSession.decrypt(message, HEADER).length);
+    }
+
+    @Test
+    public void replayedMessagesAreRejected() throws Exception {
+        KeyPair bobEphemeral = sodium.generateSessionKeyPair();
+        KeyPair serverEphemeral = sodium.generateSessionKeyPair();
+        SessionCipher bobSession = SessionCipher.client(sodium, sharedKey(bob, server), bobEphemeral, serverEphemeral.getPublicKey().getAsBytes());
+        SessionCipher serverSession = SessionCipher.server(sodium, sharedKey(server, bob), serverEphemeral, bobEphemeral.getPublicKey().getAsBytes());
+
+        byte[] message = bobSession.encrypt(TokenGenerator.byteToken(64), HEADER);
+        Assert.assertEquals(64, serverSession.decrypt(message, HEADER).length);
+        try {
+            serverSession.decrypt(message, HEADER);
+            fail("replayed message was accepted");
+        } catch (CipherException ignored) {}
+
+        ByteBuffer header = ByteBuffer.allocateDirect(HEADER.length).put(HEADER).flip();
+        ByteBuffer direct = ByteBuffer.allocateDirect(message.length).put(message).flip();
+        try {
+            serverSession.decrypt(direct, header, ByteBuffer.allocateDirect(64));
+            fail("replayed message was accepted");
+        } catch (CipherException ignored) {}
+    }
+
+    @Test
+    public void outOfOrderMessagesAreAcceptedWithinWindow() throws Exception {
+        KeyPair bobEphemeral = sodium.generateSessionKeyPair();
+        KeyPair serverEphemeral = sodium.generateSessionKeyPair();
+        SessionCipher bobSession = SessionCipher.client(sodium, sharedKey(bob, server), bobEphemeral, serverEphemeral.getPublicKey().getAsBytes());
+        SessionCipher serverSession = SessionCipher.server(sodium, sharedKey(server, bob), serverEphemeral, bobEphemeral.getPublicKey().getAsBytes());
+
+        List<byte[]> messages = new ArrayList<>();
+        for (int i = 0; i <= SessionCipher.REPLAY_WINDOW; i++) {
+            messages.add(bobSession.encrypt(new byte[] {1}, HEADER));
+        }
+        // The newest arrives first, leaving the oldest just outside the window
+        serverSession.decrypt(messages.get(SessionCipher.REPLAY_WINDOW), HEADER);
+        for (int i = SessionCipher.REPLAY_WINDOW - 1; i > 0; i--) {
+            serverSession.decrypt(messages.get(i), HEADER);
+        }
+        try {
+            serverSession.decrypt(messages.get(0), HEADER);
+            fail("message older than the window was accepted");
+        } catch (CipherException ignored) {}
+        try {
+            serverSession.decrypt(messages.get(1), HEADER);
+            fail("replayed message was accepted");
+        } catch (CipherException ignored) {}
+    }
+
+    @Test
+    public void reconnectingReusesCachedIdentityKey() throws Exception {
+        SharedKeyCache serverKeys = new SharedKeyCache(sodium, server.keyPair, 16, Duration.ofHours(1));
+        for (int i = 0; i < 2; i++) {
+            KeyPair bobEphemeral = sodium.generateSessionKeyPair();
+            KeyPair serverEphemeral = sodium.generateSessionKeyPair();
+            SessionCipher bobSession = SessionCipher.client(sodium, sharedKey(bob, server), bobEphemeral, serverEphemeral.getPublicKey().getAsBytes());
+            SessionCipher serverSession = SessionCipher.server(sodium, serverKeys.sharedKey(bob.publicKey()), serverEphemeral, bobEphemeral.getPublicKey().getAsBytes());
+            byte[] token = TokenGenerator.byteToken(256);
+            Assert.assertArrayEquals(token, serverSession.decrypt(bobSession.encrypt(token, HEADER), HEADER));
+        }
+        Assert.assertEquals(1, serverKeys.misses());
+        Assert.assertEquals(1, serverKeys.hits());
+    }
+
+    private byte[] sharedKey(CollarIdentity self, CollarIdentity peer) throws CipherException {
+        return new SharedKeyCache(sodium, self.keyPair, 1).sharedKey(peer.publicKey());
+    }
+}
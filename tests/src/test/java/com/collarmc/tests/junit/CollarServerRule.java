@@ -73,8 +73,12 @@ public final class CollarServerRule implements TestRule {
     }
 
     private void stopServer() {
-        Spark.stop();
-        Spark.awaitStop();
+        if (webServer != null) {
+            webServer.stop();
+        } else {
+            Spark.stop();
+            Spark.awaitStop();
+        }
     }
 
     public boolean isServerStarted() {
@@ -0,0 +1,98 @@
+package com.collarmc.tools.load;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records end to end latencies into log linear buckets, so percentiles are accurate to about 6% without keeping
+ * every sample. Safe to record from any thread.
+ */
+public final class LatencyRecorder {
+
+    /** Each power of two is split into this many buckets **/
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+
+    /**
+     * Count something sent that should be received by other clients
+     * @param recipients expected to receive it
+     */
+    public void sent(int recipients) {
+        sent.add(recipients);
+    }
+
+    /**
+     * @param sentAtNanos {@link System#nanoTime()} when what was received was sent
+     */
+    public void received(long sentAtNanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentAtNanos));
+        buckets.incrementAndGet(index(micros));
+        received.increment();
+    }
+
+    /**
+     * @return number of deliveries expected
+     */
+    public long sentCount() {
+        return sent.sum();
+    }
+
+    /**
+     * @return number of deliveries received
+     */
+    public long receivedCount() {
+        return received.sum();
+    }
+
+    /**
+     * @param percentile between 0 and 1
+     * @return latency in microseconds at the percentile, or 0 if nothing has been received
+     */
+    public long percentile(double percentile) {
+        long total = 0;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return value(i);
+            }
+        }
+        return value(BUCKETS - 1);
+    }
+
+    private static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int magnitude = Long.SIZE - 1 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int) (micros >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return midpoint of the bucket
+     */
+    private static long value(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + ((1L << shift) >> 1);
+    }
+}
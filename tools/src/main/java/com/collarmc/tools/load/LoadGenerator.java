@@ -0,0 +1,187 @@
+package com.collarmc.tools.load;
+
+import com.collarmc.api.http.RequestContext;
+import com.collarmc.api.profiles.Profile;
+import com.collarmc.api.profiles.ProfileService.CreateProfileRequest;
+import com.collarmc.server.Services;
+import com.collarmc.server.WebServer;
+import com.collarmc.server.configuration.Configuration;
+import com.collarmc.server.mongo.Mongo;
+import com.collarmc.server.security.mojang.NojangMinecraftSessionVerifier;
+import com.mongodb.client.MongoDatabase;
+import spark.Spark;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Runs a Collar server in process and drives thousands of headless {@link SimulatedClient}'s against it, reporting
+ * throughput and end to end latency for each {@link Scenario}.
+ * The server uses {@link NojangMinecraftSessionVerifier} so clients do not need Minecraft accounts and approves
+ * each clients device directly through its {@link Services}.
+ *
+ * Usage: {@code java -cp tools.jar com.collarmc.tools.load.LoadGenerator --clients 1000 --group-size 5
+ * --scenario location,messaging --duration 60}
+ */
+public final class LoadGenerator {
+
+    private static final String SERVER = "http://localhost:3001";
+    private static final long TICK_MILLIS = 50;
+
+    private final int clients;
+    private final int groupSize;
+    private final EnumSet<Scenario> scenarios;
+    private final int durationSeconds;
+    private final int intervalMillis;
+    private final int rampPerSecond;
+    private final String mongoUrl;
+    private final Map<Scenario, LatencyRecorder> recorders = new EnumMap<>(Scenario.class);
+    private final List<SimulatedClient> simulatedClients = new CopyOnWriteArrayList<>();
+    private final AtomicLong tick = new AtomicLong();
+
+    private LoadGenerator(Map<String, String> options) {
+        this.clients = Integer.parseInt(options.getOrDefault("clients", "100"));
+        this.groupSize = Integer.parseInt(options.getOrDefault("group-size", "5"));
+        this.durationSeconds = Integer.parseInt(options.getOrDefault("duration", "60"));
+        this.intervalMillis = Integer.parseInt(options.getOrDefault("interval", "1000"));
+        this.rampPerSecond = Integer.parseInt(options.getOrDefault("ramp", "50"));
+        this.mongoUrl = options.getOrDefault("mongo", "mongodb://localhost/collar-load");
+        String scenarioNames = options.getOrDefault("scenario", "all");
+        this.scenarios = scenarioNames.equals("all") ? EnumSet.allOf(Scenario.class) : Arrays.stream(scenarioNames.split(","))
+                .map(name -> Scenario.valueOf(name.trim().toUpperCase(Locale.ROOT)))
+                .collect(Collectors.toCollection(() -> EnumSet.noneOf(Scenario.class)));
+        if (groupSize < 2 || clients % groupSize != 0) {
+            throw new IllegalArgumentException("clients must be a multiple of the group size, which must be at least 2");
+        }
+        scenarios.forEach(scenario -> recorders.put(scenario, new LatencyRecorder()));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("unknown argument " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        new LoadGenerator(options).run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        MongoDatabase db = Mongo.database(mongoUrl);
+        db.drop();
+        AtomicReference<Services> servicesRef = new AtomicReference<>();
+        WebServer webServer = new WebServer(Configuration.testConfiguration(db, new NojangMinecraftSessionVerifier()));
+        webServer.start(servicesRef::set);
+        Spark.awaitInitialization();
+        Services services = servicesRef.get();
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            int partition = i;
+            scheduler.scheduleAtFixedRate(() -> tick(partition, threads), TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        scheduler.scheduleAtFixedRate(tick::incrementAndGet, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        try {
+            System.out.printf("Connecting %d clients at %d/s%n", clients, rampPerSecond);
+            int intervalTicks = (int) Math.max(1, intervalMillis / TICK_MILLIS);
+            for (int i = 0; i < clients; i++) {
+                Profile profile = services.profiles.createProfile(RequestContext.ANON, new CreateProfileRequest("load" + i + "@example.com", "load" + i, "Load " + i)).profile;
+                SimulatedClient client = new SimulatedClient(i, groupSize, intervalTicks, recorders, services, profile, SERVER);
+                simulatedClients.add(client);
+                client.connect();
+                Thread.sleep(1000 / rampPerSecond);
+            }
+            await("clients connected", () -> simulatedClients.stream().allMatch(SimulatedClient::isConnected));
+
+            if (scenarios.stream().anyMatch(Scenario::needsGroup)) {
+                formGroups();
+                await("groups formed", () -> simulatedClients.stream().allMatch(client -> client.group().isPresent()));
+            }
+
+            System.out.printf("Running %s for %ds%n", scenarios, durationSeconds);
+            simulatedClients.forEach(client -> client.start(scenarios));
+            long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(durationSeconds);
+            Map<Scenario, Long> lastReceived = new EnumMap<>(Scenario.class);
+            while (System.currentTimeMillis() < end) {
+                Thread.sleep(5000);
+                recorders.forEach((scenario, recorder) -> {
+                    long received = recorder.receivedCount();
+                    long previous = lastReceived.getOrDefault(scenario, 0L);
+                    lastReceived.put(scenario, received);
+                    System.out.printf("  %-10s %8.1f/s p99 %s%n", scenario, (received - previous) / 5d, millis(recorder.percentile(0.99)));
+                });
+            }
+            report();
+        } finally {
+            scheduler.shutdownNow();
+            simulatedClients.forEach(SimulatedClient::disconnect);
+            webServer.stop();
+            db.drop();
+        }
+    }
+
+    private void tick(int partition, int partitions) {
+        long current = tick.get();
+        for (SimulatedClient client : simulatedClients) {
+            if (client.index % partitions == partition) {
+                client.tick(current);
+            }
+        }
+    }
+
+    private void formGroups() {
+        for (SimulatedClient leader : simulatedClients) {
+            if (leader.isLeader()) {
+                List<UUID> members = simulatedClients.subList(leader.index + 1, leader.index + groupSize).stream()
+                        .map(member -> member.playerId)
+                        .collect(Collectors.toList());
+                leader.createGroup(members);
+            }
+        }
+    }
+
+    private void report() {
+        System.out.printf("%n%d clients, groups of %d, %dms interval, %ds%n", clients, groupSize, intervalMillis, durationSeconds);
+        System.out.printf("%-10s %10s %10s %10s %10s %10s %10s %10s%n", "scenario", "expected", "delivered", "per sec", "p50", "p99", "p999", "max");
+        recorders.forEach((scenario, recorder) -> System.out.printf("%-10s %10d %10d %10.1f %10s %10s %10s %10s%n",
+                scenario,
+                recorder.sentCount(),
+                recorder.receivedCount(),
+                recorder.receivedCount() / (double) durationSeconds,
+                millis(recorder.percentile(0.5)),
+                millis(recorder.percentile(0.99)),
+                millis(recorder.percentile(0.999)),
+                millis(recorder.percentile(1))));
+    }
+
+    private static String millis(long micros) {
+        return String.format(Locale.ROOT, "%.2fms", micros / 1000d);
+    }
+
+    private void await(String condition, BooleanSupplier supplier) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(60) + TimeUnit.SECONDS.toMillis(clients / rampPerSecond);
+        while (!supplier.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("timed out waiting for " + condition);
+            }
+            Thread.sleep(500);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.collarmc.tools.load;
+
+/**
+ * Traffic a {@link SimulatedClient} generates and measures
+ */
+public enum Scenario {
+    /**
+     * Shares location with a group every 10 ticks
+     */
+    LOCATION,
+    /**
+     * Moves in and out of range of the rest of its neighbourhood, forming and breaking nearby groups
+     */
+    NEARBY,
+    /**
+     * Sends encrypted messages to a group
+     */
+    MESSAGING,
+    /**
+     * Adds and removes group waypoints, synchronized over SDHT
+     */
+    WAYPOINTS;
+
+    /**
+     * @return whether the scenario needs the client to be in a group
+     */
+    public boolean needsGroup() {
+        return this != NEARBY;
+    }
+}
@@ -0,0 +1,277 @@
+package com.collarmc.tools.load;
+
+import com.collarmc.api.entities.Entity;
+import com.collarmc.api.entities.EntityType;
+import com.collarmc.api.groups.Group;
+import com.collarmc.api.groups.GroupType;
+import com.collarmc.api.location.Dimension;
+import com.collarmc.api.location.Location;
+import com.collarmc.api.messaging.TextMessage;
+import com.collarmc.api.profiles.Profile;
+import com.collarmc.api.waypoints.Waypoint;
+import com.collarmc.client.Collar;
+import com.collarmc.client.CollarConfiguration;
+import com.collarmc.client.api.groups.events.GroupInvitationEvent;
+import com.collarmc.client.api.groups.events.GroupJoinedEvent;
+import com.collarmc.client.api.location.events.LocationUpdatedEvent;
+import com.collarmc.client.api.location.events.WaypointCreatedEvent;
+import com.collarmc.client.api.messaging.events.GroupMessageReceivedEvent;
+import com.collarmc.client.events.ConfirmClientRegistrationEvent;
+import com.collarmc.client.minecraft.Ticks;
+import com.collarmc.pounce.EventBus;
+import com.collarmc.pounce.Preference;
+import com.collarmc.pounce.Subscribe;
+import com.collarmc.security.mojang.MinecraftSession;
+import com.collarmc.server.Services;
+import com.google.common.io.Files;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A headless {@link Collar} client driven by {@link LoadGenerator}.
+ * Everything it sends carries the {@link System#nanoTime()} it was sent at, so whichever client receives it can
+ * record the end to end latency. Locations carry the number of the move in the x coordinate instead, so the player
+ * appears to move every time it sends, and the receiver looks up when that move was sent in the sending client's
+ * {@link #movedAt} ring.
+ */
+public final class SimulatedClient {
+
+    /** Moves remembered by each client, far more than can be in flight at once **/
+    private static final int MOVES = 1024;
+    /** Clients running in this process by Minecraft player id, so receivers can find when a move was sent **/
+    private static final ConcurrentMap<UUID, SimulatedClient> CLIENTS = new ConcurrentHashMap<>();
+    private static final String PREFIX = "load:";
+    private static final Entity NEIGHBOUR = new Entity(0, EntityType.PLAYER);
+
+    public final int index;
+    public final UUID playerId;
+    private final int groupSize;
+    private final int intervalTicks;
+    private final Map<Scenario, LatencyRecorder> recorders;
+    private final Services services;
+    private final Profile profile;
+    private final Ticks ticks = new Ticks();
+    private final Set<Entity> alone;
+    private final Collar collar;
+    private final AtomicLong nearbySentAt = new AtomicLong();
+    // System.nanoTime() each move was sent at, indexed by move number modulo MOVES
+    private final AtomicLongArray movedAt = new AtomicLongArray(MOVES);
+    private long moves;
+    // Location last received from each player, so heartbeats repeating it are not counted twice
+    private final ConcurrentMap<UUID, Double> lastReceived = new ConcurrentHashMap<>();
+    private volatile Location location = new Location(0d, 64d, 0d, Dimension.OVERWORLD);
+    private volatile boolean running;
+    private volatile boolean nearby;
+    private Waypoint waypoint;
+
+    /**
+     * @param index of the client, clients with the same index / groupSize share a group and a Minecraft server
+     * @param groupSize players in each group
+     * @param intervalTicks ticks between each message, waypoint or nearby change
+     * @param recorders to record latencies to
+     * @param services of the in process server, used to approve this clients device
+     * @param profile the client logs in as
+     * @param collarServer url
+     * @throws IOException if the client could not be configured
+     */
+    public SimulatedClient(int index,
+                           int groupSize,
+                           int intervalTicks,
+                           Map<Scenario, LatencyRecorder> recorders,
+                           Services services,
+                           Profile profile,
+                           String collarServer) throws IOException {
+        this.index = index;
+        this.groupSize = groupSize;
+        this.intervalTicks = intervalTicks;
+        this.recorders = recorders;
+        this.services = services;
+        this.profile = profile;
+        this.playerId = UUID.randomUUID();
+        this.alone = Set.of(new Entity(index + 1, EntityType.PLAYER));
+        MinecraftSession session = MinecraftSession.noJang(playerId, "player" + index, 0, "load-" + neighbourhood() + ".example.com");
+        EventBus eventBus = new EventBus(Runnable::run);
+        eventBus.subscribe(this);
+        CollarConfiguration configuration = new CollarConfiguration.Builder()
+                .withCollarServer(collarServer)
+                .withHomeDirectory(Files.createTempDir())
+                .withSession(() -> session)
+                .withTicks(ticks)
+                .withEventBus(eventBus)
+                .withPlayerLocation(() -> location)
+                .withEntitiesSupplier(() -> nearby ? Set.of(NEIGHBOUR) : alone)
+                .build();
+        this.collar = Collar.create(configuration);
+        CLIENTS.put(playerId, this);
+    }
+
+    public void connect() {
+        collar.connect();
+    }
+
+    public void disconnect() {
+        running = false;
+        collar.disconnect();
+        CLIENTS.remove(playerId, this);
+    }
+
+    public boolean isConnected() {
+        return collar.getState() == Collar.State.CONNECTED;
+    }
+
+    /**
+     * @return whether this client creates the group for its neighbourhood
+     */
+    public boolean isLeader() {
+        return index % groupSize == 0;
+    }
+
+    /**
+     * @return the group this client joined
+     */
+    public Optional<Group> group() {
+        List<Group> groups = collar.groups().groups();
+        return groups.isEmpty() ? Optional.empty() : Optional.of(groups.get(0));
+    }
+
+    /**
+     * Invites the rest of the neighbourhood into a group
+     * @param members minecraft player ids to invite
+     */
+    public void createGroup(List<UUID> members) {
+        collar.groups().create("load-" + neighbourhood(), GroupType.GROUP, members);
+    }
+
+    /**
+     * Start generating traffic
+     * @param scenarios to run
+     */
+    public void start(Set<Scenario> scenarios) {
+        if (scenarios.contains(Scenario.LOCATION)) {
+            group().ifPresent(group -> collar.location().startSharingWith(group));
+        }
+        running = true;
+    }
+
+    /**
+     * Called every Minecraft tick
+     * @param tick number
+     */
+    public void tick(long tick) {
+        if (collar.getState() != Collar.State.CONNECTED) {
+            return;
+        }
+        // Spread the clients out so they do not all send on the same tick
+        boolean due = running && (tick + index) % intervalTicks == 0;
+        if (due && recorders.containsKey(Scenario.LOCATION)) {
+            // Move before ticking so the location publisher sees the move this tick
+            long move = ++moves;
+            movedAt.set((int) (move % MOVES), System.nanoTime());
+            location = new Location((double) move, 64d, 0d, Dimension.OVERWORLD);
+            recorders.get(Scenario.LOCATION).sent(groupSize - 1);
+        }
+        ticks.onTick();
+        if (!due) {
+            return;
+        }
+        if (recorders.containsKey(Scenario.NEARBY)) {
+            nearby = !nearby;
+            if (nearby) {
+                nearbySentAt.set(System.nanoTime());
+                recorders.get(Scenario.NEARBY).sent(1);
+            }
+        }
+        group().ifPresent(group -> {
+            if (recorders.containsKey(Scenario.MESSAGING)) {
+                collar.messaging().sendGroupMessage(group, new TextMessage(stamp()));
+                recorders.get(Scenario.MESSAGING).sent(groupSize - 1);
+            }
+            if (recorders.containsKey(Scenario.WAYPOINTS)) {
+                if (waypoint != null) {
+                    collar.location().removeWaypoint(group, waypoint);
+                }
+                collar.location().addWaypoint(group, stamp(), new Location(0d, 64d, 0d, Dimension.OVERWORLD));
+                recorders.get(Scenario.WAYPOINTS).sent(groupSize - 1);
+            }
+        });
+    }
+
+    @Subscribe(Preference.CALLER)
+    public void onConfirmClientRegistration(ConfirmClientRegistrationEvent event) {
+        services.deviceRegistration.onClientRegistered(profile.toPublic(), event.token);
+    }
+
+    @Subscribe(Preference.CALLER)
+    public void onGroupInvitation(GroupInvitationEvent event) {
+        if (event.invitation.type == GroupType.GROUP) {
+            collar.groups().accept(event.invitation);
+        }
+    }
+
+    @Subscribe(Preference.CALLER)
+    public void onGroupJoined(GroupJoinedEvent event) {
+        if (event.group.type != GroupType.NEARBY) {
+            return;
+        }
+        long sentAt = nearbySentAt.getAndSet(0);
+        if (sentAt != 0) {
+            recorders.get(Scenario.NEARBY).received(sentAt);
+        }
+    }
+
+    @Subscribe(Preference.CALLER)
+    public void onLocationUpdated(LocationUpdatedEvent event) {
+        if (event.player.equals(collar.player()) || event.location == null || event.location.equals(Location.UNKNOWN)) {
+            return;
+        }
+        LatencyRecorder recorder = recorders.get(Scenario.LOCATION);
+        Double previous = lastReceived.put(event.player.identity.id(), event.location.x);
+        SimulatedClient sender = event.player.minecraftPlayer == null ? null : CLIENTS.get(event.player.minecraftPlayer.id);
+        if (recorder != null && sender != null && !event.location.x.equals(previous)) {
+            recorder.received(sender.movedAt.get((int) (event.location.x.longValue() % MOVES)));
+        }
+    }
+
+    @Subscribe(Preference.CALLER)
+    public void onGroupMessageReceived(GroupMessageReceivedEvent event) {
+        if (event.message instanceof TextMessage) {
+            received(Scenario.MESSAGING, ((TextMessage) event.message).content);
+        }
+    }
+
+    @Subscribe(Preference.CALLER)
+    public void onWaypointCreated(WaypointCreatedEvent event) {
+        if (event.waypoint.name.startsWith(PREFIX + index + ":")) {
+            // Our own waypoint, remove it before creating the next one
+            waypoint = event.waypoint;
+            return;
+        }
+        received(Scenario.WAYPOINTS, event.waypoint.name);
+    }
+
+    private void received(Scenario scenario, String stamp) {
+        LatencyRecorder recorder = recorders.get(scenario);
+        if (recorder == null || !stamp.startsWith(PREFIX)) {
+            return;
+        }
+        recorder.received(Long.parseLong(stamp.substring(stamp.lastIndexOf(':') + 1)));
+    }
+
+    private String stamp() {
+        return PREFIX + index + ":" + System.nanoTime();
+    }
+
+    private int neighbourhood() {
+        return index / groupSize;
+    }
+
+}